@@ -0,0 +1,90 @@
+package ru.petrenko_alex.benchmarks;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.petrenko_alex.image_steganography.SteganographyAlgorithm;
+import ru.petrenko_alex.image_steganography.SteganographyAlgorithmFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding throughput of every algorithm.<br>
+ * <p>
+ * Every algorithm is measured on every cover with payloads filling a part of the cover capacity. Run with
+ * <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@State( Scope.Benchmark )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx6g" } )
+public class AlgorithmBenchmark {
+
+    @Param( { "LeastSignificantBit", "KutterJordanBossen" } )
+    public String algorithmName;
+
+    @Param( { "lena", "mandrill", "barbara", "4K", "8K", "24MP" } )
+    public String cover;
+
+    /* Part of the cover capacity filled with the payload */
+    @Param( { "0.01", "0.5", "1.0" } )
+    public double fill;
+
+    private SteganographyAlgorithm algorithm;
+    private BufferedImage image;
+    private BufferedImage encodedImage;
+    private byte[] payload;
+
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+
+        algorithm = SteganographyAlgorithmFactory.getSteganographyAlgorithm( algorithmName );
+        image = Covers.get( cover );
+
+        payload = new byte[ Math.max( 1, ( int ) ( algorithm.capacity( image ) * fill ) ) ];
+        new Random( 1 ).nextBytes( payload );
+
+        encodedImage = algorithm.encode( new ByteArrayInputStream( payload ), image );
+    }
+
+    @Benchmark
+    public BufferedImage encode() throws Exception {
+
+        return algorithm.encode( new ByteArrayInputStream( payload ), image );
+    }
+
+    @Benchmark
+    public int decode() throws Exception {
+
+        return algorithm.decode( encodedImage, NULL_STREAM );
+    }
+
+    /* Stream ignoring the decoded payload */
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+
+        @Override
+        public void write( int b ) {
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) {
+        }
+    };
+}
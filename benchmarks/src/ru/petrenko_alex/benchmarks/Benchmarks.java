@@ -0,0 +1,26 @@
+package ru.petrenko_alex.benchmarks;
+
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run all the benchmarks with the allocation profiler.<br>
+ * <p>
+ * Arguments are a regular expression selecting the benchmarks, all of them are run by default. Working directory must
+ * be the project directory.
+ */
+public class Benchmarks {
+
+    public static void main( String[] args ) throws Exception {
+
+        Options options = new OptionsBuilder()
+                .include( args.length > 0 ? args[ 0 ] : "ru\\.petrenko_alex\\.benchmarks\\..*" )
+                .addProfiler( GCProfiler.class )
+                .build();
+
+        new Runner( options ).run();
+    }
+}
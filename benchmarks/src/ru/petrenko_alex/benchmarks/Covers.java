@@ -0,0 +1,83 @@
+package ru.petrenko_alex.benchmarks;
+
+
+import ru.petrenko_alex.image_steganography.ImageFiles;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Cover images for the benchmarks.<br>
+ * <p>
+ * Covers are either the bundled samples (<code>lena</code>, <code>mandrill</code>, <code>barbara</code>) read from the
+ * <code>samples</code> directory or generated images of the standard sizes (<code>4K</code>, <code>8K</code>,
+ * <code>24MP</code>). Benchmarks are expected to be run from the project directory.
+ */
+final class Covers {
+
+    /* Directory with the bundled sample images */
+    private static final File SAMPLES_DIR = new File( "samples" );
+
+    private Covers() {
+    }
+
+    /**
+     * Get a cover by its name.
+     *
+     * @param name name of a sample or of a generated size
+     *
+     * @return cover image
+     *
+     * @throws IOException thrown if the sample can't be read
+     */
+    static BufferedImage get( String name ) throws IOException {
+
+        switch( name ) {
+
+            case "4K":
+                return generate( 3840, 2160 );
+
+            case "8K":
+                return generate( 7680, 4320 );
+
+            case "24MP":
+                return generate( 6000, 4000 );
+
+            default:
+                return ImageFiles.read( new File( SAMPLES_DIR, name + ".png" ) );
+        }
+    }
+
+    /**
+     * Generate a smooth color image.<br>
+     * <p>
+     * Kutter-Jordan-Bossen relies on neighbouring pixels being alike, so a noise image would not decode. Gradients
+     * with soft waves look like a photo for both algorithms.
+     *
+     * @param width  image width
+     * @param height image height
+     *
+     * @return generated image of <code>TYPE_3BYTE_BGR</code>, the type a PNG photo is read into
+     */
+    private static BufferedImage generate( int width, int height ) {
+
+        BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_3BYTE_BGR );
+        byte[] data = ( ( DataBufferByte ) image.getRaster().getDataBuffer() ).getData();
+
+        for( int y = 0, i = 0; y < height; y++ ) {
+
+            for( int x = 0; x < width; x++, i += 3 ) {
+
+                double wave = Math.sin( x / 97.0 ) * Math.cos( y / 61.0 );
+
+                data[ i ] = ( byte ) ( 128 + 100 * wave );
+                data[ i + 1 ] = ( byte ) ( 255L * y / height );
+                data[ i + 2 ] = ( byte ) ( 255L * x / width );
+            }
+        }
+
+        return image;
+    }
+}
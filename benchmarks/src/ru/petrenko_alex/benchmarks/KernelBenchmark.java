@@ -0,0 +1,132 @@
+package ru.petrenko_alex.benchmarks;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.petrenko_alex.image_steganography.CompressionMode;
+import ru.petrenko_alex.image_steganography.SteganographyAlgorithm;
+import ru.petrenko_alex.image_steganography.SteganographyAlgorithmFactory;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speed of the row kernels against the pixel by pixel processing.<br>
+ * <p>
+ * Every algorithm encodes a payload filling the whole capacity of the cover in place and decodes it back. The same
+ * image goes through the row kernels working right in the raster array and, with the kernels turned off by
+ * {@link SteganographyAlgorithm#withKernels(boolean)}, through <code>getRGB</code> / <code>setRGB</code> pixel by
+ * pixel (and a <code>Color</code> per pixel for KJB) like an image of a type without kernels. The payload is not
+ * compressed, and the in-place encoding leaves the copy of the cover out of the measure.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@State( Scope.Benchmark )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx6g" } )
+public class KernelBenchmark {
+
+    @Param( { "LeastSignificantBit", "KutterJordanBossen" } )
+    public String algorithmName;
+
+    @Param( { "4K", "24MP" } )
+    public String cover;
+
+    /* Type of the image, both have the row kernels */
+    @Param( { "3BYTE_BGR", "INT_RGB" } )
+    public String imageType;
+
+    /* Use the row kernels or process the pixels one by one */
+    @Param( { "true", "false" } )
+    public boolean kernels;
+
+    private SteganographyAlgorithm algorithm;
+    private BufferedImage image;
+    private BufferedImage encodedImage;
+    private byte[] payload;
+
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+
+        algorithm = SteganographyAlgorithmFactory.getSteganographyAlgorithm( algorithmName )
+                .withCompression( CompressionMode.NONE ).withKernels( kernels );
+        image = convert( Covers.get( cover ), getType( imageType ) );
+
+        payload = new byte[ ( int ) algorithm.capacity( image ) ];
+        new Random( 1 ).nextBytes( payload );
+
+        encodedImage = algorithm.encode( new ByteArrayInputStream( payload ), image );
+    }
+
+    @Benchmark
+    public BufferedImage encode() throws Exception {
+
+        algorithm.encodeInPlace( payload, image );
+        return image;
+    }
+
+    @Benchmark
+    public int decode() throws Exception {
+
+        return algorithm.decode( encodedImage, new ByteArrayOutputStream( payload.length ) );
+    }
+
+    /**
+     * Get the image type by its name.
+     *
+     * @param name name of the type without the <code>TYPE_</code> prefix
+     *
+     * @return image type
+     */
+    private static int getType( String name ) {
+
+        switch( name ) {
+
+            case "3BYTE_BGR":
+                return BufferedImage.TYPE_3BYTE_BGR;
+
+            case "INT_RGB":
+                return BufferedImage.TYPE_INT_RGB;
+
+            default:
+                throw new IllegalArgumentException( "Unknown image type: " + name );
+        }
+    }
+
+    /**
+     * Copy the image into an image of the given type.
+     *
+     * @param image image to copy
+     * @param type  type of the copy
+     *
+     * @return copy of the image
+     */
+    private static BufferedImage convert( BufferedImage image, int type ) {
+
+        BufferedImage result = new BufferedImage( image.getWidth(), image.getHeight(), type );
+
+        Graphics2D g = result.createGraphics();
+        g.setComposite( AlphaComposite.Src );
+        g.drawImage( image, 0, 0, null );
+        g.dispose();
+
+        return result;
+    }
+}
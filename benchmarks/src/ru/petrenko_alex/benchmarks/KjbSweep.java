@@ -0,0 +1,168 @@
+package ru.petrenko_alex.benchmarks;
+
+
+import ru.petrenko_alex.image_steganography.ImagesComparisonTools;
+import ru.petrenko_alex.image_steganography.KjbParameters;
+import ru.petrenko_alex.image_steganography.KutterJordanBossen;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Sweep of the Kutter-Jordan-Bossen parameters.<br>
+ * <p>
+ * Every combination of the energies, strides, radii, repeats and parities below is run on every cover: a random
+ * payload filling the whole capacity is encoded and decoded back. A line per combination reports the capacity, the
+ * best encoding and decoding time of a few runs, the PSNR of the encoded image and if the payload is decoded intact.
+ * The times are rough, {@link AlgorithmBenchmark} measures the default parameters precisely.
+ * <p>
+ * Arguments are the names of the covers known to {@link Covers}, the bundled samples by default. Working directory
+ * must be the project directory.
+ */
+public class KjbSweep {
+
+    private static final double[] ENERGIES = { 0.1, 0.25, 0.5 };
+    private static final int[] STRIDES = { 3, 4, 6 };
+    private static final int[] REPEATS = { 3, 5, 9, 15 };
+    private static final int[] PARITIES = { 0, 32, 96 };
+
+    /* Largest radius swept, every one from 1 up to it and less than the stride is taken */
+    private static final int MAX_RADIUS = 3;
+
+    /* Number of timed runs of every encoding and decoding, the best one is reported */
+    private static final int NUM_OF_RUNS = 3;
+
+
+    public static void main( String[] args ) throws Exception {
+
+        String[] covers = args.length > 0 ? args : new String[]{ "lena", "mandrill", "barbara" };
+
+        System.out.println( "cover\tenergy\tstride\tradius\trepeats\tparity\tcapacity\tencode ms\tdecode ms\tPSNR\tok" );
+
+        List< KjbParameters > combinations = listCombinations();
+
+        for( String name : covers ) {
+
+            BufferedImage cover = toColor( Covers.get( name ) );
+
+            for( KjbParameters parameters : combinations ) {
+
+                System.out.println( name + "\t" + run( cover, parameters ) );
+            }
+        }
+    }
+
+    /**
+     * List all the combinations of the swept parameters.<br>
+     * <p>
+     * Combinations with the radius not less than the stride are skipped.
+     *
+     * @return list of parameters
+     */
+    private static List< KjbParameters > listCombinations() {
+
+        List< KjbParameters > combinations = new ArrayList<>();
+
+        for( double energy : ENERGIES ) {
+
+            for( int stride : STRIDES ) {
+
+                for( int radius = 1; radius < stride && radius <= MAX_RADIUS; radius++ ) {
+
+                    for( int repeats : REPEATS ) {
+
+                        for( int parity : PARITIES ) {
+
+                            combinations.add( new KjbParameters( energy, stride, radius, repeats, parity ) );
+                        }
+                    }
+                }
+            }
+        }
+
+        return combinations;
+    }
+
+    /**
+     * Encode and decode a payload filling the whole capacity of the cover.
+     *
+     * @param cover      cover image
+     * @param parameters parameters of the algorithm
+     *
+     * @return report line without the cover name
+     *
+     * @throws Exception thrown if encoding fails
+     */
+    private static String run( BufferedImage cover, KjbParameters parameters ) throws Exception {
+
+        KutterJordanBossen algorithm = new KutterJordanBossen( parameters );
+
+        byte[] payload = new byte[ ( int ) algorithm.capacity( cover ) ];
+        new Random( 1 ).nextBytes( payload );
+
+        BufferedImage encoded = null;
+        long encodeTime = Long.MAX_VALUE;
+
+        for( int i = 0; i < NUM_OF_RUNS; i++ ) {
+
+            long start = System.nanoTime();
+            encoded = algorithm.encode( new ByteArrayInputStream( payload ), cover );
+            encodeTime = Math.min( encodeTime, System.nanoTime() - start );
+        }
+
+        boolean isDecoded = false;
+        long decodeTime = Long.MAX_VALUE;
+
+        for( int i = 0; i < NUM_OF_RUNS; i++ ) {
+
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+
+            try {
+
+                algorithm.decode( encoded, decoded );
+                isDecoded = Arrays.equals( payload, decoded.toByteArray() );
+
+            } catch( Exception e ) {
+
+                isDecoded = false;
+            }
+
+            decodeTime = Math.min( decodeTime, System.nanoTime() - start );
+        }
+
+        double psnr = ImagesComparisonTools.compare( cover, encoded ).getPSNR();
+
+        return String.format( Locale.ROOT, "%.2f\t%d\t%d\t%d\t%d\t%d\t%.2f\t%.2f\t%.2f\t%s",
+                parameters.getEnergy(), parameters.getStride(), parameters.getRadius(), parameters.getRepeats(),
+                parameters.getParity(), payload.length, encodeTime / 1e6, decodeTime / 1e6, psnr, isDecoded );
+    }
+
+    /**
+     * Get a color copy of a grayscale cover.<br>
+     * <p>
+     * The algorithm changes the blue component only, and a grayscale image would lose the change. Color covers are
+     * returned as they are.
+     *
+     * @param image cover image
+     *
+     * @return color cover
+     */
+    private static BufferedImage toColor( BufferedImage image ) {
+
+        if( image.getColorModel().getNumColorComponents() >= 3 ) {
+
+            return image;
+        }
+
+        BufferedImage color = new BufferedImage( image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR );
+        color.getGraphics().drawImage( image, 0, 0, null );
+        return color;
+    }
+}
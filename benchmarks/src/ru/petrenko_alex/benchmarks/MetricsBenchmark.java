@@ -0,0 +1,74 @@
+package ru.petrenko_alex.benchmarks;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.petrenko_alex.image_steganography.ImagesComparisonTools;
+import ru.petrenko_alex.image_steganography.LeastSignificantBit;
+import ru.petrenko_alex.image_steganography.QualityReport;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speed of the image comparison metrics.<br>
+ * <p>
+ * The source cover is compared with the same cover fully encoded by the least significant bit algorithm.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@State( Scope.Benchmark )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx6g" } )
+public class MetricsBenchmark {
+
+    @Param( { "lena", "mandrill", "barbara", "4K", "8K", "24MP" } )
+    public String cover;
+
+    private BufferedImage image;
+    private BufferedImage encodedImage;
+
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+
+        image = Covers.get( cover );
+
+        LeastSignificantBit algorithm = new LeastSignificantBit();
+        byte[] payload = new byte[ ( int ) algorithm.capacity( image ) ];
+        new Random( 1 ).nextBytes( payload );
+
+        encodedImage = algorithm.encode( new ByteArrayInputStream( payload ), image );
+    }
+
+    @Benchmark
+    public QualityReport compare() {
+
+        return ImagesComparisonTools.compare( image, encodedImage );
+    }
+
+    @Benchmark
+    public QualityReport compareWithSSIM() {
+
+        return ImagesComparisonTools.compare( image, encodedImage, true );
+    }
+
+    @Benchmark
+    public double calculatePSNR() {
+
+        return ImagesComparisonTools.calculatePSNR( image, encodedImage );
+    }
+}
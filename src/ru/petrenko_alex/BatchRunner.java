@@ -0,0 +1,578 @@
+package ru.petrenko_alex;
+
+import ru.petrenko_alex.image_steganography.ImageFiles;
+import ru.petrenko_alex.image_steganography.AlgorithmDetector;
+import ru.petrenko_alex.image_steganography.CompressionMode;
+import ru.petrenko_alex.image_steganography.ProgressListener;
+import ru.petrenko_alex.image_steganography.SteganographyAlgorithm;
+import ru.petrenko_alex.image_steganography.SteganographyAlgorithmFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless batch encoding and decoding of many images.<br>
+ * <p>
+ * Usage:
+ * <pre>
+ * BatchRunner encode [--compression=none|fast|best] &lt;algorithm&gt; &lt;input&gt; &lt;output dir&gt; [threads]
+ * BatchRunner decode &lt;algorithm | auto&gt; &lt;input&gt; &lt;output dir&gt; [threads]
+ * </pre>
+ * The input is either a directory or a manifest file.<br>
+ * In a directory every <code>name.png</code> image is taken. For encoding it is paired with the payload
+ * <code>name.bin</code> from the same directory.<br>
+ * A manifest lists one job per line: <code>cover&lt;TAB&gt;payload</code> for encoding or <code>image</code> for
+ * decoding. Relative paths are resolved against the manifest directory, empty lines and lines starting with # are
+ * skipped.
+ * <p>
+ * Encoded images are saved as <code>name[encoded,algorithm].png</code>, decoded payloads as <code>name.bin</code>.
+ * Jobs saving their results into the same file are rejected.
+ * The payloads are held in memory, so they are compressed in the given mode, {@link CompressionMode#BEST} by default.
+ * For decoding the algorithm may be <code>auto</code>: the algorithm of every image is detected by the
+ * {@link AlgorithmDetector}.
+ * <p>
+ * Every job goes through three pipelined stages: reading the files, encoding or decoding and writing the result. The
+ * stages have their own thread pools, and the number of jobs in flight is bounded so only a few images are held in
+ * memory at once. The process exits with the code 1 if any job fails and 2 if the arguments are wrong or two jobs
+ * would save their results into the same file.
+ */
+public class BatchRunner {
+
+    /* Exit code if some jobs failed */
+    private static final int EXIT_FAILURE = 1;
+
+    /* Exit code if the arguments are wrong */
+    private static final int EXIT_USAGE = 2;
+
+    /* Number of threads reading and writing files */
+    private static final int IO_THREADS = 2;
+
+    /* Number of jobs in flight per computing thread */
+    private static final int JOBS_PER_THREAD = 2;
+
+    /* Name of the algorithm to detect the algorithm of every decoded image */
+    private static final String AUTO = "auto";
+
+    /* Option setting the compression mode of the encoded payloads */
+    private static final String COMPRESSION_OPTION = "--compression=";
+
+    private final boolean isEncoding;
+    private final String algorithmName;
+
+    /* Algorithm or null if it is detected for every image */
+    private final SteganographyAlgorithm algorithm;
+    private final File outputDir;
+    private final int numOfThreads;
+
+    private final AtomicInteger numOfSucceeded = new AtomicInteger();
+    private final AtomicInteger numOfFailed = new AtomicInteger();
+    private final AtomicLong numOfPixels = new AtomicLong();
+    private final AtomicLong numOfPayloadBytes = new AtomicLong();
+
+
+    public static void main( String[] args ) {
+
+        System.exit( run( args ) );
+    }
+
+    /**
+     * Run the batch given by the command line arguments.
+     *
+     * @param args command line arguments
+     *
+     * @return exit code of the process: 0 if all the jobs succeeded, {@value #EXIT_FAILURE} if some of them failed and
+     * {@value #EXIT_USAGE} if the arguments are wrong
+     */
+    static int run( String[] args ) {
+
+        /* Taking the options out of the positional arguments */
+        CompressionMode compression = CompressionMode.BEST;
+        List< String > arguments = new ArrayList<>();
+        for( String arg : args ) {
+
+            if( arg.startsWith( COMPRESSION_OPTION ) ) {
+
+                compression = parseCompression( arg.substring( COMPRESSION_OPTION.length() ) );
+
+            } else {
+
+                arguments.add( arg );
+            }
+        }
+
+        if( compression == null || arguments.size() < 4 || arguments.size() > 5
+                || !( arguments.get( 0 ).equals( "encode" ) || arguments.get( 0 ).equals( "decode" ) ) ) {
+
+            printUsage();
+            return EXIT_USAGE;
+        }
+
+        BatchRunner runner;
+        List< Job > jobs;
+        try {
+
+            int numOfThreads = arguments.size() == 5 ? Integer.parseInt( arguments.get( 4 ) )
+                    : Runtime.getRuntime().availableProcessors();
+
+            runner = new BatchRunner( arguments.get( 0 ).equals( "encode" ), arguments.get( 1 ), compression,
+                    new File( arguments.get( 3 ) ), numOfThreads );
+            jobs = runner.listJobs( new File( arguments.get( 2 ) ) );
+
+        } catch( Exception e ) {
+
+            System.err.println( "Ошибка: " + e.getMessage() );
+            printUsage();
+            return EXIT_USAGE;
+        }
+
+        return runner.run( jobs ) ? 0 : EXIT_FAILURE;
+    }
+
+    /**
+     * Make a batch runner.
+     *
+     * @param isEncoding    encode payloads into covers or decode payloads from images
+     * @param algorithmName name of the algorithm
+     * @param compression   mode the encoded payloads are compressed in
+     * @param outputDir     directory to save results into
+     * @param numOfThreads  number of threads encoding or decoding images
+     *
+     * @throws Exception thrown if the algorithm is unknown or the output directory can't be created
+     */
+    BatchRunner( boolean isEncoding, String algorithmName, CompressionMode compression, File outputDir,
+                 int numOfThreads ) throws Exception {
+
+        if( numOfThreads < 1 ) {
+
+            throw new Exception( "Количество потоков должно быть положительным." );
+        }
+
+        if( !outputDir.isDirectory() && !outputDir.mkdirs() ) {
+
+            throw new Exception( "Не удалось создать каталог " + outputDir );
+        }
+
+        this.isEncoding = isEncoding;
+        this.algorithmName = algorithmName;
+        this.algorithm = ( !isEncoding && algorithmName.equals( AUTO ) ) ? null
+                : SteganographyAlgorithmFactory.getSteganographyAlgorithm( algorithmName )
+                .withCompression( compression );
+        this.outputDir = outputDir;
+        this.numOfThreads = numOfThreads;
+    }
+
+    /**
+     * Run all the jobs and print a summary.
+     *
+     * @param jobs jobs to run
+     *
+     * @return true if all the jobs succeeded
+     */
+    boolean run( List< Job > jobs ) {
+
+        ExecutorService readers = Executors.newFixedThreadPool( IO_THREADS );
+        ExecutorService workers = Executors.newFixedThreadPool( numOfThreads );
+        ExecutorService writers = Executors.newFixedThreadPool( IO_THREADS );
+
+        /* Bounding the number of images held in memory */
+        Semaphore inFlight = new Semaphore( numOfThreads * JOBS_PER_THREAD + 2 * IO_THREADS );
+        List< CompletableFuture< Void > > results = new ArrayList<>();
+
+        long startTime = System.nanoTime();
+
+        try {
+
+            for( Job job : jobs ) {
+
+                inFlight.acquireUninterruptibly();
+
+                results.add( CompletableFuture.supplyAsync( () -> read( job ), readers )
+                        .thenApplyAsync( this::process, workers )
+                        .thenAcceptAsync( this::write, writers )
+                        .whenComplete( ( result, error ) -> {
+
+                            inFlight.release();
+                            onJobFinished( job, error );
+                        } ) );
+            }
+
+            CompletableFuture.allOf( results.toArray( new CompletableFuture< ? >[ 0 ] ) )
+                    .exceptionally( error -> null )
+                    .join();
+
+        } finally {
+
+            readers.shutdown();
+            workers.shutdown();
+            writers.shutdown();
+        }
+
+        printSummary( System.nanoTime() - startTime );
+
+        return numOfFailed.get() == 0;
+    }
+
+    /**
+     * Make a list of jobs from a directory or a manifest file.<br>
+     * <p>
+     * The results are named after the images, so images of the same name without extension, such as the images of
+     * two directories or <code>a.png</code> and <code>a.bmp</code>, would overwrite each other's results. Such a list
+     * is rejected before any job is run. The names are compared ignoring case, as some file systems do.
+     *
+     * @param input directory or manifest file
+     *
+     * @return list of jobs
+     *
+     * @throws IOException thrown if the input can't be read or two jobs have the same result file
+     */
+    List< Job > listJobs( File input ) throws IOException {
+
+        List< Job > jobs = input.isDirectory() ? listDirectory( input ) : readManifest( input );
+        Map< String, Job > jobsByResult = new HashMap<>();
+
+        for( Job job : jobs ) {
+
+            String name = getResultFile( job ).getName();
+            Job other = jobsByResult.putIfAbsent( name.toLowerCase( Locale.ROOT ), job );
+
+            if( other != null ) {
+
+                throw new IOException( "Результаты " + other.imageFile + " и " + job.imageFile
+                        + " записываются в один файл " + name );
+            }
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Make a list of jobs from the images of a directory.
+     *
+     * @param input directory
+     *
+     * @return list of jobs
+     *
+     * @throws IOException thrown if the directory can't be read
+     */
+    private List< Job > listDirectory( File input ) throws IOException {
+
+        List< Job > jobs = new ArrayList<>();
+
+        File[] images = input.listFiles( ( dir, name ) -> name.toLowerCase().endsWith( ".png" ) );
+        if( images == null ) {
+
+            throw new IOException( "Не удалось прочитать каталог " + input );
+        }
+        Arrays.sort( images );
+
+        for( File image : images ) {
+
+            File payload = isEncoding ? new File( input, getBaseName( image ) + ".bin" ) : null;
+            jobs.add( new Job( image, payload ) );
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Make a list of jobs from a manifest file.
+     *
+     * @param input manifest file
+     *
+     * @return list of jobs
+     *
+     * @throws IOException thrown if the manifest can't be read or has a wrong line
+     */
+    private List< Job > readManifest( File input ) throws IOException {
+
+        List< Job > jobs = new ArrayList<>();
+
+        File baseDir = input.getAbsoluteFile().getParentFile();
+
+        for( String line : Files.readAllLines( input.toPath(), StandardCharsets.UTF_8 ) ) {
+
+            line = line.trim();
+            if( line.isEmpty() || line.startsWith( "#" ) ) {
+
+                continue;
+            }
+
+            String[] paths = line.split( "\t" );
+            if( isEncoding && paths.length != 2 || !isEncoding && paths.length != 1 ) {
+
+                throw new IOException( "Неверная строка в файле " + input + ": " + line );
+            }
+
+            jobs.add( new Job( resolve( baseDir, paths[ 0 ] ), isEncoding ? resolve( baseDir, paths[ 1 ] ) : null ) );
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Reading stage: load the image and the payload.
+     *
+     * @param job job
+     *
+     * @return job with the loaded data
+     */
+    private Job read( Job job ) {
+
+        try {
+
+            job.image = ImageFiles.read( job.imageFile );
+
+            if( isEncoding ) {
+
+                job.payload = Files.readAllBytes( job.payloadFile.toPath() );
+            }
+
+        } catch( IOException e ) {
+
+            throw new JobException( e );
+        }
+
+        return job;
+    }
+
+    /**
+     * Computing stage: encode the payload into the image or decode it from the image.
+     *
+     * @param job job with the loaded data
+     *
+     * @return job with the result
+     */
+    private Job process( Job job ) {
+
+        try {
+
+            if( isEncoding ) {
+
+                /* The loaded image is not needed anymore, so it is encoded without a copy */
+                algorithm.encodeInPlace( job.payload, job.image );
+
+            } else {
+
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                if( algorithm != null ) {
+
+                    algorithm.decode( job.image, payload );
+
+                } else {
+
+                    AlgorithmDetector.decode( job.image, payload, ProgressListener.NONE );
+                }
+                job.payload = payload.toByteArray();
+            }
+
+        } catch( Exception e ) {
+
+            throw new JobException( e );
+        }
+
+        return job;
+    }
+
+    /**
+     * Writing stage: save the encoded image or the decoded payload.
+     *
+     * @param job job with the result
+     */
+    private void write( Job job ) {
+
+        try {
+
+            if( isEncoding ) {
+
+                ImageFiles.write( job.image, getResultFile( job ) );
+
+            } else {
+
+                Files.write( getResultFile( job ).toPath(), job.payload );
+            }
+
+        } catch( IOException e ) {
+
+            throw new JobException( e );
+        }
+
+        numOfPixels.addAndGet( ( long ) job.image.getWidth() * job.image.getHeight() );
+        numOfPayloadBytes.addAndGet( job.payload.length );
+
+        /* Letting the data go as soon as the job is done */
+        job.image = null;
+        job.payload = null;
+    }
+
+    /**
+     * Get the file the result of the job is saved into.
+     *
+     * @param job job
+     *
+     * @return encoded image or decoded payload file in the output directory
+     */
+    private File getResultFile( Job job ) {
+
+        String baseName = getBaseName( job.imageFile );
+        return new File( outputDir, isEncoding ? baseName + "[encoded," + algorithmName + "].png" : baseName + ".bin" );
+    }
+
+    /**
+     * Count a finished job and report a failure.
+     *
+     * @param job   finished job
+     * @param error error the job failed with or null
+     */
+    private void onJobFinished( Job job, Throwable error ) {
+
+        if( error == null ) {
+
+            numOfSucceeded.incrementAndGet();
+            return;
+        }
+
+        numOfFailed.incrementAndGet();
+        job.image = null;
+        job.payload = null;
+
+        /* Unwrapping the original exception */
+        Throwable cause = error;
+        while( cause.getCause() != null && !( cause instanceof IOException ) ) {
+
+            cause = cause.getCause();
+        }
+
+        System.err.println( "Ошибка: " + job.imageFile + ": " + cause.getMessage() );
+    }
+
+    /**
+     * Print the throughput summary.
+     *
+     * @param elapsedNanos elapsed time in nanoseconds
+     */
+    private void printSummary( long elapsedNanos ) {
+
+        double seconds = Math.max( elapsedNanos / 1e9, 1e-9 );
+        int numOfJobs = numOfSucceeded.get() + numOfFailed.get();
+
+        System.out.println( "********** " + ( isEncoding ? "Кодирование" : "Декодирование" ) + ", " + algorithmName
+                + " **********" );
+        System.out.println( "Успешно: " + numOfSucceeded.get() + " из " + numOfJobs
+                + ", ошибок: " + numOfFailed.get() );
+        System.out.println( String.format( "Время: %.2f с", seconds ) );
+        System.out.println( String.format( "Производительность: %.2f изобр./с, %.2f Мпикс./с, %.3f МБ/с",
+                numOfSucceeded.get() / seconds,
+                numOfPixels.get() / 1e6 / seconds,
+                numOfPayloadBytes.get() / 1e6 / seconds ) );
+    }
+
+    /**
+     * Print the usage.
+     */
+    private static void printUsage() {
+
+        System.err.println( "Использование:" );
+        System.err.println( "  BatchRunner encode [--compression=none|fast|best] <алгоритм> <каталог | список> "
+                + "<выходной каталог> [потоков]" );
+        System.err.println( "  BatchRunner decode <алгоритм | auto> <каталог | список> <выходной каталог> [потоков]" );
+        System.err.println( "Алгоритмы: " + SteganographyAlgorithmFactory.getAlgorithmNames() );
+    }
+
+    /**
+     * Parse the compression mode option.
+     *
+     * @param name name of the mode in any case
+     *
+     * @return compression mode or null if the name is unknown
+     */
+    private static CompressionMode parseCompression( String name ) {
+
+        for( CompressionMode mode : CompressionMode.values() ) {
+
+            if( mode.name().equalsIgnoreCase( name ) ) {
+
+                return mode;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Resolve a path from a manifest.
+     *
+     * @param baseDir manifest directory
+     * @param path    absolute path or path relative to the manifest directory
+     *
+     * @return file
+     */
+    private static File resolve( File baseDir, String path ) {
+
+        File file = new File( path );
+        return file.isAbsolute() ? file : new File( baseDir, path );
+    }
+
+    /**
+     * Get a file name without extension.
+     *
+     * @param file file
+     *
+     * @return file name without extension (i.e. file for file.png)
+     */
+    private static String getBaseName( File file ) {
+
+        String name = file.getName();
+        int indexOfDot = name.lastIndexOf( "." );
+        return indexOfDot > 0 ? name.substring( 0, indexOfDot ) : name;
+    }
+
+
+    /**
+     * A single image to encode or decode.<br>
+     * <p>
+     * The data fields are handed over from stage to stage and cleared when the job is done.
+     */
+    static final class Job {
+
+        final File imageFile;
+        final File payloadFile;
+
+        BufferedImage image;
+        byte[] payload;
+
+        Job( File imageFile, File payloadFile ) {
+
+            this.imageFile = imageFile;
+            this.payloadFile = payloadFile;
+        }
+    }
+
+    /**
+     * Unchecked wrapper of the exception a job stage failed with.
+     */
+    private static final class JobException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        JobException( Exception cause ) {
+
+            super( cause.getMessage(), cause );
+        }
+    }
+}
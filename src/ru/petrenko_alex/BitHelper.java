@@ -68,13 +68,25 @@ public class BitHelper {
      */
     public static byte[] getByteArrayLength( byte[] array ) {
 
-        byte[] lenBytes = new byte[ 4 ];
+        return getIntBytes( array.length );
+    }
+
+    /**
+     * Get a big-endian 4 byte representation of the integer number.
+     *
+     * @param integer integer number
+     *
+     * @return 4 bytes of the integer number, the most significant byte first
+     */
+    public static byte[] getIntBytes( int integer ) {
+
+        byte[] bytes = new byte[ 4 ];
 
-        lenBytes[ 0 ] = ( byte ) ( ( array.length >>> 24 ) & 0xFF );
-        lenBytes[ 1 ] = ( byte ) ( ( array.length >>> 16 ) & 0xFF );
-        lenBytes[ 2 ] = ( byte ) ( ( array.length >>> 8 ) & 0xFF );
-        lenBytes[ 3 ] = ( byte ) ( array.length & 0xFF );
+        bytes[ 0 ] = ( byte ) ( ( integer >>> 24 ) & 0xFF );
+        bytes[ 1 ] = ( byte ) ( ( integer >>> 16 ) & 0xFF );
+        bytes[ 2 ] = ( byte ) ( ( integer >>> 8 ) & 0xFF );
+        bytes[ 3 ] = ( byte ) ( integer & 0xFF );
 
-        return lenBytes;
+        return bytes;
     }
 }
@@ -2,26 +2,32 @@ package ru.petrenko_alex;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.image.WritableImage;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import ru.petrenko_alex.image_steganography.AlgorithmDetector;
+import ru.petrenko_alex.image_steganography.ImageFiles;
 import ru.petrenko_alex.image_steganography.ImagesComparisonTools;
+import ru.petrenko_alex.image_steganography.QualityReport;
 import ru.petrenko_alex.image_steganography.SteganographyAlgorithm;
 import ru.petrenko_alex.image_steganography.SteganographyAlgorithmFactory;
 
-import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.function.IntToDoubleFunction;
 
 public class Controller {
 
@@ -46,14 +52,21 @@ public class Controller {
     @FXML
     private Button readImageBtn;
 
+    @FXML
+    private Button cancelBtn;
+
+    @FXML
+    private ProgressBar progressBar;
+
     @FXML
     private ComboBox< String > algorithmList;
 
     private Stage _stage;
-    private Image _sourceImage;
+    private BufferedImage _sourceImage;
     private String _sourceImageFileName;
     private String _sourceImagePath;
-    private WritableImage _outputImage;
+    private BufferedImage _outputImage;
+    private Task< ? > _task;
 
 
     /**
@@ -67,7 +80,7 @@ public class Controller {
 
         _stage = primaryStage;
 
-        setButtonsDisabled( true, saveImageBtn, encodeBtn );
+        setButtonsDisabled( true, saveImageBtn, encodeBtn, cancelBtn );
         setComboBox();
     }
 
@@ -96,8 +109,20 @@ public class Controller {
             _sourceImageFileName = file.getName();
             _sourceImagePath = getFileDirectory( file );
 
-            _sourceImage = new Image( file.toURI().toString() );
-            sourceImage.setImage( _sourceImage );
+            try {
+
+                _sourceImage = ImageFiles.read( file );
+
+            } catch( IOException e ) {
+
+                _sourceImage = null;
+                setButtonsDisabled( true, encodeBtn );
+                showSimpleMessage( Alert.AlertType.ERROR, "Ошибка", e.getMessage() );
+                return;
+            }
+
+            /* Showing only a preview of the image size */
+            sourceImage.setImage( makePreview( _sourceImage, sourceImage.getFitWidth(), sourceImage.getFitHeight() ) );
 
             setButtonsDisabled( false, encodeBtn );
         }
@@ -126,16 +151,13 @@ public class Controller {
         /* Saving an image */
         if( file != null ) {
 
-            BufferedImage tmpImage = SwingFXUtils.fromFXImage( _outputImage, null );
-
             try {
 
-                String fileExtension = getFileExtension( newFileName );
-                boolean isSuccessful = ImageIO.write( tmpImage, fileExtension, file );
+                ImageFiles.write( _outputImage, file );
 
             } catch( IOException e ) {
 
-                e.printStackTrace();
+                showSimpleMessage( Alert.AlertType.ERROR, "Ошибка", e.getMessage() );
             }
         }
 
@@ -152,40 +174,43 @@ public class Controller {
 
         String algorithmName = algorithmList.getValue();
 
-        if( file != null && algorithmName != null ) {
-
-            Image tmpImage = new Image( file.toURI().toString() );
-            BufferedImage tmpBufferedImage = SwingFXUtils.fromFXImage( tmpImage, null );
+        if( file != null ) {
 
-            /* Getting an object of the class depending on chosen algorithm */
+            /* Getting an object of the class depending on chosen algorithm, it is detected if none is chosen */
             SteganographyAlgorithm algorithm = null;
-            try {
+            if( algorithmName != null ) {
 
-                algorithm = SteganographyAlgorithmFactory.createSteganographyAlgorithm( algorithmName );
+                try {
 
-            } catch( Exception e ) {
+                    algorithm = SteganographyAlgorithmFactory.getSteganographyAlgorithm( algorithmName );
 
-                e.printStackTrace();
-                return;
+                } catch( Exception e ) {
+
+                    showSimpleMessage( Alert.AlertType.ERROR, "Ошибка", e.getMessage() );
+                    return;
+                }
             }
 
-            /* Decoding the text from the image */
-            String text = null;
-            try {
+            /* Decoding the text from the image in background */
+            SteganographyAlgorithm decoder = algorithm;
+            Task< String > task = new Task< String >() {
 
-                text = algorithm.decode( tmpBufferedImage );
+                @Override
+                protected String call() throws Exception {
 
-            } catch( Exception e ) {
+                    BufferedImage image = ImageFiles.read( file );
+                    return ( decoder != null ) ? decoder.decode( image, this::updateProgress )
+                            : AlgorithmDetector.decode( image, this::updateProgress );
+                }
+            };
 
-                showSimpleMessage( Alert.AlertType.ERROR, "Ощибка", e.getMessage() );
-                return;
-            }
-
-            showSimpleMessage( Alert.AlertType.INFORMATION, "Результат чтения", text );
+            task.setOnSucceeded( e -> {
 
-        } else if( file != null && algorithmName == null ) {
+                finishTask();
+                showSimpleMessage( Alert.AlertType.INFORMATION, "Результат чтения", task.getValue() );
+            } );
 
-            showSimpleMessage( Alert.AlertType.WARNING, "Ошибка", "Не задан алгоритм для чтения изображения." );
+            startTask( task );
         }
     }
 
@@ -204,60 +229,39 @@ public class Controller {
         /* If image is loaded and text field isn't empty */
         if( _sourceImage != null && !text.isEmpty() && algorithmName != null ) {
 
-            /* Image to BufferedImage */
-            BufferedImage inputBufferedImage = SwingFXUtils.fromFXImage( _sourceImage, null );
-
             /* Getting an object of the class depending on chosen algorithm */
             SteganographyAlgorithm algorithm = null;
             try {
 
-                algorithm = SteganographyAlgorithmFactory.createSteganographyAlgorithm( algorithmName );
+                algorithm = SteganographyAlgorithmFactory.getSteganographyAlgorithm( algorithmName );
 
             } catch( Exception e ) {
 
-                e.printStackTrace();
+                showSimpleMessage( Alert.AlertType.ERROR, "Ошибка", e.getMessage() );
                 return;
             }
 
-            /* Encoding the text into the image */
-            BufferedImage outputBufferedImage = null;
-            try {
+            /* Encoding the text into the image in background */
+            EncodingTask task = new EncodingTask( algorithm, text, _sourceImage,
+                    outputImage.getFitWidth(), outputImage.getFitHeight() );
 
-                outputBufferedImage = algorithm.encode( text, inputBufferedImage );
+            task.setOnSucceeded( e -> {
 
-            } catch( Exception e ) {
-
-                showSimpleMessage( Alert.AlertType.ERROR, "Ощибка", e.getMessage() );
-                return;
-            }
-
-            /* Showing the result */
-            if( outputBufferedImage != null ) {
+                finishTask();
 
+                /* Showing the result */
                 showSimpleMessage( Alert.AlertType.INFORMATION, "Успешно!", "Текст \"" + text + "\" вставлен в изображение.\n" +
                         "Теперь его можно сохранить." );
 
-                _outputImage = SwingFXUtils.toFXImage( outputBufferedImage, null );
-                outputImage.setImage( _outputImage );
+                _outputImage = task.outputImage;
+                outputImage.setImage( task.getValue() );
 
                 setButtonsDisabled( false, saveImageBtn );
 
-                System.out.println("********** Сравнение исходного изображения с закодированным **********");
-
-                System.out.print("Метрика MSE: ");
-                double mse = ImagesComparisonTools.calculateMSE( inputBufferedImage,outputBufferedImage );
-                System.out.println(mse);
-
-                System.out.print("Метрика RMSE: ");
-                double rmse = ImagesComparisonTools.calculateRMSE( inputBufferedImage,outputBufferedImage );
-                System.out.println(rmse);
+                printQualityReport( task.inputImage, task.outputImage );
+            } );
 
-                System.out.print("Метрика PSNR: ");
-                double psnr = ImagesComparisonTools.calculatePSNR( inputBufferedImage,outputBufferedImage );
-                System.out.println(psnr);
-
-                System.out.println("**********************************************************************");
-            }
+            startTask( task );
 
         } else {
 
@@ -282,6 +286,122 @@ public class Controller {
         }
     }
 
+    /**
+     * On cancel button clicked.<br>
+     * <p>
+     * Cancel the running encoding or decoding.
+     *
+     * @param event action event
+     */
+    public void onCancelBtn( ActionEvent event ) {
+
+        if( _task != null ) {
+
+            _task.cancel();
+        }
+    }
+
+    /**
+     * Run the task in a background thread.<br>
+     * <p>
+     * Show the task progress and disable the buttons until the task is done. Errors are shown in an alert dialog.
+     *
+     * @param task encoding or decoding task
+     */
+    private void startTask( Task< ? > task ) {
+
+        _task = task;
+
+        task.setOnFailed( e -> {
+
+            finishTask();
+            showSimpleMessage( Alert.AlertType.ERROR, "Ощибка", task.getException().getMessage() );
+        } );
+        task.setOnCancelled( e -> finishTask() );
+
+        progressBar.progressProperty().bind( task.progressProperty() );
+        setButtonsDisabled( true, openImageBtn, saveImageBtn, readImageBtn, encodeBtn );
+        setButtonsDisabled( false, cancelBtn );
+
+        startDaemon( task );
+    }
+
+    /**
+     * Restore the controls after the running task is done.
+     */
+    private void finishTask() {
+
+        _task = null;
+
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress( 0 );
+
+        setButtonsDisabled( true, cancelBtn );
+        setButtonsDisabled( false, openImageBtn, readImageBtn );
+        setButtonsDisabled( _sourceImage == null, encodeBtn );
+        setButtonsDisabled( _outputImage == null, saveImageBtn );
+    }
+
+    /**
+     * Compare the source image with the encoded one in background and print the metrics.
+     *
+     * @param inputImage  source image
+     * @param outputImage encoded image
+     */
+    private void printQualityReport( BufferedImage inputImage, BufferedImage outputImage ) {
+
+        Task< QualityReport > task = new Task< QualityReport >() {
+
+            @Override
+            protected QualityReport call() {
+
+                return ImagesComparisonTools.compare( inputImage, outputImage, true );
+            }
+        };
+
+        task.setOnSucceeded( e -> {
+
+            QualityReport report = task.getValue();
+
+            System.out.println( "********** Сравнение исходного изображения с закодированным **********" );
+            System.out.println( "Метрика MSE: " + report.getMSE() + formatBands( report::getMSE ) );
+            System.out.println( "Метрика RMSE: " + report.getRMSE() + formatBands( report::getRMSE ) );
+            System.out.println( "Метрика PSNR: " + report.getPSNR() + formatBands( report::getPSNR ) );
+            System.out.println( "Метрика SSIM: " + report.getSSIM() + formatBands( report::getSSIM ) );
+            System.out.println( "Максимальная ошибка: " + report.getMaxError()
+                    + formatBands( report::getMaxError ) );
+            System.out.println( "**********************************************************************" );
+        } );
+
+        startDaemon( task );
+    }
+
+    /**
+     * Format values of a metric for every color band.
+     *
+     * @param metric metric of a band
+     *
+     * @return values of the metric, i.e. " (R: 0.5, G: 0.4, B: 0.3)"
+     */
+    private String formatBands( IntToDoubleFunction metric ) {
+
+        return " (R: " + metric.applyAsDouble( 0 )
+                + ", G: " + metric.applyAsDouble( 1 )
+                + ", B: " + metric.applyAsDouble( 2 ) + ")";
+    }
+
+    /**
+     * Start the task in a new daemon thread, so it does not keep the application running.
+     *
+     * @param task task to start
+     */
+    private void startDaemon( Task< ? > task ) {
+
+        Thread thread = new Thread( task );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
     /**
      * Set buttons enabled or disabled.<br>
      *
@@ -331,18 +451,6 @@ public class Controller {
         return newFileName.toString();
     }
 
-    /**
-     * Get file extension from a file name.<br>
-     *
-     * @param fileName name of a file with extension (i.e. file.jpg)
-     *
-     * @return file extension (i.e. jpg)
-     */
-    private String getFileExtension( String fileName ) {
-
-        return fileName.substring( fileName.lastIndexOf( "." ) + 1 );
-    }
-
     /**
      * Get absolute path of a directory where file is located.<br>
      *
@@ -360,6 +468,32 @@ public class Controller {
         return stringBuilder.toString();
     }
 
+    /**
+     * Make a preview of the image fitting the given size.<br>
+     * <p>
+     * Only the preview is converted into a JavaFX image, so a big image is never copied as a whole for showing.
+     *
+     * @param image     image
+     * @param maxWidth  maximum width of the preview
+     * @param maxHeight maximum height of the preview
+     *
+     * @return preview of the image
+     */
+    private static WritableImage makePreview( BufferedImage image, double maxWidth, double maxHeight ) {
+
+        double scale = Math.min( 1.0, Math.min( maxWidth / image.getWidth(), maxHeight / image.getHeight() ) );
+        int width = Math.max( 1, ( int ) Math.round( image.getWidth() * scale ) );
+        int height = Math.max( 1, ( int ) Math.round( image.getHeight() * scale ) );
+
+        BufferedImage preview = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+        Graphics2D g = preview.createGraphics();
+        g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+        g.drawImage( image, 0, 0, width, height, null );
+        g.dispose();
+
+        return SwingFXUtils.toFXImage( preview, null );
+    }
+
     /**
      * Clear image widgets
      */
@@ -376,11 +510,51 @@ public class Controller {
 
         ObservableList< String > options = FXCollections.observableArrayList(
 
-                "KutterJordanBossen",
-                "LeastSignificantBit"
+                SteganographyAlgorithmFactory.getAlgorithmNames()
         );
 
         algorithmList.setItems( options );
         //algorithmList.setValue( "LeastSignificantBit" );
     }
+
+    /**
+     * Task encoding the text into the image.<br>
+     * <p>
+     * Makes a preview of the encoded image and keeps the source and the encoded images to compare them after the task
+     * is done.
+     */
+    private static class EncodingTask extends Task< WritableImage > {
+
+        private final SteganographyAlgorithm algorithm;
+        private final String text;
+        private final BufferedImage inputImage;
+        private final double previewWidth, previewHeight;
+
+        private BufferedImage outputImage;
+
+        /**
+         * @param algorithm     algorithm to encode with
+         * @param text          text to encode
+         * @param inputImage    image to encode the text into
+         * @param previewWidth  maximum width of the preview
+         * @param previewHeight maximum height of the preview
+         */
+        private EncodingTask( SteganographyAlgorithm algorithm, String text, BufferedImage inputImage,
+                              double previewWidth, double previewHeight ) {
+
+            this.algorithm = algorithm;
+            this.text = text;
+            this.inputImage = inputImage;
+            this.previewWidth = previewWidth;
+            this.previewHeight = previewHeight;
+        }
+
+        @Override
+        protected WritableImage call() throws Exception {
+
+            outputImage = algorithm.encode( text, inputImage, this::updateProgress );
+
+            return makePreview( outputImage, previewWidth, previewHeight );
+        }
+    }
 }
@@ -2,6 +2,14 @@ package ru.petrenko_alex;
 
 public class Starter {
     public static void main(String[] args) {
+
+        /* Running headless if a batch command is given */
+        if( args.length > 0 && ( args[ 0 ].equals( "encode" ) || args[ 0 ].equals( "decode" ) ) ) {
+
+            BatchRunner.main( args );
+            return;
+        }
+
         Main.main(args);
     }
-}
\ No newline at end of file
+}
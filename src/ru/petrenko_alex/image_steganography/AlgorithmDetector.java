@@ -0,0 +1,141 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Detection of the algorithm an image is encoded with.<br>
+ * <p>
+ * The header probes of all the algorithms registered in the {@link SteganographyAlgorithmFactory} run in parallel on
+ * the same image, which is only read. Of the algorithms finding a payload the one with the highest confidence is
+ * taken, the first registered one of equal ones. Only the chosen algorithm decodes the whole payload. The shared
+ * instances of the algorithms are used, so a payload permuted with a key is detected, but not decoded.<br>
+ * <p>
+ * The legacy formats have no marker, so a clean image may now and then pass for a short legacy text. Such a result
+ * has a confidence of at most {@value PayloadInfo#LEGACY_FACTOR} and never outweighs a container header.
+ */
+public final class AlgorithmDetector {
+
+    private AlgorithmDetector() {
+    }
+
+    /**
+     * Detect the algorithm of the payload the image holds in the common pool.
+     *
+     * @param image encoded image
+     *
+     * @return metadata of the payload or null if the image holds no payload of any algorithm
+     */
+    public static PayloadInfo detect( BufferedImage image ) {
+
+        return detect( image, ForkJoinPool.commonPool() );
+    }
+
+    /**
+     * Detect the algorithm of the payload the image holds.
+     *
+     * @param image encoded image
+     * @param pool  pool to run the probes in
+     *
+     * @return metadata of the payload or null if the image holds no payload of any algorithm
+     */
+    public static PayloadInfo detect( BufferedImage image, ForkJoinPool pool ) {
+
+        List< ForkJoinTask< PayloadInfo > > probes = new ArrayList<>();
+        for( String name : SteganographyAlgorithmFactory.getAlgorithmNames() ) {
+
+            SteganographyAlgorithm algorithm = getAlgorithm( name );
+            probes.add( pool.submit( () -> algorithm.probe( image ) ) );
+        }
+
+        /* The probes are joined in the registration order, so the first of equal ones is kept */
+        PayloadInfo best = null;
+        for( ForkJoinTask< PayloadInfo > probe : probes ) {
+
+            PayloadInfo info = probe.join();
+            if( info != null && ( best == null || info.getConfidence() > best.getConfidence() ) ) {
+
+                best = info;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Decode the text from the image with the detected algorithm.
+     *
+     * @param image    encoded image
+     * @param listener listener of the decoding progress
+     *
+     * @return decoded text
+     *
+     * @throws Exception thrown if the image holds no payload or it can't be decoded
+     */
+    public static String decode( BufferedImage image, ProgressListener listener ) throws Exception {
+
+        return getDetectedAlgorithm( image ).decode( image, listener );
+    }
+
+    /**
+     * Decode the binary payload from the image with the detected algorithm.
+     *
+     * @param image    encoded image
+     * @param payload  stream to write the payload to
+     * @param listener listener of the decoding progress
+     *
+     * @return number of the payload bytes written
+     *
+     * @throws Exception thrown if the image holds no payload or it can't be decoded
+     */
+    public static int decode( BufferedImage image, OutputStream payload, ProgressListener listener )
+            throws Exception {
+
+        return getDetectedAlgorithm( image ).decode( image, payload, listener );
+    }
+
+    /**
+     * Get the algorithm of the payload the image holds.
+     *
+     * @param image encoded image
+     *
+     * @return shared instance of the algorithm
+     *
+     * @throws Exception thrown if the image holds no payload of any algorithm
+     */
+    private static SteganographyAlgorithm getDetectedAlgorithm( BufferedImage image ) throws Exception {
+
+        PayloadInfo info = detect( image );
+        if( info == null ) {
+
+            throw new Exception( "Изображение не содержит данных ни одного из алгоритмов." );
+        }
+
+        return SteganographyAlgorithmFactory.getSteganographyAlgorithm( info.getAlgorithm() );
+    }
+
+    /**
+     * Get the shared instance of a registered algorithm.
+     *
+     * @param name name of the registered algorithm
+     *
+     * @return shared instance of the algorithm
+     */
+    private static SteganographyAlgorithm getAlgorithm( String name ) {
+
+        try {
+
+            return SteganographyAlgorithmFactory.getSteganographyAlgorithm( name );
+
+        } catch( Exception e ) {
+
+            /* The names are taken from the factory itself */
+            throw new IllegalStateException( e );
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Modulation of the blue components of the KJB embedding points.<br>
+ * <p>
+ * A bit is written into a pixel by shifting its blue component up for 1 or down for 0 by the energy times the pixel
+ * brightness <code>0.29890 R + 0.58662 G + 0.11448 B</code>, clamped to 0 - 255. The red and green components stay
+ * as they are and the pixel becomes opaque.
+ * <p>
+ * Points are modulated a row at a time: a run of points lying a stride apart on a row. For
+ * <code>TYPE_3BYTE_BGR</code>, <code>TYPE_INT_RGB</code> and <code>TYPE_INT_ARGB</code> images the run is modulated
+ * in a loop right over the backing array of the raster. Other image types go through <code>getRGB</code> /
+ * <code>setRGB</code> and a <code>Color</code> per pixel, as do all the types if the kernels are turned off. The
+ * arithmetic is the same, so all the ways give identical pixels.
+ */
+abstract class BlueModulator {
+
+    /* Width of the image in pixels */
+    final int width;
+
+
+    private BlueModulator( BufferedImage image ) {
+
+        this.width = image.getWidth();
+    }
+
+    /**
+     * Get the fastest modulator available for the image type.
+     *
+     * @param image   buffered image
+     * @param kernels true to use a row kernel if the image type has one, false to modulate the pixels one by one
+     *
+     * @return modulator of the image pixels
+     */
+    static BlueModulator of( BufferedImage image, boolean kernels ) {
+
+        if( !kernels ) {
+
+            return new Generic( image );
+        }
+
+        byte[] bgr = RasterData.interleavedBgr( image );
+        if( bgr != null ) {
+
+            return new ByteBgr( image, bgr );
+        }
+
+        int[] rgb = RasterData.packedRgb( image );
+        if( rgb != null ) {
+
+            return new IntRgb( image, rgb );
+        }
+
+        return new Generic( image );
+    }
+
+    /**
+     * Write bits into a run of points of a row.
+     *
+     * @param x      coordinate x of the first point
+     * @param y      coordinate y of the row
+     * @param stride distance between the points
+     * @param bits   bits to write, one per point: 0 or 1
+     * @param offset index of the bit of the first point
+     * @param count  number of points
+     * @param energy coefficient - energy of a bit
+     */
+    abstract void modulateRow( int x, int y, int stride, byte[] bits, int offset, int count, double energy );
+
+    /**
+     * Write a bit into a single point.
+     *
+     * @param x      image point coordinate x
+     * @param y      image point coordinate y
+     * @param bit    bit to write
+     * @param energy coefficient - energy of a bit
+     */
+    abstract void modulate( int x, int y, int bit, double energy );
+
+    /**
+     * Get the modulated blue component.
+     *
+     * @param red    red component
+     * @param green  green component
+     * @param blue   blue component
+     * @param bit    bit to write
+     * @param energy coefficient - energy of a bit
+     *
+     * @return modified blue component, 0 - 255
+     */
+    static int modulateBlue( int red, int green, int blue, int bit, double energy ) {
+
+        int pixelBrightness = ( int ) ( 0.29890 * red + 0.58662 * green + 0.11448 * blue );
+
+        /* Variable blue component */
+        int modifiedBlueComponent;
+        if( bit > 0 ) {
+
+            modifiedBlueComponent = ( int ) ( blue + energy * pixelBrightness );
+
+        } else {
+
+            modifiedBlueComponent = ( int ) ( blue - energy * pixelBrightness );
+        }
+
+        if( modifiedBlueComponent > 255 ) {
+
+            modifiedBlueComponent = 255;
+        }
+
+        if( modifiedBlueComponent < 0 ) {
+
+            modifiedBlueComponent = 0;
+        }
+
+        return modifiedBlueComponent;
+    }
+
+
+    /**
+     * Modulation of a <code>TYPE_3BYTE_BGR</code> image through its byte array.
+     */
+    private static final class ByteBgr extends BlueModulator {
+
+        private final byte[] data;
+
+        private ByteBgr( BufferedImage image, byte[] data ) {
+
+            super( image );
+            this.data = data;
+        }
+
+        @Override
+        void modulateRow( int x, int y, int stride, byte[] bits, int offset, int count, double energy ) {
+
+            int step = 3 * stride;
+            int end = offset + count;
+
+            /* Components are stored in B, G, R order */
+            for( int index = 3 * ( y * width + x ), i = offset; i < end; i++, index += step ) {
+
+                data[ index ] = ( byte ) modulateBlue( data[ index + 2 ] & 0xFF, data[ index + 1 ] & 0xFF,
+                        data[ index ] & 0xFF, bits[ i ], energy );
+            }
+        }
+
+        @Override
+        void modulate( int x, int y, int bit, double energy ) {
+
+            int index = 3 * ( y * width + x );
+            data[ index ] = ( byte ) modulateBlue( data[ index + 2 ] & 0xFF, data[ index + 1 ] & 0xFF,
+                    data[ index ] & 0xFF, bit, energy );
+        }
+    }
+
+    /**
+     * Modulation of a <code>TYPE_INT_RGB</code> or <code>TYPE_INT_ARGB</code> image through its integer array.
+     */
+    private static final class IntRgb extends BlueModulator {
+
+        private final int[] data;
+
+        private IntRgb( BufferedImage image, int[] data ) {
+
+            super( image );
+            this.data = data;
+        }
+
+        @Override
+        void modulateRow( int x, int y, int stride, byte[] bits, int offset, int count, double energy ) {
+
+            int end = offset + count;
+
+            for( int index = y * width + x, i = offset; i < end; i++, index += stride ) {
+
+                data[ index ] = modulatePacked( data[ index ], bits[ i ], energy );
+            }
+        }
+
+        @Override
+        void modulate( int x, int y, int bit, double energy ) {
+
+            int index = y * width + x;
+            data[ index ] = modulatePacked( data[ index ], bit, energy );
+        }
+
+        /**
+         * Modulate a packed pixel.
+         *
+         * @param argb   packed pixel
+         * @param bit    bit to write
+         * @param energy coefficient - energy of a bit
+         *
+         * @return modified opaque pixel
+         */
+        private static int modulatePacked( int argb, int bit, double energy ) {
+
+            int blue = modulateBlue( ( argb >>> 16 ) & 0xFF, ( argb >>> 8 ) & 0xFF, argb & 0xFF, bit, energy );
+            return 0xFF000000 | ( argb & 0xFFFF00 ) | blue;
+        }
+    }
+
+    /**
+     * Modulation of an image of any type through <code>getRGB</code> / <code>setRGB</code>.
+     */
+    private static final class Generic extends BlueModulator {
+
+        private final BufferedImage image;
+
+        private Generic( BufferedImage image ) {
+
+            super( image );
+            this.image = image;
+        }
+
+        @Override
+        void modulateRow( int x, int y, int stride, byte[] bits, int offset, int count, double energy ) {
+
+            for( int i = 0; i < count; i++ ) {
+
+                modulate( x + i * stride, y, bits[ offset + i ], energy );
+            }
+        }
+
+        @Override
+        void modulate( int x, int y, int bit, double energy ) {
+
+            Color pixel = new Color( image.getRGB( x, y ) );
+            int modifiedBlueComponent = modulateBlue( pixel.getRed(), pixel.getGreen(), pixel.getBlue(), bit, energy );
+
+            Color pixelModified = new Color( pixel.getRed(), pixel.getGreen(), modifiedBlueComponent );
+            image.setRGB( x, y, pixelModified.getRGB() );
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assignment of payloads to cover images without trial encodes.<br>
+ * <p>
+ * Every cover holds a single payload. The capacities of the covers are taken from
+ * {@link SteganographyAlgorithm#capacity(int, int, int)}, for files only the image header is read.
+ */
+public final class CapacityPlanner {
+
+    private CapacityPlanner() {
+    }
+
+    /**
+     * Get the capacities of the image files.<br>
+     * <p>
+     * Only the dimensions and the type of the images are read, the pixels are not.
+     *
+     * @param algorithm algorithm the covers are to be encoded with
+     * @param covers    cover image files
+     *
+     * @return number of payload bytes every cover can hold, -1 for a cover too small for any payload
+     *
+     * @throws IOException thrown if a file can't be read or has an unknown format
+     */
+    public static long[] capacities( SteganographyAlgorithm algorithm, File... covers ) throws IOException {
+
+        long[] capacities = new long[ covers.length ];
+
+        for( int i = 0; i < covers.length; i++ ) {
+
+            try( StripReader reader = new StripReader( covers[ i ] ) ) {
+
+                capacities[ i ] = algorithm.capacity( reader.getWidth(), reader.getHeight(), reader.getImageType() );
+            }
+        }
+
+        return capacities;
+    }
+
+    /**
+     * Assign the payloads to the covers.<br>
+     * <p>
+     * Payloads are taken from the smallest one and every payload gets the smallest free cover it fits in. This places
+     * the largest possible number of payloads: if all of them can be placed, all of them are.
+     *
+     * @param payloadSizes sizes of the payloads in bytes
+     * @param capacities   capacities of the covers in bytes
+     *
+     * @return index of the cover for every payload or -1 if the payload doesn't fit in any of the free covers
+     */
+    public static int[] plan( long[] payloadSizes, long[] capacities ) {
+
+        /* Free covers by their capacities */
+        TreeMap< Long, Deque< Integer > > freeCovers = new TreeMap<>();
+        for( int i = 0; i < capacities.length; i++ ) {
+
+            freeCovers.computeIfAbsent( capacities[ i ], capacity -> new ArrayDeque<>() ).addLast( i );
+        }
+
+        Integer[] order = new Integer[ payloadSizes.length ];
+        for( int i = 0; i < order.length; i++ ) {
+
+            order[ i ] = i;
+        }
+        Arrays.sort( order, Comparator.comparingLong( i -> payloadSizes[ i ] ) );
+
+        int[] plan = new int[ payloadSizes.length ];
+        Arrays.fill( plan, -1 );
+
+        for( int payload : order ) {
+
+            Map.Entry< Long, Deque< Integer > > entry = freeCovers.ceilingEntry( payloadSizes[ payload ] );
+            if( entry == null ) {
+
+                /* Larger payloads don't fit either */
+                break;
+            }
+
+            plan[ payload ] = entry.getValue().removeFirst();
+            if( entry.getValue().isEmpty() ) {
+
+                freeCovers.remove( entry.getKey() );
+            }
+        }
+
+        return plan;
+    }
+}
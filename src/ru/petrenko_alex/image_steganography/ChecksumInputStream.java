@@ -0,0 +1,153 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Stream of the stored payload read from the payload stream: every block of the payload is followed by its checksum
+ * as the current version of {@link PayloadHeader} stores it.<br>
+ * <p>
+ * The checksum of a block is computed as the block is read, so the payload is never held in memory. The stream ends
+ * with the checksum of the last block once the payload stream ends or the given number of bytes is read.
+ */
+final class ChecksumInputStream extends InputStream {
+
+    private final InputStream payload;
+
+    /* Payload length in bytes or -1 if the payload goes up to the end of the stream */
+    private final long length;
+
+    /* Number of the payload bytes read and of the bytes of the current block read */
+    private long position;
+    private int blockPosition;
+
+    /* Checksum of the current block, the bytes of the checksum of the last block and the number of them left */
+    private final CRC32 checksum = new CRC32();
+    private byte[] checksumBytes;
+    private int checksumLeft;
+
+    /* True once the payload is read to the end */
+    private boolean ended;
+
+    /* Buffer of a single byte read */
+    private final byte[] oneByte = new byte[ 1 ];
+
+
+    /**
+     * @param payload stream to read the payload from
+     * @param length  payload length in bytes or -1 to read the payload up to the end of the stream
+     */
+    ChecksumInputStream( InputStream payload, long length ) {
+
+        this.payload = payload;
+        this.length = length;
+    }
+
+    /**
+     * Get the number of the payload bytes read so far.
+     *
+     * @return number of bytes without the checksums
+     */
+    long getPayloadLength() {
+
+        return position;
+    }
+
+    /**
+     * Read the next stored byte.
+     *
+     * @return next byte, 0 - 255, or -1 at the end of the stored payload
+     *
+     * @throws IOException thrown if the payload stream can't be read
+     */
+    @Override
+    public int read() throws IOException {
+
+        return ( read( oneByte, 0, 1 ) < 0 ) ? -1 : oneByte[ 0 ] & 0xFF;
+    }
+
+    /**
+     * Read the next stored bytes.<br>
+     * <p>
+     * The payload bytes of a call never cross a block end, and the checksum is returned by the call after the last
+     * byte of its block. If the payload stream ends before the given length, the stored payload ends with the bytes
+     * read.
+     *
+     * @param bytes  array to read the bytes into
+     * @param offset index of the first byte to read into
+     * @param count  maximal number of bytes to read
+     *
+     * @return number of bytes read or -1 at the end of the stored payload
+     *
+     * @throws IOException thrown if the payload stream can't be read
+     */
+    @Override
+    public int read( byte[] bytes, int offset, int count ) throws IOException {
+
+        if( count == 0 ) {
+
+            return 0;
+        }
+
+        if( checksumLeft > 0 ) {
+
+            int done = Math.min( count, checksumLeft );
+            System.arraycopy( checksumBytes, PayloadHeader.CHECKSUM_SIZE - checksumLeft, bytes, offset, done );
+            checksumLeft -= done;
+            return done;
+        }
+
+        if( ended ) {
+
+            return -1;
+        }
+
+        long left = ( length < 0 ) ? Long.MAX_VALUE : length - position;
+        int read = ( left == 0 ) ? -1 : payload.read( bytes, offset,
+                ( int ) Math.min( Math.min( count, PayloadHeader.BLOCK_SIZE - blockPosition ), left ) );
+
+        if( read < 0 ) {
+
+            ended = true;
+
+            /* The stream ended too early */
+            if( length >= 0 && position < length ) {
+
+                return -1;
+            }
+
+            /* The last block is not followed by its checksum yet, an empty payload is a single empty block */
+            if( blockPosition > 0 || position == 0 ) {
+
+                endBlock();
+                return read( bytes, offset, count );
+            }
+
+            return -1;
+        }
+
+        checksum.update( bytes, offset, read );
+        position += read;
+        blockPosition += read;
+
+        if( blockPosition == PayloadHeader.BLOCK_SIZE ) {
+
+            endBlock();
+        }
+
+        return read;
+    }
+
+    /**
+     * Get the checksum of the current block ready to be read and start the next block.
+     */
+    private void endBlock() {
+
+        checksumBytes = PayloadHeader.getChecksumBytes( checksum );
+        checksumLeft = PayloadHeader.CHECKSUM_SIZE;
+        checksum.reset();
+        blockPosition = 0;
+    }
+}
@@ -0,0 +1,142 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Stream the stored payload is written to: the checksums are checked and the payload goes on to the payload
+ * stream.<br>
+ * <p>
+ * A block is held until its checksum is written and checked, so only the checked blocks reach the payload stream. The
+ * legacy formats have no checksums and are passed on unchecked.
+ */
+final class ChecksumOutputStream extends OutputStream {
+
+    private final OutputStream payload;
+    private final PayloadHeader header;
+
+    /* Bytes of the current block held until its checksum is checked */
+    private final byte[] block;
+
+    /* Number of the payload bytes not written yet, the length of the current block and its bytes written */
+    private long payloadLeft;
+    private int blockLength, blockPosition;
+
+    /* Checksum of the current block and its stored bytes written so far */
+    private final CRC32 checksum = new CRC32();
+    private final byte[] checksumBytes = new byte[ PayloadHeader.CHECKSUM_SIZE ];
+    private int numOfChecksumBytes;
+
+    /* True once the last checksum is checked */
+    private boolean checked;
+
+
+    /**
+     * @param header  header of the stored payload
+     * @param payload stream to write the payload to
+     */
+    ChecksumOutputStream( PayloadHeader header, OutputStream payload ) {
+
+        this.payload = payload;
+        this.header = header;
+        this.payloadLeft = header.length;
+        this.blockLength = Math.min( PayloadHeader.BLOCK_SIZE, header.length );
+        this.block = new byte[ blockLength ];
+    }
+
+    /**
+     * Write the next stored byte.
+     *
+     * @param value stored byte
+     *
+     * @throws IOException thrown if a block doesn't match its checksum or the payload stream can't be written
+     */
+    @Override
+    public void write( int value ) throws IOException {
+
+        write( new byte[] { ( byte ) value }, 0, 1 );
+    }
+
+    /**
+     * Write the next stored bytes.
+     *
+     * @param bytes  stored bytes
+     * @param offset index of the first byte to write
+     * @param count  number of bytes to write
+     *
+     * @throws IOException thrown if a block doesn't match its checksum, there are more bytes than the header tells or
+     *                     the payload stream can't be written
+     */
+    @Override
+    public void write( byte[] bytes, int offset, int count ) throws IOException {
+
+        if( header.getChecksumSize() == 0 ) {
+
+            payload.write( bytes, offset, count );
+            return;
+        }
+
+        while( count > 0 ) {
+
+            if( checked ) {
+
+                throw new IOException( "Записано больше данных, чем заявлено в заголовке." );
+            }
+
+            if( blockPosition < blockLength ) {
+
+                int done = Math.min( count, blockLength - blockPosition );
+                checksum.update( bytes, offset, done );
+                System.arraycopy( bytes, offset, block, blockPosition, done );
+
+                blockPosition += done;
+                offset += done;
+                count -= done;
+                continue;
+            }
+
+            checksumBytes[ numOfChecksumBytes++ ] = bytes[ offset++ ];
+            count--;
+
+            if( numOfChecksumBytes == PayloadHeader.CHECKSUM_SIZE ) {
+
+                endBlock();
+            }
+        }
+    }
+
+    /**
+     * Check the current block against its checksum, pass the block on and start the next one.
+     *
+     * @throws IOException thrown if the block doesn't match its checksum or the payload stream can't be written
+     */
+    private void endBlock() throws IOException {
+
+        if( !Arrays.equals( PayloadHeader.getChecksumBytes( checksum ), checksumBytes ) ) {
+
+            throw new IOException( PayloadHeader.CHECKSUM_ERROR );
+        }
+
+        payload.write( block, 0, blockLength );
+        payloadLeft -= blockLength;
+        checked = ( payloadLeft == 0 );
+        blockLength = ( int ) Math.min( PayloadHeader.BLOCK_SIZE, payloadLeft );
+        blockPosition = 0;
+        numOfChecksumBytes = 0;
+        checksum.reset();
+    }
+
+    /**
+     * Flush the payload stream.
+     *
+     * @throws IOException thrown if the payload stream can't be flushed
+     */
+    @Override
+    public void flush() throws IOException {
+
+        payload.flush();
+    }
+}
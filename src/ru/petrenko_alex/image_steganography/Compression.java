@@ -0,0 +1,318 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression stage of the payload container.<br>
+ * <p>
+ * A payload is compressed with the codecs of the {@link CompressionMode} and the shortest result is stored, the
+ * payload is stored as it is if no codec makes it shorter. The codec goes into the header flags, so the decoder needs
+ * no parameters.
+ * <p>
+ * A compressed payload starts with its uncompressed length, {@value #LENGTH_SIZE} bytes big-endian. The decompressed
+ * data is never let grow past it, so a damaged or forged payload can't make the decoder run out of memory.
+ */
+final class Compression {
+
+    /* The payload is stored as it is */
+    static final int NONE = 0;
+
+    /* Raw Deflate stream without the zlib wrapper */
+    static final int DEFLATE = 1;
+
+    /* Fast LZ77 codec, see LzCodec */
+    static final int LZ = 2;
+
+    /* Size of the uncompressed length preceding a compressed payload in bytes */
+    static final int LENGTH_SIZE = 4;
+
+    /*
+     * Payloads up to this size are deflated with the best compression: every byte counts in a small image. Larger
+     * payloads are deflated at the default level which is about ten times faster and only a little worse.
+     */
+    private static final int BEST_COMPRESSION_LIMIT = 1 << 16;
+
+    /* Largest array the virtual machine is sure to allocate */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /*
+     * Largest ratio of the payload length to its compressed length: Deflate codes a match of 258 bytes in 2 bits at
+     * best, the LZ codec spends a byte on every 255 bytes of a match.
+     */
+    private static final int DEFLATE_MAX_RATIO = 258 * 4;
+    private static final int LZ_MAX_RATIO = 255;
+
+    /* Message of the exception thrown if the compressed payload is damaged */
+    private static final String DAMAGED_ERROR = "Сжатые данные повреждены.";
+
+
+    /* Codec the bytes are compressed with */
+    final int codec;
+
+    /* Bytes to store */
+    final byte[] bytes;
+
+    /* The payload is binary data rather than a text */
+    private final boolean binary;
+
+
+    /**
+     * @param codec  codec the bytes are compressed with
+     * @param bytes  bytes to store
+     * @param binary true if the payload is binary data rather than a text
+     */
+    private Compression( int codec, byte[] bytes, boolean binary ) {
+
+        this.codec = codec;
+        this.bytes = bytes;
+        this.binary = binary;
+    }
+
+    /**
+     * Compress the payload with the codec of the mode giving the shortest result.
+     *
+     * @param data   payload
+     * @param mode   codecs to try
+     * @param binary true if the payload is binary data rather than a text
+     *
+     * @return compressed payload or the payload itself if no codec makes it shorter
+     */
+    static Compression compress( byte[] data, CompressionMode mode, boolean binary ) {
+
+        Compression best = new Compression( NONE, data, binary );
+
+        if( mode == CompressionMode.NONE ) {
+
+            return best;
+        }
+
+        byte[] lz = LzCodec.compress( data );
+        if( LENGTH_SIZE + lz.length < best.bytes.length ) {
+
+            best = new Compression( LZ, withLength( data.length, lz ), binary );
+        }
+
+        if( mode == CompressionMode.FAST ) {
+
+            return best;
+        }
+
+        byte[] deflated = deflate( data );
+        if( LENGTH_SIZE + deflated.length < best.bytes.length ) {
+
+            best = new Compression( DEFLATE, withLength( data.length, deflated ), binary );
+        }
+
+        return best;
+    }
+
+    /**
+     * Get the length of the longest payload which may be stored in the given number of bytes.<br>
+     * <p>
+     * No codec of the mode compresses a longer payload short enough, so a payload read into memory can be rejected
+     * as soon as it gets longer, before it is compressed.
+     *
+     * @param maxLength number of bytes to store the payload in
+     * @param mode      codecs to try
+     *
+     * @return length of the longest payload, not less than the number of bytes
+     */
+    static long getMaxPayloadLength( long maxLength, CompressionMode mode ) {
+
+        if( mode == CompressionMode.NONE || maxLength <= LENGTH_SIZE ) {
+
+            return maxLength;
+        }
+
+        int ratio = ( mode == CompressionMode.FAST ) ? LZ_MAX_RATIO : DEFLATE_MAX_RATIO;
+        return Math.max( maxLength, Math.min( ( maxLength - LENGTH_SIZE ) * ratio, MAX_ARRAY_SIZE ) );
+    }
+
+    /**
+     * Decompress the stored payload.
+     *
+     * @param header header of the payload telling the codec
+     * @param data   stored payload
+     *
+     * @return payload
+     *
+     * @throws Exception thrown if the payload is damaged
+     */
+    static byte[] decompress( PayloadHeader header, byte[] data ) throws Exception {
+
+        int codec = header.getCompression();
+        if( codec == NONE ) {
+
+            return data;
+        }
+
+        if( data.length < LENGTH_SIZE ) {
+
+            throw new Exception( DAMAGED_ERROR );
+        }
+
+        int maxLength = ( ( data[ 0 ] & 0xFF ) << 24 ) | ( ( data[ 1 ] & 0xFF ) << 16 )
+                | ( ( data[ 2 ] & 0xFF ) << 8 ) | ( data[ 3 ] & 0xFF );
+
+        if( maxLength < 0 || maxLength > MAX_ARRAY_SIZE ) {
+
+            throw new Exception( DAMAGED_ERROR );
+        }
+
+        byte[] compressed = Arrays.copyOfRange( data, LENGTH_SIZE, data.length );
+        byte[] result;
+
+        switch( codec ) {
+
+            case DEFLATE:
+                result = inflate( compressed, maxLength );
+                break;
+
+            case LZ:
+                result = LzCodec.decompress( compressed, maxLength );
+                break;
+
+            default:
+                throw new Exception( DAMAGED_ERROR );
+        }
+
+        /* The stored length must match exactly */
+        if( result.length != maxLength ) {
+
+            throw new Exception( DAMAGED_ERROR );
+        }
+
+        return result;
+    }
+
+    /**
+     * Check if the codec is known.
+     *
+     * @param codec codec from the header flags
+     *
+     * @return true if the payload can be decompressed
+     */
+    static boolean isKnown( int codec ) {
+
+        return codec == NONE || codec == DEFLATE || codec == LZ;
+    }
+
+    /**
+     * Get the header flags telling the codec and the kind of the payload.
+     *
+     * @return compression flags and {@link PayloadHeader#FLAG_BINARY} for a binary payload
+     */
+    int getFlags() {
+
+        return PayloadHeader.compressionFlags( codec ) | ( binary ? PayloadHeader.FLAG_BINARY : 0 );
+    }
+
+    /**
+     * Put the uncompressed length in front of the compressed data.
+     *
+     * @param length     uncompressed length
+     * @param compressed compressed data
+     *
+     * @return stored payload
+     */
+    private static byte[] withLength( int length, byte[] compressed ) {
+
+        byte[] stored = new byte[ LENGTH_SIZE + compressed.length ];
+
+        stored[ 0 ] = ( byte ) ( length >>> 24 );
+        stored[ 1 ] = ( byte ) ( length >>> 16 );
+        stored[ 2 ] = ( byte ) ( length >>> 8 );
+        stored[ 3 ] = ( byte ) length;
+        System.arraycopy( compressed, 0, stored, LENGTH_SIZE, compressed.length );
+
+        return stored;
+    }
+
+    /**
+     * Compress the data into a raw Deflate stream.
+     *
+     * @param data data to compress
+     *
+     * @return compressed data
+     */
+    private static byte[] deflate( byte[] data ) {
+
+        int level = data.length <= BEST_COMPRESSION_LIMIT ? Deflater.BEST_COMPRESSION : Deflater.DEFAULT_COMPRESSION;
+        Deflater deflater = new Deflater( level, true );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( data.length / 2 + 64 );
+        byte[] buffer = new byte[ SteganographyAlgorithm.STREAM_BUFFER_SIZE ];
+
+        try {
+
+            deflater.setInput( data );
+            deflater.finish();
+
+            while( !deflater.finished() ) {
+
+                out.write( buffer, 0, deflater.deflate( buffer ) );
+            }
+
+        } finally {
+
+            deflater.end();
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompress a raw Deflate stream.
+     *
+     * @param data      compressed data
+     * @param maxLength maximal length of the decompressed data
+     *
+     * @return decompressed data
+     *
+     * @throws Exception thrown if the data is damaged or decompresses to more than the maximal length
+     */
+    private static byte[] inflate( byte[] data, int maxLength ) throws Exception {
+
+        Inflater inflater = new Inflater( true );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( Math.min( Math.max( 64, data.length ), maxLength ) );
+        byte[] buffer = new byte[ SteganographyAlgorithm.STREAM_BUFFER_SIZE ];
+
+        try {
+
+            /* A raw stream needs an extra dummy byte after the data */
+            byte[] input = new byte[ data.length + 1 ];
+            System.arraycopy( data, 0, input, 0, data.length );
+            inflater.setInput( input );
+
+            while( !inflater.finished() ) {
+
+                int count = inflater.inflate( buffer );
+                if( count == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+
+                    throw new Exception( DAMAGED_ERROR );
+                }
+
+                /* Never growing past the maximal length */
+                if( count > maxLength - out.size() ) {
+
+                    throw new Exception( DAMAGED_ERROR );
+                }
+                out.write( buffer, 0, count );
+            }
+
+        } catch( DataFormatException e ) {
+
+            throw new Exception( DAMAGED_ERROR, e );
+
+        } finally {
+
+            inflater.end();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,21 @@
+package ru.petrenko_alex.image_steganography;
+
+
+/**
+ * How hard a payload is compressed before it is encoded.<br>
+ * <p>
+ * The mode only matters for encoding: the codec goes into the header flags, so any image is decoded the same way.
+ *
+ * @see SteganographyAlgorithm#withCompression(CompressionMode)
+ */
+public enum CompressionMode {
+
+    /* The payload is stored as it is */
+    NONE,
+
+    /* Only the fast LZ77 codec is tried */
+    FAST,
+
+    /* Every codec is tried and the shortest result is stored */
+    BEST
+}
@@ -0,0 +1,91 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reading and writing images for the algorithms.<br>
+ * <p>
+ * Images are read right into a <code>BufferedImage</code> the algorithms work with at full speed: <code>TYPE_3BYTE_BGR</code>,
+ * <code>TYPE_INT_RGB</code> or <code>TYPE_INT_ARGB</code>. An 8-bit RGB PNG is decoded right into
+ * <code>TYPE_3BYTE_BGR</code> without any copy. Images of other types are converted once while reading.
+ */
+public final class ImageFiles {
+
+    private ImageFiles() {
+    }
+
+    /**
+     * Read an image from the file.
+     *
+     * @param file image file
+     *
+     * @return image of one of the known types
+     *
+     * @throws IOException thrown if the file can't be read or has an unknown format
+     */
+    public static BufferedImage read( File file ) throws IOException {
+
+        BufferedImage image = ImageIO.read( file );
+
+        if( image == null ) {
+
+            throw new IOException( "Не удалось прочитать изображение " + file );
+        }
+
+        return toKnownType( image );
+    }
+
+    /**
+     * Write the image into the file.<br>
+     * <p>
+     * The format is taken from the file extension.
+     *
+     * @param image image to write
+     * @param file  file to write into
+     *
+     * @throws IOException thrown if the file can't be written or the format is unknown
+     */
+    public static void write( BufferedImage image, File file ) throws IOException {
+
+        String name = file.getName();
+        String format = name.substring( name.lastIndexOf( "." ) + 1 );
+
+        if( !ImageIO.write( image, format, file ) ) {
+
+            throw new IOException( "Неподдерживаемый формат изображения: " + format );
+        }
+    }
+
+    /**
+     * Convert the image to one of the known types if it has another type.
+     *
+     * @param image image
+     *
+     * @return the same image if it has a known type, its copy of <code>TYPE_INT_ARGB</code> or
+     * <code>TYPE_INT_RGB</code> otherwise
+     */
+    public static BufferedImage toKnownType( BufferedImage image ) {
+
+        if( RasterData.interleavedBgr( image ) != null || RasterData.packedRgb( image ) != null ) {
+
+            return image;
+        }
+
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage result = new BufferedImage( image.getWidth(), image.getHeight(), type );
+
+        /* Copying the pixels as they are: blending would lose the colors of transparent pixels */
+        Graphics2D g = result.createGraphics();
+        g.setComposite( AlphaComposite.Src );
+        g.drawImage( image, 0, 0, null );
+        g.dispose();
+
+        return result;
+    }
+}
@@ -2,7 +2,8 @@ package ru.petrenko_alex.image_steganography;
 
 
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class ImagesComparisonTools {
 
@@ -21,63 +22,96 @@ public class ImagesComparisonTools {
     public static final int INSIGNIFICANT = 0;
     public static final int SIGNIFICANT = 1;
 
+    /* Size of the square blocks SSIM is calculated for */
+    public static final int SSIM_BLOCK = 8;
+
+    /* Number of rows compared in a single task, a multiple of SSIM_BLOCK */
+    private static final int ROWS_PER_TASK = 64;
+
+    /* SSIM constants for 8-bit samples: (0.01 * 255)^2 and (0.03 * 255)^2 */
+    private static final double SSIM_C1 = 6.5025;
+    private static final double SSIM_C2 = 58.5225;
+
 
     /**
-     * Calculate the PSNR(peak signal-to-noise ratio) of two images.<br> Images must have the same dimensions and types.
+     * Compare two images calculating all the metrics but SSIM in a single pass.<br> Images must have the same
+     * dimensions.
      *
      * @param im1 first image
      * @param im2 second image
      *
-     * @return PSNR(peak signal-to-noise ratio)
+     * @return metrics of the difference between the images
      */
-    public static double calculatePSNR( BufferedImage im1, BufferedImage im2 ) {
-
-        assert ( im1.getType() == im2.getType()
-                && im1.getHeight() == im2.getHeight()
-                && im1.getWidth() == im2.getWidth() );
-
-        double MSE = calculateMSE( im1, im2 );
+    public static QualityReport compare( BufferedImage im1, BufferedImage im2 ) {
 
-        int maxVal = 255;
-        double x = Math.pow( maxVal, 2 ) / MSE;
-        double PSNR = 10.0 * logbase10( x );
-
-        return PSNR;
+        return compare( im1, im2, false );
     }
 
     /**
-     * Calculate the MSE(mean squared error) of two images.<br> Images must have the same dimensions and types.
+     * Compare two images calculating all the metrics in a single pass.<br> Images must have the same dimensions.
+     * <p>
+     * Rows are split into strips compared in parallel. SSIM is the mean SSIM of {@value #SSIM_BLOCK}x{@value
+     * #SSIM_BLOCK} blocks.
      *
-     * @param im1 first image
-     * @param im2 second image
+     * @param im1      first image
+     * @param im2      second image
+     * @param withSSIM calculate SSIM(structural similarity) or not
      *
-     * @return MSE(mean squared error)
+     * @return metrics of the difference between the images
      */
-    public static double calculateMSE( BufferedImage im1, BufferedImage im2 ) {
+    public static QualityReport compare( BufferedImage im1, BufferedImage im2, boolean withSSIM ) {
 
-        assert ( im1.getType() == im2.getType()
-                && im1.getHeight() == im2.getHeight()
+        assert ( im1.getHeight() == im2.getHeight()
                 && im1.getWidth() == im2.getWidth() );
 
-        double MSE = 0;
-
         int width = im1.getWidth();
         int height = im1.getHeight();
 
-        Raster r1 = im1.getRaster();
-        Raster r2 = im2.getRaster();
+        Stats stats = ForkJoinPool.commonPool().invoke(
+                new CompareTask( new RowReader( im1 ), new RowReader( im2 ), width, withSSIM, 0, height )
+        );
+
+        double numOfPixels = ( double ) width * height;
+        double[] mse = new double[ QualityReport.NUM_OF_BANDS ];
+        double[] ssim = withSSIM ? new double[ QualityReport.NUM_OF_BANDS ] : null;
+
+        for( int band = 0; band < QualityReport.NUM_OF_BANDS; band++ ) {
 
-        for( int j = 0; j < height; j++ ) {
+            mse[ band ] = stats.squaredErrors[ band ] / numOfPixels;
 
-            for( int i = 0; i < width; i++ ) {
+            if( withSSIM ) {
 
-                MSE += Math.pow( r1.getSample( i, j, 0 ) - r2.getSample( i, j, 0 ), 2 );
+                ssim[ band ] = stats.ssim[ band ] / stats.numOfBlocks;
             }
         }
 
-        MSE /= ( double ) ( width * height );
+        return new QualityReport( mse, stats.maxErrors, ssim );
+    }
+
+    /**
+     * Calculate the PSNR(peak signal-to-noise ratio) of two images.<br> Images must have the same dimensions and types.
+     *
+     * @param im1 first image
+     * @param im2 second image
+     *
+     * @return PSNR(peak signal-to-noise ratio)
+     */
+    public static double calculatePSNR( BufferedImage im1, BufferedImage im2 ) {
+
+        return compare( im1, im2 ).getPSNR( 0 );
+    }
+
+    /**
+     * Calculate the MSE(mean squared error) of two images.<br> Images must have the same dimensions and types.
+     *
+     * @param im1 first image
+     * @param im2 second image
+     *
+     * @return MSE(mean squared error)
+     */
+    public static double calculateMSE( BufferedImage im1, BufferedImage im2 ) {
 
-        return MSE;
+        return compare( im1, im2 ).getMSE( 0 );
     }
 
     /**
@@ -90,21 +124,234 @@ public class ImagesComparisonTools {
      */
     public static double calculateRMSE( BufferedImage im1, BufferedImage im2 ) {
 
-        double MSE = calculateMSE( im1, im2 );
-        return Math.sqrt( MSE );
+        return compare( im1, im2 ).getRMSE( 0 );
+    }
+
+
+    /**
+     * Reader of image rows as packed RGB pixels.<br>
+     * <p>
+     * Rows of plain <code>TYPE_3BYTE_BGR</code>, <code>TYPE_INT_RGB</code> and <code>TYPE_INT_ARGB</code> images are
+     * taken right from the raster backing array.
+     */
+    private static final class RowReader {
+
+        private final BufferedImage image;
+        private final byte[] bgr;
+        private final int[] rgb;
+
+        /**
+         * @param image buffered image to read
+         */
+        RowReader( BufferedImage image ) {
+
+            this.image = image;
+            this.bgr = RasterData.interleavedBgr( image );
+            this.rgb = ( bgr == null ) ? RasterData.packedRgb( image ) : null;
+        }
+
+        /**
+         * Read a row of pixels.
+         *
+         * @param y   row index
+         * @param row array to put packed RGB pixels into
+         */
+        void read( int y, int[] row ) {
+
+            int width = row.length;
+
+            if( rgb != null ) {
+
+                System.arraycopy( rgb, y * width, row, 0, width );
+
+            } else if( bgr != null ) {
+
+                for( int x = 0, i = 3 * y * width; x < width; x++, i += 3 ) {
 
+                    row[ x ] = ( bgr[ i + 2 ] & 255 ) << 16 | ( bgr[ i + 1 ] & 255 ) << 8 | ( bgr[ i ] & 255 );
+                }
+
+            } else {
+
+                image.getRGB( 0, y, width, 1, row, 0, width );
+            }
+        }
     }
 
     /**
-     * Calculate the base-10 logarithm of the number.
-     *
-     * @param x number to calculate logarithm of
-     *
-     * @return base-10 logarithm of the number
+     * Sums of the metrics over a strip of rows.
      */
-    private static double logbase10( double x ) {
+    private static final class Stats {
+
+        final long[] squaredErrors = new long[ QualityReport.NUM_OF_BANDS ];
+        final int[] maxErrors = new int[ QualityReport.NUM_OF_BANDS ];
+        final double[] ssim = new double[ QualityReport.NUM_OF_BANDS ];
+        long numOfBlocks;
 
-        return Math.log( x ) / Math.log( 10 );
+        /**
+         * Add sums of another strip.
+         *
+         * @param other sums of another strip
+         *
+         * @return this sums
+         */
+        Stats add( Stats other ) {
+
+            for( int band = 0; band < QualityReport.NUM_OF_BANDS; band++ ) {
+
+                squaredErrors[ band ] += other.squaredErrors[ band ];
+                maxErrors[ band ] = Math.max( maxErrors[ band ], other.maxErrors[ band ] );
+                ssim[ band ] += other.ssim[ band ];
+            }
+            numOfBlocks += other.numOfBlocks;
+
+            return this;
+        }
     }
 
+    /**
+     * Task comparing a strip of rows.<br>
+     * <p>
+     * Strips are split at multiples of {@link #SSIM_BLOCK} rows, so no SSIM block is shared by two tasks.
+     */
+    private static final class CompareTask extends RecursiveTask< Stats > {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowReader reader1, reader2;
+        private final int width;
+        private final boolean withSSIM;
+        private final int from, to;
+
+        /**
+         * @param reader1  rows of the first image
+         * @param reader2  rows of the second image
+         * @param width    image width
+         * @param withSSIM calculate SSIM or not
+         * @param from     first row to compare
+         * @param to       row after the last one to compare
+         */
+        CompareTask( RowReader reader1, RowReader reader2, int width, boolean withSSIM, int from, int to ) {
+
+            this.reader1 = reader1;
+            this.reader2 = reader2;
+            this.width = width;
+            this.withSSIM = withSSIM;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Stats compute() {
+
+            if( to - from <= ROWS_PER_TASK ) {
+
+                return compareRows();
+            }
+
+            int middle = from + Math.max( 1, ( to - from ) / ( 2 * ROWS_PER_TASK ) ) * ROWS_PER_TASK;
+            CompareTask first = new CompareTask( reader1, reader2, width, withSSIM, from, middle );
+            CompareTask second = new CompareTask( reader1, reader2, width, withSSIM, middle, to );
+
+            first.fork();
+            return second.compute().add( first.join() );
+        }
+
+        /**
+         * Compare the rows of the strip.
+         *
+         * @return sums of the metrics
+         */
+        private Stats compareRows() {
+
+            Stats stats = new Stats();
+            int[] row1 = new int[ width ];
+            int[] row2 = new int[ width ];
+
+            /* Sums of x, y, x^2, y^2 and x*y of every band of every block in the current row of blocks */
+            int numOfBlocks = ( width + SSIM_BLOCK - 1 ) / SSIM_BLOCK;
+            long[][] sums = withSSIM ? new long[ 5 ][ QualityReport.NUM_OF_BANDS * numOfBlocks ] : null;
+
+            for( int y = from; y < to; y++ ) {
+
+                reader1.read( y, row1 );
+                reader2.read( y, row2 );
+
+                for( int band = 0; band < QualityReport.NUM_OF_BANDS; band++ ) {
+
+                    int shift = 16 - 8 * band;
+                    long squaredError = 0;
+                    int maxError = stats.maxErrors[ band ];
+
+                    for( int x = 0; x < width; x++ ) {
+
+                        int s1 = ( row1[ x ] >> shift ) & 255;
+                        int s2 = ( row2[ x ] >> shift ) & 255;
+                        int diff = s1 - s2;
+
+                        squaredError += diff * diff;
+                        maxError = Math.max( maxError, Math.abs( diff ) );
+
+                        if( withSSIM ) {
+
+                            int block = band * numOfBlocks + x / SSIM_BLOCK;
+                            sums[ 0 ][ block ] += s1;
+                            sums[ 1 ][ block ] += s2;
+                            sums[ 2 ][ block ] += s1 * s1;
+                            sums[ 3 ][ block ] += s2 * s2;
+                            sums[ 4 ][ block ] += s1 * s2;
+                        }
+                    }
+
+                    stats.squaredErrors[ band ] += squaredError;
+                    stats.maxErrors[ band ] = maxError;
+                }
+
+                /* Closing the row of blocks */
+                if( withSSIM && ( ( y + 1 ) % SSIM_BLOCK == 0 || y + 1 == to ) ) {
+
+                    int blockHeight = y % SSIM_BLOCK + 1;
+                    addBlocks( stats, sums, numOfBlocks, blockHeight );
+                }
+            }
+
+            return stats;
+        }
+
+        /**
+         * Add SSIM of the blocks in a row of blocks and reset the block sums.
+         *
+         * @param stats       sums of the metrics to add to
+         * @param sums        sums of the blocks
+         * @param numOfBlocks number of blocks in the row
+         * @param blockHeight height of the blocks
+         */
+        private void addBlocks( Stats stats, long[][] sums, int numOfBlocks, int blockHeight ) {
+
+            for( int band = 0; band < QualityReport.NUM_OF_BANDS; band++ ) {
+
+                for( int b = 0; b < numOfBlocks; b++ ) {
+
+                    int block = band * numOfBlocks + b;
+                    double n = blockHeight * Math.min( SSIM_BLOCK, width - b * SSIM_BLOCK );
+
+                    double mean1 = sums[ 0 ][ block ] / n;
+                    double mean2 = sums[ 1 ][ block ] / n;
+                    double var1 = sums[ 2 ][ block ] / n - mean1 * mean1;
+                    double var2 = sums[ 3 ][ block ] / n - mean2 * mean2;
+                    double cov = sums[ 4 ][ block ] / n - mean1 * mean2;
+
+                    stats.ssim[ band ] += ( ( 2 * mean1 * mean2 + SSIM_C1 ) * ( 2 * cov + SSIM_C2 ) )
+                            / ( ( mean1 * mean1 + mean2 * mean2 + SSIM_C1 ) * ( var1 + var2 + SSIM_C2 ) );
+
+                    for( long[] sum : sums ) {
+
+                        sum[ block ] = 0;
+                    }
+                }
+            }
+
+            stats.numOfBlocks += numOfBlocks;
+        }
+    }
 }
@@ -0,0 +1,247 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.util.Locale;
+
+/**
+ * Parameters of the Kutter-Jordan-Bossen algorithm.<br>
+ * <p>
+ * The parameters trade the robustness for the capacity and the speed:
+ * <ul>
+ * <li>energy - change of the blue component of an embedding point relative to the pixel brightness;</li>
+ * <li>stride - distance in pixels between the neighbouring embedding points along the row and the column;</li>
+ * <li>radius - number of pixels on each side of an embedding point along the row and the column its blue component
+ * is compared with, less than the stride so the neighbourhood holds no other embedding point;</li>
+ * <li>repeats - number of embedding points every payload bit is written into;</li>
+ * <li>parity - number of Reed-Solomon parity bytes of every codeword of 255 bytes, 0 turns the code off.</li>
+ * </ul>
+ * The parameters are written into the image after the container header, so the decoder needs none of them. The
+ * energy is stored in hundredths and is rounded to them. An instance is immutable.
+ */
+public final class KjbParameters {
+
+    public static final double DEFAULT_ENERGY = 0.25;
+    public static final int DEFAULT_STRIDE = 4;
+    public static final int DEFAULT_RADIUS = 3;
+
+    /* Number of repeats of every payload bit by default; an odd number leaves no ties in the vote */
+    public static final int DEFAULT_REPEATS = 5;
+
+    /* Number of parity bytes of every codeword by default: up to 48 damaged bytes of 255 are corrected */
+    public static final int DEFAULT_PARITY = 96;
+
+    /* Limits of the parameters, the ones of the energy are in hundredths */
+    public static final int MAX_REPEATS = 15;
+    public static final int MAX_STRIDE = 32;
+    public static final int MAX_RADIUS = 15;
+    private static final int MIN_ENERGY = 1;
+    private static final int MAX_ENERGY = 255;
+
+    /* Parameters the payload is encoded with by default */
+    public static final KjbParameters DEFAULT = new KjbParameters( DEFAULT_ENERGY, DEFAULT_STRIDE, DEFAULT_RADIUS,
+            DEFAULT_REPEATS, DEFAULT_PARITY );
+
+    /* Number of bytes the parameters take in the image */
+    static final int SIZE = 4;
+
+
+    private final int energy;
+    private final int stride;
+    private final int radius;
+    private final int repeats;
+    private final int parity;
+
+
+    /**
+     * Make the parameters.
+     *
+     * @param energy  change of the blue component relative to the pixel brightness, 0.01 - 2.55
+     * @param stride  distance between the embedding points in pixels, 2 - 32
+     * @param radius  number of the compared pixels on each side of an embedding point, 1 - 15, less than the stride
+     * @param repeats number of repeats of every payload bit, 1 - 15, better odd
+     * @param parity  number of parity bytes of every codeword of 255 bytes, 0 - 254
+     */
+    public KjbParameters( double energy, int stride, int radius, int repeats, int parity ) {
+
+        long hundredths = Math.round( energy * 100 );
+
+        if( hundredths < MIN_ENERGY || hundredths > MAX_ENERGY ) {
+
+            throw new IllegalArgumentException( "Энергия бита должна быть от 0.01 до 2.55: " + energy );
+        }
+
+        if( stride < 2 || stride > MAX_STRIDE ) {
+
+            throw new IllegalArgumentException( "Шаг сетки точек должен быть от 2 до 32: " + stride );
+        }
+
+        if( radius < 1 || radius > MAX_RADIUS || radius >= stride ) {
+
+            throw new IllegalArgumentException( "Радиус окрестности должен быть от 1 до 15 и меньше шага сетки: "
+                    + radius );
+        }
+
+        if( repeats < 1 || repeats > MAX_REPEATS ) {
+
+            throw new IllegalArgumentException( "Число повторов бита должно быть от 1 до 15: " + repeats );
+        }
+
+        if( parity < 0 || parity >= ReedSolomon.CODEWORD_SIZE ) {
+
+            throw new IllegalArgumentException( "Число проверочных байт кодового слова должно быть от 0 до 254: "
+                    + parity );
+        }
+
+        this.energy = ( int ) hundredths;
+        this.stride = stride;
+        this.radius = radius;
+        this.repeats = repeats;
+        this.parity = parity;
+    }
+
+    /**
+     * Parse and validate the parameters read from an image.
+     *
+     * @param bytes  bytes read from the image
+     * @param offset index of the first byte of the parameters
+     *
+     * @return parsed parameters
+     *
+     * @throws Exception thrown if the parameters are damaged
+     */
+    static KjbParameters parse( byte[] bytes, int offset ) throws Exception {
+
+        int packed = bytes[ offset ] & 0xFF;
+
+        try {
+
+            return new KjbParameters( ( bytes[ offset + 3 ] & 0xFF ) / 100.0, bytes[ offset + 2 ] & 0xFF,
+                    packed & 0x0F, packed >>> 4, bytes[ offset + 1 ] & 0xFF );
+
+        } catch( IllegalArgumentException e ) {
+
+            throw new Exception( "Ошибка в процессе декодирования. Убедитесь, что изображение содержит текст." );
+        }
+    }
+
+    /**
+     * Get the parameters as they are written into an image: the repeats and the radius packed into a byte, the
+     * parity, the stride and the energy in hundredths.
+     *
+     * @return parameter bytes
+     */
+    byte[] toBytes() {
+
+        return new byte[]{ ( byte ) ( ( repeats << 4 ) | radius ), ( byte ) parity, ( byte ) stride, ( byte ) energy };
+    }
+
+    /**
+     * Get the same parameters with another parity.
+     *
+     * @param parity number of parity bytes of every codeword
+     *
+     * @return parameters with the given parity
+     */
+    KjbParameters withParity( int parity ) {
+
+        return parity == this.parity ? this : new KjbParameters( getEnergy(), stride, radius, repeats, parity );
+    }
+
+    /**
+     * Get the same parameters with another number of repeats.
+     *
+     * @param repeats number of embedding points every payload bit is written into
+     *
+     * @return parameters with the given number of repeats
+     */
+    KjbParameters withRepeats( int repeats ) {
+
+        return repeats == this.repeats ? this : new KjbParameters( getEnergy(), stride, radius, repeats, parity );
+    }
+
+    /**
+     * Check if the embedding points lie on the grid the header is written on.
+     *
+     * @return true if the stride and the radius are the default ones
+     */
+    boolean hasDefaultGrid() {
+
+        return stride == DEFAULT_STRIDE && radius == DEFAULT_RADIUS;
+    }
+
+    /**
+     * Get the change of the blue component of an embedding point relative to the pixel brightness.
+     *
+     * @return energy, 0.01 - 2.55
+     */
+    public double getEnergy() {
+
+        return energy / 100.0;
+    }
+
+    /**
+     * Get the distance between the neighbouring embedding points.
+     *
+     * @return stride in pixels
+     */
+    public int getStride() {
+
+        return stride;
+    }
+
+    /**
+     * Get the number of pixels on each side of an embedding point compared with it.
+     *
+     * @return radius in pixels
+     */
+    public int getRadius() {
+
+        return radius;
+    }
+
+    /**
+     * Get the number of repeats of every payload bit.
+     *
+     * @return number of repeats
+     */
+    public int getRepeats() {
+
+        return repeats;
+    }
+
+    /**
+     * Get the number of parity bytes of every codeword of 255 bytes.
+     *
+     * @return number of parity bytes, 0 if the payload is stored without the code
+     */
+    public int getParity() {
+
+        return parity;
+    }
+
+    @Override
+    public boolean equals( Object other ) {
+
+        if( !( other instanceof KjbParameters ) ) {
+
+            return false;
+        }
+
+        KjbParameters parameters = ( KjbParameters ) other;
+        return energy == parameters.energy && stride == parameters.stride && radius == parameters.radius
+                && repeats == parameters.repeats && parity == parameters.parity;
+    }
+
+    @Override
+    public int hashCode() {
+
+        return ( ( ( energy * 31 + stride ) * 31 + radius ) * 31 + repeats ) * 31 + parity;
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format( Locale.ROOT, "energy=%.2f stride=%d radius=%d repeats=%d parity=%d",
+                getEnergy(), stride, radius, repeats, parity );
+    }
+}
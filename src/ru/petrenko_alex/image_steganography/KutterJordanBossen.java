@@ -1,323 +1,1861 @@
 package ru.petrenko_alex.image_steganography;
 
 
-import ru.petrenko_alex.BitHelper;
-
-import java.awt.*;
 import java.awt.image.BufferedImage;
-
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Kutter-Jordan-Bossen algorithm.<br>
+ * <p>
+ * The container header and the {@link KjbParameters} go first with the default parameters: on a 4 pixel grid, every
+ * bit repeated {@value #NUM_OF_REPEATS} times, so they are read before anything about the payload is known. The
+ * payload with the checksums of its blocks is coded with the Reed-Solomon code interleaved over the whole image and
+ * every bit of it is repeated a few times only: most errors the repeats miss are corrected by the code, which needs
+ * much less redundancy than repeating every bit {@value #NUM_OF_REPEATS} times. A payload on a grid of another
+ * stride or radius starts below the rows of the head.
+ * <p>
+ * With a key the payload takes the embedding points in a keyed pseudo-random order over all the points left rather
+ * than row by row (see {@link PositionPermutation}). Only an instance with the same key decodes it.
+ * <p>
+ * Instances keep no per-call state: the position of the current embedding point lives in a {@link Cursor} made for
+ * every encode or decode call. A single instance can be shared between threads.
+ */
 public class KutterJordanBossen extends SteganographyAlgorithm {
 
     /*
-     * Every bit is encoded for NUM_OF_REPEATS times
+     * Every bit of the header is encoded for NUM_OF_REPEATS times
      * in order to improve noise stability.
      */
     private final static int NUM_OF_REPEATS = 15;
 
-    /* The current position of an image point which has information being written into it */
-    private int xPos, yPos;
+    /*
+     * Energy of the head followed by the parameters. The head is not protected by the error correcting code and a
+     * single misread bit of it loses the whole payload, so it is written stronger than the payload. The legacy head
+     * is written with the default energy to stay the same.
+     */
+    private final static double HEAD_ENERGY = 0.5;
+
+    /* Number of message bytes in a single tile processed by a parallel task */
+    private final static int BYTES_PER_TILE = 64;
+
+    /* Number of message bytes processed serially between the progress reports */
+    private final static int PROGRESS_STEP = 256;
+
+    /* Number of bytes taken by the message length written before the message in the legacy format */
+    private final static int LENGTH_SIZE = 4;
+
+    /* Parameters of a payload stored just as the header tells, without the parameters after it */
+    private final static KjbParameters PLAIN = new KjbParameters( KjbParameters.DEFAULT_ENERGY,
+            KjbParameters.DEFAULT_STRIDE, KjbParameters.DEFAULT_RADIUS, NUM_OF_REPEATS, 0 );
 
+    /* Pool processing tiles of embedding points in parallel or null if the image is processed serially */
+    private final ForkJoinPool pool;
+
+    /* Parameters the payload is encoded with */
+    private final KjbParameters parameters;
+
+    /* Permute the payload points with the key */
+    private final boolean keyed;
+    private final long key;
+
+
+    /**
+     * Make an algorithm with the default parameters processing the image serially.
+     */
+    public KutterJordanBossen() {
+
+        this( ( ForkJoinPool ) null );
+    }
 
     /**
-     * Encode text into a buffered image using Kutter-Jordan-Bossen algorithm.
+     * Make an algorithm with the default parameters processing the image in parallel.<br>
+     * <p>
+     * The message is split into tiles of {@value #BYTES_PER_TILE} bytes. Every tile owns its own embedding points, so
+     * the tiles are encoded and decoded independently and the result is bit-identical to the serial processing.
      *
-     * @param text   text to encode
-     * @param bitmap buffered image
+     * @param pool pool to run tiles in or null to process the image serially
+     */
+    public KutterJordanBossen( ForkJoinPool pool ) {
+
+        this( KjbParameters.DEFAULT, pool );
+    }
+
+    /**
+     * Make an algorithm with the given error correction processing the image serially.
      *
-     * @return encoded buffered image
+     * @param repeats number of repeats of every payload bit, 1 - 15, better odd
+     * @param parity  number of parity bytes of every codeword of 255 bytes, 0 - 254; 0 turns the code off
+     */
+    public KutterJordanBossen( int repeats, int parity ) {
+
+        this( repeats, parity, null );
+    }
+
+    /**
+     * Make an algorithm with the given error correction and the default embedding.<br>
+     * <p>
+     * With {@value #NUM_OF_REPEATS} repeats and no parity the image is encoded exactly as without the error
+     * correction.
      *
-     * @throws Exception thrown if image is small for the text
+     * @param repeats number of repeats of every payload bit, 1 - 15
+     * @param parity  number of parity bytes of every codeword of 255 bytes, 0 - 254; 0 turns the code off
+     * @param pool    pool to run tiles in or null to process the image serially
      */
-    @Override
-    public BufferedImage encode( String text, BufferedImage bitmap ) throws Exception {
+    public KutterJordanBossen( int repeats, int parity, ForkJoinPool pool ) {
+
+        this( new KjbParameters( KjbParameters.DEFAULT_ENERGY, KjbParameters.DEFAULT_STRIDE,
+                KjbParameters.DEFAULT_RADIUS, repeats, parity ), pool );
+    }
+
+    /**
+     * Make an algorithm with the given parameters processing the image serially.
+     *
+     * @param parameters parameters to encode the payload with
+     */
+    public KutterJordanBossen( KjbParameters parameters ) {
+
+        this( parameters, null );
+    }
+
+    /**
+     * Make an algorithm with the given parameters.<br>
+     * <p>
+     * The parameters are written into the image, so it is decoded by an instance with any parameters.
+     *
+     * @param parameters parameters to encode the payload with
+     * @param pool       pool to run tiles in or null to process the image serially
+     */
+    public KutterJordanBossen( KjbParameters parameters, ForkJoinPool pool ) {
+
+        this( parameters, false, 0, pool );
+    }
+
+    /**
+     * Make an algorithm with the given parameters and the key processing the image serially.
+     *
+     * @param parameters parameters to encode the payload with
+     * @param key        secret key of the point order
+     */
+    public KutterJordanBossen( KjbParameters parameters, long key ) {
+
+        this( parameters, key, null );
+    }
 
-        byte[] message = prepareTextToEncode( text );
+    /**
+     * Make an algorithm with the given parameters writing the payload into the points taken in the order given by the
+     * key.<br>
+     * <p>
+     * The payload is decoded only by an instance with the same key. The tiled mode can't follow the order, so it is
+     * not supported.
+     *
+     * @param parameters parameters to encode the payload with
+     * @param key        secret key of the point order
+     * @param pool       pool to run tiles in or null to process the image serially
+     */
+    public KutterJordanBossen( KjbParameters parameters, long key, ForkJoinPool pool ) {
+
+        this( parameters, true, key, pool );
+    }
+
+    /**
+     * @param parameters parameters to encode the payload with
+     * @param keyed      true to permute the payload points with the key
+     * @param key        secret key of the point order
+     * @param pool       pool to run tiles in or null to process the image serially
+     */
+    private KutterJordanBossen( KjbParameters parameters, boolean keyed, long key, ForkJoinPool pool ) {
 
-        xPos = yPos = 3;
+        if( parameters == null ) {
 
-        /* Creating a result image */
-        BufferedImage result = makeImageCopy( bitmap );
+            throw new IllegalArgumentException( "Не заданы параметры алгоритма." );
+        }
+
+        this.pool = pool;
+        this.parameters = parameters;
+        this.keyed = keyed;
+        this.key = key;
+    }
+
+
+    /**
+     * Encode the prepared text right into a buffered image using Kutter-Jordan-Bossen algorithm.
+     *
+     * @param packed   text bytes as they are stored, compressed or not
+     * @param image    buffered image to modify
+     * @param listener listener of the progress
+     *
+     * @throws Exception thrown if image is small for the text
+     */
+    @Override
+    void encodePacked( Compression packed, BufferedImage image, ProgressListener listener ) throws Exception {
 
+        byte[] msgBytes = packed.bytes;
 
         /* Checking if the image is big enough for the text */
-        if( ( message.length * 8 * NUM_OF_REPEATS )
-                > ( ( bitmap.getWidth() / 4 - 1 ) * ( bitmap.getHeight() / 4 - 1 ) ) ) {
+        if( msgBytes.length > capacity( image ) ) {
 
-            throw new Exception( "Изображение слишком мало для заданного текста." );
+            throw new Exception( CAPACITY_ERROR );
         }
 
+        Layout layout = newLayout( packed.getFlags(), msgBytes.length );
+        byte[] coded = ReedSolomon.encode( PayloadHeader.addChecksums( msgBytes ), layout.parameters.getParity() );
+
         /* Encoding */
-        for( int i = 0; i < message.length; i++ ) {
+        write( image, layout, coded, new Progress( listener, layout.headSize + coded.length ) );
+    }
+
+    /**
+     * Encode the binary payload read from the stream right into a buffered image using Kutter-Jordan-Bossen
+     * algorithm.<br>
+     * <p>
+     * The error correcting code needs the whole payload, so it is read into memory before anything is written. Being
+     * in memory anyway, the payload is compressed like a text. The payload read is bounded by the capacity of the
+     * image, a few kilobytes even for big ones: without compression it can't be longer, with compression it can't be
+     * longer than the best ratio of the codecs allows. A longer stream is rejected once the bound is passed.
+     *
+     * @param payload  stream to read the payload from
+     * @param image    buffered image to modify
+     * @param listener listener of the progress
+     *
+     * @throws Exception thrown if image is small for the payload
+     */
+    @Override
+    public void encodeInPlace( InputStream payload, BufferedImage image, ProgressListener listener )
+            throws Exception {
+
+        /* No payload longer than this can be compressed to fit, so the image is checked as it is read */
+        long maxLength = Compression.getMaxPayloadLength( capacity( image ), getCompression() );
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[ STREAM_BUFFER_SIZE ];
+        int read;
+
+        while( ( read = payload.read( buffer ) ) != -1 ) {
+
+            /* Checking if the image is big enough for the payload read so far */
+            if( bytes.size() + ( long ) read > maxLength ) {
+
+                throw new Exception( CAPACITY_ERROR );
+            }
 
-            writeByte( result, message[ i ] );
+            bytes.write( buffer, 0, read );
         }
 
-        return result;
+        encodeInPlace( bytes.toByteArray(), image, listener );
     }
 
     /**
-     * Decode text from a buffered image using Kutter-Jordan-Bossen algorithm.
+     * Get the number of payload bytes which can be encoded into an image using Kutter-Jordan-Bossen algorithm.<br>
+     * <p>
+     * The head takes {@value #NUM_OF_REPEATS} points of the 4 pixel grid per bit. The coded payload takes the points
+     * of the grid of the parameters left, the repeats of every bit and the parity bytes of its codewords. The checksum
+     * of every block of the payload takes {@value PayloadHeader#CHECKSUM_SIZE} bytes of them.
      *
-     * @param bitmap encoded buffered image
+     * @param width  image width
+     * @param height image height
+     * @param type   image type, one of <code>BufferedImage.TYPE_*</code>
+     *
+     * @return number of payload bytes, -1 if the image is too small even for an empty payload
+     */
+    @Override
+    public long capacity( int width, int height, int type ) {
+
+        Span span = getPayloadSpan( width, getHeadSize(), parameters );
+        long numOfBytes = ( span.grid.getNumOfPoints( height ) - span.firstPoint ) / ( 8 * span.repeats );
+
+        long maxLength = PayloadHeader.getMaxLength( ReedSolomon.getMaxLength( numOfBytes, parameters.getParity() ) );
+        return Math.min( maxLength, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Decode text from a buffered image using Kutter-Jordan-Bossen algorithm.<br>
+     * <p>
+     * Both the container and the legacy format with a bare {@value #LENGTH_SIZE} byte length are recognized. The
+     * container holds the text in UTF-8, the legacy format in the default charset.
+     *
+     * @param bitmap   encoded buffered image
+     * @param listener listener of the progress
      *
      * @return decoded text
      *
      * @throws Exception thrown if data is damaged
      */
     @Override
-    public String decode( BufferedImage bitmap ) throws Exception {
+    public String decode( BufferedImage bitmap, ProgressListener listener ) throws Exception {
+
+        /* Extracting the blue components once for all the embedding points */
+        byte[] blue = RasterData.bluePlane( bitmap );
+        Layout layout = readHead( blue, bitmap.getWidth(), bitmap.getHeight() );
+
+        /* Decoding */
+        byte[] msgBytes = readPayload( blue, bitmap, layout, listener );
+
+        /* Converting byte array to string: the legacy format holds the text in the default charset */
+        if( layout.header.version == PayloadHeader.LEGACY_VERSION ) {
+
+            return new String( msgBytes );
+        }
 
-        xPos = yPos = 3;
+        return new String( msgBytes, StandardCharsets.UTF_8 );
+    }
 
-        /* Getting a length of encoded text */
-        byte lenByte0 = readByte( bitmap );
-        byte lenByte1 = readByte( bitmap );
-        byte lenByte2 = readByte( bitmap );
-        byte lenByte3 = readByte( bitmap );
+    /**
+     * Decode the binary payload from a buffered image into the stream using Kutter-Jordan-Bossen algorithm.<br>
+     * <p>
+     * A payload coded with the error correcting code or compressed is restored in memory before it is written.
+     * Otherwise every block of the payload is checked against its checksum before it is written.
+     *
+     * @param bitmap   encoded buffered image
+     * @param payload  stream to write the payload to
+     * @param listener listener of the progress
+     *
+     * @return number of the payload bytes written
+     *
+     * @throws Exception thrown if data is damaged
+     */
+    @Override
+    public int decode( BufferedImage bitmap, OutputStream payload, ProgressListener listener ) throws Exception {
 
-        /* Converting lenByte into a decimal number */
-        int msgLen = ( ( lenByte0 & 0xff ) << 24 ) |
-                ( ( lenByte1 & 0xff ) << 16 ) |
-                ( ( lenByte2 & 0xff ) << 8 ) |
-                ( lenByte3 & 0xff );
+        /* Extracting the blue components once for all the embedding points */
+        byte[] blue = RasterData.bluePlane( bitmap );
+        Layout layout = readHead( blue, bitmap.getWidth(), bitmap.getHeight() );
 
-        if( ( msgLen <= 0 ) || ( ( msgLen * 8 * NUM_OF_REPEATS )
-                > ( bitmap.getWidth() / 4 - 1 ) * ( bitmap.getHeight() / 4 - 1 ) ) ) {
+        if( layout.parameters.getParity() != 0 || layout.header.getCompression() != Compression.NONE ) {
 
-            throw new Exception( "Ошибка в процессе декодирования. Убедитесь, что изображение содержит текст." );
+            byte[] bytes = readPayload( blue, bitmap, layout, listener );
+            payload.write( bytes );
+            return bytes.length;
         }
 
-        /* Decoding */
-        byte[] msgBytes = new byte[ msgLen ];
-        for( int i1 = 0; i1 < msgLen; i1++ ) {
+        int storedLength = layout.header.getStoredLength();
+        Span span = getPayloadSpan( layout, bitmap );
+        Progress progress = new Progress( listener, storedLength );
+        ChecksumOutputStream checked = new ChecksumOutputStream( layout.header, payload );
+        byte[] buffer = new byte[ STREAM_BUFFER_SIZE ];
 
-            msgBytes[ i1 ] = readByte( bitmap );
+        for( int done = 0; done < storedLength; ) {
+
+            int count = Math.min( buffer.length, storedLength - done );
+            readBytes( blue, buffer, count, span.skip( done ), progress );
+            checked.write( buffer, 0, count );
+            done += count;
         }
 
-        /* Converting byte array to string */
-        String msg = new String( msgBytes );
-        return msg;
+        return layout.header.length;
     }
 
     /**
-     * Prepare text to encode.<br> Make a byte array containing bytes of source text and a length of source text.
+     * Decode a range of the payload bytes using Kutter-Jordan-Bossen algorithm.<br>
+     * <p>
+     * Every payload byte takes a known run of embedding points, so only the head and the points of the range are read.
+     * The blue components are extracted only of the rows these points and their neighbourhoods lie in. With the error
+     * correcting code the whole codewords holding the range are read and corrected. A compressed text is decoded as a
+     * whole. The blocks covering the range are read and checked against their checksums.
+     *
+     * @param bitmap encoded buffered image
+     * @param offset index of the first payload byte to decode, not negative
+     * @param length number of bytes to decode, not negative
      *
-     * @param text source text
+     * @return decoded bytes
      *
-     * @return byte array of a source text and a length of it
+     * @throws Exception thrown if data is damaged or the range goes beyond the end of the payload
      */
     @Override
-    byte[] prepareTextToEncode( String text ) {
+    byte[] decodeRange( BufferedImage bitmap, long offset, int length ) throws Exception {
+
+        Layout layout = readHead( bitmap, bitmap.getHeight() );
+
+        if( layout.header.getCompression() != Compression.NONE ) {
+
+            byte[] bytes = readPayload( RasterData.bluePlane( bitmap ), bitmap, layout, ProgressListener.NONE );
+            return copyRange( bytes, offset, length );
+        }
+
+        checkRange( offset, length, layout.header.length );
 
-         /* Converting text to byte array */
-        byte[] msgBytes = text.getBytes();
+        BlueRows rows = new BlueRows( bitmap );
+        Span span = getPayloadSpan( layout, bitmap );
+        int parity = layout.parameters.getParity();
+        int start = ( int ) layout.header.getRangeStart( offset );
+        int count = ( int ) layout.header.getRangeEnd( offset, length ) - start;
 
-        /* Getting length of a byte array */
-        byte[] lenBytes = BitHelper.getByteArrayLength( msgBytes );
+        if( parity != 0 ) {
+
+            byte[] stored = ReedSolomon.decode( position -> rows.read( span, position ),
+                    layout.header.getStoredLength(), parity, start, count );
+            return layout.header.checkPayloadRange( stored, offset, length );
+        }
 
-        /* Preparing information to insert */
-        byte[] message = new byte[ msgBytes.length + 4 ];
-        System.arraycopy( lenBytes, 0, message, 0, lenBytes.length );
-        System.arraycopy( msgBytes, 0, message, lenBytes.length, msgBytes.length );
+        byte[] stored = new byte[ count ];
+        rows.read( span, start, stored );
 
-        return message;
+        return layout.header.checkPayloadRange( stored, offset, length );
     }
 
     /**
-     * Write a single byte into buffered image.
+     * Read the head of the payload from the top rows of an image.<br>
+     * <p>
+     * The confidence is the average margin of the votes over the head bits: a real head wins nearly all the votes of
+     * its bits, a chance pattern of a clean image wins about half of them.
      *
-     * @param img     buffered image
-     * @param byteVal byte to write
+     * @param head   top rows of the image
+     * @param height height of the whole image
+     *
+     * @return metadata of the payload
+     *
+     * @throws Exception thrown if the image holds no payload
      */
-    private void writeByte( BufferedImage img, byte byteVal ) {
+    @Override
+    PayloadInfo readInfo( BufferedImage head, int height ) throws Exception {
 
-        /* Loop through 8 bits of byteVal byte */
-        for( int j = 7; j >= 0; j-- ) {
+        byte[] blue = getHeadBlue( head );
+        Layout layout = readHead( blue, head.getWidth(), height );
 
-            int bitVal = ( byteVal >>> j ) & 1;
-            writeBit( img, bitVal );
-        }
+        return new PayloadInfo( getClass().getSimpleName(), layout.header,
+                getVoteMargin( blue, layout.getHeadSpan( head.getWidth() ), layout.headSize ) );
     }
 
     /**
-     * Read a single byte from buffered image.
+     * Get the number of the top rows of an image holding the longest head with the neighbourhoods of its points.
      *
-     * @param img buffered image
+     * @param width image width
      *
-     * @return read byte
+     * @return number of rows
      */
-    private byte readByte( BufferedImage img ) {
-
-        byte byteVal = 0;
+    @Override
+    int getHeadRows( int width ) {
 
-        /* Getting a byte from 8 bits */
-        for( int i = 0; i < 8; i++ ) {
+        return Grid.getHeadGrid( width ).getNumOfRows( ( PayloadHeader.SIZE + KjbParameters.SIZE ) * 8
+                * NUM_OF_REPEATS );
+    }
 
-            /* Left shift founded bits and add a bit to the right */
-            byteVal = ( byte ) ( ( byteVal << 1 ) | ( readBit( img ) & 1 ) );
-        }
+    /**
+     * Get the parameters the payload is encoded with.<br>
+     * <p>
+     * A payload shorter than a full codeword gets proportionally less parity.
+     *
+     * @return parameters
+     */
+    public KjbParameters getParameters() {
 
-        return byteVal;
+        return parameters;
     }
 
     /**
-     * Write a single bit into buffered image.
+     * Make an encoder writing the head and the payload strip by strip.<br>
+     * <p>
+     * The payload coded with the error correcting code is read into memory first and compressed like a text, the
+     * checksums of its blocks are coded along with it.
+     *
+     * @param width   image width
+     * @param height  image height
+     * @param type    type of the strips
+     * @param payload stream to read the payload from
+     * @param length  payload length in bytes
+     *
+     * @return strip encoder
      *
-     * @param img buffered image
-     * @param bit bit to write
+     * @throws Exception thrown if image is small for the payload
      */
-    private void writeBit( BufferedImage img, int bit ) {
+    @Override
+    StripEncoder newStripEncoder( int width, int height, int type, InputStream payload, int length )
+            throws Exception {
+
+        if( keyed ) {
+
+            throw new Exception( TILED_KEY_ERROR );
+        }
+
+        long maxLength = capacity( width, height, type );
+
+        /* Without the error correcting code the payload is streamed as it is */
+        if( parameters.getParity() == 0 ) {
+
+            if( length < 0 || length > maxLength ) {
+
+                throw new Exception( CAPACITY_ERROR );
+            }
+
+            Layout layout = newLayout( PayloadHeader.FLAG_BINARY, length );
+            return new KjbStripEncoder( width, layout, payload, length, true, usesKernels() );
+        }
+
+        /* No payload longer than this can be compressed to fit, so the image is checked before it is read */
+        if( length < 0 || length > Compression.getMaxPayloadLength( maxLength, getCompression() ) ) {
 
-        /* Writing a bit for NUM_OF_REPEATS times */
-        for( int i1 = 0; i1 < NUM_OF_REPEATS; i1++ ) {
+            throw new Exception( CAPACITY_ERROR );
+        }
+
+        byte[] bytes = new byte[ length ];
+        for( int done = 0, read; done < length; done += read ) {
 
-            if( xPos + 4 > img.getWidth() ) {
+            read = payload.read( bytes, done, length - done );
+            if( read < 0 ) {
 
-                xPos = 3;
-                yPos += 4;
+                throw new Exception( "Поток закончился раньше заявленной длины данных." );
             }
+        }
+
+        /* The error correcting code needs the whole payload in memory, so it is compressed like a text */
+        Compression packed = compress( bytes, true );
+        if( packed.bytes.length > maxLength ) {
 
-            writeIntoPixel( img, xPos, yPos, bit, 0.25 );
-            xPos += 4;
+            throw new Exception( CAPACITY_ERROR );
         }
+
+        Layout layout = newLayout( packed.getFlags(), packed.bytes.length );
+        byte[] coded = ReedSolomon.encode( PayloadHeader.addChecksums( packed.bytes ),
+                layout.parameters.getParity() );
+        return new KjbStripEncoder( width, layout, new ByteArrayInputStream( coded ), coded.length, false,
+                usesKernels() );
     }
 
     /**
-     * Read a single bit from buffered image.
+     * Make a decoder reading the head and the payload strip by strip.
      *
-     * @param img buffered image
+     * @param width   image width
+     * @param height  image height
+     * @param payload stream to write the payload to
      *
-     * @return read bit
+     * @return strip decoder
+     *
+     * @throws Exception thrown if image is too small to contain a payload
      */
-    private int readBit( BufferedImage img ) {
+    @Override
+    StripDecoder newStripDecoder( int width, int height, OutputStream payload ) throws Exception {
+
+        if( Grid.getHeadGrid( width ).getNumOfPoints( height ) <= LENGTH_SIZE * 8 * NUM_OF_REPEATS ) {
+
+            throw new Exception( DECODING_ERROR );
+        }
 
+        return new KjbStripDecoder( width, height, payload );
+    }
+
+    /**
+     * Get the number of rows above and below an embedding point needed to decode it.<br>
+     * <p>
+     * The radius of the payload is not known before the head is decoded, so the rows for the largest one are taken.
+     *
+     * @return number of rows
+     */
+    @Override
+    int getStripMargin() {
 
-        /* Probabilistic estimate of an information bit */
-        float bitEstimate = 0;
+        return KjbParameters.MAX_RADIUS;
+    }
 
-        for( int i1 = 0; i1 < NUM_OF_REPEATS; i1++ ) {
+    /**
+     * Check if the payload is stored just as the header tells without the parameters.
+     *
+     * @return true if every payload bit is repeated {@value #NUM_OF_REPEATS} times on the head grid and not coded
+     */
+    private boolean isPlain() {
 
-            if( xPos + 4 > img.getWidth() ) {
+        return parameters.equals( PLAIN );
+    }
 
-                xPos = 3;
-                yPos += 4;
-            }
+    /**
+     * Get the number of bytes of the head written by this instance.
+     *
+     * @return number of bytes of the header and the parameters
+     */
+    private int getHeadSize() {
 
-            bitEstimate += readFromPixel( img, xPos, yPos );
-            xPos += 4;
-        }
-        bitEstimate /= NUM_OF_REPEATS;
+        return PayloadHeader.SIZE + ( isPlain() ? 0 : KjbParameters.SIZE );
+    }
 
+    /**
+     * Make the layout of a payload written by this instance.<br>
+     * <p>
+     * Every bit is written with the configured repeats whatever the payload length, so a short payload touches only
+     * the points it needs. It is made robust by the parity of its shortened codeword, see
+     * {@link ReedSolomon#getParity(long, int)}, which goes into the parameters after the header.
+     *
+     * @param flags  container flags
+     * @param length stored payload length in bytes
+     *
+     * @return layout of the payload
+     */
+    private Layout newLayout( int flags, int length ) {
 
-        /* if more than half of NUM_OF_REPEATS read bits were 1s, so consider 1 was encoded */
-        if( bitEstimate > 0.5 ) {
+        if( keyed ) {
 
-            return 1;
+            flags |= PayloadHeader.FLAG_PERMUTED;
+        }
 
-        } else {
+        if( isPlain() ) {
 
-            return 0;
+            return new Layout( new PayloadHeader( flags, length ), PayloadHeader.SIZE, PLAIN );
         }
+
+        PayloadHeader header = new PayloadHeader( flags | PayloadHeader.FLAG_PARAMETERS, length );
+        int headSize = PayloadHeader.SIZE + KjbParameters.SIZE;
+        KjbParameters coded = parameters.withParity( ReedSolomon.getParity( header.getStoredLength(),
+                parameters.getParity() ) );
+
+        return new Layout( header, headSize, coded );
     }
 
     /**
-     * Write a single bit into a current image point.
+     * Write the head and the coded payload.
      *
-     * @param image  buffered image
-     * @param x      image point coordinate x
-     * @param y      image point coordinate y
-     * @param bit    bit to write
-     * @param energy coefficient - energy of a bit
+     * @param image    buffered image to modify
+     * @param layout   layout of the payload
+     * @param coded    payload coded with the error correcting code
+     * @param progress progress of the call
+     *
+     * @throws Exception thrown if the call is cancelled
+     */
+    private void write( BufferedImage image, Layout layout, byte[] coded, Progress progress ) throws Exception {
+
+        byte[] head = layout.getHead();
+
+        writeBytes( image, head, head.length, layout.getHeadSpan( image.getWidth() ), progress );
+        writeBytes( image, coded, coded.length, getPayloadSpan( layout, image ), progress );
+    }
+
+    /**
+     * Read and validate the head of the encoded message extracting the blue components of the head rows only.
+     *
+     * @param image  encoded buffered image or its top rows, at least {@link #getHeadRows(int)} of them if the image
+     *               has so many
+     * @param height height of the whole image
      *
-     * @return modified blue component of a pixel
+     * @return layout of the message
+     *
+     * @throws Exception thrown if data is damaged
      */
-    private static int writeIntoPixel( BufferedImage image, int x, int y, int bit, double energy ) {
+    private Layout readHead( BufferedImage image, int height ) throws Exception {
 
-        Color pixel = new Color( image.getRGB( x, y ) );
-        int red = pixel.getRed();
-        int green = pixel.getGreen();
-        int blue = pixel.getBlue();
+        return readHead( getHeadBlue( image ), image.getWidth(), height );
+    }
 
-        int pixelBrightness = ( int ) ( 0.29890 * red + 0.58662 * green + 0.11448 * blue );
+    /**
+     * Extract the blue components of the head rows.
+     *
+     * @param image encoded buffered image or its top rows
+     *
+     * @return blue components of the head rows, or of all the rows if the image has less of them
+     */
+    private byte[] getHeadBlue( BufferedImage image ) {
 
-        /* Variable blue component */
-        int modifiedBlueComponent;
-        if( bit > 0 ) {
+        int numOfRows = Math.min( image.getHeight(), getHeadRows( image.getWidth() ) );
 
-            modifiedBlueComponent = ( int ) ( blue + energy * pixelBrightness );
+        byte[] blue = new byte[ image.getWidth() * numOfRows ];
+        RasterData.blueRows( image, blue, 0, numOfRows );
 
-        } else {
+        return blue;
+    }
 
-            modifiedBlueComponent = ( int ) ( blue - energy * pixelBrightness );
-        }
+    /**
+     * Read and validate the head of the encoded message.
+     *
+     * @param blue   blue components of the image pixels, at least of the head rows
+     * @param width  image width
+     * @param height image height
+     *
+     * @return layout of the message
+     *
+     * @throws Exception thrown if data is damaged
+     */
+    private Layout readHead( byte[] blue, int width, int height ) throws Exception {
 
-        if( modifiedBlueComponent > 255 ) {
+        Grid grid = Grid.getHeadGrid( width );
+        long numOfPoints = grid.getNumOfPoints( height );
+        Span span = new Span( grid, 0, NUM_OF_REPEATS, KjbParameters.DEFAULT_ENERGY );
 
-            modifiedBlueComponent = 255;
-        }
+        byte[] head = new byte[ PayloadHeader.SIZE + KjbParameters.SIZE ];
+        Progress progress = new Progress( ProgressListener.NONE, head.length );
+
+        /* The first bytes tell the size of the head */
+        for( int numOfBytes = 0, size; numOfBytes < ( size = getHeadSize( head, numOfBytes ) ); numOfBytes = size ) {
 
-        if( modifiedBlueComponent < 0 ) {
+            if( ( long ) size * 8 * NUM_OF_REPEATS > numOfPoints ) {
 
-            modifiedBlueComponent = 0;
+                throw new Exception( DECODING_ERROR );
+            }
+
+            byte[] bytes = new byte[ size - numOfBytes ];
+            readBytes( blue, bytes, bytes.length, span.skip( numOfBytes ), progress );
+            System.arraycopy( bytes, 0, head, numOfBytes, bytes.length );
         }
 
-        Color pixelModified = new Color( red, green, modifiedBlueComponent );
-        image.setRGB( x, y, pixelModified.getRGB() );
+        return parseHead( head, width, height );
+    }
+
+    /**
+     * Read the whole stored payload, correct the errors, check it against the checksum and decompress it.
+     *
+     * @param blue     blue components of the image pixels
+     * @param image    encoded buffered image
+     * @param layout   layout of the message
+     * @param listener listener of the progress
+     *
+     * @return payload bytes
+     *
+     * @throws Exception thrown if the call is cancelled or the payload is damaged
+     */
+    private byte[] readPayload( byte[] blue, BufferedImage image, Layout layout, ProgressListener listener )
+            throws Exception {
+
+        byte[] coded = new byte[ layout.getCodedLength() ];
+        readBytes( blue, coded, coded.length, getPayloadSpan( layout, image ), new Progress( listener, coded.length ) );
 
-        return modifiedBlueComponent;
+        byte[] bytes = ReedSolomon.decode( coded, layout.header.getStoredLength(), layout.parameters.getParity() );
+        return Compression.decompress( layout.header, layout.header.checkPayload( bytes ) );
     }
 
     /**
-     * Read a single bit from a current image point.
+     * Parse and validate the head of the message: the container header with the parameters or the legacy length.
      *
-     * @param image buffered image
-     * @param x     image point coordinate x
-     * @param y     image point coordinate y
+     * @param head   head bytes
+     * @param width  image width
+     * @param height image height
      *
-     * @return read bit
+     * @return layout of the message
+     *
+     * @throws Exception thrown if data is damaged
      */
-    private int readFromPixel( BufferedImage image, int x, int y ) {
+    private static Layout parseHead( byte[] head, int width, int height ) throws Exception {
 
-        /* Summing up all the blue components of surrounding points */
-        int estimate = 0;
+        if( !PayloadHeader.isContainer( head[ 0 ] ) ) {
 
-        for( int i1 = 1; i1 <= 3; i1++ ) {
+            /* Converting the legacy length bytes into a decimal number */
+            int msgLen = ( ( head[ 0 ] & 0xff ) << 24 ) |
+                    ( ( head[ 1 ] & 0xff ) << 16 ) |
+                    ( ( head[ 2 ] & 0xff ) << 8 ) |
+                    ( head[ 3 ] & 0xff );
 
-            Color pixel = new Color( image.getRGB( x + i1, y ) );
-            estimate += pixel.getBlue();
-        }
+            long numOfPoints = Grid.getHeadGrid( width ).getNumOfPoints( height );
+            if( ( msgLen <= 0 ) || ( msgLen > numOfPoints / ( 8 * NUM_OF_REPEATS ) - LENGTH_SIZE ) ) {
 
-        for( int i1 = 1; i1 <= 3; i1++ ) {
+                throw new Exception( DECODING_ERROR );
+            }
 
-            Color pixel = new Color( image.getRGB( x - i1, y ) );
-            estimate += pixel.getBlue();
+            return new Layout( new PayloadHeader( PayloadHeader.LEGACY_VERSION, 0, msgLen ), LENGTH_SIZE, PLAIN );
         }
 
-        for( int i1 = 1; i1 <= 3; i1++ ) {
+        PayloadHeader header = PayloadHeader.parse( head, Integer.MAX_VALUE );
+        Layout layout = new Layout( header, PayloadHeader.SIZE, PLAIN );
+
+        if( ( header.flags & PayloadHeader.FLAG_PARAMETERS ) != 0 ) {
 
-            Color pixel = new Color( image.getRGB( x, y + i1 ) );
-            estimate += pixel.getBlue();
+            layout = new Layout( header, PayloadHeader.SIZE + KjbParameters.SIZE,
+                    KjbParameters.parse( head, PayloadHeader.SIZE ) );
         }
 
-        for( int i1 = 1; i1 <= 3; i1++ ) {
+        /* Checking that the image holds the whole payload */
+        Span span = layout.getPayloadSpan( width );
+        long codedLength = ReedSolomon.getEncodedLength( header.getStoredLength(), layout.parameters.getParity() );
 
-            Color pixel = new Color( image.getRGB( x, y - i1 ) );
-            estimate += pixel.getBlue();
+        if( span.firstPoint + codedLength * 8 * span.repeats > span.grid.getNumOfPoints( height ) ) {
+
+            throw new Exception( DECODING_ERROR );
         }
 
-        /* Average */
-        estimate /= 12;
+        return layout;
+    }
 
-        Color pixel = new Color( image.getRGB( x, y ) );
-        int blue = pixel.getBlue();
+    /**
+     * Get the number of bytes the head of the message takes.
+     *
+     * @param head       head bytes read so far
+     * @param numOfBytes number of the head bytes read so far
+     *
+     * @return size of the head as far as the bytes read tell, the number of bytes to read before it is known
+     */
+    private static int getHeadSize( byte[] head, int numOfBytes ) {
 
-        if( blue > estimate ) {
+        if( numOfBytes == 0 ) {
 
             return 1;
+        }
 
-        } else {
+        if( !PayloadHeader.isContainer( head[ 0 ] ) ) {
 
-            return 0;
+            return LENGTH_SIZE;
         }
+
+        /* The flags tell if the parameters follow the header */
+        if( numOfBytes == 1 ) {
+
+            return 2;
+        }
+
+        return PayloadHeader.SIZE + ( ( head[ 1 ] & PayloadHeader.FLAG_PARAMETERS ) != 0 ? KjbParameters.SIZE : 0 );
     }
+
+    /**
+     * Get the embedding points of the payload in an image in the order they are taken.
+     *
+     * @param layout layout of the payload
+     * @param image  buffered image
+     *
+     * @return embedding points of the payload, permuted with the key if the header tells so
+     *
+     * @throws Exception thrown if the payload is permuted and this instance has no key
+     */
+    private Span getPayloadSpan( Layout layout, BufferedImage image ) throws Exception {
+
+        Span span = layout.getPayloadSpan( image.getWidth() );
+
+        if( !layout.header.isPermuted() ) {
+
+            return span;
+        }
+
+        if( !keyed ) {
+
+            throw new Exception( KEY_ERROR );
+        }
+
+        return span.permute( key, span.grid.getNumOfPoints( image.getHeight() ) );
+    }
+
+    /**
+     * Get the embedding points the payload is written to.<br>
+     * <p>
+     * On the head grid the payload goes right after the head. A grid of another stride or radius starts below the rows
+     * of the head, so neither the points nor their neighbourhoods overlap.
+     *
+     * @param width      image width
+     * @param headSize   number of bytes of the head
+     * @param parameters parameters of the payload
+     *
+     * @return embedding points of the payload
+     */
+    private static Span getPayloadSpan( int width, int headSize, KjbParameters parameters ) {
+
+        Grid headGrid = Grid.getHeadGrid( width );
+        int headPoints = headSize * 8 * NUM_OF_REPEATS;
+
+        if( parameters.hasDefaultGrid() ) {
+
+            return new Span( headGrid, headPoints, parameters.getRepeats(), parameters.getEnergy() );
+        }
+
+        int lastHeadRow = headGrid.top + headGrid.stride * ( ( headPoints - 1 ) / headGrid.getPointsPerRow() );
+        int top = lastHeadRow + headGrid.radius + 1 + parameters.getRadius();
+
+        return new Span( new Grid( width, parameters.getStride(), parameters.getRadius(), top ), 0,
+                parameters.getRepeats(), parameters.getEnergy() );
+    }
+
+    /**
+     * Write consecutive message bytes into buffered image.
+     *
+     * @param img      buffered image
+     * @param bytes    bytes to write
+     * @param count    number of bytes to write
+     * @param span     embedding points to write bytes[ 0 ] from
+     * @param progress progress of the call
+     *
+     * @throws InterruptedException thrown if the call is cancelled
+     */
+    private void writeBytes( BufferedImage img, byte[] bytes, int count, Span span, Progress progress )
+            throws InterruptedException {
+
+        int step = getProgressStep();
+        Cursor cursor = span.getCursor( 0 );
+        BlueModulator target = BlueModulator.of( img, usesKernels() );
+
+        for( int from = 0; from < count; from += step ) {
+
+            int to = Math.min( count, from + step );
+
+            if( pool != null ) {
+
+                pool.invoke( new EncodeTask( target, bytes, span, from, to ) );
+
+            } else {
+
+                writeRun( target, cursor, bytes, from, to, span );
+            }
+
+            progress.advance( to - from );
+        }
+    }
+
+    /**
+     * Read consecutive message bytes from buffered image.
+     *
+     * @param blue     blue components of the image pixels
+     * @param bytes    array to put read bytes into
+     * @param count    number of bytes to read
+     * @param span     embedding points to read bytes[ 0 ] from
+     * @param progress progress of the call
+     *
+     * @throws InterruptedException thrown if the call is cancelled
+     */
+    private void readBytes( byte[] blue, byte[] bytes, int count, Span span, Progress progress )
+            throws InterruptedException {
+
+        int step = getProgressStep();
+        Cursor cursor = span.getCursor( 0 );
+
+        for( int from = 0; from < count; from += step ) {
+
+            int to = Math.min( count, from + step );
+
+            if( pool != null ) {
+
+                pool.invoke( new DecodeTask( blue, bytes, span, from, to ) );
+
+            } else {
+
+                for( int i = from; i < to; i++ ) {
+
+                    bytes[ i ] = readByte( blue, cursor, span.repeats );
+                }
+            }
+
+            progress.advance( to - from );
+        }
+    }
+
+    /**
+     * Get a number of message bytes processed between the progress reports.<br>
+     * <p>
+     * In the parallel mode it is big enough to give every thread of the pool a few tiles.
+     *
+     * @return number of bytes
+     */
+    private int getProgressStep() {
+
+        if( pool == null ) {
+
+            return PROGRESS_STEP;
+        }
+
+        return Math.max( PROGRESS_STEP, BYTES_PER_TILE * pool.getParallelism() * 4 );
+    }
+
+    /**
+     * Write a run of consecutive message bytes into buffered image.<br>
+     * <p>
+     * The bits of the bytes are spread over their embedding points first, and then every row of the points is
+     * modulated at once. Permuted points are modulated one by one.
+     *
+     * @param target modulator of the image pixels
+     * @param cursor cursor pointing to the first embedding point of the run
+     * @param bytes  bytes to write
+     * @param from   first index of bytes to write
+     * @param to     index of bytes after the last one to write
+     * @param span   embedding points the bytes belong to
+     */
+    private static void writeRun( BlueModulator target, Cursor cursor, byte[] bytes, int from, int to, Span span ) {
+
+        /* Bit of every embedding point: the bits of a byte from the highest one, each repeated */
+        byte[] bits = new byte[ ( to - from ) * 8 * span.repeats ];
+        int numOfPoints = 0;
+
+        for( int i = from; i < to; i++ ) {
+
+            for( int j = 7; j >= 0; j-- ) {
+
+                Arrays.fill( bits, numOfPoints, numOfPoints + span.repeats, ( byte ) ( ( bytes[ i ] >>> j ) & 1 ) );
+                numOfPoints += span.repeats;
+            }
+        }
+
+        for( int done = 0; done < numOfPoints; ) {
+
+            int count = Math.min( numOfPoints - done, cursor.getPointsLeftInRow() );
+            target.modulateRow( cursor.x, cursor.y, cursor.grid.stride, bits, done, count, span.energy );
+
+            cursor.skip( count );
+            done += count;
+        }
+    }
+
+    /**
+     * Read a single byte from buffered image.
+     *
+     * @param blue    blue components of the image pixels
+     * @param cursor  cursor pointing to the next embedding point
+     * @param repeats number of repeats of every bit
+     *
+     * @return read byte
+     */
+    private static byte readByte( byte[] blue, Cursor cursor, int repeats ) {
+
+        byte byteVal = 0;
+
+        /* Getting a byte from 8 bits */
+        for( int i = 0; i < 8; i++ ) {
+
+            /* Left shift founded bits and add a bit to the right */
+            byteVal = ( byte ) ( ( byteVal << 1 ) | ( readBit( blue, cursor, repeats ) & 1 ) );
+        }
+
+        return byteVal;
+    }
+
+    /**
+     * Read a single bit from buffered image.
+     *
+     * @param blue    blue components of the image pixels
+     * @param cursor  cursor pointing to the next embedding point
+     * @param repeats number of repeats of the bit
+     *
+     * @return read bit
+     */
+    private static int readBit( byte[] blue, Cursor cursor, int repeats ) {
+
+        /* Number of repeats read as 1s */
+        int ones = 0;
+
+        for( int i1 = 0; i1 < repeats; i1++ ) {
+
+            ones += readFromPixel( blue, cursor.grid.width, cursor.x, cursor.y, cursor.grid.radius );
+            cursor.next();
+        }
+
+        /* if more than half of the read bits were 1s, so consider 1 was encoded */
+        return ( 2 * ones > repeats ) ? 1 : 0;
+    }
+
+    /**
+     * Get the average margin of the votes over the bits of a run of bytes.
+     *
+     * @param blue       blue components of the image pixels
+     * @param span       embedding points of the bytes
+     * @param numOfBytes number of the bytes
+     *
+     * @return margin of the winning repeats over the losing ones to the number of repeats, 0 - 1
+     */
+    private static double getVoteMargin( byte[] blue, Span span, int numOfBytes ) {
+
+        Cursor cursor = span.getCursor( 0 );
+        long margin = 0;
+
+        for( int i = 0; i < numOfBytes * 8; i++ ) {
+
+            int ones = 0;
+            for( int i1 = 0; i1 < span.repeats; i1++ ) {
+
+                ones += readFromPixel( blue, cursor.grid.width, cursor.x, cursor.y, cursor.grid.radius );
+                cursor.next();
+            }
+
+            margin += Math.abs( 2 * ones - span.repeats );
+        }
+
+        return ( double ) margin / ( ( long ) numOfBytes * 8 * span.repeats );
+    }
+
+    /**
+     * Read a single bit from a current image point.<br>
+     * <p>
+     * Compare the blue component of the point with the average of the blue components around it: radius on each side
+     * along the row and along the column, 12 of them for the default radius of 3.
+     *
+     * @param blue   blue components of the image pixels
+     * @param width  image width
+     * @param x      image point coordinate x
+     * @param y      image point coordinate y
+     * @param radius number of the compared pixels on each side
+     *
+     * @return read bit
+     */
+    private static int readFromPixel( byte[] blue, int width, int x, int y, int radius ) {
+
+        int center = y * width + x;
+
+        /* Summing up all the blue components of surrounding points */
+        int estimate = 0;
+        for( int d = 1, offset = width; d <= radius; d++, offset += width ) {
+
+            estimate += ( blue[ center - d ] & 0xFF ) + ( blue[ center + d ] & 0xFF )
+                    + ( blue[ center - offset ] & 0xFF ) + ( blue[ center + offset ] & 0xFF );
+        }
+
+        /* Average */
+        estimate /= 4 * radius;
+
+        if( ( blue[ center ] & 0xFF ) > estimate ) {
+
+            return 1;
+
+        } else {
+
+            return 0;
+        }
+    }
+
+    /**
+     * Parallel task encoding a range of message bytes.
+     */
+    private static final class EncodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BlueModulator target;
+        private final byte[] msgBytes;
+        private final Span span;
+        private final int from, to;
+
+        /**
+         * @param target   modulator of the pixels of the image to encode into
+         * @param msgBytes bytes to encode
+         * @param span     embedding points msgBytes[ 0 ] is written from
+         * @param from     first index of msgBytes to encode
+         * @param to       index of msgBytes after the last one to encode
+         */
+        EncodeTask( BlueModulator target, byte[] msgBytes, Span span, int from, int to ) {
+
+            this.target = target;
+            this.msgBytes = msgBytes;
+            this.span = span;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if( to - from <= BYTES_PER_TILE ) {
+
+                writeRun( target, span.getCursor( from ), msgBytes, from, to, span );
+                return;
+            }
+
+            int middle = ( from + to ) >>> 1;
+            invokeAll( new EncodeTask( target, msgBytes, span, from, middle ),
+                    new EncodeTask( target, msgBytes, span, middle, to ) );
+        }
+    }
+
+    /**
+     * Parallel task decoding a range of message bytes.
+     */
+    private static final class DecodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] blue;
+        private final byte[] msgBytes;
+        private final Span span;
+        private final int from, to;
+
+        /**
+         * @param blue     blue components of the encoded image pixels
+         * @param msgBytes array to put decoded bytes into
+         * @param span     embedding points msgBytes[ 0 ] is read from
+         * @param from     first index of msgBytes to decode
+         * @param to       index of msgBytes after the last one to decode
+         */
+        DecodeTask( byte[] blue, byte[] msgBytes, Span span, int from, int to ) {
+
+            this.blue = blue;
+            this.msgBytes = msgBytes;
+            this.span = span;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if( to - from <= BYTES_PER_TILE ) {
+
+                Cursor cursor = span.getCursor( from );
+                for( int i = from; i < to; i++ ) {
+
+                    msgBytes[ i ] = readByte( blue, cursor, span.repeats );
+                }
+                return;
+            }
+
+            int middle = ( from + to ) >>> 1;
+            invokeAll( new DecodeTask( blue, msgBytes, span, from, middle ),
+                    new DecodeTask( blue, msgBytes, span, middle, to ) );
+        }
+    }
+
+    /**
+     * Blue components of the image pixels extracted on demand, a row at a time.<br>
+     * <p>
+     * Only the rows of the embedding points read and of their neighbourhoods are extracted and kept, so reading a few
+     * bytes takes time and memory in proportion to the bytes rather than to the image.
+     */
+    private static final class BlueRows {
+
+        private final BufferedImage image;
+
+        /* Blue components of the pixels of the extracted rows, indexed by y; null for the rows not extracted yet */
+        private final byte[][] rows;
+
+        /**
+         * @param image encoded buffered image
+         */
+        BlueRows( BufferedImage image ) {
+
+            this.image = image;
+            this.rows = new byte[ image.getHeight() ][];
+        }
+
+        /**
+         * Read a run of bytes extracting their rows on the way.
+         *
+         * @param span  embedding points of the bytes
+         * @param index index of the first byte in the span
+         * @param bytes array to put read bytes into, as long as the run
+         */
+        void read( Span span, int index, byte[] bytes ) {
+
+            Cursor cursor = span.getCursor( index );
+
+            for( int i = 0; i < bytes.length; i++ ) {
+
+                bytes[ i ] = readByte( cursor, span.repeats );
+            }
+        }
+
+        /**
+         * Read a single byte extracting its rows on the way.
+         *
+         * @param span  embedding points of the bytes
+         * @param index index of the byte in the span
+         *
+         * @return read byte
+         */
+        byte read( Span span, int index ) {
+
+            return readByte( span.getCursor( index ), span.repeats );
+        }
+
+        /**
+         * Read a single byte: the same votes as in {@link #readByte(byte[], Cursor, int)}.
+         *
+         * @param cursor  cursor pointing to the next embedding point
+         * @param repeats number of repeats of every bit
+         *
+         * @return read byte
+         */
+        private byte readByte( Cursor cursor, int repeats ) {
+
+            byte byteVal = 0;
+
+            for( int i = 0; i < 8; i++ ) {
+
+                int ones = 0;
+                for( int i1 = 0; i1 < repeats; i1++ ) {
+
+                    ones += readFromPixel( cursor.x, cursor.y, cursor.grid.radius );
+                    cursor.next();
+                }
+
+                byteVal = ( byte ) ( ( byteVal << 1 ) | ( ( 2 * ones > repeats ) ? 1 : 0 ) );
+            }
+
+            return byteVal;
+        }
+
+        /**
+         * Read a single bit from an image point: the same comparison as in
+         * {@link #readFromPixel(byte[], int, int, int, int)}.
+         *
+         * @param x      image point coordinate x
+         * @param y      image point coordinate y
+         * @param radius number of the compared pixels on each side
+         *
+         * @return read bit
+         */
+        private int readFromPixel( int x, int y, int radius ) {
+
+            byte[] row = getRow( y );
+
+            int estimate = 0;
+            for( int d = 1; d <= radius; d++ ) {
+
+                estimate += ( row[ x - d ] & 0xFF ) + ( row[ x + d ] & 0xFF )
+                        + ( getRow( y - d )[ x ] & 0xFF ) + ( getRow( y + d )[ x ] & 0xFF );
+            }
+
+            estimate /= 4 * radius;
+
+            return ( ( row[ x ] & 0xFF ) > estimate ) ? 1 : 0;
+        }
+
+        /**
+         * Get the blue components of a row, extracting them the first time.
+         *
+         * @param y row
+         *
+         * @return blue components of the row pixels
+         */
+        private byte[] getRow( int y ) {
+
+            if( rows[ y ] == null ) {
+
+                rows[ y ] = RasterData.blueRow( image, y );
+            }
+
+            return rows[ y ];
+        }
+    }
+
+    /**
+     * Encoder of the head and the coded payload into consecutive strips.<br>
+     * <p>
+     * Every embedding point changes only its own pixel, so a strip needs no neighbouring rows.
+     */
+    private static final class KjbStripEncoder extends StripEncoder {
+
+        private final Span payloadSpan;
+
+        /* Use the row kernels of the strips */
+        private final boolean kernels;
+
+        /* Embedding points of the bytes being written and the cursor pointing to the next one */
+        private Span span;
+        private Cursor cursor;
+
+        /* Byte being written, the number of its bits not written yet and the repeats of the current bit written */
+        private int current, bitsLeft, repeat;
+
+        KjbStripEncoder( int width, Layout layout, InputStream payload, int length, boolean checksum,
+                boolean kernels ) {
+
+            super( layout.getHead(), payload, length, checksum );
+            this.payloadSpan = layout.getPayloadSpan( width );
+            this.kernels = kernels;
+            this.span = layout.getHeadSpan( width );
+            this.cursor = span.getCursor( 0 );
+        }
+
+        @Override
+        int encode( BufferedImage strip, int firstRow ) throws Exception {
+
+            int toRow = firstRow + strip.getHeight();
+            int numOfPayloadBytes = 0;
+            BlueModulator target = BlueModulator.of( strip, kernels );
+
+            while( !isDone() ) {
+
+                if( bitsLeft == 0 ) {
+
+                    current = nextByte();
+                    bitsLeft = 8;
+
+                    if( isPayloadByte() ) {
+
+                        numOfPayloadBytes++;
+
+                        /* The payload may start on another grid below the head */
+                        if( span != payloadSpan ) {
+
+                            span = payloadSpan;
+                            cursor = span.getCursor( 0 );
+                        }
+                    }
+                }
+
+                if( cursor.y >= toRow ) {
+
+                    break;
+                }
+
+                target.modulate( cursor.x, cursor.y - firstRow, ( current >>> ( bitsLeft - 1 ) ) & 1, span.energy );
+                cursor.next();
+
+                if( ++repeat == span.repeats ) {
+
+                    repeat = 0;
+                    bitsLeft--;
+                }
+            }
+
+            return numOfPayloadBytes;
+        }
+
+        @Override
+        boolean isDone() {
+
+            return bitsLeft == 0 && !hasNextByte();
+        }
+    }
+
+    /**
+     * Decoder of the head and the coded payload from consecutive strips.<br>
+     * <p>
+     * Strips come with {@link #getStripMargin()} extra rows above and below, so every point has its neighbours.
+     */
+    private static final class KjbStripDecoder extends StripDecoder {
+
+        private final int width, height;
+
+        /* Layout parsed from the head, null until the head is decoded */
+        private Layout layout;
+
+        /* Embedding points of the bytes being read and the cursor pointing to the next one */
+        private Span span;
+        private Cursor cursor;
+
+        /* Byte being read, the number of its bits read and the votes for the current bit */
+        private int current, bitsRead, ones, repeat;
+
+        KjbStripDecoder( int width, int height, OutputStream payload ) {
+
+            super( PayloadHeader.SIZE + KjbParameters.SIZE, payload );
+            this.width = width;
+            this.height = height;
+            this.span = new Span( Grid.getHeadGrid( width ), 0, NUM_OF_REPEATS, KjbParameters.DEFAULT_ENERGY );
+            this.cursor = span.getCursor( 0 );
+        }
+
+        @Override
+        int decode( BufferedImage strip, int stripTop, int fromRow, int toRow ) throws Exception {
+
+            byte[] blue = RasterData.bluePlane( strip );
+            int numOfPayloadBytes = 0;
+
+            while( cursor.y < toRow && !isDone() ) {
+
+                ones += readFromPixel( blue, width, cursor.x, cursor.y - stripTop, span.grid.radius );
+                cursor.next();
+
+                if( ++repeat < span.repeats ) {
+
+                    continue;
+                }
+
+                /* The same vote as in readBit() */
+                current = ( current << 1 ) | ( ( 2 * ones > span.repeats ) ? 1 : 0 );
+                ones = 0;
+                repeat = 0;
+
+                if( ++bitsRead == 8 ) {
+
+                    if( putByte( current ) ) {
+
+                        numOfPayloadBytes++;
+
+                    } else if( layout != null ) {
+
+                        /* The head is complete, the payload may start on another grid below it */
+                        span = layout.getPayloadSpan( width );
+                        cursor = span.getCursor( 0 );
+                    }
+
+                    current = 0;
+                    bitsRead = 0;
+                }
+            }
+
+            return numOfPayloadBytes;
+        }
+
+        @Override
+        PayloadHeader parseHead( byte[] head ) throws Exception {
+
+            layout = KutterJordanBossen.parseHead( head, width, height );
+
+            if( layout.header.isPermuted() ) {
+
+                throw new Exception( TILED_KEY_ERROR );
+            }
+            return layout.header;
+        }
+
+        @Override
+        boolean isHeadComplete( byte[] head, int numOfHeadBytes ) {
+
+            return numOfHeadBytes == getHeadSize( head, numOfHeadBytes );
+        }
+
+        @Override
+        int getStoredLength( PayloadHeader header ) {
+
+            return layout.getCodedLength();
+        }
+
+        @Override
+        byte[] restore( byte[] stored ) throws Exception {
+
+            return ReedSolomon.decode( stored, layout.header.getStoredLength(), layout.parameters.getParity() );
+        }
+    }
+
+    /**
+     * Layout of a message: its header and how the payload is stored after the head.
+     */
+    private static final class Layout {
+
+        /* Header of the payload, the legacy length is turned into a header of the legacy version */
+        private final PayloadHeader header;
+
+        /* Number of bytes of the head: the header with the parameters or the legacy length */
+        private final int headSize;
+
+        /* Parameters of the payload with the parity of its codewords */
+        private final KjbParameters parameters;
+
+        /**
+         * @param header     header of the payload
+         * @param headSize   number of bytes of the head
+         * @param parameters parameters of the payload
+         */
+        Layout( PayloadHeader header, int headSize, KjbParameters parameters ) {
+
+            this.header = header;
+            this.headSize = headSize;
+            this.parameters = parameters;
+        }
+
+        /**
+         * Get the head bytes: the header followed by the parameters if the flags tell so.
+         *
+         * @return head bytes
+         */
+        byte[] getHead() {
+
+            byte[] head = Arrays.copyOf( header.toBytes(), headSize );
+
+            if( headSize > PayloadHeader.SIZE ) {
+
+                System.arraycopy( parameters.toBytes(), 0, head, PayloadHeader.SIZE, KjbParameters.SIZE );
+            }
+
+            return head;
+        }
+
+        /**
+         * Get the number of bytes the payload takes with the checksums and the parity bytes.
+         *
+         * @return number of the coded payload bytes
+         */
+        int getCodedLength() {
+
+            return ( int ) ReedSolomon.getEncodedLength( header.getStoredLength(), parameters.getParity() );
+        }
+
+        /**
+         * Get the embedding points the head is written to.<br>
+         * <p>
+         * The head followed by the parameters is written with {@value #HEAD_ENERGY} energy.
+         *
+         * @param width image width
+         *
+         * @return embedding points of the head
+         */
+        Span getHeadSpan( int width ) {
+
+            double energy = ( headSize > PayloadHeader.SIZE ) ? HEAD_ENERGY : KjbParameters.DEFAULT_ENERGY;
+            return new Span( Grid.getHeadGrid( width ), 0, NUM_OF_REPEATS, energy );
+        }
+
+        /**
+         * Get the embedding points the coded payload is written to.
+         *
+         * @param width image width
+         *
+         * @return embedding points of the payload
+         */
+        Span getPayloadSpan( int width ) {
+
+            return KutterJordanBossen.getPayloadSpan( width, headSize, parameters );
+        }
+    }
+
+    /**
+     * Grid of the embedding points.<br>
+     * <p>
+     * The points lie every stride pixels along the rows and the columns, at least radius pixels away from the left,
+     * right and bottom edges so every point has its neighbourhood in the image. The points are numbered row by row.
+     */
+    private static final class Grid {
+
+        private final int width;
+        private final int stride;
+        private final int radius;
+
+        /* Row of the first points */
+        private final int top;
+
+        /**
+         * @param width  image width
+         * @param stride distance between the points
+         * @param radius number of the compared pixels on each side of a point
+         * @param top    row of the first points
+         */
+        Grid( int width, int stride, int radius, int top ) {
+
+            this.width = width;
+            this.stride = stride;
+            this.radius = radius;
+            this.top = top;
+        }
+
+        /**
+         * Get the grid the head is written on: the default stride and radius from the top of the image.
+         *
+         * @param width image width
+         *
+         * @return grid of the head
+         */
+        static Grid getHeadGrid( int width ) {
+
+            return new Grid( width, KjbParameters.DEFAULT_STRIDE, KjbParameters.DEFAULT_RADIUS,
+                    KjbParameters.DEFAULT_RADIUS );
+        }
+
+        /**
+         * Get the number of points in a row.
+         *
+         * @return number of points, at least 1 so the numbering works even for a too narrow image
+         */
+        int getPointsPerRow() {
+
+            return Math.max( 1, getNumOfSteps( width - 2 * radius - 1 ) );
+        }
+
+        /**
+         * Get the number of the image rows the first points of the grid take with their neighbourhoods.
+         *
+         * @param numOfPoints number of the first points, at least 1
+         *
+         * @return number of rows from the top of the image
+         */
+        int getNumOfRows( long numOfPoints ) {
+
+            return ( int ) ( top + stride * ( ( numOfPoints - 1 ) / getPointsPerRow() ) + radius + 1 );
+        }
+
+        /**
+         * Get the number of points of the grid in an image.
+         *
+         * @param height image height
+         *
+         * @return number of points
+         */
+        long getNumOfPoints( int height ) {
+
+            return ( long ) getNumOfSteps( width - 2 * radius - 1 ) * getNumOfSteps( height - top - radius - 1 );
+        }
+
+        /**
+         * Get the number of points in a row or a column.
+         *
+         * @param free number of pixels from the first point to the last pixel a point can lie at
+         *
+         * @return number of points
+         */
+        private int getNumOfSteps( int free ) {
+
+            return free < 0 ? 0 : free / stride + 1;
+        }
+    }
+
+    /**
+     * Consecutive embedding points of a run of bytes: the grid, the first point and how every bit is written.
+     */
+    private static final class Span {
+
+        private final Grid grid;
+        private final int firstPoint;
+        private final int repeats;
+        private final double energy;
+
+        /* Order of the points from the base one, null for the grid order */
+        private final PositionPermutation permutation;
+        private final int base;
+
+        /**
+         * @param grid       grid of the points
+         * @param firstPoint number of the first point of the run
+         * @param repeats    number of repeats of every bit
+         * @param energy     energy of every bit
+         */
+        Span( Grid grid, int firstPoint, int repeats, double energy ) {
+
+            this( grid, firstPoint, repeats, energy, null, 0 );
+        }
+
+        /**
+         * @param grid        grid of the points
+         * @param firstPoint  number of the first point of the run in the order of the points
+         * @param repeats     number of repeats of every bit
+         * @param energy      energy of every bit
+         * @param permutation order of the points from the base one or null for the grid order
+         * @param base        number of the first permuted point
+         */
+        private Span( Grid grid, int firstPoint, int repeats, double energy, PositionPermutation permutation,
+                      int base ) {
+
+            this.grid = grid;
+            this.firstPoint = firstPoint;
+            this.repeats = repeats;
+            this.energy = energy;
+            this.permutation = permutation;
+            this.base = base;
+        }
+
+        /**
+         * Get the run taking the points from the first one to the last one of the grid in the keyed order.
+         *
+         * @param key         secret key of the order
+         * @param numOfPoints number of the points of the grid
+         *
+         * @return permuted run
+         */
+        Span permute( long key, long numOfPoints ) {
+
+            return new Span( grid, firstPoint, repeats, energy,
+                    new PositionPermutation( key, ( int ) Math.max( 0, numOfPoints - firstPoint ) ), firstPoint );
+        }
+
+        /**
+         * Get the points of the run after the given number of bytes.
+         *
+         * @param numOfBytes number of bytes to skip
+         *
+         * @return points of the rest of the run
+         */
+        Span skip( int numOfBytes ) {
+
+            return new Span( grid, firstPoint + numOfBytes * 8 * repeats, repeats, energy, permutation, base );
+        }
+
+        /**
+         * Make a cursor pointing to the first point of a byte of the run.
+         *
+         * @param index index of the byte in the run
+         *
+         * @return cursor
+         */
+        Cursor getCursor( int index ) {
+
+            return new Cursor( grid, firstPoint + index * 8 * repeats, permutation, base );
+        }
+    }
+
+    /**
+     * Cursor walking through the embedding points of a grid during a single encode or decode call.<br>
+     * <p>
+     * With the default grid the points lie every 4 pixels starting from (3, 3), so the byte with index i of the head
+     * takes the points starting from <code>i * 8 * NUM_OF_REPEATS</code>. With a permutation the cursor counts the
+     * points in the keyed order and jumps to the grid point every number maps to.
+     */
+    private static final class Cursor {
+
+        private final Grid grid;
+
+        /* Order of the points from the base one, null for the grid order */
+        private final PositionPermutation permutation;
+        private final int base;
+
+        /* Number of the current point in the order of the points */
+        private int point;
+
+        /* The current position of an image point which has information being written into it */
+        private int x, y;
+
+        /**
+         * @param grid  grid of the points
+         * @param point number of the first embedding point
+         */
+        Cursor( Grid grid, int point ) {
+
+            this( grid, point, null, 0 );
+        }
+
+        /**
+         * @param grid        grid of the points
+         * @param point       number of the first embedding point in the order of the points
+         * @param permutation order of the points from the base one or null for the grid order
+         * @param base        number of the first permuted point
+         */
+        Cursor( Grid grid, int point, PositionPermutation permutation, int base ) {
+
+            this.grid = grid;
+            this.permutation = permutation;
+            this.base = base;
+            this.point = point;
+
+            if( permutation == null ) {
+
+                locate( point );
+
+            } else if( point - base < permutation.getSize() ) {
+
+                locate( base + permutation.apply( point - base ) );
+            }
+        }
+
+        /**
+         * Move to a grid point.
+         *
+         * @param gridPoint number of the point in the grid order
+         */
+        private void locate( int gridPoint ) {
+
+            int pointsPerRow = grid.getPointsPerRow();
+            x = grid.radius + grid.stride * ( gridPoint % pointsPerRow );
+            y = grid.top + grid.stride * ( gridPoint / pointsPerRow );
+        }
+
+        /**
+         * Move to the next embedding point, to the next row after the last point of a row.
+         */
+        void next() {
+
+            skip( 1 );
+        }
+
+        /**
+         * Move forward along the row, to the next row after its last point.
+         *
+         * @param numOfPoints number of points to move by, not more than {@link #getPointsLeftInRow()}
+         */
+        void skip( int numOfPoints ) {
+
+            point += numOfPoints;
+
+            if( permutation != null ) {
+
+                /* The cursor moves past the last point after the last bit */
+                if( point - base < permutation.getSize() ) {
+
+                    locate( base + permutation.apply( point - base ) );
+                }
+                return;
+            }
+
+            x += grid.stride * numOfPoints;
+
+            if( x + grid.radius >= grid.width ) {
+
+                x = grid.radius;
+                y += grid.stride;
+            }
+        }
+
+        /**
+         * Get the number of the points lying a stride apart from the current one to the end of the row.
+         *
+         * @return number of points, 1 for the permuted points
+         */
+        int getPointsLeftInRow() {
+
+            if( permutation != null ) {
+
+                return 1;
+            }
+
+            return Math.max( 1, ( grid.width - grid.radius - 1 - x ) / grid.stride + 1 );
+        }
+    }
+
+    /* Message of the exception thrown if the image doesn't contain a text */
+    private final static String DECODING_ERROR = "Ошибка в процессе декодирования. Убедитесь, что изображение содержит текст.";
 }
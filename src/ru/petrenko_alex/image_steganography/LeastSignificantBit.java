@@ -1,156 +1,944 @@
 package ru.petrenko_alex.image_steganography;
 
 
-import ru.petrenko_alex.BitHelper;
-
-import java.awt.*;
 import java.awt.image.BufferedImage;
-
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Least Significant Bit algorithm.<br>
+ * <p>
+ * The container header always takes the lowest bit of the R, G and B channels of the first {@value #HEADER_PIXELS}
+ * pixels. The payload goes on from the next pixel taking 1 - 4 lowest bits of every channel, alpha included if asked
+ * for and the image has it, every block of it followed by its checksum. The header tells the layout, so an image is
+ * decoded by an instance with any parameters.
+ * <p>
+ * With a key the payload pixels are taken in a keyed pseudo-random order over the whole image rather than row by row
+ * (see {@link PositionPermutation}). The header stays in place and tells the payload is permuted, but only an instance
+ * with the same key decodes it.
+ */
 public class LeastSignificantBit extends SteganographyAlgorithm {
 
+    /* Every byte of the container takes 8 consecutive bits */
+    private final static int BITS_PER_BYTE = 8;
+
+    /*
+     * Every byte of the legacy "<len> <text>" message takes 9 bits (3 pixels):
+     * an always zero bit followed by 8 bits of the byte.
+     */
+    private final static int LEGACY_BITS_PER_BYTE = 9;
+
+    /* Code of the space character separating the text length from the text in the legacy format */
+    private final static int LEGACY_SEPARATOR = 32;
+
+    /* Maximal number of the decimal digits of the text length in the legacy format */
+    private final static int LEGACY_MAX_DIGITS = 9;
+
+    /* Number of bytes processed between the progress reports */
+    private final static int PROGRESS_STEP = 4096;
+
+    /* Number of pixels holding the container header */
+    final static int HEADER_PIXELS = PayloadHeader.SIZE * BITS_PER_BYTE / LsbRaster.RGB_CHANNELS;
+
+
+    /* Number of the least significant bits of every channel holding the payload */
+    private final int depth;
+
+    /* Use the alpha channel of the images having it as well */
+    private final boolean alpha;
+
+    /* Permute the payload pixels with the key */
+    private final boolean keyed;
+    private final long key;
+
+
     /**
-     * Encode text into a buffered image using Least Significant Bit algorithm.<br>
-     *
-     * @param text   text to encode
-     * @param bitmap buffered image
+     * Make the classic algorithm: the lowest bit of the R, G and B channels.
+     */
+    public LeastSignificantBit() {
+
+        this( 1, false );
+    }
+
+    /**
+     * Make the algorithm writing the payload into several lowest bits of every channel.
      *
-     * @return encoded buffered image
+     * @param depth number of the least significant bits of every channel, 1 - 4
+     * @param alpha true to use the alpha channel of <code>TYPE_INT_ARGB</code> and <code>TYPE_4BYTE_ABGR</code> images
+     *              as well
      */
-    @Override
-    public BufferedImage encode( String text, BufferedImage bitmap ) throws Exception {
+    public LeastSignificantBit( int depth, boolean alpha ) {
 
-        int i = 0;
-        int j = 8;
+        this( depth, alpha, false, 0 );
+    }
 
-        /* Creating a result image */
-        BufferedImage result = makeImageCopy( bitmap );
+    /**
+     * Make the algorithm writing the payload into the pixels taken in the order given by the key.<br>
+     * <p>
+     * The payload is decoded only by an instance with the same key. The tiled mode can't follow the order, so it is
+     * not supported.
+     *
+     * @param depth number of the least significant bits of every channel, 1 - 4
+     * @param alpha true to use the alpha channel of <code>TYPE_INT_ARGB</code> and <code>TYPE_4BYTE_ABGR</code> images
+     *              as well
+     * @param key   secret key of the pixel order
+     */
+    public LeastSignificantBit( int depth, boolean alpha, long key ) {
 
-        /* Preparing the text to encode */
-        byte[] encode = prepareTextToEncode( text );
+        this( depth, alpha, true, key );
+    }
 
+    /**
+     * @param depth number of the least significant bits of every channel, 1 - 4
+     * @param alpha true to use the alpha channel of the images having it as well
+     * @param keyed true to permute the payload pixels with the key
+     * @param key   secret key of the pixel order
+     */
+    private LeastSignificantBit( int depth, boolean alpha, boolean keyed, long key ) {
 
-        /* Checking if the image is big enough for the text */
-        if( ( result.getHeight() * result.getWidth() ) < ( encode.length * 8 ) ) {
+        if( depth < 1 || depth > LsbRaster.MAX_DEPTH ) {
 
-            throw new Exception( "Изображение слишком мало для заданного текста." );
+            throw new IllegalArgumentException( "Число младших бит канала должно быть от 1 до 4: " + depth );
         }
 
-        for( int y = 0; y < result.getHeight(); y++ ) {
+        this.depth = depth;
+        this.alpha = alpha;
+        this.keyed = keyed;
+        this.key = key;
+    }
+
+    /**
+     * Encode the prepared text right into a buffered image using Least Significant Bit algorithm.
+     *
+     * @param packed   text bytes as they are stored, compressed or not
+     * @param image    buffered image to modify
+     * @param listener listener of the progress
+     *
+     * @throws Exception thrown if image is small for the text
+     */
+    @Override
+    void encodePacked( Compression packed, BufferedImage image, ProgressListener listener ) throws Exception {
+
+        byte[] msgBytes = packed.bytes;
+
+        /* Checking if the image is big enough for the text */
+        checkCapacity( image, msgBytes.length );
 
-            for( int x = 0; x < result.getWidth(); x++ ) {
+        int flags = getLayoutFlags( image.getType() ) | packed.getFlags();
+        PayloadHeader header = new PayloadHeader( flags, msgBytes.length );
+        byte[] stored = PayloadHeader.addChecksums( msgBytes );
+        Progress progress = new Progress( listener, PayloadHeader.SIZE + stored.length );
 
-                Color pixel = new Color( result.getRGB( x, y ) );
+        writeBytes( getHeaderRaster( image, header ), 0, header.toBytes(), PayloadHeader.SIZE, progress );
+        writeBytes( getPayloadRaster( image, header ), 0, stored, stored.length, progress );
+    }
 
-                int R = ( j == 8 ) ? pixel.getRed() & 254 : pixel.getRed() & 254 | +BitHelper.getBit( encode[ i ], --j );
-                int G = pixel.getGreen() & 254 | +BitHelper.getBit( encode[ i ], --j );
-                int B = pixel.getBlue() & 254 | +BitHelper.getBit( encode[ i ], --j );
+    /**
+     * Encode the binary payload read from the stream right into a buffered image using Least Significant Bit
+     * algorithm.<br>
+     * <p>
+     * The payload is written right after the header while it is being read, and the checksums of its blocks are
+     * computed on the way and written after every block. The header goes last, when the payload length is known.
+     *
+     * @param payload  stream to read the payload from
+     * @param image    buffered image to modify
+     * @param listener listener of the progress
+     *
+     * @throws Exception thrown if image is small for the payload
+     */
+    @Override
+    public void encodeInPlace( InputStream payload, BufferedImage image, ProgressListener listener )
+            throws Exception {
 
-                Color newPixel = new Color( R, G, B );
-                result.setRGB( x, y, newPixel.getRGB() );
+        checkCapacity( image, 0 );
 
-                if( j == 0 ) {
+        int flags = PayloadHeader.FLAG_BINARY | getLayoutFlags( image.getType() );
+        LsbRaster raster = getPayloadRaster( image, new PayloadHeader( flags, 0 ) );
+        long maxLength = getCapacity( ( long ) image.getWidth() * image.getHeight(), depth,
+                isAlphaUsed( image.getType() ) );
 
-                    j = 8;
-                    i++;
-                }
+        Progress progress = new Progress( listener, -1 );
+        ChecksumInputStream stored = new ChecksumInputStream( payload, -1 );
+        byte[] buffer = new byte[ STREAM_BUFFER_SIZE ];
+        long length = 0;
+        int read;
 
-                if( i == encode.length ) {
+        while( ( read = stored.read( buffer ) ) != -1 ) {
 
-                    break;
-                }
-            }
+            /* Checking if the image is big enough for the payload with the checksums read so far */
+            if( length + read > maxLength ) {
 
-            if( i == encode.length ) {
-                break;
+                throw new Exception( CAPACITY_ERROR );
             }
+
+            writeBytes( raster, length, buffer, read, progress );
+            length += read;
         }
-        return result;
+
+        PayloadHeader header = new PayloadHeader( flags, ( int ) stored.getPayloadLength() );
+        writeBytes( getHeaderRaster( image, header ), 0, header.toBytes(), PayloadHeader.SIZE, progress );
     }
 
     /**
-     * Decode text from a buffered image using Least Significant Bit algorithm.
+     * Get the number of payload bytes which can be encoded into an image using Least Significant Bit algorithm.<br>
+     * <p>
+     * Every pixel after the header holds {@link #getDepth()} bits of each of the R, G, B channels and of the alpha
+     * channel if it is used. The checksum of every block of the payload takes {@value PayloadHeader#CHECKSUM_SIZE}
+     * bytes of them. The types changing the lowest bits of the channels, such as gray or indexed ones, hold nothing.
      *
-     * @param bitmap encoded buffered image
+     * @param width  image width
+     * @param height image height
+     * @param type   image type, one of <code>BufferedImage.TYPE_*</code>
+     *
+     * @return number of payload bytes, -1 if the image can't hold even an empty payload
+     */
+    @Override
+    public long capacity( int width, int height, int type ) {
+
+        if( !LsbRaster.keepsChannels( type ) ) {
+
+            return -1;
+        }
+
+        return PayloadHeader.getMaxLength( getCapacity( ( long ) width * height, depth, isAlphaUsed( type ) ) );
+    }
+
+    /**
+     * Get the number of payload bytes which can be encoded into the buffered image using Least Significant Bit
+     * algorithm.<br>
+     * <p>
+     * An image of a custom type holds nothing unless its color model keeps the lowest bits of the channels.
+     *
+     * @param image buffered image
+     *
+     * @return number of payload bytes, -1 if the image can't hold even an empty payload
+     */
+    @Override
+    public long capacity( BufferedImage image ) {
+
+        return LsbRaster.keepsChannels( image ) ? super.capacity( image ) : -1;
+    }
+
+    /**
+     * Decode text from a buffered image using Least Significant Bit algorithm.<br>
+     * <p>
+     * Both the binary container and the legacy "&lt;len&gt; &lt;text&gt;" format are recognized.
+     *
+     * @param bitmap   encoded buffered image
+     * @param listener listener of the progress
      *
      * @return decoded text
+     *
+     * @throws Exception thrown if the image doesn't contain a text
      */
     @Override
-    public String decode( BufferedImage bitmap ) {
+    public String decode( BufferedImage bitmap, ProgressListener listener ) throws Exception {
+
+        PayloadHeader header = readHeader( bitmap );
 
-        int textLength = 0;
-        boolean containsMessage = false;
-        StringBuilder information = new StringBuilder();
+        if( header == null ) {
 
-        StringBuilder tmp = new StringBuilder();
+            return decodeLegacy( LsbRaster.of( bitmap, usesKernels() ) );
+        }
+
+        /* Reading exactly the number of bytes the header declares */
+        byte[] msgBytes = readPayload( bitmap, header, listener );
 
-        for( int y = 0; y < bitmap.getHeight(); y++ ) {
+        return new String( msgBytes, StandardCharsets.UTF_8 );
+    }
 
-            for( int x = 0; x < bitmap.getWidth(); x++ ) {
+    /**
+     * Decode the binary payload from a buffered image into the stream using Least Significant Bit algorithm.<br>
+     * <p>
+     * A text in the legacy "&lt;len&gt; &lt;text&gt;" format is written as US-ASCII bytes. A compressed text is
+     * decompressed in memory before it is written. Every block of the payload is checked against its checksum before
+     * it is written.
+     *
+     * @param bitmap   encoded buffered image
+     * @param payload  stream to write the payload to
+     * @param listener listener of the progress
+     *
+     * @return number of the payload bytes written
+     *
+     * @throws Exception thrown if the image doesn't contain a payload or it doesn't match the checksum
+     */
+    @Override
+    public int decode( BufferedImage bitmap, OutputStream payload, ProgressListener listener ) throws Exception {
 
-                Color pixel = new Color( bitmap.getRGB( x, y ) );
+        PayloadHeader header = readHeader( bitmap );
 
-                tmp.append( pixel.getRed() % 2 );
-                tmp.append( pixel.getGreen() % 2 );
-                tmp.append( pixel.getBlue() % 2 );
+        if( header == null ) {
 
-                if( tmp.length() == 9 ) {
+            byte[] text = decodeLegacy( LsbRaster.of( bitmap, usesKernels() ) ).getBytes( StandardCharsets.US_ASCII );
+            payload.write( text );
+            return text.length;
+        }
 
-                    try {
+        if( header.getCompression() != Compression.NONE ) {
 
-                        Integer tmpInt = Integer.parseInt( tmp.toString(), 2 );
-                        information.append( BitHelper.getString( BitHelper.intToByteArray( tmpInt ) ) );
+            byte[] bytes = readPayload( bitmap, header, listener );
+            payload.write( bytes );
+            return bytes.length;
+        }
 
-                        if( !containsMessage && tmpInt == 32 ) {
+        LsbRaster raster = getPayloadRaster( bitmap, header );
+        int storedLength = header.getStoredLength();
+        Progress progress = new Progress( listener, storedLength );
+        ChecksumOutputStream checked = new ChecksumOutputStream( header, payload );
+        byte[] buffer = new byte[ STREAM_BUFFER_SIZE ];
 
-                            containsMessage = true;
-                            information.deleteCharAt( information.length() - 1 );
-                            textLength = Integer.parseInt( information.toString() );
-                            information.setLength( 0 );
-                        }
+        for( int done = 0; done < storedLength; ) {
 
-                        if( !containsMessage && tmpInt == 0 ) {
+            int count = Math.min( buffer.length, storedLength - done );
+            readBytes( raster, done, buffer, count, progress );
+            checked.write( buffer, 0, count );
+            done += count;
+        }
 
-                            throw new Exception();
-                        }
+        return header.length;
+    }
 
-                        tmp.setLength( 0 );
+    /**
+     * Decode a range of the payload bytes using Least Significant Bit algorithm.<br>
+     * <p>
+     * Every payload byte takes a known number of bits from a known pixel on, so the bits of the range are read right
+     * away. A text in the legacy format or a compressed one is decoded as a whole. The blocks covering the range are
+     * read and checked against their checksums.
+     *
+     * @param bitmap encoded buffered image
+     * @param offset index of the first payload byte to decode, not negative
+     * @param length number of bytes to decode, not negative
+     *
+     * @return decoded bytes
+     *
+     * @throws Exception thrown if the image doesn't contain a payload, the range goes beyond its end or a block of
+     *                   the range doesn't match its checksum
+     */
+    @Override
+    byte[] decodeRange( BufferedImage bitmap, long offset, int length ) throws Exception {
 
-                    } catch( Exception e ) {
+        PayloadHeader header = readHeader( bitmap );
 
-                        containsMessage = true;
-                        information.setLength( 0 );
+        if( header == null ) {
 
-                        information.append( "Ошибка в процессе декодирования. Убедитесь, что изображение содержит текст." );
-                    }
-                }
+            byte[] text = decodeLegacy( LsbRaster.of( bitmap, usesKernels() ) ).getBytes( StandardCharsets.US_ASCII );
+            return copyRange( text, offset, length );
+        }
 
-                if( containsMessage && information.length() >= textLength ) {
+        if( header.getCompression() != Compression.NONE ) {
 
-                    break;
-                }
-            }
+            return copyRange( readPayload( bitmap, header, ProgressListener.NONE ), offset, length );
+        }
+
+        checkRange( offset, length, header.length );
+
+        long start = header.getRangeStart( offset );
+        byte[] stored = new byte[ ( int ) ( header.getRangeEnd( offset, length ) - start ) ];
+        readBytes( getPayloadRaster( bitmap, header ), start, stored, stored.length,
+                new Progress( ProgressListener.NONE, stored.length ) );
+
+        return header.checkPayloadRange( stored, offset, length );
+    }
+
+    /**
+     * Read the header of the payload from the top rows of an image.<br>
+     * <p>
+     * A text in the legacy format is recognized by its length, which must fit the image.
+     *
+     * @param head   top rows of the image
+     * @param height height of the whole image
+     *
+     * @return metadata of the payload
+     *
+     * @throws Exception thrown if the image holds no payload
+     */
+    @Override
+    PayloadInfo readInfo( BufferedImage head, int height ) throws Exception {
 
-            if( containsMessage && information.length() >= textLength ) {
+        long numOfPixels = ( long ) head.getWidth() * height;
+        PayloadHeader header = readHeader( head, numOfPixels );
 
-                break;
+        if( header == null ) {
+
+            String digits = readLegacyLength( LsbRaster.of( head ) );
+            int textLength = Integer.parseInt( digits );
+
+            if( digits.length() + 1 + textLength > numOfPixels * LsbRaster.RGB_CHANNELS / LEGACY_BITS_PER_BYTE ) {
+
+                throw new Exception( DECODING_ERROR );
             }
+
+            header = new PayloadHeader( PayloadHeader.LEGACY_VERSION, 0, textLength );
         }
-        return information.toString();
+
+        return new PayloadInfo( getClass().getSimpleName(), header, PayloadInfo.FULL_CONFIDENCE );
+    }
+
+    /**
+     * Get the number of the top rows of an image holding the header or the longest length of the legacy format.
+     *
+     * @param width image width
+     *
+     * @return number of rows
+     */
+    @Override
+    int getHeadRows( int width ) {
+
+        long legacyPixels = ( LEGACY_MAX_DIGITS + 1L ) * LEGACY_BITS_PER_BYTE / LsbRaster.RGB_CHANNELS;
+        long numOfPixels = Math.max( HEADER_PIXELS, legacyPixels );
+
+        return ( int ) ( ( numOfPixels + width - 1 ) / width );
+    }
+
+    /**
+     * Get the number of the least significant bits of every channel holding the payload.
+     *
+     * @return number of bits, 1 - 4
+     */
+    public int getDepth() {
+
+        return depth;
+    }
+
+    /**
+     * Check if the alpha channel of the images having it holds the payload as well.
+     *
+     * @return true if alpha is used
+     */
+    public boolean usesAlpha() {
+
+        return alpha;
+    }
+
+    /**
+     * Make an encoder writing the binary container strip by strip.
+     *
+     * @param width   image width
+     * @param height  image height
+     * @param type    type of the strips
+     * @param payload stream to read the payload from
+     * @param length  payload length in bytes
+     *
+     * @return strip encoder
+     *
+     * @throws Exception thrown if image is small for the payload
+     */
+    @Override
+    StripEncoder newStripEncoder( int width, int height, int type, InputStream payload, int length )
+            throws Exception {
+
+        if( keyed ) {
+
+            throw new Exception( TILED_KEY_ERROR );
+        }
+
+        checkCapacity( width, height, type, length );
+
+        PayloadHeader header = new PayloadHeader( PayloadHeader.FLAG_BINARY | getLayoutFlags( type ), length );
+        return new LsbStripEncoder( header, payload, usesKernels() );
     }
 
     /**
-     * Prepare text to encode.<br> Make a byte array containing bytes of source text and a length of source text.
+     * Make a decoder reading the binary container strip by strip.<br>
+     * <p>
+     * The legacy "&lt;len&gt; &lt;text&gt;" format is not supported in the tiled mode.
+     *
+     * @param width   image width
+     * @param height  image height
+     * @param payload stream to write the payload to
      *
-     * @param text source text
+     * @return strip decoder
      *
-     * @return byte array of a source text and a length of it
+     * @throws Exception thrown if image is too small to contain a payload
      */
     @Override
-    byte[] prepareTextToEncode( String text ) {
+    StripDecoder newStripDecoder( int width, int height, OutputStream payload ) throws Exception {
+
+        if( ( long ) width * height < HEADER_PIXELS ) {
+
+            throw new Exception( DECODING_ERROR );
+        }
+
+        return new LsbStripDecoder( payload, ( long ) width * height, usesKernels() );
+    }
+
+    /**
+     * Check if the buffered image is big enough for the header and the payload and keeps the bits of its channels.
+     *
+     * @param image  buffered image
+     * @param length payload length in bytes
+     *
+     * @throws Exception thrown if image is small for the payload
+     */
+    private void checkCapacity( BufferedImage image, long length ) throws Exception {
+
+        if( length < 0 || length > capacity( image ) ) {
+
+            throw new Exception( CAPACITY_ERROR );
+        }
+    }
+
+    /**
+     * Check if the image is big enough for the header and the payload.
+     *
+     * @param width  image width
+     * @param height image height
+     * @param type   image type
+     * @param length payload length in bytes
+     *
+     * @throws Exception thrown if image is small for the payload
+     */
+    private void checkCapacity( int width, int height, int type, long length ) throws Exception {
+
+        if( ( long ) width * height < HEADER_PIXELS || length < 0 || length > capacity( width, height, type ) ) {
+
+            throw new Exception( CAPACITY_ERROR );
+        }
+    }
+
+    /**
+     * Check if the payload goes into the alpha channel of an image.
+     *
+     * @param type image type
+     *
+     * @return true if alpha is asked for and the image has it
+     */
+    private boolean isAlphaUsed( int type ) {
+
+        return alpha && LsbRaster.hasAlpha( type );
+    }
+
+    /**
+     * Get the header flags describing the layout of the payload in an image.
+     *
+     * @param type image type
+     *
+     * @return layout flags
+     */
+    private int getLayoutFlags( int type ) {
+
+        return PayloadHeader.layoutFlags( depth, isAlphaUsed( type ) ) | ( keyed ? PayloadHeader.FLAG_PERMUTED : 0 );
+    }
+
+    /**
+     * Get the number of payload bytes which can be encoded with the given layout.
+     *
+     * @param numOfPixels number of pixels in the image
+     * @param depth       number of the least significant bits of every channel
+     * @param alpha       true if the alpha channel is used
+     *
+     * @return number of payload bytes
+     */
+    private static long getCapacity( long numOfPixels, int depth, boolean alpha ) {
+
+        int channels = alpha ? LsbRaster.ARGB_CHANNELS : LsbRaster.RGB_CHANNELS;
+        long numOfBytes = ( numOfPixels - HEADER_PIXELS ) * channels * depth / BITS_PER_BYTE;
 
-        String textToEncode = String.format( "%1$s %2$s", text.length(), text );
-        byte[] encode = BitHelper.getBytes( textToEncode );
+        return Math.min( Math.max( 0, numOfBytes ), Integer.MAX_VALUE );
+    }
+
+    /**
+     * Get an access to the header bits of an image for writing.
+     *
+     * @param image  buffered image
+     * @param header container header describing the layout
+     *
+     * @return access to the lowest bits of the R, G and B channels keeping the alpha if the payload uses it
+     */
+    private static LsbRaster getHeaderRaster( BufferedImage image, PayloadHeader header ) {
+
+        return LsbRaster.of( image, 0, 1, false, header.usesAlpha() );
+    }
+
+    /**
+     * Get an access to the payload bits of an image.
+     *
+     * @param image  buffered image
+     * @param header container header describing the layout
+     *
+     * @return access to the bits following the header, in the order of the key if the header tells so
+     *
+     * @throws Exception thrown if the payload is permuted and this instance has no key
+     */
+    private LsbRaster getPayloadRaster( BufferedImage image, PayloadHeader header ) throws Exception {
+
+        LsbRaster raster = LsbRaster.of( image, HEADER_PIXELS, header.getDepth(), header.usesAlpha(),
+                header.usesAlpha(), usesKernels() );
+
+        if( !header.isPermuted() ) {
+
+            return raster;
+        }
+
+        if( !keyed ) {
+
+            throw new Exception( KEY_ERROR );
+        }
+
+        return raster.permute( key );
+    }
+
+    /**
+     * Read the container header.
+     *
+     * @param image encoded buffered image
+     *
+     * @return container header or null if the image holds the legacy format
+     *
+     * @throws Exception thrown if the header is damaged
+     */
+    private static PayloadHeader readHeader( BufferedImage image ) throws Exception {
+
+        return readHeader( image, ( long ) image.getWidth() * image.getHeight() );
+    }
+
+    /**
+     * Read the container header from the top rows of an image.
+     *
+     * @param image       top rows of the encoded image, at least the header pixels
+     * @param numOfPixels number of pixels in the whole image
+     *
+     * @return container header or null if the image holds the legacy format
+     *
+     * @throws Exception thrown if the header is damaged
+     */
+    private static PayloadHeader readHeader( BufferedImage image, long numOfPixels ) throws Exception {
+
+        LsbRaster raster = LsbRaster.of( image );
+
+        if( raster.numOfPixels < HEADER_PIXELS ) {
+
+            throw new Exception( DECODING_ERROR );
+        }
+
+        if( !PayloadHeader.isContainer( raster.readBits( 0, BITS_PER_BYTE ) ) ) {
+
+            return null;
+        }
+
+        byte[] header = new byte[ PayloadHeader.SIZE ];
+        readBytes( raster, 0, header, header.length, new Progress( ProgressListener.NONE, header.length ) );
+
+        return parseHeader( header, numOfPixels, image.getType() );
+    }
+
+    /**
+     * Parse the container header and check that the image can hold the payload it declares.
+     *
+     * @param bytes       header bytes
+     * @param numOfPixels number of pixels in the image
+     * @param type        image type
+     *
+     * @return container header
+     *
+     * @throws Exception thrown if the header is damaged
+     */
+    private static PayloadHeader parseHeader( byte[] bytes, long numOfPixels, int type ) throws Exception {
+
+        PayloadHeader header = PayloadHeader.parse( bytes, Integer.MAX_VALUE );
+
+        if( ( header.usesAlpha() && !LsbRaster.hasAlpha( type ) )
+                || header.getStoredLength() > getCapacity( numOfPixels, header.getDepth(), header.usesAlpha() ) ) {
+
+            throw new Exception( DECODING_ERROR );
+        }
+
+        return header;
+    }
+
+    /**
+     * Read the whole stored payload, check it against the checksum and decompress it.
+     *
+     * @param image    encoded buffered image
+     * @param header   container header
+     * @param listener listener of the progress
+     *
+     * @return payload bytes
+     *
+     * @throws Exception thrown if the call is cancelled, the payload doesn't match the checksum or is damaged
+     */
+    private byte[] readPayload( BufferedImage image, PayloadHeader header, ProgressListener listener )
+            throws Exception {
+
+        int storedLength = header.getStoredLength();
+        byte[] bytes = new byte[ storedLength ];
+        readBytes( getPayloadRaster( image, header ), 0, bytes, storedLength, new Progress( listener, storedLength ) );
+
+        return Compression.decompress( header, header.checkPayload( bytes ) );
+    }
+
+    /**
+     * Write consecutive bytes.
+     *
+     * @param raster    access to the least significant bits of the image
+     * @param firstByte index of the byte to write bytes[ 0 ] into
+     * @param bytes     bytes to write
+     * @param count     number of bytes to write
+     * @param progress  progress of the call
+     *
+     * @throws InterruptedException thrown if the call is cancelled
+     */
+    private static void writeBytes( LsbRaster raster, long firstByte, byte[] bytes, int count, Progress progress )
+            throws InterruptedException {
+
+        for( int done = 0; done < count; ) {
+
+            int n = Math.min( PROGRESS_STEP, count - done );
+            raster.writeBytes( ( firstByte + done ) * BITS_PER_BYTE, bytes, done, n );
+
+            done += n;
+            progress.advance( n );
+        }
+    }
+
+    /**
+     * Read consecutive bytes.
+     *
+     * @param raster    access to the least significant bits of the image
+     * @param firstByte index of the byte to read into bytes[ 0 ]
+     * @param bytes     array to put read bytes into
+     * @param count     number of bytes to read
+     * @param progress  progress of the call
+     *
+     * @throws InterruptedException thrown if the call is cancelled
+     */
+    private static void readBytes( LsbRaster raster, long firstByte, byte[] bytes, int count, Progress progress )
+            throws InterruptedException {
+
+        for( int done = 0; done < count; ) {
+
+            int n = Math.min( PROGRESS_STEP, count - done );
+            raster.readBytes( ( firstByte + done ) * BITS_PER_BYTE, bytes, done, n );
+
+            done += n;
+            progress.advance( n );
+        }
+    }
+
+    /**
+     * Decode text written in the legacy "&lt;len&gt; &lt;text&gt;" format.
+     *
+     * @param raster access to the lowest bits of the R, G and B channels of the image
+     *
+     * @return decoded text
+     *
+     * @throws Exception thrown if the image doesn't contain a text
+     */
+    private static String decodeLegacy( LsbRaster raster ) throws Exception {
+
+        String digits = readLegacyLength( raster );
+        int textLength = Integer.parseInt( digits );
 
-        return encode;
+        /* The text goes after the length and the separator */
+        long firstByte = digits.length() + 1;
+        if( firstByte + textLength > raster.getCapacity() / LEGACY_BITS_PER_BYTE ) {
+
+            throw new Exception( DECODING_ERROR );
+        }
+
+        StringBuilder information = new StringBuilder( textLength );
+        for( int i = 0; i < textLength; i++ ) {
+
+            int value = raster.readBits( ( firstByte + i ) * LEGACY_BITS_PER_BYTE, LEGACY_BITS_PER_BYTE );
+            information.append( value > 127 ? '\uFFFD' : ( char ) value );
+        }
+
+        return information.toString();
+    }
+
+    /**
+     * Read the text length of the legacy format.
+     *
+     * @param raster access to the lowest bit of the R, G and B channels
+     *
+     * @return decimal digits of the text length
+     *
+     * @throws Exception thrown if the image doesn't start with a length and the separator
+     */
+    private static String readLegacyLength( LsbRaster raster ) throws Exception {
+
+        long numOfBytes = raster.getCapacity() / LEGACY_BITS_PER_BYTE;
+        StringBuilder digits = new StringBuilder();
+
+        /* Reading the text length until the separator */
+        for( long i = 0; i < numOfBytes; i++ ) {
+
+            int value = raster.readBits( i * LEGACY_BITS_PER_BYTE, LEGACY_BITS_PER_BYTE );
+
+            if( value == LEGACY_SEPARATOR && digits.length() > 0 ) {
+
+                return digits.toString();
+            }
+
+            if( value < '0' || value > '9' || digits.length() >= LEGACY_MAX_DIGITS ) {
+
+                throw new Exception( DECODING_ERROR );
+            }
+
+            digits.append( ( char ) value );
+        }
+
+        throw new Exception( DECODING_ERROR );
+    }
+
+    /**
+     * Encoder of the container into consecutive strips.<br>
+     * <p>
+     * The header goes into the first strip. Payload bytes go on from one strip to the next one, a byte may be split
+     * between two strips.
+     */
+    private static final class LsbStripEncoder extends StripEncoder {
+
+        private final PayloadHeader header;
+
+        /* Use the row kernels of the strips */
+        private final boolean kernels;
+
+        /* Byte being written and the number of its bits not written yet */
+        private int current, bitsLeft;
+
+        LsbStripEncoder( PayloadHeader header, InputStream payload, boolean kernels ) {
+
+            super( header.toBytes(), payload, header.length, true );
+            this.header = header;
+            this.kernels = kernels;
+        }
+
+        @Override
+        int encode( BufferedImage strip, int firstRow ) throws Exception {
+
+            int firstPixel = 0;
+
+            if( firstRow == 0 ) {
+
+                LsbRaster raster = getHeaderRaster( strip, header );
+                for( int i = 0; i < PayloadHeader.SIZE; i++ ) {
+
+                    raster.writeBits( ( long ) i * BITS_PER_BYTE, nextByte(), BITS_PER_BYTE );
+                }
+                firstPixel = HEADER_PIXELS;
+            }
+
+            LsbRaster raster = LsbRaster.of( strip, firstPixel, header.getDepth(), header.usesAlpha(),
+                    header.usesAlpha(), kernels );
+            long numOfBits = raster.getCapacity();
+            long position = 0;
+            int numOfPayloadBytes = 0;
+
+            while( position < numOfBits && !isDone() ) {
+
+                if( bitsLeft == 0 ) {
+
+                    current = nextByte();
+                    bitsLeft = BITS_PER_BYTE;
+                    numOfPayloadBytes++;
+                }
+
+                /* The lowest bits of the value are written, so the bits written before are skipped */
+                int count = ( int ) Math.min( bitsLeft, numOfBits - position );
+                raster.writeBits( position, current >>> ( bitsLeft - count ), count );
+
+                position += count;
+                bitsLeft -= count;
+            }
+
+            return numOfPayloadBytes;
+        }
+
+        @Override
+        boolean isDone() {
+
+            return bitsLeft == 0 && !hasNextByte();
+        }
+    }
+
+    /**
+     * Decoder of the container from consecutive strips.
+     */
+    private static final class LsbStripDecoder extends StripDecoder {
+
+        private final long numOfPixels;
+
+        /* Use the row kernels of the strips */
+        private final boolean kernels;
+
+        /* Header read from the first strip and the type of the strips */
+        private PayloadHeader header;
+        private int type;
+
+        /* Byte being read and the number of its bits read so far */
+        private int current, bitsRead;
+
+        LsbStripDecoder( OutputStream payload, long numOfPixels, boolean kernels ) {
+
+            super( PayloadHeader.SIZE, payload );
+            this.numOfPixels = numOfPixels;
+            this.kernels = kernels;
+        }
+
+        @Override
+        int decode( BufferedImage strip, int stripTop, int fromRow, int toRow ) throws Exception {
+
+            int firstPixel = 0;
+
+            if( fromRow == 0 ) {
+
+                type = strip.getType();
+
+                LsbRaster raster = LsbRaster.of( strip );
+                for( int i = 0; i < PayloadHeader.SIZE; i++ ) {
+
+                    putByte( raster.readBits( ( long ) i * BITS_PER_BYTE, BITS_PER_BYTE ) );
+                }
+                firstPixel = HEADER_PIXELS;
+            }
+
+            LsbRaster raster = LsbRaster.of( strip, firstPixel, header.getDepth(), header.usesAlpha(),
+                    header.usesAlpha(), kernels );
+            long numOfBits = raster.getCapacity();
+            long position = 0;
+            int numOfPayloadBytes = 0;
+
+            while( position < numOfBits && !isDone() ) {
+
+                int count = ( int ) Math.min( BITS_PER_BYTE - bitsRead, numOfBits - position );
+                current = ( current << count ) | raster.readBits( position, count );
+
+                position += count;
+                bitsRead += count;
+
+                if( bitsRead == BITS_PER_BYTE ) {
+
+                    putByte( current );
+                    numOfPayloadBytes++;
+
+                    current = 0;
+                    bitsRead = 0;
+                }
+            }
+
+            return numOfPayloadBytes;
+        }
+
+        @Override
+        PayloadHeader parseHead( byte[] head ) throws Exception {
+
+            if( !PayloadHeader.isContainer( head[ 0 ] ) ) {
+
+                throw new Exception( DECODING_ERROR );
+            }
+
+            header = parseHeader( head, numOfPixels, type );
+
+            if( header.isPermuted() ) {
+
+                throw new Exception( TILED_KEY_ERROR );
+            }
+            return header;
+        }
     }
+
+    /* Message of the exception thrown if the image doesn't contain a text */
+    private final static String DECODING_ERROR = "Ошибка в процессе декодирования. Убедитесь, что изображение содержит текст.";
 }
@@ -0,0 +1,1050 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+
+/**
+ * Access to the least significant bits of the channels of an image.<br>
+ * <p>
+ * The image is seen as a sequence of bits starting at a given pixel. Every pixel gives <code>depth</code> lowest bits
+ * of each of its channels: R, G, B and, if alpha is used, A. The bits of a channel go from the highest one, channels go
+ * in the R, G, B, A order and pixels are numbered row by row starting from the top left corner. With the depth of 1
+ * and no alpha, bit <code>3 * p</code> is the red component of the pixel <code>p</code>, <code>3 * p + 1</code> is the
+ * green one and <code>3 * p + 2</code> is the blue one.
+ * <p>
+ * For <code>TYPE_3BYTE_BGR</code>, <code>TYPE_INT_RGB</code> and <code>TYPE_INT_ARGB</code> images the bits are read
+ * and written right in the backing array of the raster without any per-pixel allocation. Other image types fall back
+ * to <code>getRGB</code> / <code>setRGB</code>. Alpha is used only in the images keeping it exactly:
+ * <code>TYPE_INT_ARGB</code> and <code>TYPE_4BYTE_ABGR</code>.
+ * <p>
+ * Runs of bytes are written and read in groups: as many bytes as fill a whole number of pixels, 3 bytes for 8 pixels
+ * with a bit per R, G and B channel. Every pixel of a group is written at once instead of a channel at a time.
+ * The array access and the groups make up the row kernels, which may be turned off by
+ * {@link #of(BufferedImage, int, int, boolean, boolean, boolean)}.
+ */
+abstract class LsbRaster {
+
+    /* Number of channels in a pixel without alpha */
+    static final int RGB_CHANNELS = 3;
+
+    /* Number of channels in a pixel with alpha */
+    static final int ARGB_CHANNELS = 4;
+
+    /* Maximal number of the least significant bits of a channel */
+    static final int MAX_DEPTH = 4;
+
+    /* Positions of the R, G, B and A channels in a packed ARGB pixel */
+    private static final int[] SHIFTS = { 16, 8, 0, 24 };
+
+    /* Width of the image in pixels */
+    final int width;
+
+    /* Number of pixels in the image */
+    final int numOfPixels;
+
+    /* Index of the pixel holding the first bit */
+    final int firstPixel;
+
+    /* Number of the least significant bits of every channel */
+    final int depth;
+
+    /* Number of channels of a pixel */
+    final int channels;
+
+    /* Keep the alpha of modified pixels instead of making them opaque */
+    final boolean keepAlpha;
+
+    /*
+     * Number of payload bytes filling a whole number of pixels and of the bits they take, or 0 if the pixels are
+     * accessed a channel at a time: a group wouldn't fit an int or the kernels are turned off
+     */
+    final int groupBytes;
+    final int groupBits;
+
+
+    private LsbRaster( BufferedImage image, int firstPixel, int depth, boolean alpha, boolean keepAlpha,
+                       boolean kernels ) {
+
+        width = image.getWidth();
+        numOfPixels = image.getWidth() * image.getHeight();
+        this.firstPixel = firstPixel;
+        this.depth = depth;
+        this.channels = alpha ? ARGB_CHANNELS : RGB_CHANNELS;
+        this.keepAlpha = alpha || keepAlpha;
+
+        /* The least common multiple of a byte and a pixel */
+        int pixelBits = channels * depth;
+        int bits = pixelBits;
+        while( bits % Byte.SIZE != 0 ) {
+
+            bits += pixelBits;
+        }
+
+        boolean grouped = kernels && bits < Integer.SIZE;
+        this.groupBits = grouped ? bits : 0;
+        this.groupBytes = grouped ? bits / Byte.SIZE : 0;
+    }
+
+    /**
+     * Copy the layout of another access.
+     *
+     * @param raster access to copy the layout of
+     */
+    private LsbRaster( LsbRaster raster ) {
+
+        width = raster.width;
+        numOfPixels = raster.numOfPixels;
+        firstPixel = raster.firstPixel;
+        depth = raster.depth;
+        channels = raster.channels;
+        keepAlpha = raster.keepAlpha;
+        groupBits = raster.groupBits;
+        groupBytes = raster.groupBytes;
+    }
+
+    /**
+     * Get an access to the lowest bit of the R, G and B channels of the image starting from the first pixel.
+     *
+     * @param image buffered image
+     *
+     * @return access to the least significant bits of the image
+     */
+    static LsbRaster of( BufferedImage image ) {
+
+        return of( image, 0, 1, false );
+    }
+
+    /**
+     * Get an access to the lowest bit of the R, G and B channels of the image with the row kernels or without them.
+     *
+     * @param image   buffered image
+     * @param kernels true to use the row kernels if the image type has them
+     *
+     * @return access to the least significant bits of the image
+     */
+    static LsbRaster of( BufferedImage image, boolean kernels ) {
+
+        return of( image, 0, 1, false, false, kernels );
+    }
+
+    /**
+     * Get an access to the least significant bits of the image.<br>
+     * <p>
+     * Choose the fastest access available for the image type.
+     *
+     * @param image      buffered image
+     * @param firstPixel index of the pixel holding the first bit
+     * @param depth      number of the least significant bits of every channel, 1 - {@value #MAX_DEPTH}
+     * @param alpha      true to use the alpha channel as well, only for an image {@link #hasAlpha(int) with alpha}
+     *
+     * @return access to the least significant bits of the image
+     */
+    static LsbRaster of( BufferedImage image, int firstPixel, int depth, boolean alpha ) {
+
+        return of( image, firstPixel, depth, alpha, alpha );
+    }
+
+    /**
+     * Get an access to the least significant bits of the image keeping the alpha of modified pixels if asked for.<br>
+     * <p>
+     * Unless alpha is kept, modified pixels become opaque, just like after <code>setRGB</code> with a
+     * <code>Color</code> without alpha.
+     *
+     * @param image      buffered image
+     * @param firstPixel index of the pixel holding the first bit
+     * @param depth      number of the least significant bits of every channel, 1 - {@value #MAX_DEPTH}
+     * @param alpha      true to use the alpha channel as well, only for an image {@link #hasAlpha(int) with alpha}
+     * @param keepAlpha  true to keep the alpha of modified pixels
+     *
+     * @return access to the least significant bits of the image
+     */
+    static LsbRaster of( BufferedImage image, int firstPixel, int depth, boolean alpha, boolean keepAlpha ) {
+
+        return of( image, firstPixel, depth, alpha, keepAlpha, true );
+    }
+
+    /**
+     * Get an access to the least significant bits of the image with the row kernels or without them.<br>
+     * <p>
+     * Without the kernels the bits of every image type are written and read a channel at a time through
+     * <code>getRGB</code> / <code>setRGB</code>. The bits are the same either way.
+     *
+     * @param image      buffered image
+     * @param firstPixel index of the pixel holding the first bit
+     * @param depth      number of the least significant bits of every channel, 1 - {@value #MAX_DEPTH}
+     * @param alpha      true to use the alpha channel as well, only for an image {@link #hasAlpha(int) with alpha}
+     * @param keepAlpha  true to keep the alpha of modified pixels
+     * @param kernels    true to use the row kernels if the image type has them
+     *
+     * @return access to the least significant bits of the image
+     */
+    static LsbRaster of( BufferedImage image, int firstPixel, int depth, boolean alpha, boolean keepAlpha,
+                         boolean kernels ) {
+
+        if( alpha && !hasAlpha( image.getType() ) ) {
+
+            throw new IllegalArgumentException( "Изображение не содержит альфа-канала." );
+        }
+
+        if( !kernels ) {
+
+            return new Generic( image, firstPixel, depth, alpha, keepAlpha, false );
+        }
+
+        byte[] bgr = RasterData.interleavedBgr( image );
+        if( bgr != null ) {
+
+            return new ByteBgr( image, firstPixel, depth, bgr );
+        }
+
+        int[] rgb = RasterData.packedRgb( image );
+        if( rgb != null ) {
+
+            return new IntRgb( image, firstPixel, depth, alpha, keepAlpha, rgb );
+        }
+
+        return new Generic( image, firstPixel, depth, alpha, keepAlpha, true );
+    }
+
+    /**
+     * Get an access to the same bits with the pixels taken in a keyed pseudo-random order.<br>
+     * <p>
+     * The pixels from the first one to the last one of the image are permuted, the bits inside a pixel keep their
+     * order. The first bits are spread over the whole image instead of its top rows.
+     *
+     * @param key secret key of the permutation
+     *
+     * @return access to the permuted pixels
+     */
+    LsbRaster permute( long key ) {
+
+        return new Permuted( this, new PositionPermutation( key, Math.max( 0, numOfPixels - firstPixel ) ) );
+    }
+
+    /**
+     * Check if the alpha channel of the image type can hold bits.
+     *
+     * @param type image type
+     *
+     * @return true for the types keeping alpha as it is, not premultiplied
+     */
+    static boolean hasAlpha( int type ) {
+
+        return type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_4BYTE_ABGR;
+    }
+
+    /**
+     * Check if the R, G and B channels of the image type can hold bits.<br>
+     * <p>
+     * The bits of most types go through <code>setRGB</code> / <code>getRGB</code>, so the type must keep the 8-bit
+     * values as they are. Gray, indexed, 5 and 6 bit and premultiplied types change them. A custom type can't be told
+     * by the type alone and is taken for keeping them: files are read as <code>TYPE_INT_RGB</code> or
+     * <code>TYPE_INT_ARGB</code> strips, and images are checked by {@link #keepsChannels(BufferedImage)}.
+     *
+     * @param type image type
+     *
+     * @return true for the types keeping the 8-bit R, G and B values exactly
+     */
+    static boolean keepsChannels( int type ) {
+
+        switch( type ) {
+
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_CUSTOM:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Check if the R, G and B channels of the image can hold bits.<br>
+     * <p>
+     * An image of a custom type keeps them if it has three sRGB components of at least 8 bits, not premultiplied.
+     *
+     * @param image buffered image
+     *
+     * @return true if the image keeps the 8-bit R, G and B values exactly
+     */
+    static boolean keepsChannels( BufferedImage image ) {
+
+        if( image.getType() != BufferedImage.TYPE_CUSTOM ) {
+
+            return keepsChannels( image.getType() );
+        }
+
+        ColorModel model = image.getColorModel();
+        if( model instanceof IndexColorModel || model.isAlphaPremultiplied()
+                || model.getNumColorComponents() != RGB_CHANNELS || !model.getColorSpace().isCS_sRGB() ) {
+
+            return false;
+        }
+
+        for( int i = 0; i < RGB_CHANNELS; i++ ) {
+
+            if( model.getComponentSize( i ) < Byte.SIZE ) {
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get a number of bits in the image.
+     *
+     * @return number of bits
+     */
+    long getCapacity() {
+
+        return Math.max( 0, ( long ) ( numOfPixels - firstPixel ) * channels * depth );
+    }
+
+    /**
+     * Write the count lowest bits of the value into consecutive bits, the most significant bit first.
+     *
+     * @param position index of the first bit to write into
+     * @param value    bits to write
+     * @param count    number of bits to write
+     */
+    void writeBits( long position, int value, int count ) {
+
+        if( depth == 1 ) {
+
+            writeSingleBits( position, value, count );
+            return;
+        }
+
+        long unit = position / depth;
+        int pixel = firstPixel + ( int ) ( unit / channels );
+        int channel = ( int ) ( unit % channels );
+
+        /* Number of the channel bits passed */
+        int offset = ( int ) ( position % depth );
+
+        while( count > 0 ) {
+
+            int n = Math.min( depth - offset, count );
+            int shift = depth - offset - n;
+            int mask = ( ( 1 << n ) - 1 ) << shift;
+
+            setBits( pixel, channel, mask, ( value >>> ( count - n ) ) << shift & mask );
+
+            count -= n;
+            offset = 0;
+
+            if( ++channel == channels ) {
+
+                channel = 0;
+                pixel++;
+            }
+        }
+    }
+
+    /**
+     * Read count consecutive bits, the most significant bit first.
+     *
+     * @param position index of the first bit to read
+     * @param count    number of bits to read
+     *
+     * @return read bits
+     */
+    int readBits( long position, int count ) {
+
+        if( depth == 1 ) {
+
+            return readSingleBits( position, count );
+        }
+
+        long unit = position / depth;
+        int pixel = firstPixel + ( int ) ( unit / channels );
+        int channel = ( int ) ( unit % channels );
+        int offset = ( int ) ( position % depth );
+        int value = 0;
+
+        while( count > 0 ) {
+
+            int n = Math.min( depth - offset, count );
+            int shift = depth - offset - n;
+
+            value = ( value << n ) | ( ( getSample( pixel, channel ) >>> shift ) & ( ( 1 << n ) - 1 ) );
+
+            count -= n;
+            offset = 0;
+
+            if( ++channel == channels ) {
+
+                channel = 0;
+                pixel++;
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Write consecutive bytes, the most significant bit of a byte first.<br>
+     * <p>
+     * Whole groups of bytes are written by {@link #writeGroups}, the rest a channel at a time.
+     *
+     * @param position index of the first bit to write into
+     * @param bytes    array holding the bytes to write
+     * @param offset   index of the first byte in the array
+     * @param count    number of bytes to write
+     */
+    void writeBytes( long position, byte[] bytes, int offset, int count ) {
+
+        int head = getUngroupedHead( position, count );
+        writeSingleBytes( position, bytes, offset, head );
+
+        int numOfGroups = groupBytes == 0 ? 0 : ( count - head ) / groupBytes;
+        if( numOfGroups > 0 ) {
+
+            writeGroups( getGroupPixel( position, head ), bytes, offset + head, numOfGroups );
+        }
+
+        int done = head + numOfGroups * groupBytes;
+        writeSingleBytes( position + ( long ) done * Byte.SIZE, bytes, offset + done, count - done );
+    }
+
+    /**
+     * Read consecutive bytes, the most significant bit of a byte first.<br>
+     * <p>
+     * Whole groups of bytes are read by {@link #readGroups}, the rest a channel at a time.
+     *
+     * @param position index of the first bit to read
+     * @param bytes    array to put read bytes into
+     * @param offset   index in the array to put the first byte into
+     * @param count    number of bytes to read
+     */
+    void readBytes( long position, byte[] bytes, int offset, int count ) {
+
+        int head = getUngroupedHead( position, count );
+        readSingleBytes( position, bytes, offset, head );
+
+        int numOfGroups = groupBytes == 0 ? 0 : ( count - head ) / groupBytes;
+        if( numOfGroups > 0 ) {
+
+            readGroups( getGroupPixel( position, head ), bytes, offset + head, numOfGroups );
+        }
+
+        int done = head + numOfGroups * groupBytes;
+        readSingleBytes( position + ( long ) done * Byte.SIZE, bytes, offset + done, count - done );
+    }
+
+    /**
+     * Get the number of bytes written or read a channel at a time before the first group starts.
+     *
+     * @param position index of the first bit of the bytes
+     * @param count    number of bytes
+     *
+     * @return number of bytes before the first pixel boundary at a group boundary, all of them if there are no groups
+     */
+    private int getUngroupedHead( long position, int count ) {
+
+        if( groupBytes == 0 || position % Byte.SIZE != 0 ) {
+
+            return count;
+        }
+
+        int head = ( int ) ( ( groupBytes - position / Byte.SIZE % groupBytes ) % groupBytes );
+        return Math.min( count, head );
+    }
+
+    /**
+     * Get the pixel a group starts at.
+     *
+     * @param position index of the first bit of the bytes
+     * @param head     number of the bytes before the group
+     *
+     * @return pixel index
+     */
+    private int getGroupPixel( long position, int head ) {
+
+        return firstPixel + ( int ) ( ( position + ( long ) head * Byte.SIZE ) / ( channels * depth ) );
+    }
+
+    /**
+     * Write consecutive bytes a channel at a time.<br>
+     * <p>
+     * The position in the image is kept from byte to byte, so every channel is touched once per its bits.
+     *
+     * @param position index of the first bit to write into
+     * @param bytes    array holding the bytes to write
+     * @param offset   index of the first byte in the array
+     * @param count    number of bytes to write
+     */
+    private void writeSingleBytes( long position, byte[] bytes, int offset, int count ) {
+
+        long unit = position / depth;
+        int pixel = firstPixel + ( int ) ( unit / channels );
+        int channel = ( int ) ( unit % channels );
+        int passed = ( int ) ( position % depth );
+
+        for( int i = 0; i < count; i++ ) {
+
+            int value = bytes[ offset + i ] & 0xFF;
+
+            /* A bit per channel needs no masks to be computed */
+            if( depth == 1 ) {
+
+                for( int bit = Byte.SIZE - 1; bit >= 0; bit-- ) {
+
+                    setBits( pixel, channel, 1, ( value >>> bit ) & 1 );
+
+                    if( ++channel == channels ) {
+
+                        channel = 0;
+                        pixel++;
+                    }
+                }
+                continue;
+            }
+
+            for( int left = Byte.SIZE; left > 0; ) {
+
+                int n = Math.min( depth - passed, left );
+                int shift = depth - passed - n;
+                int mask = ( ( 1 << n ) - 1 ) << shift;
+
+                setBits( pixel, channel, mask, ( value >>> ( left - n ) ) << shift & mask );
+
+                left -= n;
+                passed += n;
+
+                if( passed == depth ) {
+
+                    passed = 0;
+                    if( ++channel == channels ) {
+
+                        channel = 0;
+                        pixel++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read consecutive bytes a channel at a time.
+     *
+     * @param position index of the first bit to read
+     * @param bytes    array to put read bytes into
+     * @param offset   index in the array to put the first byte into
+     * @param count    number of bytes to read
+     */
+    private void readSingleBytes( long position, byte[] bytes, int offset, int count ) {
+
+        long unit = position / depth;
+        int pixel = firstPixel + ( int ) ( unit / channels );
+        int channel = ( int ) ( unit % channels );
+        int passed = ( int ) ( position % depth );
+
+        for( int i = 0; i < count; i++ ) {
+
+            int value = 0;
+
+            if( depth == 1 ) {
+
+                for( int bit = 0; bit < Byte.SIZE; bit++ ) {
+
+                    value = ( value << 1 ) | ( getSample( pixel, channel ) & 1 );
+
+                    if( ++channel == channels ) {
+
+                        channel = 0;
+                        pixel++;
+                    }
+                }
+                bytes[ offset + i ] = ( byte ) value;
+                continue;
+            }
+
+            for( int left = Byte.SIZE; left > 0; ) {
+
+                int n = Math.min( depth - passed, left );
+                int shift = depth - passed - n;
+
+                value = ( value << n ) | ( ( getSample( pixel, channel ) >>> shift ) & ( ( 1 << n ) - 1 ) );
+
+                left -= n;
+                passed += n;
+
+                if( passed == depth ) {
+
+                    passed = 0;
+                    if( ++channel == channels ) {
+
+                        channel = 0;
+                        pixel++;
+                    }
+                }
+            }
+
+            bytes[ offset + i ] = ( byte ) value;
+        }
+    }
+
+    /**
+     * Write bits with the depth of 1: a bit per channel.
+     *
+     * @param position index of the first bit to write into
+     * @param value    bits to write
+     * @param count    number of bits to write
+     */
+    private void writeSingleBits( long position, int value, int count ) {
+
+        int pixel = firstPixel + ( int ) ( position / channels );
+        int channel = ( int ) ( position % channels );
+
+        for( int i = count - 1; i >= 0; i-- ) {
+
+            setBits( pixel, channel, 1, ( value >>> i ) & 1 );
+
+            if( ++channel == channels ) {
+
+                channel = 0;
+                pixel++;
+            }
+        }
+    }
+
+    /**
+     * Read bits with the depth of 1: a bit per channel.
+     *
+     * @param position index of the first bit to read
+     * @param count    number of bits to read
+     *
+     * @return read bits
+     */
+    private int readSingleBits( long position, int count ) {
+
+        int pixel = firstPixel + ( int ) ( position / channels );
+        int channel = ( int ) ( position % channels );
+        int value = 0;
+
+        for( int i = 0; i < count; i++ ) {
+
+            value = ( value << 1 ) | ( getSample( pixel, channel ) & 1 );
+
+            if( ++channel == channels ) {
+
+                channel = 0;
+                pixel++;
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Write whole groups of bytes into the pixels they fill.<br>
+     * <p>
+     * The bytes of a group are joined into an int and every pixel takes its bits from it at once. The accesses with a
+     * backing array override it with a kernel working right in the array.
+     *
+     * @param pixel       index of the first pixel of the first group
+     * @param bytes       array holding the bytes to write
+     * @param offset      index of the first byte in the array
+     * @param numOfGroups number of groups to write
+     */
+    void writeGroups( int pixel, byte[] bytes, int offset, int numOfGroups ) {
+
+        int pixelBits = channels * depth;
+        int mask = ( 1 << depth ) - 1;
+
+        for( int g = 0; g < numOfGroups; g++ ) {
+
+            int group = joinGroup( bytes, offset + g * groupBytes );
+
+            for( int shift = groupBits - pixelBits; shift >= 0; shift -= pixelBits, pixel++ ) {
+
+                for( int c = 0; c < channels; c++ ) {
+
+                    setBits( pixel, c, mask, ( group >>> ( shift + ( channels - 1 - c ) * depth ) ) & mask );
+                }
+            }
+        }
+    }
+
+    /**
+     * Read whole groups of bytes from the pixels they fill.
+     *
+     * @param pixel       index of the first pixel of the first group
+     * @param bytes       array to put read bytes into
+     * @param offset      index in the array to put the first byte into
+     * @param numOfGroups number of groups to read
+     */
+    void readGroups( int pixel, byte[] bytes, int offset, int numOfGroups ) {
+
+        int mask = ( 1 << depth ) - 1;
+        int pixelsPerGroup = groupBits / ( channels * depth );
+
+        for( int g = 0; g < numOfGroups; g++ ) {
+
+            int group = 0;
+
+            for( int p = 0; p < pixelsPerGroup; p++, pixel++ ) {
+
+                for( int c = 0; c < channels; c++ ) {
+
+                    group = ( group << depth ) | ( getSample( pixel, c ) & mask );
+                }
+            }
+
+            splitGroup( group, bytes, offset + g * groupBytes );
+        }
+    }
+
+    /**
+     * Join the bytes of a group into an int, the first byte highest.
+     *
+     * @param bytes  array holding the bytes
+     * @param offset index of the first byte of the group
+     *
+     * @return bits of the group in the lowest {@link #groupBits} bits
+     */
+    final int joinGroup( byte[] bytes, int offset ) {
+
+        int group = 0;
+        for( int i = 0; i < groupBytes; i++ ) {
+
+            group = ( group << Byte.SIZE ) | ( bytes[ offset + i ] & 0xFF );
+        }
+
+        return group;
+    }
+
+    /**
+     * Split the bits of a group into bytes, the highest byte first.
+     *
+     * @param group  bits of the group in the lowest {@link #groupBits} bits
+     * @param bytes  array to put the bytes into
+     * @param offset index in the array to put the first byte into
+     */
+    final void splitGroup( int group, byte[] bytes, int offset ) {
+
+        for( int i = 0, shift = groupBits - Byte.SIZE; i < groupBytes; i++, shift -= Byte.SIZE ) {
+
+            bytes[ offset + i ] = ( byte ) ( group >>> shift );
+        }
+    }
+
+    /**
+     * Set the masked bits of a pixel channel.
+     *
+     * @param pixel   pixel index
+     * @param channel channel index: 0 - red, 1 - green, 2 - blue, 3 - alpha
+     * @param mask    mask of the bits to set
+     * @param bits    bits to set, zero outside the mask
+     */
+    abstract void setBits( int pixel, int channel, int mask, int bits );
+
+    /**
+     * Get the value of a pixel channel.
+     *
+     * @param pixel   pixel index
+     * @param channel channel index: 0 - red, 1 - green, 2 - blue, 3 - alpha
+     *
+     * @return channel value, 0 - 255
+     */
+    abstract int getSample( int pixel, int channel );
+
+    /**
+     * Set the masked bits of a channel in a packed ARGB pixel.<br>
+     * <p>
+     * Unless alpha is kept, the pixel becomes opaque.
+     *
+     * @param argb    packed pixel
+     * @param channel channel index
+     * @param mask    mask of the bits to set
+     * @param bits    bits to set, zero outside the mask
+     *
+     * @return modified pixel
+     */
+    int setPackedBits( int argb, int channel, int mask, int bits ) {
+
+        int shift = SHIFTS[ channel ];
+        argb = ( argb & ~( mask << shift ) ) | ( bits << shift );
+
+        return keepAlpha ? argb : argb | 0xFF000000;
+    }
+
+    /**
+     * Get a channel of a packed ARGB pixel.
+     *
+     * @param argb    packed pixel
+     * @param channel channel index
+     *
+     * @return channel value, 0 - 255
+     */
+    static int getPackedSample( int argb, int channel ) {
+
+        return ( argb >>> SHIFTS[ channel ] ) & 0xFF;
+    }
+
+
+    /**
+     * Access to a <code>TYPE_3BYTE_BGR</code> image through its byte array.
+     */
+    private static final class ByteBgr extends LsbRaster {
+
+        private final byte[] data;
+
+        private ByteBgr( BufferedImage image, int firstPixel, int depth, byte[] data ) {
+
+            super( image, firstPixel, depth, false, false, true );
+            this.data = data;
+        }
+
+        @Override
+        void setBits( int pixel, int channel, int mask, int bits ) {
+
+            /* Components are stored in B, G, R order */
+            int index = 3 * pixel + 2 - channel;
+            data[ index ] = ( byte ) ( ( data[ index ] & ~mask ) | bits );
+        }
+
+        @Override
+        int getSample( int pixel, int channel ) {
+
+            return data[ 3 * pixel + 2 - channel ] & 0xFF;
+        }
+
+        @Override
+        void writeGroups( int pixel, byte[] bytes, int offset, int numOfGroups ) {
+
+            int pixelBits = 3 * depth;
+            int mask = ( 1 << depth ) - 1;
+            int keep = ~mask;
+            int index = 3 * pixel;
+
+            for( int g = 0; g < numOfGroups; g++ ) {
+
+                int group = joinGroup( bytes, offset + g * groupBytes );
+
+                /* Components are stored in B, G, R order, the group bits of a pixel go in R, G, B order */
+                for( int shift = groupBits - pixelBits; shift >= 0; shift -= pixelBits, index += 3 ) {
+
+                    data[ index ] = ( byte ) ( ( data[ index ] & keep ) | ( ( group >>> shift ) & mask ) );
+                    data[ index + 1 ] = ( byte ) ( ( data[ index + 1 ] & keep )
+                            | ( ( group >>> ( shift + depth ) ) & mask ) );
+                    data[ index + 2 ] = ( byte ) ( ( data[ index + 2 ] & keep )
+                            | ( ( group >>> ( shift + 2 * depth ) ) & mask ) );
+                }
+            }
+        }
+
+        @Override
+        void readGroups( int pixel, byte[] bytes, int offset, int numOfGroups ) {
+
+            int pixelsPerGroup = groupBits / ( 3 * depth );
+            int mask = ( 1 << depth ) - 1;
+            int index = 3 * pixel;
+
+            for( int g = 0; g < numOfGroups; g++ ) {
+
+                int group = 0;
+
+                for( int p = 0; p < pixelsPerGroup; p++, index += 3 ) {
+
+                    group = ( group << depth ) | ( data[ index + 2 ] & mask );
+                    group = ( group << depth ) | ( data[ index + 1 ] & mask );
+                    group = ( group << depth ) | ( data[ index ] & mask );
+                }
+
+                splitGroup( group, bytes, offset + g * groupBytes );
+            }
+        }
+    }
+
+    /**
+     * Access to a <code>TYPE_INT_RGB</code> or <code>TYPE_INT_ARGB</code> image through its integer array.
+     */
+    private static final class IntRgb extends LsbRaster {
+
+        private final int[] data;
+
+        private IntRgb( BufferedImage image, int firstPixel, int depth, boolean alpha, boolean keepAlpha,
+                        int[] data ) {
+
+            super( image, firstPixel, depth, alpha, keepAlpha, true );
+            this.data = data;
+        }
+
+        @Override
+        void setBits( int pixel, int channel, int mask, int bits ) {
+
+            data[ pixel ] = setPackedBits( data[ pixel ], channel, mask, bits );
+        }
+
+        @Override
+        int getSample( int pixel, int channel ) {
+
+            return getPackedSample( data[ pixel ], channel );
+        }
+
+        @Override
+        void writeGroups( int pixel, byte[] bytes, int offset, int numOfGroups ) {
+
+            int pixelBits = channels * depth;
+            int mask = ( 1 << depth ) - 1;
+
+            /* Bits of all the channels of a pixel and the bits set in every modified pixel */
+            int keep = ~0;
+            for( int c = 0; c < channels; c++ ) {
+
+                keep &= ~( mask << SHIFTS[ c ] );
+            }
+            int opaque = keepAlpha ? 0 : 0xFF000000;
+
+            for( int g = 0; g < numOfGroups; g++ ) {
+
+                int group = joinGroup( bytes, offset + g * groupBytes );
+
+                for( int shift = groupBits - pixelBits; shift >= 0; shift -= pixelBits, pixel++ ) {
+
+                    int argb = data[ pixel ] & keep;
+                    for( int c = 0; c < channels; c++ ) {
+
+                        argb |= ( ( group >>> ( shift + ( channels - 1 - c ) * depth ) ) & mask ) << SHIFTS[ c ];
+                    }
+                    data[ pixel ] = argb | opaque;
+                }
+            }
+        }
+
+        @Override
+        void readGroups( int pixel, byte[] bytes, int offset, int numOfGroups ) {
+
+            int pixelsPerGroup = groupBits / ( channels * depth );
+            int mask = ( 1 << depth ) - 1;
+
+            for( int g = 0; g < numOfGroups; g++ ) {
+
+                int group = 0;
+
+                for( int p = 0; p < pixelsPerGroup; p++, pixel++ ) {
+
+                    int argb = data[ pixel ];
+                    for( int c = 0; c < channels; c++ ) {
+
+                        group = ( group << depth ) | ( ( argb >>> SHIFTS[ c ] ) & mask );
+                    }
+                }
+
+                splitGroup( group, bytes, offset + g * groupBytes );
+            }
+        }
+    }
+
+    /**
+     * Access to the pixels of another access in a permuted order.<br>
+     * <p>
+     * The position of the last pixel is cached, so the channels of a pixel are mapped only once in a row.
+     */
+    private static final class Permuted extends LsbRaster {
+
+        private final LsbRaster raster;
+        private final PositionPermutation permutation;
+
+        /* Index of the cached pixel in the payload order and in the image */
+        private int cachedPixel = -1, cachedPosition;
+
+        private Permuted( LsbRaster raster, PositionPermutation permutation ) {
+
+            super( raster );
+            this.raster = raster;
+            this.permutation = permutation;
+        }
+
+        @Override
+        void setBits( int pixel, int channel, int mask, int bits ) {
+
+            raster.setBits( getPosition( pixel ), channel, mask, bits );
+        }
+
+        @Override
+        int getSample( int pixel, int channel ) {
+
+            return raster.getSample( getPosition( pixel ), channel );
+        }
+
+        /**
+         * Get the index of a pixel in the image.
+         *
+         * @param pixel index of the pixel in the payload order
+         *
+         * @return index of the pixel in the image
+         */
+        private int getPosition( int pixel ) {
+
+            if( pixel != cachedPixel ) {
+
+                cachedPosition = firstPixel + permutation.apply( pixel - firstPixel );
+                cachedPixel = pixel;
+            }
+
+            return cachedPosition;
+        }
+    }
+
+    /**
+     * Access to an image of any other type through <code>getRGB</code> / <code>setRGB</code>.<br>
+     * <p>
+     * The last pixel read is cached, so the channels of a pixel are converted only once in a row.
+     */
+    private static final class Generic extends LsbRaster {
+
+        private final BufferedImage image;
+
+        /* Index and value of the cached pixel */
+        private int cachedPixel = -1, cachedArgb;
+
+        private Generic( BufferedImage image, int firstPixel, int depth, boolean alpha, boolean keepAlpha,
+                         boolean grouped ) {
+
+            super( image, firstPixel, depth, alpha, keepAlpha, grouped );
+            this.image = image;
+        }
+
+        @Override
+        void setBits( int pixel, int channel, int mask, int bits ) {
+
+            cachedArgb = setPackedBits( getArgb( pixel ), channel, mask, bits );
+            image.setRGB( pixel % width, pixel / width, cachedArgb );
+        }
+
+        @Override
+        int getSample( int pixel, int channel ) {
+
+            return getPackedSample( getArgb( pixel ), channel );
+        }
+
+        /**
+         * Get the pixel as a packed ARGB value.
+         *
+         * @param pixel pixel index
+         *
+         * @return packed pixel
+         */
+        private int getArgb( int pixel ) {
+
+            if( pixel != cachedPixel ) {
+
+                cachedArgb = image.getRGB( pixel % width, pixel / width );
+                cachedPixel = pixel;
+            }
+
+            return cachedArgb;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 codec in the spirit of LZ4.<br>
+ * <p>
+ * The compressed data is a sequence of blocks. A block is a token byte, literals and a match:
+ * <ul>
+ * <li>the high 4 bits of the token are the number of literals, the low 4 bits are the match length minus
+ * {@value #MIN_MATCH}; the value of 15 is continued by extra bytes added to it until a byte is not 255;</li>
+ * <li>the literals are copied as they are;</li>
+ * <li>the match is a 2 byte little-endian distance back into the output, 1 - 65535.</li>
+ * </ul>
+ * The last block has literals only and ends the data. Matches are found through a single hash table of 4 byte
+ * sequences without any search, so the codec is much faster than Deflate at the cost of a worse ratio.
+ */
+final class LzCodec {
+
+    /* Shortest match worth encoding */
+    private static final int MIN_MATCH = 4;
+
+    /* Longest distance of a match */
+    private static final int MAX_DISTANCE = 0xFFFF;
+
+    /* Size of the hash table of the 4 byte sequences as a power of two */
+    private static final int HASH_BITS = 12;
+
+    /* Value of a length field continued by extra bytes */
+    private static final int RUN_MASK = 15;
+
+
+    private LzCodec() {
+    }
+
+    /**
+     * Compress the data.
+     *
+     * @param data data to compress
+     *
+     * @return compressed data
+     */
+    static byte[] compress( byte[] data ) {
+
+        /* The worst case: all literals and the extra bytes of their count */
+        byte[] out = new byte[ data.length + data.length / 255 + 16 ];
+        int[] table = new int[ 1 << HASH_BITS ];
+        Arrays.fill( table, -1 );
+
+        int length = 0;
+        int anchor = 0;
+        int i = 0;
+
+        while( i + MIN_MATCH <= data.length ) {
+
+            int hash = hash( data, i );
+            int candidate = table[ hash ];
+            table[ hash ] = i;
+
+            if( candidate < 0 || i - candidate > MAX_DISTANCE || !startsEqual( data, candidate, i ) ) {
+
+                i++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while( i + matchLength < data.length && data[ candidate + matchLength ] == data[ i + matchLength ] ) {
+
+                matchLength++;
+            }
+
+            length = writeBlock( out, length, data, anchor, i - anchor, i - candidate, matchLength - MIN_MATCH );
+
+            i += matchLength;
+            anchor = i;
+        }
+
+        /* The last literals */
+        length = writeBlock( out, length, data, anchor, data.length - anchor, 0, 0 );
+
+        return Arrays.copyOf( out, length );
+    }
+
+    /**
+     * Decompress the data.
+     *
+     * @param data      compressed data
+     * @param maxLength maximal length of the decompressed data
+     *
+     * @return decompressed data
+     *
+     * @throws Exception thrown if the data is damaged or decompresses to more than the maximal length
+     */
+    static byte[] decompress( byte[] data, int maxLength ) throws Exception {
+
+        byte[] out = new byte[ ( int ) Math.min( Math.max( 64, data.length * 2L ), maxLength ) ];
+        int length = 0;
+        int i = 0;
+
+        while( i < data.length ) {
+
+            int token = data[ i++ ] & 0xFF;
+
+            /* Literals */
+            int literals = token >>> 4;
+            if( literals == RUN_MASK ) {
+
+                int extra;
+                do {
+
+                    checkInput( i, 1, data );
+                    extra = data[ i++ ] & 0xFF;
+                    literals += extra;
+                } while( extra == 255 );
+            }
+
+            checkInput( i, literals, data );
+            out = ensureCapacity( out, length, literals, maxLength );
+            System.arraycopy( data, i, out, length, literals );
+            i += literals;
+            length += literals;
+
+            /* The last block has no match */
+            if( i == data.length ) {
+
+                break;
+            }
+
+            /* Match */
+            checkInput( i, 2, data );
+            int distance = ( data[ i ] & 0xFF ) | ( ( data[ i + 1 ] & 0xFF ) << 8 );
+            i += 2;
+
+            int matchLength = token & RUN_MASK;
+            if( matchLength == RUN_MASK ) {
+
+                int extra;
+                do {
+
+                    checkInput( i, 1, data );
+                    extra = data[ i++ ] & 0xFF;
+                    matchLength += extra;
+                } while( extra == 255 );
+            }
+            matchLength += MIN_MATCH;
+
+            if( distance == 0 || distance > length ) {
+
+                throw new Exception( "Сжатые данные повреждены." );
+            }
+
+            /* Copying byte by byte since the match may overlap its own output */
+            out = ensureCapacity( out, length, matchLength, maxLength );
+            for( int from = length - distance, end = length + matchLength; length < end; ) {
+
+                out[ length++ ] = out[ from++ ];
+            }
+        }
+
+        return Arrays.copyOf( out, length );
+    }
+
+    /**
+     * Write a block: the token, the literals and the match if any.
+     *
+     * @param out         output array
+     * @param length      number of bytes in the output array
+     * @param data        source data
+     * @param from        index of the first literal in the source data
+     * @param literals    number of literals
+     * @param distance    match distance, 0 for the last block without a match
+     * @param matchLength match length minus {@value #MIN_MATCH}
+     *
+     * @return number of bytes in the output array
+     */
+    private static int writeBlock( byte[] out, int length, byte[] data, int from, int literals,
+                                   int distance, int matchLength ) {
+
+        out[ length++ ] = ( byte ) ( ( Math.min( literals, RUN_MASK ) << 4 ) | Math.min( matchLength, RUN_MASK ) );
+
+        length = writeExtraLength( out, length, literals );
+        System.arraycopy( data, from, out, length, literals );
+        length += literals;
+
+        if( distance > 0 ) {
+
+            out[ length++ ] = ( byte ) distance;
+            out[ length++ ] = ( byte ) ( distance >>> 8 );
+            length = writeExtraLength( out, length, matchLength );
+        }
+
+        return length;
+    }
+
+    /**
+     * Write the extra bytes of a length field.
+     *
+     * @param out    output array
+     * @param length number of bytes in the output array
+     * @param value  value of the length field
+     *
+     * @return number of bytes in the output array
+     */
+    private static int writeExtraLength( byte[] out, int length, int value ) {
+
+        if( value < RUN_MASK ) {
+
+            return length;
+        }
+
+        for( value -= RUN_MASK; value >= 255; value -= 255 ) {
+
+            out[ length++ ] = ( byte ) 255;
+        }
+        out[ length++ ] = ( byte ) value;
+
+        return length;
+    }
+
+    /**
+     * Get the hash of the 4 byte sequence.
+     *
+     * @param data  data
+     * @param index index of the first byte of the sequence
+     *
+     * @return hash, {@value #HASH_BITS} bits
+     */
+    private static int hash( byte[] data, int index ) {
+
+        int value = ( data[ index ] & 0xFF ) | ( ( data[ index + 1 ] & 0xFF ) << 8 )
+                | ( ( data[ index + 2 ] & 0xFF ) << 16 ) | ( ( data[ index + 3 ] & 0xFF ) << 24 );
+
+        return ( value * -1640531535 ) >>> ( 32 - HASH_BITS );
+    }
+
+    /**
+     * Check if the 4 byte sequences are equal.
+     *
+     * @param data data
+     * @param a    index of the first sequence
+     * @param b    index of the second sequence
+     *
+     * @return true if the sequences are equal
+     */
+    private static boolean startsEqual( byte[] data, int a, int b ) {
+
+        return data[ a ] == data[ b ] && data[ a + 1 ] == data[ b + 1 ]
+                && data[ a + 2 ] == data[ b + 2 ] && data[ a + 3 ] == data[ b + 3 ];
+    }
+
+    /**
+     * Check that the compressed data has enough bytes left.
+     *
+     * @param index index of the next byte
+     * @param count number of bytes needed
+     * @param data  compressed data
+     *
+     * @throws Exception thrown if the data ends too early
+     */
+    private static void checkInput( int index, int count, byte[] data ) throws Exception {
+
+        if( count < 0 || index + count > data.length ) {
+
+            throw new Exception( "Сжатые данные повреждены." );
+        }
+    }
+
+    /**
+     * Grow the output array if it is small.
+     *
+     * @param out       output array
+     * @param length    number of bytes in the output array
+     * @param count     number of bytes to add
+     * @param maxLength maximal length of the decompressed data
+     *
+     * @return output array with room for the added bytes
+     *
+     * @throws Exception thrown if the added bytes don't fit the maximal length
+     */
+    private static byte[] ensureCapacity( byte[] out, int length, int count, int maxLength ) throws Exception {
+
+        if( count < 0 || count > maxLength - length ) {
+
+            throw new Exception( "Сжатые данные повреждены." );
+        }
+
+        int needed = length + count;
+        return needed <= out.length ? out
+                : Arrays.copyOf( out, ( int ) Math.min( Math.max( needed, out.length * 2L ), maxLength ) );
+    }
+}
@@ -0,0 +1,506 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Header of the binary payload container.<br>
+ * <p>
+ * The container is the header followed by the raw payload bytes. The header layout is:
+ * <ul>
+ * <li>1 byte - version marker: the high bit is always set and the rest is the format version;</li>
+ * <li>1 byte - flags: the payload is binary, the LSB depth, the use of alpha, the compression codec, the KJB
+ * error correction parameters following the header and the payload positions permuted with a key;</li>
+ * <li>4 bytes - length of the stored payload in bytes, big-endian; the compressed length if it is compressed.</li>
+ * </ul>
+ * The stored payload is split into blocks of {@value #BLOCK_SIZE} bytes, the last one may be shorter, and every block
+ * is followed by its CRC-32, big-endian. An empty payload is a single empty block. The checksums are computed while
+ * the payload is written and every block is checked right after it is read, before the payload is decompressed or
+ * turned into a text. A streaming decoder checks every block before it writes the block out, so a damaged payload
+ * stops the decoding before any damaged byte is written, and a range of the payload is checked by the blocks covering
+ * it. The checksums can't go into the header itself: the tiled encoder writes the header before it reads the payload.
+ * A compressed payload starts with its uncompressed length (see {@link Compression}).
+ * The high bit of the version marker makes the container distinguishable from the legacy formats: the LSB
+ * "&lt;length&gt; &lt;text&gt;" which always starts with an ASCII digit and the KJB 4 byte length which always starts
+ * with a zero byte.
+ */
+final class PayloadHeader {
+
+    /* Current version of the container format */
+    static final int VERSION = 1;
+
+    /* Number of the stored payload bytes covered by a checksum */
+    static final int BLOCK_SIZE = 4096;
+
+    /* Size of the checksum in bytes */
+    static final int CHECKSUM_SIZE = 4;
+
+    /* Size of the header in bytes */
+    static final int SIZE = 6;
+
+    /* The payload is arbitrary binary data rather than UTF-8 text */
+    static final int FLAG_BINARY = 1;
+
+    /* LSB: the number of the least significant bits of every channel minus one, two bits of the flags */
+    static final int DEPTH_SHIFT = 1;
+    static final int DEPTH_MASK = 3 << DEPTH_SHIFT;
+
+    /* LSB: the alpha channel holds the payload as well */
+    static final int FLAG_ALPHA = 8;
+
+    /* Codec the payload is compressed with, one of the Compression constants, two bits of the flags */
+    static final int COMPRESSION_SHIFT = 4;
+    static final int COMPRESSION_MASK = 3 << COMPRESSION_SHIFT;
+
+    /* KJB: the error correction parameters follow the header */
+    static final int FLAG_PARAMETERS = 64;
+
+    /* The payload positions are permuted with a key, see PositionPermutation */
+    static final int FLAG_PERMUTED = 128;
+
+    /* Version of the headers read from the legacy formats */
+    static final int LEGACY_VERSION = 0;
+
+    /* High bit of the first byte marking the binary container */
+    private static final int VERSION_MARKER = 0x80;
+
+    /* All the flags known to the current version */
+    private static final int KNOWN_FLAGS = FLAG_BINARY | DEPTH_MASK | FLAG_ALPHA | COMPRESSION_MASK | FLAG_PARAMETERS
+            | FLAG_PERMUTED;
+
+
+    /* Format version */
+    final int version;
+
+    /* Container flags */
+    final int flags;
+
+    /* Stored payload length in bytes */
+    final int length;
+
+
+    /**
+     * Make a header of the current version.
+     *
+     * @param flags  container flags
+     * @param length stored payload length in bytes
+     */
+    PayloadHeader( int flags, int length ) {
+
+        this( VERSION, flags, length );
+    }
+
+    /**
+     * Make a header of the given version.
+     *
+     * @param version format version, {@link #LEGACY_VERSION} for a legacy format
+     * @param flags   container flags
+     * @param length  stored payload length in bytes
+     */
+    PayloadHeader( int version, int flags, int length ) {
+
+        this.version = version;
+        this.flags = flags;
+        this.length = length;
+    }
+
+    /**
+     * Check if the first byte of a stream marks the binary container.
+     *
+     * @param firstByte first byte of the stream
+     *
+     * @return true if the stream starts with the container header
+     */
+    static boolean isContainer( int firstByte ) {
+
+        return ( firstByte & VERSION_MARKER ) != 0;
+    }
+
+    /**
+     * Parse and validate the header.
+     *
+     * @param bytes     header bytes
+     * @param maxLength maximal payload length which can be stored in the image
+     *
+     * @return parsed header
+     *
+     * @throws Exception thrown if the header is damaged or has an unknown version
+     */
+    static PayloadHeader parse( byte[] bytes, long maxLength ) throws Exception {
+
+        int version = bytes[ 0 ] & 0xFF;
+        int flags = bytes[ 1 ] & 0xFF;
+        int length = ( ( bytes[ 2 ] & 0xFF ) << 24 ) |
+                ( ( bytes[ 3 ] & 0xFF ) << 16 ) |
+                ( ( bytes[ 4 ] & 0xFF ) << 8 ) |
+                ( bytes[ 5 ] & 0xFF );
+
+        if( version != ( VERSION_MARKER | VERSION ) || ( flags & ~KNOWN_FLAGS ) != 0
+                || !Compression.isKnown( ( flags & COMPRESSION_MASK ) >>> COMPRESSION_SHIFT ) ) {
+
+            throw new Exception( DECODING_ERROR );
+        }
+
+        /* The stored length must fit an array */
+        if( length < 0 || length > maxLength || getStoredLength( length ) > Integer.MAX_VALUE ) {
+
+            throw new Exception( DECODING_ERROR );
+        }
+
+        return new PayloadHeader( VERSION, flags, length );
+    }
+
+    /**
+     * Get the header as a byte array.
+     *
+     * @return header bytes
+     */
+    byte[] toBytes() {
+
+        byte[] bytes = new byte[ SIZE ];
+
+        bytes[ 0 ] = ( byte ) ( VERSION_MARKER | version );
+        bytes[ 1 ] = ( byte ) flags;
+        bytes[ 2 ] = ( byte ) ( ( length >>> 24 ) & 0xFF );
+        bytes[ 3 ] = ( byte ) ( ( length >>> 16 ) & 0xFF );
+        bytes[ 4 ] = ( byte ) ( ( length >>> 8 ) & 0xFF );
+        bytes[ 5 ] = ( byte ) ( length & 0xFF );
+
+        return bytes;
+    }
+
+    /**
+     * Get the number of bytes of the checksums following the blocks of the stored payload.
+     *
+     * @return {@value #CHECKSUM_SIZE} per block, 0 for the legacy formats
+     */
+    int getChecksumSize() {
+
+        return ( version == LEGACY_VERSION ) ? 0 : ( int ) getNumOfBlocks( length ) * CHECKSUM_SIZE;
+    }
+
+    /**
+     * Get the number of bytes the stored payload takes with its checksums.
+     *
+     * @return stored payload length with the checksums in bytes
+     */
+    int getStoredLength() {
+
+        return length + getChecksumSize();
+    }
+
+    /**
+     * Get the number of bytes a stored payload takes with its checksums in the container.
+     *
+     * @param length stored payload length in bytes
+     *
+     * @return stored payload length with the checksums in bytes
+     */
+    static long getStoredLength( long length ) {
+
+        return length + getNumOfBlocks( length ) * CHECKSUM_SIZE;
+    }
+
+    /**
+     * Get the maximal length of a stored payload which takes no more than the given number of bytes with its
+     * checksums in the container.
+     *
+     * @param storedLength number of bytes for the stored payload with the checksums
+     *
+     * @return stored payload length in bytes, -1 if there is no room even for the checksum of an empty payload
+     */
+    static long getMaxLength( long storedLength ) {
+
+        if( storedLength < CHECKSUM_SIZE ) {
+
+            return -1;
+        }
+
+        long numOfBlocks = storedLength / ( BLOCK_SIZE + CHECKSUM_SIZE );
+        long rest = storedLength - numOfBlocks * ( BLOCK_SIZE + CHECKSUM_SIZE );
+
+        return numOfBlocks * BLOCK_SIZE + Math.max( 0, rest - CHECKSUM_SIZE );
+    }
+
+    /**
+     * Get the number of blocks of a stored payload in the container.
+     *
+     * @param length stored payload length in bytes
+     *
+     * @return number of blocks, at least 1
+     */
+    private static long getNumOfBlocks( long length ) {
+
+        return Math.max( 1, ( length + BLOCK_SIZE - 1 ) / BLOCK_SIZE );
+    }
+
+    /**
+     * Follow every block of the stored payload with its checksum.
+     *
+     * @param payload stored payload
+     *
+     * @return stored payload with the checksums
+     */
+    static byte[] addChecksums( byte[] payload ) {
+
+        byte[] stored = new byte[ ( int ) getStoredLength( payload.length ) ];
+        Checksum checksum = new CRC32();
+
+        for( int offset = 0, position = 0; position < stored.length; offset += BLOCK_SIZE ) {
+
+            int count = Math.min( BLOCK_SIZE, payload.length - offset );
+            checksum.reset();
+            checksum.update( payload, offset, count );
+
+            System.arraycopy( payload, offset, stored, position, count );
+            System.arraycopy( getChecksumBytes( checksum ), 0, stored, position + count, CHECKSUM_SIZE );
+            position += count + CHECKSUM_SIZE;
+        }
+
+        return stored;
+    }
+
+    /**
+     * Check every block of the stored payload against the checksum following it.
+     *
+     * @param stored stored payload with the checksums unless it is in a legacy format
+     *
+     * @return stored payload without the checksums
+     *
+     * @throws Exception thrown if a block doesn't match its checksum
+     */
+    byte[] checkPayload( byte[] stored ) throws Exception {
+
+        if( getChecksumSize() == 0 ) {
+
+            return stored;
+        }
+
+        return checkBlocks( stored, 0, length );
+    }
+
+    /**
+     * Get the index of the first stored byte to read for a range of the payload.<br>
+     * <p>
+     * It is the first byte of the block holding the range start, so the range is checked by the checksums of its
+     * blocks. A range of a legacy format is read unchecked.
+     *
+     * @param offset index of the first payload byte of the range
+     *
+     * @return index of the first stored byte
+     */
+    long getRangeStart( long offset ) {
+
+        if( version == LEGACY_VERSION ) {
+
+            return offset;
+        }
+
+        return offset / BLOCK_SIZE * ( BLOCK_SIZE + CHECKSUM_SIZE );
+    }
+
+    /**
+     * Get the index of the stored byte after the last one to read for a range of the payload.<br>
+     * <p>
+     * It is the byte after the checksum of the block holding the range end.
+     *
+     * @param offset index of the first payload byte of the range
+     * @param count  number of the payload bytes of the range
+     *
+     * @return index of the stored byte after the range
+     */
+    long getRangeEnd( long offset, int count ) {
+
+        if( version == LEGACY_VERSION ) {
+
+            return offset + count;
+        }
+
+        if( count == 0 ) {
+
+            return getRangeStart( offset );
+        }
+
+        long lastBlock = ( offset + count - 1 ) / BLOCK_SIZE;
+        long blockEnd = Math.min( ( lastBlock + 1 ) * BLOCK_SIZE, length );
+
+        return lastBlock * ( BLOCK_SIZE + CHECKSUM_SIZE ) + ( blockEnd - lastBlock * BLOCK_SIZE ) + CHECKSUM_SIZE;
+    }
+
+    /**
+     * Check the blocks read for a range of the payload and take the range out of them.
+     *
+     * @param stored stored bytes from {@link #getRangeStart(long)} to {@link #getRangeEnd(long, int)}
+     * @param offset index of the first payload byte of the range
+     * @param count  number of the payload bytes of the range
+     *
+     * @return payload bytes of the range
+     *
+     * @throws Exception thrown if a block doesn't match its checksum
+     */
+    byte[] checkPayloadRange( byte[] stored, long offset, int count ) throws Exception {
+
+        if( version == LEGACY_VERSION ) {
+
+            return stored;
+        }
+
+        return checkBlocks( stored, offset, count );
+    }
+
+    /**
+     * Check the stored blocks against their checksums and take a range of the payload out of them.
+     *
+     * @param stored stored blocks with the checksums, starting with the block holding the range start
+     * @param offset index of the first payload byte of the range
+     * @param count  number of the payload bytes of the range
+     *
+     * @return payload bytes of the range
+     *
+     * @throws Exception thrown if a block doesn't match its checksum
+     */
+    private byte[] checkBlocks( byte[] stored, long offset, int count ) throws Exception {
+
+        byte[] bytes = new byte[ count ];
+        Checksum checksum = new CRC32();
+        long blockStart = offset - offset % BLOCK_SIZE;
+        int position = 0;
+
+        while( position < stored.length ) {
+
+            int blockLength = ( int ) Math.min( BLOCK_SIZE, length - blockStart );
+            checksum.reset();
+            checksum.update( stored, position, blockLength );
+            checkChecksum( checksum, stored, position + blockLength );
+
+            /* Copying the part of the block inside the range */
+            long from = Math.max( blockStart, offset );
+            long to = Math.min( blockStart + blockLength, offset + count );
+            System.arraycopy( stored, position + ( int ) ( from - blockStart ), bytes, ( int ) ( from - offset ),
+                    ( int ) Math.max( 0, to - from ) );
+
+            position += blockLength + CHECKSUM_SIZE;
+            blockStart += blockLength;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Get the checksum as it is stored after the payload.
+     *
+     * @param checksum checksum of the stored payload
+     *
+     * @return {@value #CHECKSUM_SIZE} checksum bytes, big-endian
+     */
+    static byte[] getChecksumBytes( Checksum checksum ) {
+
+        int value = ( int ) checksum.getValue();
+        return new byte[] { ( byte ) ( value >>> 24 ), ( byte ) ( value >>> 16 ), ( byte ) ( value >>> 8 ),
+                ( byte ) value };
+    }
+
+    /**
+     * Compare the checksum computed over the read payload with the stored one.
+     *
+     * @param checksum checksum of the read payload
+     * @param bytes    array holding the stored checksum
+     * @param offset   index of the first checksum byte
+     *
+     * @throws Exception thrown if the checksums differ
+     */
+    static void checkChecksum( Checksum checksum, byte[] bytes, int offset ) throws Exception {
+
+        byte[] expected = getChecksumBytes( checksum );
+
+        for( int i = 0; i < CHECKSUM_SIZE; i++ ) {
+
+            if( bytes[ offset + i ] != expected[ i ] ) {
+
+                throw new Exception( CHECKSUM_ERROR );
+            }
+        }
+    }
+
+    /**
+     * Check if the payload is binary data.
+     *
+     * @return true if the payload is not a UTF-8 text
+     */
+    boolean isBinary() {
+
+        return ( flags & FLAG_BINARY ) != 0;
+    }
+
+    /**
+     * Check if the payload positions are permuted with a key.
+     *
+     * @return true if the payload is permuted
+     */
+    boolean isPermuted() {
+
+        return ( flags & FLAG_PERMUTED ) != 0;
+    }
+
+    /**
+     * Get the flags describing the LSB layout of the payload.
+     *
+     * @param depth number of the least significant bits of every channel, 1 - 4
+     * @param alpha true if the alpha channel holds the payload as well
+     *
+     * @return layout flags
+     */
+    static int layoutFlags( int depth, boolean alpha ) {
+
+        return ( ( depth - 1 ) << DEPTH_SHIFT ) | ( alpha ? FLAG_ALPHA : 0 );
+    }
+
+    /**
+     * Get the number of the least significant bits of every channel holding the payload.
+     *
+     * @return number of bits, 1 - 4
+     */
+    int getDepth() {
+
+        return ( ( flags & DEPTH_MASK ) >>> DEPTH_SHIFT ) + 1;
+    }
+
+    /**
+     * Check if the alpha channel holds the payload as well.
+     *
+     * @return true if alpha is used
+     */
+    boolean usesAlpha() {
+
+        return ( flags & FLAG_ALPHA ) != 0;
+    }
+
+    /**
+     * Get the flags telling the codec the payload is compressed with.
+     *
+     * @param codec codec, one of the {@link Compression} constants
+     *
+     * @return compression flags
+     */
+    static int compressionFlags( int codec ) {
+
+        return codec << COMPRESSION_SHIFT;
+    }
+
+    /**
+     * Get the codec the payload is compressed with.
+     *
+     * @return codec, one of the {@link Compression} constants
+     */
+    int getCompression() {
+
+        return ( flags & COMPRESSION_MASK ) >>> COMPRESSION_SHIFT;
+    }
+
+    /* Message of the exception thrown if the header is damaged */
+    private static final String DECODING_ERROR = "Ошибка в процессе декодирования. Убедитесь, что изображение содержит текст.";
+
+    /* Message of the exception thrown if the payload doesn't match its checksum */
+    static final String CHECKSUM_ERROR = "Ошибка в процессе декодирования: контрольная сумма не совпадает, данные повреждены.";
+}
@@ -0,0 +1,124 @@
+package ru.petrenko_alex.image_steganography;
+
+
+/**
+ * Metadata of the payload an image holds, read from the header alone.<br>
+ * <p>
+ * Made by {@link SteganographyAlgorithm#probe(java.awt.image.BufferedImage)}. The header is checked against the
+ * capacity of the image, but the payload itself is not read, so it may still turn out damaged when it is decoded.
+ * The confidence tells how sure the algorithm is that the header is not a chance pattern of a clean image, so the
+ * results of different algorithms can be compared, see {@link AlgorithmDetector}.
+ */
+public final class PayloadInfo {
+
+    /* Confidence of a header matched exactly */
+    static final double FULL_CONFIDENCE = 1.0;
+
+    /* Factor of the confidence of a legacy format: it has no marker, only a length that must fit the image */
+    static final double LEGACY_FACTOR = 0.5;
+
+    /* Name of the algorithm the payload is encoded with, as it is registered in the factory */
+    private final String algorithm;
+
+    /* Container header, the legacy formats are turned into a header of the legacy version */
+    private final PayloadHeader header;
+
+    /* Confidence of the header, 0 - 1 */
+    private final double confidence;
+
+
+    /**
+     * @param algorithm  name of the algorithm
+     * @param header     container header
+     * @param confidence confidence of the header before the legacy factor, 0 - 1
+     */
+    PayloadInfo( String algorithm, PayloadHeader header, double confidence ) {
+
+        this.algorithm = algorithm;
+        this.header = header;
+        this.confidence = ( header.version == PayloadHeader.LEGACY_VERSION ) ? confidence * LEGACY_FACTOR : confidence;
+    }
+
+    /**
+     * Get the name of the algorithm the payload is encoded with.
+     *
+     * @return name of the algorithm, see {@link SteganographyAlgorithmFactory#getSteganographyAlgorithm(String)}
+     */
+    public String getAlgorithm() {
+
+        return algorithm;
+    }
+
+    /**
+     * Get the version of the container format.
+     *
+     * @return format version, 0 for the legacy formats
+     */
+    public int getVersion() {
+
+        return header.version;
+    }
+
+    /**
+     * Check if the payload is stored in one of the legacy formats.
+     *
+     * @return true if the image holds a legacy text
+     */
+    public boolean isLegacy() {
+
+        return header.version == PayloadHeader.LEGACY_VERSION;
+    }
+
+    /**
+     * Get the length of the payload as it is stored.
+     *
+     * @return number of the payload bytes, the compressed ones if the payload is compressed
+     */
+    public int getLength() {
+
+        return header.length;
+    }
+
+    /**
+     * Check if the payload is binary data rather than a text.
+     *
+     * @return true if the payload is binary
+     */
+    public boolean isBinary() {
+
+        return header.isBinary();
+    }
+
+    /**
+     * Check if the payload is compressed.
+     *
+     * @return true if the payload is compressed
+     */
+    public boolean isCompressed() {
+
+        return header.getCompression() != Compression.NONE;
+    }
+
+    /**
+     * Check if the payload positions are permuted with a key, so it is decoded only with the key.
+     *
+     * @return true if the payload is keyed
+     */
+    public boolean isKeyed() {
+
+        return header.isPermuted();
+    }
+
+    /**
+     * Get the confidence that the image really holds the payload rather than a chance pattern looking as a header.<br>
+     * <p>
+     * A header matched exactly has the confidence of 1, a header read by a vote over repeated bits has the share of
+     * the votes won. The legacy formats have half the confidence.
+     *
+     * @return confidence, 0 - 1
+     */
+    public double getConfidence() {
+
+        return confidence;
+    }
+}
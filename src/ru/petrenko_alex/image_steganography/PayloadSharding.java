@@ -0,0 +1,395 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * Payload split into shards across a set of cover images.<br>
+ * <p>
+ * A payload too big for a single cover is split into consecutive shards, a shard per cover, sized in proportion to
+ * the capacities of the covers. Every shard is encoded as a binary payload prefixed with a shard header:
+ * <ul>
+ * <li>2 bytes - marker "SH";</li>
+ * <li>4 bytes - CRC-32 of the whole payload: the id of the set and the check of the reassembled payload;</li>
+ * <li>2 bytes - index of the shard, from 0;</li>
+ * <li>2 bytes - number of the shards;</li>
+ * <li>4 bytes - length of the whole payload in bytes.</li>
+ * </ul>
+ * All the numbers are big-endian. The covers are encoded and decoded in parallel, and the encoded images may be
+ * decoded in any order.
+ */
+public final class PayloadSharding {
+
+    /* Size of the shard header in bytes */
+    public static final int HEADER_SIZE = 14;
+
+    /* Maximal number of the shards of a payload */
+    public static final int MAX_SHARDS = 0xFFFF;
+
+    /* Marker the shard header starts with */
+    private static final short MARKER = 0x5348;
+
+
+    private PayloadSharding() {
+    }
+
+    /**
+     * Get the number of payload bytes a set of covers can hold.
+     *
+     * @param algorithm algorithm the covers are to be encoded with
+     * @param covers    cover images
+     *
+     * @return number of payload bytes, excluding the shard headers
+     */
+    public static long capacity( SteganographyAlgorithm algorithm, BufferedImage... covers ) {
+
+        long capacity = 0;
+        for( BufferedImage cover : covers ) {
+
+            capacity += Math.max( 0, algorithm.capacity( cover ) - HEADER_SIZE );
+        }
+
+        return capacity;
+    }
+
+    /**
+     * Encode the payload across the covers in the common pool.
+     *
+     * @param algorithm algorithm to encode the shards with
+     * @param payload   payload to encode
+     * @param covers    cover images, left untouched
+     *
+     * @return encoded copies of the covers in the same order
+     *
+     * @throws Exception thrown if the covers are small for the payload or a shard can't be encoded
+     */
+    public static BufferedImage[] encode( SteganographyAlgorithm algorithm, byte[] payload, BufferedImage... covers )
+            throws Exception {
+
+        return encode( algorithm, payload, covers, ForkJoinPool.commonPool() );
+    }
+
+    /**
+     * Encode the payload across the covers.<br>
+     * <p>
+     * Every cover gets a shard, possibly an empty one, so every cover must have room for the shard header.
+     *
+     * @param algorithm algorithm to encode the shards with
+     * @param payload   payload to encode
+     * @param covers    cover images, left untouched
+     * @param pool      pool to encode the covers in
+     *
+     * @return encoded copies of the covers in the same order
+     *
+     * @throws Exception thrown if the covers are small for the payload or a shard can't be encoded
+     */
+    public static BufferedImage[] encode( SteganographyAlgorithm algorithm, byte[] payload, BufferedImage[] covers,
+                                          ForkJoinPool pool ) throws Exception {
+
+        if( covers.length == 0 || covers.length > MAX_SHARDS ) {
+
+            throw new IllegalArgumentException( "Число изображений должно быть от 1 до " + MAX_SHARDS + ": "
+                    + covers.length );
+        }
+
+        long[] room = new long[ covers.length ];
+        long totalRoom = 0;
+
+        for( int i = 0; i < covers.length; i++ ) {
+
+            room[ i ] = algorithm.capacity( covers[ i ] ) - HEADER_SIZE;
+            if( room[ i ] < 0 ) {
+
+                throw new Exception( "Изображение " + ( i + 1 ) + " слишком мало для заголовка части данных." );
+            }
+            totalRoom += room[ i ];
+        }
+
+        if( payload.length > totalRoom ) {
+
+            throw new Exception( "Изображения слишком малы для заданных данных." );
+        }
+
+        int[] sizes = split( payload.length, room, totalRoom );
+        int crc = getCrc( payload );
+
+        List< Callable< BufferedImage > > tasks = new ArrayList<>( covers.length );
+
+        for( int i = 0, offset = 0; i < covers.length; offset += sizes[ i ], i++ ) {
+
+            byte[] shard = ByteBuffer.allocate( HEADER_SIZE + sizes[ i ] )
+                    .putShort( MARKER )
+                    .putInt( crc )
+                    .putShort( ( short ) i )
+                    .putShort( ( short ) covers.length )
+                    .putInt( payload.length )
+                    .put( payload, offset, sizes[ i ] )
+                    .array();
+
+            BufferedImage cover = covers[ i ];
+            tasks.add( () -> algorithm.encode( new ByteArrayInputStream( shard ), cover ) );
+        }
+
+        return invokeAll( pool, tasks ).toArray( new BufferedImage[ 0 ] );
+    }
+
+    /**
+     * Decode the payload from the images in the common pool.
+     *
+     * @param algorithm algorithm the shards are encoded with
+     * @param images    encoded images in any order
+     *
+     * @return decoded payload
+     *
+     * @throws Exception thrown if a shard is missing, damaged or belongs to another payload
+     */
+    public static byte[] decode( SteganographyAlgorithm algorithm, BufferedImage... images ) throws Exception {
+
+        return decode( algorithm, images, ForkJoinPool.commonPool() );
+    }
+
+    /**
+     * Decode the payload from the images.<br>
+     * <p>
+     * The images may go in any order, but all the shards of the payload must be there and only them.
+     *
+     * @param algorithm algorithm the shards are encoded with
+     * @param images    encoded images in any order
+     * @param pool      pool to decode the images in
+     *
+     * @return decoded payload
+     *
+     * @throws Exception thrown if a shard is missing, damaged or belongs to another payload
+     */
+    public static byte[] decode( SteganographyAlgorithm algorithm, BufferedImage[] images, ForkJoinPool pool )
+            throws Exception {
+
+        if( images.length == 0 ) {
+
+            throw new IllegalArgumentException( "Не заданы изображения." );
+        }
+
+        List< Callable< byte[] > > tasks = new ArrayList<>( images.length );
+        for( BufferedImage image : images ) {
+
+            tasks.add( () -> {
+
+                ByteArrayOutputStream shard = new ByteArrayOutputStream();
+                algorithm.decode( image, shard );
+                return shard.toByteArray();
+            } );
+        }
+
+        List< byte[] > shards = invokeAll( pool, tasks );
+
+        /* Shards by their indices, checked against the first one */
+        ByteBuffer first = parseHeader( shards.get( 0 ) );
+        int crc = first.getInt( 2 );
+        int numOfShards = first.getShort( 8 ) & 0xFFFF;
+        int length = first.getInt( 10 );
+
+        if( numOfShards != images.length ) {
+
+            throw new Exception( "Число частей данных: " + numOfShards + ", число изображений: " + images.length
+                    + "." );
+        }
+
+        byte[][] ordered = new byte[ numOfShards ][];
+
+        for( byte[] shard : shards ) {
+
+            ByteBuffer header = parseHeader( shard );
+            int index = header.getShort( 6 ) & 0xFFFF;
+
+            if( header.getInt( 2 ) != crc || ( header.getShort( 8 ) & 0xFFFF ) != numOfShards
+                    || header.getInt( 10 ) != length ) {
+
+                throw new Exception( "Изображения содержат части разных данных." );
+            }
+
+            if( index >= numOfShards || ordered[ index ] != null ) {
+
+                throw new Exception( "Часть данных " + ( index + 1 ) + " повреждена или повторяется." );
+            }
+
+            ordered[ index ] = shard;
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream( length );
+        for( byte[] shard : ordered ) {
+
+            payload.write( shard, HEADER_SIZE, shard.length - HEADER_SIZE );
+        }
+
+        byte[] bytes = payload.toByteArray();
+        if( bytes.length != length || getCrc( bytes ) != crc ) {
+
+            throw new Exception( "Ошибка в процессе декодирования: данные, собранные из частей, повреждены." );
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Split the payload in proportion to the room in the covers.
+     *
+     * @param length    payload length in bytes
+     * @param room      number of bytes every cover can hold after the shard header
+     * @param totalRoom total number of bytes the covers can hold, not less than the length
+     *
+     * @return number of payload bytes of every shard
+     */
+    private static int[] split( int length, long[] room, long totalRoom ) {
+
+        int[] sizes = new int[ room.length ];
+        long left = length;
+
+        for( int i = 0; i < room.length; i++ ) {
+
+            sizes[ i ] = ( int ) ( length * room[ i ] / totalRoom );
+            left -= sizes[ i ];
+        }
+
+        /* Rounding leaves less than a byte per cover, it goes to the covers with room left */
+        for( int i = 0; left > 0; i++ ) {
+
+            if( sizes[ i ] < room[ i ] ) {
+
+                sizes[ i ]++;
+                left--;
+            }
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Validate the shard header.
+     *
+     * @param shard decoded shard
+     *
+     * @return buffer wrapping the shard
+     *
+     * @throws Exception thrown if the shard has no valid header
+     */
+    private static ByteBuffer parseHeader( byte[] shard ) throws Exception {
+
+        ByteBuffer buffer = ByteBuffer.wrap( shard );
+
+        if( shard.length < HEADER_SIZE || buffer.getShort( 0 ) != MARKER ) {
+
+            throw new Exception( "Изображение не содержит части данных." );
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Get the CRC-32 of the payload.
+     *
+     * @param payload payload bytes
+     *
+     * @return checksum
+     */
+    private static int getCrc( byte[] payload ) {
+
+        CRC32 crc = new CRC32();
+        crc.update( payload, 0, payload.length );
+        return ( int ) crc.getValue();
+    }
+
+    /**
+     * Run the tasks in the pool and wait for all of them.
+     *
+     * @param pool  pool to run the tasks in
+     * @param tasks tasks to run
+     * @param <T>   type of the task results
+     *
+     * @return results of the tasks in the same order
+     *
+     * @throws Exception the exception thrown by the first failed task
+     */
+    private static < T > List< T > invokeAll( ForkJoinPool pool, List< Callable< T > > tasks ) throws Exception {
+
+        ShardTask< T > task = new ShardTask<>( tasks, 0, tasks.size() );
+        pool.invoke( task );
+
+        for( Exception error : task.errors ) {
+
+            if( error != null ) {
+
+                throw error;
+            }
+        }
+
+        return task.results;
+    }
+
+    /**
+     * Parallel task running a range of the shard tasks, a task per thread.<br>
+     * <p>
+     * The exceptions are kept as they are thrown rather than rethrown by the pool.
+     *
+     * @param <T> type of the task results
+     */
+    private static final class ShardTask< T > extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List< Callable< T > > tasks;
+        private final List< T > results;
+        private final Exception[] errors;
+        private final int from, to;
+
+        /**
+         * @param tasks tasks to run
+         * @param from  index of the first task to run
+         * @param to    index of the task after the last one to run
+         */
+        ShardTask( List< Callable< T > > tasks, int from, int to ) {
+
+            this( tasks, new ArrayList<>( Collections.nCopies( tasks.size(), null ) ), new Exception[ tasks.size() ],
+                    from, to );
+        }
+
+        private ShardTask( List< Callable< T > > tasks, List< T > results, Exception[] errors, int from, int to ) {
+
+            this.tasks = tasks;
+            this.results = results;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if( to - from == 1 ) {
+
+                try {
+
+                    results.set( from, tasks.get( from ).call() );
+
+                } catch( Exception e ) {
+
+                    errors[ from ] = e;
+                }
+                return;
+            }
+
+            int middle = ( from + to ) >>> 1;
+            invokeAll( new ShardTask<>( tasks, results, errors, from, middle ),
+                    new ShardTask<>( tasks, results, errors, middle, to ) );
+        }
+    }
+}
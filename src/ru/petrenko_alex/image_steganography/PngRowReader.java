@@ -0,0 +1,416 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reader of the rows of an 8-bit RGB or RGBA PNG file from top to bottom.<br>
+ * <p>
+ * The compressed data is inflated by a single stream kept open between the reads and only as far as the rows asked
+ * for. So reading the top rows doesn't depend on the image size, and reading the whole image strip by strip inflates
+ * it once. The <code>ImageReader</code> of PNG inflates the file from the beginning for every source region. Only the
+ * non-interlaced 8-bit RGB and RGBA files the {@link PngStripWriter} writes are supported, other files are left to
+ * the <code>ImageReader</code>. The chunk checksums are not checked: the rows read go through the payload checks
+ * anyway.
+ */
+final class PngRowReader implements Closeable {
+
+    /* Size of the buffer the file is read through */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    private final DataInputStream file;
+
+    /* Image size and the number of bytes of a pixel: 3 or 4; 0 if the file is not supported */
+    private int width, height, bytesPerPixel;
+
+    /* Inflated image data, opened by the first read */
+    private DataInputStream data;
+
+    /* Current row and the restored previous one, zeros before the first row */
+    private byte[] row, previousRow;
+
+    /* Index of the next row to read */
+    private int nextRow;
+
+
+    /**
+     * Open the file and read its header.
+     *
+     * @param file image file
+     *
+     * @throws IOException thrown if the file can't be read
+     */
+    PngRowReader( File file ) throws IOException {
+
+        this.file = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) );
+
+        try {
+
+            readHeader();
+
+        } catch( IOException e ) {
+
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check if the file is a PNG of the supported kind.
+     *
+     * @return true if the rows can be read
+     */
+    boolean isSupported() {
+
+        return bytesPerPixel != 0;
+    }
+
+    /**
+     * Get the image width.
+     *
+     * @return width in pixels
+     */
+    int getWidth() {
+
+        return width;
+    }
+
+    /**
+     * Get the image height.
+     *
+     * @return height in pixels
+     */
+    int getHeight() {
+
+        return height;
+    }
+
+    /**
+     * Get the index of the next row to read.
+     *
+     * @return number of the rows read or skipped
+     */
+    int getNextRow() {
+
+        return nextRow;
+    }
+
+    /**
+     * Get the type of the strips.
+     *
+     * @return <code>TYPE_3BYTE_BGR</code> for RGB and <code>TYPE_INT_ARGB</code> for RGBA, the types the
+     * <code>ImageReader</code> gives for the file
+     */
+    int getImageType() {
+
+        return bytesPerPixel == 4 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_3BYTE_BGR;
+    }
+
+    /**
+     * Read the next rows of the image into a new strip.
+     *
+     * @param numOfRows number of rows, 1 - number of the rows left
+     *
+     * @return strip of the rows of {@link #getImageType()}
+     *
+     * @throws IOException thrown if the file can't be read or is damaged
+     */
+    BufferedImage read( int numOfRows ) throws IOException {
+
+        BufferedImage strip = new BufferedImage( width, numOfRows, getImageType() );
+        read( strip, 0, numOfRows );
+
+        return strip;
+    }
+
+    /**
+     * Read the next rows of the image into the rows of the strip.
+     *
+     * @param strip     strip of {@link #getImageType()} and of the image width
+     * @param stripRow  index of the first strip row to fill
+     * @param numOfRows number of rows, 0 - number of the rows left
+     *
+     * @throws IOException thrown if the file can't be read or is damaged
+     */
+    void read( BufferedImage strip, int stripRow, int numOfRows ) throws IOException {
+
+        int rowSize = width * bytesPerPixel;
+
+        for( int y = stripRow; y < stripRow + numOfRows; y++ ) {
+
+            readRow();
+
+            if( bytesPerPixel == 4 ) {
+
+                int[] pixels = ( ( DataBufferInt ) strip.getRaster().getDataBuffer() ).getData();
+                for( int x = 0, i = 0, index = y * width; x < width; x++, i += 4 ) {
+
+                    pixels[ index + x ] = ( ( row[ i + 3 ] & 0xFF ) << 24 ) | ( ( row[ i ] & 0xFF ) << 16 )
+                            | ( ( row[ i + 1 ] & 0xFF ) << 8 ) | ( row[ i + 2 ] & 0xFF );
+                }
+
+            } else {
+
+                /* Components are stored in B, G, R order */
+                byte[] bgr = ( ( DataBufferByte ) strip.getRaster().getDataBuffer() ).getData();
+                for( int i = 0, index = y * rowSize; i < rowSize; i += 3 ) {
+
+                    bgr[ index + i ] = row[ i + 2 ];
+                    bgr[ index + i + 1 ] = row[ i + 1 ];
+                    bgr[ index + i + 2 ] = row[ i ];
+                }
+            }
+        }
+    }
+
+    /**
+     * Skip the next rows of the image.<br>
+     * <p>
+     * The rows are inflated and restored anyway since every row is filtered against the previous one.
+     *
+     * @param numOfRows number of rows, 0 - number of the rows left
+     *
+     * @throws IOException thrown if the file can't be read or is damaged
+     */
+    void skip( int numOfRows ) throws IOException {
+
+        for( int y = 0; y < numOfRows; y++ ) {
+
+            readRow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        /* Closing the data stream ends the inflater and leaves the file open */
+        if( data != null ) {
+
+            data.close();
+        }
+
+        file.close();
+    }
+
+    /**
+     * Inflate the next row and undo its filter.<br>
+     * <p>
+     * The row read is left in {@link #row}.
+     *
+     * @throws IOException thrown if the file can't be read or is damaged
+     */
+    private void readRow() throws IOException {
+
+        if( nextRow >= height ) {
+
+            throw new EOFException( "Все строки изображения уже прочитаны." );
+        }
+
+        if( data == null ) {
+
+            data = new DataInputStream( new InflaterInputStream( new IdatInputStream() ) );
+            row = new byte[ width * bytesPerPixel ];
+            previousRow = new byte[ width * bytesPerPixel ];
+        }
+
+        byte[] tmp = previousRow;
+        previousRow = row;
+        row = tmp;
+
+        int filter = data.readUnsignedByte();
+        data.readFully( row );
+        unfilter( filter, row, previousRow );
+        nextRow++;
+    }
+
+    /**
+     * Read the signature and the IHDR chunk.
+     *
+     * @throws IOException thrown if the file can't be read
+     */
+    private void readHeader() throws IOException {
+
+        byte[] signature = new byte[ PngStripWriter.SIGNATURE.length ];
+
+        try {
+
+            file.readFully( signature );
+            if( !Arrays.equals( signature, PngStripWriter.SIGNATURE ) || file.readInt() != 13
+                    || file.readInt() != getChunkType( "IHDR" ) ) {
+
+                return;
+            }
+
+        } catch( EOFException e ) {
+
+            return;
+        }
+
+        int width = file.readInt();
+        int height = file.readInt();
+        int bitDepth = file.readUnsignedByte();
+        int colorType = file.readUnsignedByte();
+        int compression = file.readUnsignedByte();
+        int filter = file.readUnsignedByte();
+        int interlace = file.readUnsignedByte();
+        file.readInt();
+
+        if( width <= 0 || height <= 0 || bitDepth != 8 || compression != 0 || filter != 0 || interlace != 0
+                || ( colorType != PngStripWriter.COLOR_RGB && colorType != PngStripWriter.COLOR_RGBA ) ) {
+
+            return;
+        }
+
+        this.width = width;
+        this.height = height;
+        this.bytesPerPixel = colorType == PngStripWriter.COLOR_RGBA ? 4 : 3;
+    }
+
+    /**
+     * Undo the filter of a row.
+     *
+     * @param filter      filter type
+     * @param row         filtered row to restore in place
+     * @param previousRow restored previous row, zeros for the first row
+     *
+     * @throws IOException thrown if the filter type is unknown
+     */
+    private void unfilter( int filter, byte[] row, byte[] previousRow ) throws IOException {
+
+        for( int i = 0; i < row.length; i++ ) {
+
+            int left = ( i >= bytesPerPixel ) ? row[ i - bytesPerPixel ] & 0xFF : 0;
+            int up = previousRow[ i ] & 0xFF;
+
+            int predictor;
+            switch( filter ) {
+
+                case PngStripWriter.FILTER_NONE:
+                    predictor = 0;
+                    break;
+
+                case PngStripWriter.FILTER_SUB:
+                    predictor = left;
+                    break;
+
+                case PngStripWriter.FILTER_UP:
+                    predictor = up;
+                    break;
+
+                case PngStripWriter.FILTER_AVERAGE:
+                    predictor = ( left + up ) >>> 1;
+                    break;
+
+                case PngStripWriter.FILTER_PAETH:
+                    int upLeft = ( i >= bytesPerPixel ) ? previousRow[ i - bytesPerPixel ] & 0xFF : 0;
+                    predictor = PngStripWriter.paeth( left, up, upLeft );
+                    break;
+
+                default:
+                    throw new IOException( "Файл PNG поврежден: неизвестный фильтр строки " + filter + "." );
+            }
+
+            row[ i ] = ( byte ) ( row[ i ] + predictor );
+        }
+    }
+
+    /**
+     * Get the code of a chunk type.
+     *
+     * @param type chunk type of 4 ASCII letters
+     *
+     * @return chunk type as a big-endian number
+     */
+    private static int getChunkType( String type ) {
+
+        return ( type.charAt( 0 ) << 24 ) | ( type.charAt( 1 ) << 16 ) | ( type.charAt( 2 ) << 8 ) | type.charAt( 3 );
+    }
+
+    /**
+     * Stream of the data of the consecutive IDAT chunks, skipping the chunks before them.
+     */
+    private final class IdatInputStream extends InputStream {
+
+        /* Number of the data bytes left in the current IDAT chunk */
+        private int left;
+
+        /* True once an IDAT chunk is entered, its checksum is left unread */
+        private boolean started;
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] one = new byte[ 1 ];
+            return read( one, 0, 1 ) < 0 ? -1 : one[ 0 ] & 0xFF;
+        }
+
+        @Override
+        public int read( byte[] bytes, int offset, int length ) throws IOException {
+
+            while( left == 0 ) {
+
+                if( !nextChunk() ) {
+
+                    return -1;
+                }
+            }
+
+            int read = file.read( bytes, offset, Math.min( length, left ) );
+            if( read < 0 ) {
+
+                throw new EOFException( "Файл PNG поврежден: неожиданный конец файла." );
+            }
+
+            left -= read;
+            return read;
+        }
+
+        /**
+         * Move to the data of the next IDAT chunk.
+         *
+         * @return false if the image data has ended
+         *
+         * @throws IOException thrown if the file can't be read
+         */
+        private boolean nextChunk() throws IOException {
+
+            /* Checksum of the previous IDAT chunk, the IHDR one is already read */
+            if( started ) {
+
+                file.readInt();
+            }
+
+            int length = file.readInt();
+            int type = file.readInt();
+
+            while( type != getChunkType( "IDAT" ) ) {
+
+                if( type == getChunkType( "IEND" ) ) {
+
+                    return false;
+                }
+
+                /* Chunk data and checksum */
+                file.readFully( new byte[ length + 4 ] );
+                length = file.readInt();
+                type = file.readInt();
+            }
+
+            left = length;
+            started = true;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writer of an 8-bit RGB or RGBA PNG file by horizontal strips.<br>
+ * <p>
+ * Rows are filtered, compressed and written as soon as they come, so only a single strip is held in memory. Every row
+ * gets the filter giving the least sum of absolute values of the filtered bytes, the way most PNG encoders do.
+ */
+final class PngStripWriter implements Closeable {
+
+    /* PNG file signature */
+    static final byte[] SIGNATURE = { ( byte ) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    /* Maximal size of the data of a single IDAT chunk */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /* PNG color types */
+    static final int COLOR_RGB = 2;
+    static final int COLOR_RGBA = 6;
+
+    /* PNG row filters */
+    static final int FILTER_NONE = 0;
+    static final int FILTER_SUB = 1;
+    static final int FILTER_UP = 2;
+    static final int FILTER_AVERAGE = 3;
+    static final int FILTER_PAETH = 4;
+
+    private final DataOutputStream file;
+    private final ChunkOutputStream chunks;
+    private final DeflaterOutputStream idat;
+    private final Deflater deflater = new Deflater();
+    private final int width, height, bytesPerPixel;
+
+    /* Raw bytes of the current and the previous rows, filtered rows of every filter type */
+    private byte[] row, previousRow;
+    private final byte[][] filtered = new byte[ 5 ][];
+    private final int[] pixels;
+
+    private int numOfWrittenRows;
+
+
+    /**
+     * Create the file and write the PNG header.
+     *
+     * @param output output file
+     * @param width  image width
+     * @param height image height
+     * @param alpha  write the alpha channel or not
+     *
+     * @throws IOException thrown if the file can't be written
+     */
+    PngStripWriter( File output, int width, int height, boolean alpha ) throws IOException {
+
+        this.width = width;
+        this.height = height;
+        this.bytesPerPixel = alpha ? 4 : 3;
+
+        int rowSize = width * bytesPerPixel;
+        row = new byte[ rowSize ];
+        previousRow = new byte[ rowSize ];
+        for( int i = 0; i < filtered.length; i++ ) {
+
+            filtered[ i ] = new byte[ rowSize + 1 ];
+            filtered[ i ][ 0 ] = ( byte ) i;
+        }
+        pixels = new int[ width ];
+
+        file = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( output ), CHUNK_SIZE ) );
+        file.write( SIGNATURE );
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream( header );
+        data.writeInt( width );
+        data.writeInt( height );
+        data.writeByte( 8 );
+        data.writeByte( alpha ? COLOR_RGBA : COLOR_RGB );
+        data.writeByte( 0 );
+        data.writeByte( 0 );
+        data.writeByte( 0 );
+        writeChunk( "IHDR", header.toByteArray(), header.size() );
+
+        chunks = new ChunkOutputStream();
+        idat = new DeflaterOutputStream( chunks, deflater, CHUNK_SIZE );
+    }
+
+    /**
+     * Append all the rows of the strip.
+     *
+     * @param strip strip of the image as wide as the image
+     *
+     * @throws IOException thrown if the file can't be written or there are more rows than the image height
+     */
+    void write( BufferedImage strip ) throws IOException {
+
+        if( strip.getWidth() != width || numOfWrittenRows + strip.getHeight() > height ) {
+
+            throw new IOException( "Полоса не соответствует размерам изображения." );
+        }
+
+        for( int y = 0; y < strip.getHeight(); y++ ) {
+
+            strip.getRGB( 0, y, width, 1, pixels, 0, width );
+
+            for( int x = 0, i = 0; x < width; x++, i += bytesPerPixel ) {
+
+                int pixel = pixels[ x ];
+                row[ i ] = ( byte ) ( pixel >>> 16 );
+                row[ i + 1 ] = ( byte ) ( pixel >>> 8 );
+                row[ i + 2 ] = ( byte ) pixel;
+
+                if( bytesPerPixel == 4 ) {
+
+                    row[ i + 3 ] = ( byte ) ( pixel >>> 24 );
+                }
+            }
+
+            idat.write( filterRow() );
+
+            byte[] tmp = previousRow;
+            previousRow = row;
+            row = tmp;
+            numOfWrittenRows++;
+        }
+    }
+
+    /**
+     * Finish the compressed data and write the end of the file.
+     *
+     * @throws IOException thrown if the file can't be written or not all the rows are written
+     */
+    @Override
+    public void close() throws IOException {
+
+        try {
+
+            idat.finish();
+            chunks.flush();
+            writeChunk( "IEND", new byte[ 0 ], 0 );
+
+        } finally {
+
+            deflater.end();
+            file.close();
+        }
+
+        if( numOfWrittenRows != height ) {
+
+            throw new IOException( "Записаны не все строки изображения." );
+        }
+    }
+
+    /**
+     * Filter the current row with every filter type and choose the best one.
+     *
+     * @return filter type byte followed by the filtered row
+     */
+    private byte[] filterRow() {
+
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+
+        for( int type = FILTER_NONE; type <= FILTER_PAETH; type++ ) {
+
+            byte[] out = filtered[ type ];
+            long sum = 0;
+
+            for( int i = 0; i < row.length; i++ ) {
+
+                int raw = row[ i ] & 0xFF;
+                int left = ( i >= bytesPerPixel ) ? row[ i - bytesPerPixel ] & 0xFF : 0;
+                int up = previousRow[ i ] & 0xFF;
+                int upLeft = ( i >= bytesPerPixel ) ? previousRow[ i - bytesPerPixel ] & 0xFF : 0;
+
+                int predictor;
+                switch( type ) {
+
+                    case FILTER_SUB:
+                        predictor = left;
+                        break;
+
+                    case FILTER_UP:
+                        predictor = up;
+                        break;
+
+                    case FILTER_AVERAGE:
+                        predictor = ( left + up ) >>> 1;
+                        break;
+
+                    case FILTER_PAETH:
+                        predictor = paeth( left, up, upLeft );
+                        break;
+
+                    default:
+                        predictor = 0;
+                }
+
+                byte value = ( byte ) ( raw - predictor );
+                out[ i + 1 ] = value;
+                sum += Math.abs( ( int ) value );
+            }
+
+            if( sum < bestSum ) {
+
+                bestSum = sum;
+                best = out;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Paeth predictor of the PNG specification.
+     *
+     * @param a left byte
+     * @param b upper byte
+     * @param c upper left byte
+     *
+     * @return predicted byte
+     */
+    static int paeth( int a, int b, int c ) {
+
+        int p = a + b - c;
+        int pa = Math.abs( p - a );
+        int pb = Math.abs( p - b );
+        int pc = Math.abs( p - c );
+
+        if( pa <= pb && pa <= pc ) {
+
+            return a;
+
+        } else if( pb <= pc ) {
+
+            return b;
+        }
+
+        return c;
+    }
+
+    /**
+     * Write a chunk into the file.
+     *
+     * @param type   chunk type
+     * @param data   chunk data
+     * @param length length of the data
+     *
+     * @throws IOException thrown if the file can't be written
+     */
+    private void writeChunk( String type, byte[] data, int length ) throws IOException {
+
+        byte[] typeBytes = type.getBytes( StandardCharsets.US_ASCII );
+
+        CRC32 crc = new CRC32();
+        crc.update( typeBytes );
+        crc.update( data, 0, length );
+
+        file.writeInt( length );
+        file.write( typeBytes );
+        file.write( data, 0, length );
+        file.writeInt( ( int ) crc.getValue() );
+    }
+
+    /**
+     * Stream cutting the compressed data into IDAT chunks.
+     */
+    private final class ChunkOutputStream extends OutputStream {
+
+        private final byte[] buffer = new byte[ CHUNK_SIZE ];
+        private int size;
+
+        @Override
+        public void write( int b ) throws IOException {
+
+            write( new byte[]{ ( byte ) b }, 0, 1 );
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException {
+
+            while( len > 0 ) {
+
+                int count = Math.min( len, buffer.length - size );
+                System.arraycopy( b, off, buffer, size, count );
+                size += count;
+                off += count;
+                len -= count;
+
+                if( size == buffer.length ) {
+
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+
+            if( size > 0 ) {
+
+                writeChunk( "IDAT", buffer, size );
+                size = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            flush();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ru.petrenko_alex.image_steganography;
+
+
+/**
+ * Keyed pseudo-random permutation of the embedding positions.<br>
+ * <p>
+ * Maps the index of a position in the payload order to the index of the position in the image, a bijection of
+ * <code>0 .. size - 1</code> onto itself. The indices are enciphered with a balanced Feistel network over the smallest
+ * even number of bits holding them; an index falling out of the range is enciphered again until it gets into it
+ * (cycle walking). The network domain is less than 4 times the range, so an index takes less than 4 rounds of the
+ * network on average. Every index is mapped in constant time without any tables, so any range of positions can be
+ * processed on its own.
+ */
+final class PositionPermutation {
+
+    /* Number of the Feistel rounds */
+    private static final int NUM_OF_ROUNDS = 4;
+
+    /* Increment of the round keys: the golden ratio as a 64-bit fraction */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+
+    private final long key;
+    private final int size;
+
+    /* Number of bits of a half of an enciphered index and their mask */
+    private final int halfBits;
+    private final int halfMask;
+
+
+    /**
+     * @param key  secret key
+     * @param size number of positions
+     */
+    PositionPermutation( long key, int size ) {
+
+        int bits = 32 - Integer.numberOfLeadingZeros( Math.max( 1, size - 1 ) );
+
+        this.key = key;
+        this.size = size;
+        this.halfBits = ( bits + 1 ) / 2;
+        this.halfMask = ( 1 << halfBits ) - 1;
+    }
+
+    /**
+     * Get the number of the positions.
+     *
+     * @return number of the positions
+     */
+    int getSize() {
+
+        return size;
+    }
+
+    /**
+     * Get the position in the image of a position in the payload order.
+     *
+     * @param index index of the position in the payload order, 0 - size - 1
+     *
+     * @return index of the position in the image, 0 - size - 1
+     *
+     * @throws IllegalArgumentException thrown if the index is out of the range
+     */
+    int apply( int index ) {
+
+        /* Cycle walking never ends for an index out of the range */
+        if( index < 0 || index >= size ) {
+
+            throw new IllegalArgumentException( "Номер позиции должен быть от 0 до " + ( size - 1 ) + ": " + index );
+        }
+
+        if( size <= 1 ) {
+
+            return index;
+        }
+
+        long value = index;
+
+        do {
+
+            value = encipher( value );
+
+        } while( value >= size );
+
+        return ( int ) value;
+    }
+
+    /**
+     * Encipher a value of the network domain.
+     *
+     * @param value value of 2 halves, less than 2 to the power of twice the half bits
+     *
+     * @return enciphered value of 2 halves
+     */
+    private long encipher( long value ) {
+
+        int left = ( int ) ( value >>> halfBits );
+        int right = ( int ) ( value & halfMask );
+
+        for( int round = 0; round < NUM_OF_ROUNDS; round++ ) {
+
+            int next = left ^ ( int ) ( mix( key + ( round + 1 ) * GOLDEN_GAMMA + right ) & halfMask );
+            left = right;
+            right = next;
+        }
+
+        return ( ( long ) left << halfBits ) | right;
+    }
+
+    /**
+     * Mix the bits of a value: the finalizer of SplitMix64.
+     *
+     * @param value value
+     *
+     * @return mixed value
+     */
+    private static long mix( long value ) {
+
+        value = ( value ^ ( value >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+        value = ( value ^ ( value >>> 27 ) ) * 0x94D049BB133111EBL;
+        return value ^ ( value >>> 31 );
+    }
+}
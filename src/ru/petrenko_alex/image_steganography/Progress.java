@@ -0,0 +1,44 @@
+package ru.petrenko_alex.image_steganography;
+
+
+/**
+ * Progress of a single encode or decode call.<br>
+ * <p>
+ * Reports the processed bytes to the listener and lets the call be cancelled: if the thread running the call is
+ * interrupted, the next report throws {@link InterruptedException}.
+ */
+final class Progress {
+
+    private final ProgressListener listener;
+    private final long total;
+    private long done;
+
+
+    /**
+     * @param listener listener to report to
+     * @param total    total number of bytes or -1 if it is not known
+     */
+    Progress( ProgressListener listener, long total ) {
+
+        this.listener = listener;
+        this.total = total;
+    }
+
+    /**
+     * Report the next processed bytes.
+     *
+     * @param bytes number of bytes processed since the last report
+     *
+     * @throws InterruptedException thrown if the call is cancelled
+     */
+    void advance( long bytes ) throws InterruptedException {
+
+        if( Thread.currentThread().isInterrupted() ) {
+
+            throw new InterruptedException( "Операция отменена." );
+        }
+
+        done += bytes;
+        listener.onProgress( done, total );
+    }
+}
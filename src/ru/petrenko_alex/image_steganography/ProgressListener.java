@@ -0,0 +1,22 @@
+package ru.petrenko_alex.image_steganography;
+
+
+/**
+ * Listener of the encoding or decoding progress.<br>
+ * <p>
+ * It may be called from any thread the algorithm runs in.
+ */
+public interface ProgressListener {
+
+    /* Listener ignoring the progress */
+    ProgressListener NONE = ( done, total ) -> {
+    };
+
+    /**
+     * Called when the next portion of the payload is processed.
+     *
+     * @param done  number of bytes processed so far
+     * @param total total number of bytes or -1 if it is not known yet
+     */
+    void onProgress( long done, long total );
+}
@@ -0,0 +1,208 @@
+package ru.petrenko_alex.image_steganography;
+
+
+/**
+ * Metrics of the distortion brought into an image by encoding.<br>
+ * <p>
+ * Metrics are calculated for every color band: 0 - red, 1 - green, 2 - blue. Methods without a band return the metric
+ * over all the bands. Made by
+ * {@link ImagesComparisonTools#compare(java.awt.image.BufferedImage, java.awt.image.BufferedImage, boolean)}.
+ */
+public final class QualityReport {
+
+    /* Number of color bands compared */
+    public static final int NUM_OF_BANDS = 3;
+
+    /* Peak value of a sample */
+    private final static int MAX_VALUE = 255;
+
+    private final double[] mse;
+    private final int[] maxError;
+    private final double[] ssim;
+
+
+    /**
+     * @param mse      mean squared error of every band
+     * @param maxError maximum absolute error of every band
+     * @param ssim     mean structural similarity of every band or null if it is not calculated
+     */
+    QualityReport( double[] mse, int[] maxError, double[] ssim ) {
+
+        this.mse = mse.clone();
+        this.maxError = maxError.clone();
+        this.ssim = ( ssim != null ) ? ssim.clone() : null;
+    }
+
+    /**
+     * Get the MSE(mean squared error) over all the bands.
+     *
+     * @return MSE(mean squared error)
+     */
+    public double getMSE() {
+
+        return average( mse );
+    }
+
+    /**
+     * Get the MSE(mean squared error) of the band.
+     *
+     * @param band band index
+     *
+     * @return MSE(mean squared error)
+     */
+    public double getMSE( int band ) {
+
+        return mse[ band ];
+    }
+
+    /**
+     * Get the RMSE(root mean squared error) over all the bands.
+     *
+     * @return RMSE(root mean squared error)
+     */
+    public double getRMSE() {
+
+        return Math.sqrt( getMSE() );
+    }
+
+    /**
+     * Get the RMSE(root mean squared error) of the band.
+     *
+     * @param band band index
+     *
+     * @return RMSE(root mean squared error)
+     */
+    public double getRMSE( int band ) {
+
+        return Math.sqrt( mse[ band ] );
+    }
+
+    /**
+     * Get the PSNR(peak signal-to-noise ratio) over all the bands.
+     *
+     * @return PSNR(peak signal-to-noise ratio), infinity for the equal images
+     */
+    public double getPSNR() {
+
+        return psnr( getMSE() );
+    }
+
+    /**
+     * Get the PSNR(peak signal-to-noise ratio) of the band.
+     *
+     * @param band band index
+     *
+     * @return PSNR(peak signal-to-noise ratio), infinity for the equal bands
+     */
+    public double getPSNR( int band ) {
+
+        return psnr( mse[ band ] );
+    }
+
+    /**
+     * Get the maximum absolute difference of the samples over all the bands.
+     *
+     * @return maximum absolute error
+     */
+    public int getMaxError() {
+
+        int max = 0;
+        for( int error : maxError ) {
+
+            max = Math.max( max, error );
+        }
+
+        return max;
+    }
+
+    /**
+     * Get the maximum absolute difference of the samples of the band.
+     *
+     * @param band band index
+     *
+     * @return maximum absolute error
+     */
+    public int getMaxError( int band ) {
+
+        return maxError[ band ];
+    }
+
+    /**
+     * Check if the SSIM(structural similarity) is calculated.
+     *
+     * @return true if the SSIM is calculated
+     */
+    public boolean hasSSIM() {
+
+        return ssim != null;
+    }
+
+    /**
+     * Get the mean SSIM(structural similarity) over all the bands.
+     *
+     * @return SSIM(structural similarity), 1 for the equal images
+     *
+     * @throws IllegalStateException thrown if the SSIM is not calculated
+     */
+    public double getSSIM() {
+
+        checkSSIM();
+        return average( ssim );
+    }
+
+    /**
+     * Get the mean SSIM(structural similarity) of the band.
+     *
+     * @param band band index
+     *
+     * @return SSIM(structural similarity), 1 for the equal bands
+     *
+     * @throws IllegalStateException thrown if the SSIM is not calculated
+     */
+    public double getSSIM( int band ) {
+
+        checkSSIM();
+        return ssim[ band ];
+    }
+
+    /**
+     * Make sure the SSIM is calculated.
+     */
+    private void checkSSIM() {
+
+        if( ssim == null ) {
+
+            throw new IllegalStateException( "SSIM is not calculated" );
+        }
+    }
+
+    /**
+     * Calculate the PSNR(peak signal-to-noise ratio) from the MSE(mean squared error).
+     *
+     * @param mse mean squared error
+     *
+     * @return PSNR(peak signal-to-noise ratio)
+     */
+    private static double psnr( double mse ) {
+
+        return 10.0 * Math.log10( MAX_VALUE * MAX_VALUE / mse );
+    }
+
+    /**
+     * Calculate the average of the values.
+     *
+     * @param values values
+     *
+     * @return average
+     */
+    private static double average( double[] values ) {
+
+        double sum = 0;
+        for( double value : values ) {
+
+            sum += value;
+        }
+
+        return sum / values.length;
+    }
+}
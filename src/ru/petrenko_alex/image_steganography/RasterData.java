@@ -0,0 +1,266 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.reflect.Array;
+
+/**
+ * Direct access to the backing arrays of image rasters.<br>
+ * <p>
+ * Only plain rasters are accessed directly: not a child raster, a single bank, no offsets and no row padding. In such
+ * a raster the pixel with index <code>y * width + x</code> can be addressed right in the backing array.
+ */
+final class RasterData {
+
+    private RasterData() {
+    }
+
+    /**
+     * Get the backing array of a plain <code>TYPE_3BYTE_BGR</code> image.
+     *
+     * @param image buffered image
+     *
+     * @return array of B, G, R bytes of the pixels or null if the image has another type or layout
+     */
+    static byte[] interleavedBgr( BufferedImage image ) {
+
+        if( image.getType() != BufferedImage.TYPE_3BYTE_BGR ) {
+
+            return null;
+        }
+
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+
+        if( !isPlainRaster( raster ) || !( sampleModel instanceof PixelInterleavedSampleModel )
+                || !( raster.getDataBuffer() instanceof DataBufferByte ) ) {
+
+            return null;
+        }
+
+        PixelInterleavedSampleModel model = ( PixelInterleavedSampleModel ) sampleModel;
+        int[] offsets = model.getBandOffsets();
+
+        if( model.getPixelStride() != 3
+                || model.getScanlineStride() != 3 * image.getWidth()
+                || offsets.length != 3 || offsets[ 0 ] != 2 || offsets[ 1 ] != 1 || offsets[ 2 ] != 0 ) {
+
+            return null;
+        }
+
+        return ( ( DataBufferByte ) raster.getDataBuffer() ).getData();
+    }
+
+    /**
+     * Get the backing array of a plain <code>TYPE_INT_RGB</code> or <code>TYPE_INT_ARGB</code> image.
+     *
+     * @param image buffered image
+     *
+     * @return array of packed (A)RGB pixels or null if the image has another type or layout
+     */
+    static int[] packedRgb( BufferedImage image ) {
+
+        if( image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_INT_ARGB ) {
+
+            return null;
+        }
+
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+
+        if( !isPlainRaster( raster ) || !( sampleModel instanceof SinglePixelPackedSampleModel )
+                || !( raster.getDataBuffer() instanceof DataBufferInt )
+                || ( ( SinglePixelPackedSampleModel ) sampleModel ).getScanlineStride() != image.getWidth() ) {
+
+            return null;
+        }
+
+        return ( ( DataBufferInt ) raster.getDataBuffer() ).getData();
+    }
+
+    /**
+     * Extract the blue components of all the pixels.
+     *
+     * @param image buffered image
+     *
+     * @return blue components of the pixels, row by row
+     */
+    static byte[] bluePlane( BufferedImage image ) {
+
+        byte[] blue = new byte[ image.getWidth() * image.getHeight() ];
+        blueRows( image, blue, 0, image.getHeight() );
+
+        return blue;
+    }
+
+    /**
+     * Extract the blue components of the pixels of a range of rows.
+     *
+     * @param image   buffered image
+     * @param blue    blue components of all the pixels, row by row, to put the ones of the rows into
+     * @param fromRow first row to extract
+     * @param toRow   row after the last one to extract
+     */
+    static void blueRows( BufferedImage image, byte[] blue, int fromRow, int toRow ) {
+
+        int width = image.getWidth();
+        int from = fromRow * width;
+        int to = toRow * width;
+
+        byte[] bgr = interleavedBgr( image );
+        if( bgr != null ) {
+
+            for( int i = from; i < to; i++ ) {
+
+                blue[ i ] = bgr[ 3 * i ];
+            }
+            return;
+        }
+
+        int[] rgb = packedRgb( image );
+        if( rgb != null ) {
+
+            for( int i = from; i < to; i++ ) {
+
+                blue[ i ] = ( byte ) rgb[ i ];
+            }
+            return;
+        }
+
+        /* Converting any other image type a row at a time */
+        int[] row = new int[ width ];
+        for( int y = fromRow; y < toRow; y++ ) {
+
+            image.getRGB( 0, y, width, 1, row, 0, width );
+
+            for( int x = 0; x < width; x++ ) {
+
+                blue[ y * width + x ] = ( byte ) row[ x ];
+            }
+        }
+    }
+
+    /**
+     * Extract the blue components of the pixels of a row.
+     *
+     * @param image buffered image
+     * @param y     row to extract
+     *
+     * @return blue components of the row pixels
+     */
+    static byte[] blueRow( BufferedImage image, int y ) {
+
+        int width = image.getWidth();
+        byte[] blue = new byte[ width ];
+
+        byte[] bgr = interleavedBgr( image );
+        if( bgr != null ) {
+
+            for( int x = 0, i = 3 * y * width; x < width; x++, i += 3 ) {
+
+                blue[ x ] = bgr[ i ];
+            }
+            return blue;
+        }
+
+        int[] rgb = packedRgb( image );
+        if( rgb != null ) {
+
+            for( int x = 0, i = y * width; x < width; x++, i++ ) {
+
+                blue[ x ] = ( byte ) rgb[ i ];
+            }
+            return blue;
+        }
+
+        int[] row = image.getRGB( 0, y, width, 1, null, 0, width );
+        for( int x = 0; x < width; x++ ) {
+
+            blue[ x ] = ( byte ) row[ x ];
+        }
+
+        return blue;
+    }
+
+    /**
+     * Copy the samples of a plain raster into another plain raster of the same layout by cloning the backing array.
+     *
+     * @param source raster to copy
+     * @param target raster to copy into
+     *
+     * @return true if the samples are copied, false if the rasters are not plain or have different layouts
+     */
+    static boolean copy( WritableRaster source, WritableRaster target ) {
+
+        if( !isPlainRaster( source ) || !isPlainRaster( target )
+                || !source.getSampleModel().equals( target.getSampleModel() ) ) {
+
+            return false;
+        }
+
+        Object from = getBank( source.getDataBuffer() );
+        Object to = getBank( target.getDataBuffer() );
+
+        if( from == null || to == null || Array.getLength( from ) != Array.getLength( to ) ) {
+
+            return false;
+        }
+
+        System.arraycopy( from, 0, to, 0, Array.getLength( from ) );
+        return true;
+    }
+
+    /**
+     * Get the backing array of a single bank data buffer.
+     *
+     * @param buffer data buffer
+     *
+     * @return backing array or null if the buffer type is not supported
+     */
+    private static Object getBank( DataBuffer buffer ) {
+
+        if( buffer instanceof DataBufferByte ) {
+
+            return ( ( DataBufferByte ) buffer ).getData();
+
+        } else if( buffer instanceof DataBufferInt ) {
+
+            return ( ( DataBufferInt ) buffer ).getData();
+
+        } else if( buffer instanceof DataBufferUShort ) {
+
+            return ( ( DataBufferUShort ) buffer ).getData();
+
+        } else if( buffer instanceof DataBufferShort ) {
+
+            return ( ( DataBufferShort ) buffer ).getData();
+        }
+
+        return null;
+    }
+
+    /**
+     * Check if the raster is not a child raster and its data buffer has a single bank without an offset.
+     *
+     * @param raster raster
+     *
+     * @return true if the raster data starts at the beginning of the backing array
+     */
+    private static boolean isPlainRaster( WritableRaster raster ) {
+
+        return raster.getParent() == null
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getNumBanks() == 1
+                && raster.getDataBuffer().getOffset() == 0;
+    }
+}
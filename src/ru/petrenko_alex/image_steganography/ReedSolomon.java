@@ -0,0 +1,630 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.util.Arrays;
+
+/**
+ * Reed-Solomon code over GF(256) with the codewords interleaved byte by byte.<br>
+ * <p>
+ * The data is split into the least number of codewords of up to 255 bytes, every codeword gets
+ * <code>parity</code> bytes correcting up to <code>parity / 2</code> damaged bytes of it. The data bytes are spread
+ * between the codewords evenly, so the codewords differ in length by a byte at most. The coded bytes go column by
+ * column: the first bytes of all the codewords, then the second ones and so on. The bytes of a codeword are spread
+ * over the whole image then, and a damaged area of it hits every codeword a little instead of a single one a lot.
+ * <p>
+ * Data shorter than a full codeword is coded with a shortened one. {@link #getParity(long, int)} tells its parity,
+ * which is larger than the parity of a full codeword: a short payload doesn't cover the image, so it gets the
+ * robustness from the parity.
+ */
+final class ReedSolomon {
+
+    /* Number of bytes in a full codeword */
+    static final int CODEWORD_SIZE = 255;
+
+    /* Least number of parity bytes of a shortened codeword if the full one has as many */
+    static final int MIN_PARITY = 64;
+
+    /* Ratio of the parity to the data in a shortened codeword to the ratio in a full one */
+    private static final int SHORT_PARITY_FACTOR = 2;
+
+    /* Primitive polynomial of the field: x^8 + x^4 + x^3 + x^2 + 1 */
+    private static final int PRIMITIVE = 0x11D;
+
+    /* Powers of the generator and their logarithms, the powers are doubled to skip the modulo in products */
+    private static final int[] EXP = new int[ 2 * CODEWORD_SIZE ];
+    private static final int[] LOG = new int[ CODEWORD_SIZE + 1 ];
+
+    static {
+
+        int value = 1;
+        for( int i = 0; i < CODEWORD_SIZE; i++ ) {
+
+            EXP[ i ] = value;
+            EXP[ i + CODEWORD_SIZE ] = value;
+            LOG[ value ] = i;
+
+            value <<= 1;
+            if( value > CODEWORD_SIZE ) {
+
+                value ^= PRIMITIVE;
+            }
+        }
+    }
+
+
+    private ReedSolomon() {
+    }
+
+    /**
+     * Get the number of coded bytes of the data.
+     *
+     * @param length number of data bytes
+     * @param parity number of parity bytes in every codeword
+     *
+     * @return number of coded bytes
+     */
+    static long getEncodedLength( long length, int parity ) {
+
+        return length + getNumOfCodewords( length, parity ) * parity;
+    }
+
+    /**
+     * Get the number of parity bytes of the codewords of the data.<br>
+     * <p>
+     * Data shorter than a full codeword gets a single shortened codeword with {@value #SHORT_PARITY_FACTOR} times the
+     * parity ratio of a full one, but at least {@value #MIN_PARITY} bytes, and no longer than a full codeword. A short
+     * payload is written to a few rows of the image only, so it doesn't average the damage out over the whole image,
+     * and a single uncorrected byte loses it as a whole.
+     *
+     * @param length number of data bytes
+     * @param parity number of parity bytes in a full codeword
+     *
+     * @return number of parity bytes in every codeword of the data
+     */
+    static int getParity( long length, int parity ) {
+
+        int dataSize = CODEWORD_SIZE - parity;
+        if( length >= dataSize ) {
+
+            return parity;
+        }
+
+        int scaled = ( int ) ( ( length * parity + dataSize - 1 ) / dataSize );
+        return ( int ) Math.min( CODEWORD_SIZE - length, Math.max( SHORT_PARITY_FACTOR * scaled,
+                Math.min( parity, MIN_PARITY ) ) );
+    }
+
+    /**
+     * Get the number of data bytes which can be coded into the given number of bytes with the parity given by
+     * {@link #getParity(long, int)}.
+     *
+     * @param numOfBytes number of coded bytes available
+     * @param parity     number of parity bytes in a full codeword
+     *
+     * @return number of data bytes
+     */
+    static long getMaxLength( long numOfBytes, int parity ) {
+
+        /* The coded length grows with the data length, so the longest data fitting is found by a binary search */
+        long low = 0;
+        long high = Math.max( 0, numOfBytes );
+
+        while( low < high ) {
+
+            long middle = ( low + high + 1 ) >>> 1;
+
+            if( getEncodedLength( middle, getParity( middle, parity ) ) <= numOfBytes ) {
+
+                low = middle;
+
+            } else {
+
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Encode the data.
+     *
+     * @param data   data bytes
+     * @param parity number of parity bytes in every codeword
+     *
+     * @return interleaved codewords
+     */
+    static byte[] encode( byte[] data, int parity ) {
+
+        if( parity == 0 ) {
+
+            return data;
+        }
+
+        int numOfCodewords = getNumOfCodewords( data.length, parity );
+        byte[] coded = new byte[ ( int ) getEncodedLength( data.length, parity ) ];
+        int[] generator = getGenerator( parity );
+        int[] remainder = new int[ parity ];
+        int from = 0;
+
+        for( int i = 0; i < numOfCodewords; i++ ) {
+
+            int dataLength = getDataLength( data.length, numOfCodewords, i );
+
+            /* Dividing the data by the generator, the remainder is the parity */
+            Arrays.fill( remainder, 0 );
+            for( int j = 0; j < dataLength; j++ ) {
+
+                int feedback = ( data[ from + j ] & 0xFF ) ^ remainder[ 0 ];
+                System.arraycopy( remainder, 1, remainder, 0, parity - 1 );
+                remainder[ parity - 1 ] = 0;
+
+                if( feedback != 0 ) {
+
+                    for( int k = 0; k < parity; k++ ) {
+
+                        remainder[ k ] ^= multiply( feedback, generator[ k + 1 ] );
+                    }
+                }
+            }
+
+            for( int j = 0; j < dataLength; j++ ) {
+
+                coded[ getPosition( numOfCodewords, i, j ) ] = data[ from + j ];
+            }
+            for( int j = 0; j < parity; j++ ) {
+
+                coded[ getPosition( numOfCodewords, i, dataLength + j ) ] = ( byte ) remainder[ j ];
+            }
+
+            from += dataLength;
+        }
+
+        return coded;
+    }
+
+    /**
+     * Decode the data correcting the damaged bytes.
+     *
+     * @param coded  interleaved codewords
+     * @param length number of data bytes
+     * @param parity number of parity bytes in every codeword
+     *
+     * @return data bytes
+     *
+     * @throws Exception thrown if a codeword has too many damaged bytes to correct
+     */
+    static byte[] decode( byte[] coded, int length, int parity ) throws Exception {
+
+        if( parity == 0 ) {
+
+            return coded;
+        }
+
+        int numOfCodewords = getNumOfCodewords( length, parity );
+        byte[] data = new byte[ length ];
+        int from = 0;
+
+        for( int i = 0; i < numOfCodewords; i++ ) {
+
+            int dataLength = getDataLength( length, numOfCodewords, i );
+            int[] codeword = new int[ dataLength + parity ];
+
+            for( int j = 0; j < codeword.length; j++ ) {
+
+                codeword[ j ] = coded[ getPosition( numOfCodewords, i, j ) ] & 0xFF;
+            }
+
+            correct( codeword, parity );
+
+            for( int j = 0; j < dataLength; j++ ) {
+
+                data[ from + j ] = ( byte ) codeword[ j ];
+            }
+            from += dataLength;
+        }
+
+        return data;
+    }
+
+    /**
+     * Decode a range of the data reading only the codewords holding it.<br>
+     * <p>
+     * The data bytes fill the codewords one after another, so a range of them lies in a run of codewords. Only the
+     * bytes of these codewords are read, at most 2 codewords more than the range takes.
+     *
+     * @param coded  source of the interleaved codewords
+     * @param length number of data bytes
+     * @param parity number of parity bytes in every codeword
+     * @param offset index of the first data byte of the range
+     * @param count  number of data bytes of the range
+     *
+     * @return data bytes of the range
+     *
+     * @throws Exception thrown if a codeword has too many damaged bytes to correct or the source fails
+     */
+    static byte[] decode( Source coded, int length, int parity, int offset, int count ) throws Exception {
+
+        byte[] data = new byte[ count ];
+
+        if( parity == 0 ) {
+
+            for( int i = 0; i < count; i++ ) {
+
+                data[ i ] = coded.read( offset + i );
+            }
+            return data;
+        }
+
+        if( count == 0 ) {
+
+            return data;
+        }
+
+        int numOfCodewords = getNumOfCodewords( length, parity );
+        int end = offset + count;
+
+        for( int i = getCodewordIndex( length, numOfCodewords, offset ); i < numOfCodewords; i++ ) {
+
+            int from = getDataOffset( length, numOfCodewords, i );
+            if( from >= end ) {
+
+                break;
+            }
+
+            int dataLength = getDataLength( length, numOfCodewords, i );
+            int[] codeword = new int[ dataLength + parity ];
+
+            for( int j = 0; j < codeword.length; j++ ) {
+
+                codeword[ j ] = coded.read( getPosition( numOfCodewords, i, j ) ) & 0xFF;
+            }
+
+            correct( codeword, parity );
+
+            /* Copying the part of the codeword data within the range */
+            for( int j = Math.max( from, offset ); j < Math.min( from + dataLength, end ); j++ ) {
+
+                data[ j - offset ] = ( byte ) codeword[ j - from ];
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Correct the damaged bytes of a codeword.<br>
+     * <p>
+     * The errors are located with the Berlekamp-Massey algorithm and the Chien search, their values are found with
+     * the Forney algorithm.
+     *
+     * @param codeword codeword bytes, the first one is the coefficient of the highest power
+     * @param parity   number of parity bytes
+     *
+     * @throws Exception thrown if the codeword has too many damaged bytes to correct
+     */
+    private static void correct( int[] codeword, int parity ) throws Exception {
+
+        /* Syndromes: the codeword at the roots of the generator */
+        int[] syndromes = new int[ parity ];
+        boolean damaged = false;
+
+        for( int i = 0; i < parity; i++ ) {
+
+            syndromes[ i ] = evaluate( codeword, EXP[ i ] );
+            damaged |= syndromes[ i ] != 0;
+        }
+
+        if( !damaged ) {
+
+            return;
+        }
+
+        /* Error locator: the lowest degree coefficient first */
+        int[] locator = new int[ parity + 1 ];
+        int[] previous = new int[ parity + 1 ];
+        locator[ 0 ] = 1;
+        previous[ 0 ] = 1;
+        int numOfErrors = 0;
+        int shift = 1;
+        int previousDiscrepancy = 1;
+
+        for( int n = 0; n < parity; n++ ) {
+
+            int discrepancy = syndromes[ n ];
+            for( int i = 1; i <= numOfErrors; i++ ) {
+
+                discrepancy ^= multiply( locator[ i ], syndromes[ n - i ] );
+            }
+
+            if( discrepancy == 0 ) {
+
+                shift++;
+                continue;
+            }
+
+            int scale = divide( discrepancy, previousDiscrepancy );
+
+            if( 2 * numOfErrors <= n ) {
+
+                int[] copy = locator.clone();
+                for( int i = 0; i + shift <= parity; i++ ) {
+
+                    locator[ i + shift ] ^= multiply( scale, previous[ i ] );
+                }
+
+                numOfErrors = n + 1 - numOfErrors;
+                previous = copy;
+                previousDiscrepancy = discrepancy;
+                shift = 1;
+
+            } else {
+
+                for( int i = 0; i + shift <= parity; i++ ) {
+
+                    locator[ i + shift ] ^= multiply( scale, previous[ i ] );
+                }
+                shift++;
+            }
+        }
+
+        if( 2 * numOfErrors > parity ) {
+
+            throw new Exception( DECODING_ERROR );
+        }
+
+        /* Error evaluator: the syndromes times the locator modulo x^parity */
+        int[] evaluator = new int[ parity ];
+        for( int i = 0; i < parity; i++ ) {
+
+            for( int j = 0; j <= Math.min( i, numOfErrors ); j++ ) {
+
+                evaluator[ i ] ^= multiply( syndromes[ i - j ], locator[ j ] );
+            }
+        }
+
+        /* Chien search: the byte at the power e is damaged if the locator has a root at the inverse of x^e */
+        int found = 0;
+        for( int k = 0; k < codeword.length; k++ ) {
+
+            int power = codeword.length - 1 - k;
+            int inverse = EXP[ ( CODEWORD_SIZE - power ) % CODEWORD_SIZE ];
+
+            if( evaluateLowFirst( locator, numOfErrors, inverse ) != 0 ) {
+
+                continue;
+            }
+
+            /* Forney: the error value is X * evaluator( 1 / X ) / locator'( 1 / X ) */
+            int derivative = 0;
+            for( int i = 1; i <= numOfErrors; i += 2 ) {
+
+                derivative ^= multiply( locator[ i ], pow( inverse, i - 1 ) );
+            }
+
+            if( derivative == 0 ) {
+
+                throw new Exception( DECODING_ERROR );
+            }
+
+            int value = multiply( EXP[ power ], evaluateLowFirst( evaluator, parity - 1, inverse ) );
+            codeword[ k ] ^= divide( value, derivative );
+            found++;
+        }
+
+        /* The roots outside of a shortened codeword mean the damage is too heavy */
+        if( found != numOfErrors ) {
+
+            throw new Exception( DECODING_ERROR );
+        }
+    }
+
+    /**
+     * Get the generator polynomial: the product of (x - a^i) for i = 0 .. parity - 1.
+     *
+     * @param parity number of parity bytes
+     *
+     * @return coefficients, the highest power first
+     */
+    private static int[] getGenerator( int parity ) {
+
+        int[] generator = new int[ parity + 1 ];
+        generator[ 0 ] = 1;
+
+        for( int i = 0; i < parity; i++ ) {
+
+            /* Multiplying by (x + a^i) */
+            for( int j = i + 1; j > 0; j-- ) {
+
+                generator[ j ] ^= multiply( generator[ j - 1 ], EXP[ i ] );
+            }
+        }
+
+        return generator;
+    }
+
+    /**
+     * Get the number of codewords the data is split into.
+     *
+     * @param length number of data bytes
+     * @param parity number of parity bytes in every codeword
+     *
+     * @return number of codewords
+     */
+    private static int getNumOfCodewords( long length, int parity ) {
+
+        int dataSize = CODEWORD_SIZE - parity;
+        return ( int ) ( ( length + dataSize - 1 ) / dataSize );
+    }
+
+    /**
+     * Get the number of data bytes in a codeword.
+     *
+     * @param length         number of data bytes
+     * @param numOfCodewords number of codewords
+     * @param index          index of the codeword
+     *
+     * @return number of data bytes, the first codewords get a byte more
+     */
+    private static int getDataLength( int length, int numOfCodewords, int index ) {
+
+        return length / numOfCodewords + ( index < length % numOfCodewords ? 1 : 0 );
+    }
+
+    /**
+     * Get the index of the first data byte of a codeword.
+     *
+     * @param length         number of data bytes
+     * @param numOfCodewords number of codewords
+     * @param index          index of the codeword
+     *
+     * @return index of the data byte
+     */
+    private static int getDataOffset( int length, int numOfCodewords, int index ) {
+
+        return index * ( length / numOfCodewords ) + Math.min( index, length % numOfCodewords );
+    }
+
+    /**
+     * Get the index of the codeword holding a data byte.
+     *
+     * @param length         number of data bytes
+     * @param numOfCodewords number of codewords
+     * @param dataIndex      index of the data byte
+     *
+     * @return index of the codeword
+     */
+    private static int getCodewordIndex( int length, int numOfCodewords, int dataIndex ) {
+
+        int shortLength = length / numOfCodewords;
+        int numOfLong = length % numOfCodewords;
+
+        /* The longer codewords go first */
+        if( dataIndex < numOfLong * ( shortLength + 1 ) ) {
+
+            return dataIndex / ( shortLength + 1 );
+        }
+
+        return numOfLong + ( dataIndex - numOfLong * ( shortLength + 1 ) ) / shortLength;
+    }
+
+    /**
+     * Get the position of a codeword byte among the interleaved bytes.<br>
+     * <p>
+     * Every codeword is at least a byte longer than the parity, so all the columns but the last one are full. The last
+     * one holds the bytes of the longer codewords which go first.
+     *
+     * @param numOfCodewords number of codewords
+     * @param index          index of the codeword
+     * @param column         index of the byte in the codeword
+     *
+     * @return position of the byte
+     */
+    private static int getPosition( int numOfCodewords, int index, int column ) {
+
+        return column * numOfCodewords + index;
+    }
+
+    /**
+     * Evaluate a polynomial with the highest power coefficient first.
+     *
+     * @param poly coefficients
+     * @param x    argument
+     *
+     * @return value
+     */
+    private static int evaluate( int[] poly, int x ) {
+
+        int value = 0;
+        for( int coefficient : poly ) {
+
+            value = multiply( value, x ) ^ coefficient;
+        }
+
+        return value;
+    }
+
+    /**
+     * Evaluate a polynomial with the lowest power coefficient first.
+     *
+     * @param poly   coefficients
+     * @param degree degree of the polynomial
+     * @param x      argument
+     *
+     * @return value
+     */
+    private static int evaluateLowFirst( int[] poly, int degree, int x ) {
+
+        int value = 0;
+        for( int i = degree; i >= 0; i-- ) {
+
+            value = multiply( value, x ) ^ poly[ i ];
+        }
+
+        return value;
+    }
+
+    /**
+     * Multiply two field elements.
+     *
+     * @param a first element
+     * @param b second element
+     *
+     * @return product
+     */
+    private static int multiply( int a, int b ) {
+
+        return ( a == 0 || b == 0 ) ? 0 : EXP[ LOG[ a ] + LOG[ b ] ];
+    }
+
+    /**
+     * Divide two field elements.
+     *
+     * @param a dividend
+     * @param b divisor, not zero
+     *
+     * @return quotient
+     */
+    private static int divide( int a, int b ) {
+
+        return a == 0 ? 0 : EXP[ LOG[ a ] + CODEWORD_SIZE - LOG[ b ] ];
+    }
+
+    /**
+     * Raise a field element to a power.
+     *
+     * @param a     element
+     * @param power non-negative power
+     *
+     * @return a in the power
+     */
+    private static int pow( int a, int power ) {
+
+        if( power == 0 ) {
+
+            return 1;
+        }
+
+        return a == 0 ? 0 : EXP[ LOG[ a ] * power % CODEWORD_SIZE ];
+    }
+
+    /**
+     * Source of the interleaved coded bytes read one by one on demand.
+     */
+    interface Source {
+
+        /**
+         * Read a coded byte.
+         *
+         * @param position position of the byte among the interleaved bytes
+         *
+         * @return coded byte
+         *
+         * @throws Exception thrown if the byte can't be read
+         */
+        byte read( int position ) throws Exception;
+    }
+
+    /* Message of the exception thrown if the damage is too heavy to correct */
+    private final static String DECODING_ERROR = "Ошибка в процессе декодирования. Убедитесь, что изображение содержит текст.";
+}
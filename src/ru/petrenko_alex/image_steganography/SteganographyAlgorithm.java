@@ -1,10 +1,45 @@
 package ru.petrenko_alex.image_steganography;
 
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Base class of the steganography algorithms.<br>
+ * <p>
+ * Implementations must not keep any per-call state in their fields: a single shared instance is used by all the
+ * threads (see {@link SteganographyAlgorithmFactory}). The settings are never changed in place: methods like
+ * {@link #withCompression(CompressionMode)} and {@link #withKernels(boolean)} return a configured copy.
+ */
+public abstract class SteganographyAlgorithm implements Cloneable {
+
+    /* Size of the buffer the payload streams are read and written through */
+    static final int STREAM_BUFFER_SIZE = 4096;
+
+    /* Number of pixels in a single strip of the tiled mode: 64 MB as packed pixels */
+    static final int STRIP_PIXELS = 1 << 24;
+
+    /* Message of the exception thrown if the image is small for the payload, text or binary */
+    static final String CAPACITY_ERROR = "Изображение слишком мало для заданных данных.";
+
+    /* Messages of the exceptions thrown if the payload is permuted with a key */
+    static final String KEY_ERROR = "Данные закодированы с ключом. Укажите ключ для декодирования.";
+    static final String TILED_KEY_ERROR = "Потоковый режим не поддерживает перестановку позиций ключом.";
+
+
+    /* Codecs a payload is compressed with, set only on a fresh copy by withCompression */
+    private CompressionMode compression = CompressionMode.BEST;
+
+    /* Use the row kernels for the image types having them, set only on a fresh copy by withKernels */
+    private boolean kernels = true;
 
-public abstract class SteganographyAlgorithm {
 
     /**
      * Encode the text into the buffered image.
@@ -14,7 +49,198 @@ public abstract class SteganographyAlgorithm {
      *
      * @return encoded buffered image
      */
-    public abstract BufferedImage encode( String text, BufferedImage bitmap ) throws Exception;
+    public BufferedImage encode( String text, BufferedImage bitmap ) throws Exception {
+
+        return encode( text, bitmap, ProgressListener.NONE );
+    }
+
+    /**
+     * Encode the text into the buffered image reporting the progress.<br>
+     * <p>
+     * The source image is left untouched: the text is encoded into its copy of the same type. The call is cancelled
+     * with {@link InterruptedException} if its thread is interrupted.
+     *
+     * @param text     text to encode
+     * @param bitmap   buffered image
+     * @param listener listener of the progress
+     *
+     * @return encoded buffered image
+     */
+    public BufferedImage encode( String text, BufferedImage bitmap, ProgressListener listener ) throws Exception {
+
+        Compression packed = compress( getTextBytes( text ), false );
+
+        /* Checking the capacity before the image is copied */
+        if( packed.bytes.length > capacity( bitmap ) ) {
+
+            throw new Exception( CAPACITY_ERROR );
+        }
+
+        BufferedImage result = makeImageCopy( bitmap );
+        encodePacked( packed, result, listener );
+        return result;
+    }
+
+    /**
+     * Encode the text right into the buffered image without making a copy.
+     *
+     * @param text  text to encode
+     * @param image buffered image to modify
+     */
+    public void encodeInPlace( String text, BufferedImage image ) throws Exception {
+
+        encodeInPlace( text, image, ProgressListener.NONE );
+    }
+
+    /**
+     * Encode the text right into the buffered image without making a copy reporting the progress.<br>
+     * <p>
+     * The text is compressed if it makes the text shorter. The image is not modified if it is small for the text. If
+     * the call is cancelled, the image is left partially encoded.
+     *
+     * @param text     text to encode
+     * @param image    buffered image to modify
+     * @param listener listener of the progress
+     */
+    public void encodeInPlace( String text, BufferedImage image, ProgressListener listener ) throws Exception {
+
+        encodePacked( compress( getTextBytes( text ), false ), image, listener );
+    }
+
+    /**
+     * Encode the binary payload held in memory right into the buffered image without making a copy.
+     *
+     * @param payload payload to encode
+     * @param image   buffered image to modify
+     */
+    public void encodeInPlace( byte[] payload, BufferedImage image ) throws Exception {
+
+        encodeInPlace( payload, image, ProgressListener.NONE );
+    }
+
+    /**
+     * Encode the binary payload held in memory right into the buffered image without making a copy reporting the
+     * progress.<br>
+     * <p>
+     * Unlike a streamed payload, the payload is compressed like a text if it makes the payload shorter. The image is
+     * not modified if it is small for the payload. If the call is cancelled, the image is left partially encoded.
+     *
+     * @param payload  payload to encode
+     * @param image    buffered image to modify
+     * @param listener listener of the progress
+     */
+    public void encodeInPlace( byte[] payload, BufferedImage image, ProgressListener listener ) throws Exception {
+
+        encodePacked( compress( payload, true ), image, listener );
+    }
+
+    /**
+     * Get a copy of the algorithm compressing payloads in the given mode.<br>
+     * <p>
+     * The algorithm itself is left untouched, so a shared instance may be configured safely. Payloads are compressed
+     * in the {@link CompressionMode#BEST} mode by default.
+     *
+     * @param compression codecs to compress payloads with
+     *
+     * @return configured copy of the algorithm
+     */
+    public SteganographyAlgorithm withCompression( CompressionMode compression ) {
+
+        if( compression == null ) {
+
+            throw new IllegalArgumentException( "Не задан режим сжатия." );
+        }
+
+        SteganographyAlgorithm copy = copy();
+        copy.compression = compression;
+        return copy;
+    }
+
+    /**
+     * Get the mode payloads are compressed in.
+     *
+     * @return compression mode
+     */
+    public CompressionMode getCompression() {
+
+        return compression;
+    }
+
+    /**
+     * Get a copy of the algorithm using the row kernels or not.<br>
+     * <p>
+     * The row kernels write and read the payload bits of <code>TYPE_3BYTE_BGR</code>, <code>TYPE_INT_RGB</code> and
+     * <code>TYPE_INT_ARGB</code> images right in the backing arrays of their rasters, a row of pixels at a time.
+     * Without them every pixel goes through <code>getRGB</code> / <code>setRGB</code> like the pixels of any other
+     * type. The images are the same either way. The kernels are used by default.
+     *
+     * @param kernels true to use the row kernels, false to process the pixels one by one
+     *
+     * @return configured copy of the algorithm
+     */
+    public SteganographyAlgorithm withKernels( boolean kernels ) {
+
+        SteganographyAlgorithm copy = copy();
+        copy.kernels = kernels;
+        return copy;
+    }
+
+    /**
+     * Check if the row kernels are used for the image types having them.
+     *
+     * @return true if the row kernels are used
+     */
+    public boolean usesKernels() {
+
+        return kernels;
+    }
+
+    /**
+     * Make a copy of the algorithm to configure.
+     *
+     * @return copy sharing all the settings of the algorithm
+     */
+    private SteganographyAlgorithm copy() {
+
+        try {
+
+            return ( SteganographyAlgorithm ) clone();
+
+        } catch( CloneNotSupportedException e ) {
+
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * Get the number of payload bytes which can be encoded into the buffered image.
+     *
+     * @param image buffered image
+     *
+     * @return number of payload bytes, a text or a binary payload, excluding any service data; -1 if the image is too
+     * small even for an empty payload
+     */
+    public long capacity( BufferedImage image ) {
+
+        return capacity( image.getWidth(), image.getHeight(), image.getType() );
+    }
+
+    /**
+     * Get the number of payload bytes which can be encoded into an image of the given size and type.<br>
+     * <p>
+     * The value is exact: a payload of this many bytes fits, a byte more does not. Nothing is read or allocated, so
+     * payloads may be matched to covers knowing only their dimensions. A text is compressed before the check, so a
+     * longer text fits if it compresses well. An image too small for the service data of an empty payload holds no
+     * payload at all, so its capacity is -1 rather than 0.
+     *
+     * @param width  image width
+     * @param height image height
+     * @param type   image type, one of <code>BufferedImage.TYPE_*</code>
+     *
+     * @return number of payload bytes, a text or a binary payload, excluding any service data; -1 if the image is too
+     * small even for an empty payload
+     */
+    public abstract long capacity( int width, int height, int type );
 
     /**
      * Decode the text from the buffered image.
@@ -23,20 +249,471 @@ public abstract class SteganographyAlgorithm {
      *
      * @return decoded text
      */
-    public abstract String decode( BufferedImage bitmap ) throws Exception;
+    public String decode( BufferedImage bitmap ) throws Exception {
+
+        return decode( bitmap, ProgressListener.NONE );
+    }
+
+    /**
+     * Decode the text from the buffered image reporting the progress.<br>
+     * <p>
+     * The call is cancelled with {@link InterruptedException} if its thread is interrupted.
+     *
+     * @param bitmap   encoded buffered image
+     * @param listener listener of the progress
+     *
+     * @return decoded text
+     */
+    public abstract String decode( BufferedImage bitmap, ProgressListener listener ) throws Exception;
+
+    /**
+     * Encode the binary payload read from the stream into the buffered image.<br>
+     * <p>
+     * The payload is read through a small fixed buffer and is never held in memory as a whole, unless the algorithm
+     * needs it whole: {@link KutterJordanBossen} with the error correcting code reads it into memory first, the
+     * payload is limited by the capacity of the image anyway. The stream is read till its end but is not closed.
+     *
+     * @param payload stream to read the payload from
+     * @param bitmap  buffered image
+     *
+     * @return encoded buffered image
+     */
+    public BufferedImage encode( InputStream payload, BufferedImage bitmap ) throws Exception {
+
+        return encode( payload, bitmap, ProgressListener.NONE );
+    }
+
+    /**
+     * Encode the binary payload read from the stream into the buffered image reporting the progress.<br>
+     * <p>
+     * The source image is left untouched: the payload is encoded into its copy of the same type. The total number of
+     * bytes is not known until the stream ends, so it is reported as -1. The call is cancelled with
+     * {@link InterruptedException} if its thread is interrupted.
+     *
+     * @param payload  stream to read the payload from
+     * @param bitmap   buffered image
+     * @param listener listener of the progress
+     *
+     * @return encoded buffered image
+     */
+    public BufferedImage encode( InputStream payload, BufferedImage bitmap, ProgressListener listener )
+            throws Exception {
+
+        BufferedImage result = makeImageCopy( bitmap );
+        encodeInPlace( payload, result, listener );
+        return result;
+    }
+
+    /**
+     * Encode the binary payload read from the stream right into the buffered image without making a copy.
+     *
+     * @param payload stream to read the payload from
+     * @param image   buffered image to modify
+     */
+    public void encodeInPlace( InputStream payload, BufferedImage image ) throws Exception {
+
+        encodeInPlace( payload, image, ProgressListener.NONE );
+    }
+
+    /**
+     * Encode the binary payload read from the stream right into the buffered image without making a copy reporting
+     * the progress.<br>
+     * <p>
+     * The payload is written while it is being read, so if the stream turns out to be too long for the image or the
+     * call is cancelled, the image is left partially encoded. The algorithms coding the payload as a whole, like
+     * {@link KutterJordanBossen} with the error correcting code, read it into memory first and leave the image
+     * untouched if it is too long. A streamed payload is compressed only by the algorithms
+     * reading it into memory anyway; use {@link #encodeInPlace(byte[], BufferedImage, ProgressListener)} to compress
+     * a payload held in memory.
+     *
+     * @param payload  stream to read the payload from
+     * @param image    buffered image to modify
+     * @param listener listener of the progress
+     */
+    public abstract void encodeInPlace( InputStream payload, BufferedImage image, ProgressListener listener )
+            throws Exception;
+
+    /**
+     * Decode the binary payload from the buffered image into the stream.<br>
+     * <p>
+     * The payload is written through a small fixed buffer. A compressed payload or one coded with the error correcting
+     * code is decoded as a whole in memory first. The stream is not closed.
+     *
+     * @param bitmap  encoded buffered image
+     * @param payload stream to write the payload to
+     *
+     * @return number of the payload bytes written
+     */
+    public int decode( BufferedImage bitmap, OutputStream payload ) throws Exception {
+
+        return decode( bitmap, payload, ProgressListener.NONE );
+    }
 
     /**
-     * Prepare the text to encode.<br> Make a byte array containing bytes of the source text and a length of the source
-     * text.
+     * Decode the binary payload from the buffered image into the stream reporting the progress.<br>
+     * <p>
+     * The call is cancelled with {@link InterruptedException} if its thread is interrupted.
      *
-     * @param text source text
+     * @param bitmap   encoded buffered image
+     * @param payload  stream to write the payload to
+     * @param listener listener of the progress
      *
-     * @return byte array of a source text and a length of it
+     * @return number of the payload bytes written
      */
-    abstract byte[] prepareTextToEncode( String text );
+    public abstract int decode( BufferedImage bitmap, OutputStream payload, ProgressListener listener )
+            throws Exception;
 
     /**
-     * Make a copy of the image.
+     * Decode a range of the payload bytes without decoding the rest of the payload.<br>
+     * <p>
+     * Only the header and the pixels holding the range are read, so the time depends on the length of the range
+     * rather than on the length of the payload. A payload protected by the error correcting code is read by whole
+     * codewords around the range. A compressed text is decompressed as a whole first.
+     *
+     * @param bitmap encoded buffered image
+     * @param offset index of the first payload byte to decode
+     * @param length number of bytes to decode
+     *
+     * @return decoded bytes
+     *
+     * @throws Exception thrown if the image doesn't contain a payload or the range goes beyond its end
+     */
+    public byte[] decode( BufferedImage bitmap, long offset, int length ) throws Exception {
+
+        if( offset < 0 || length < 0 ) {
+
+            throw new IllegalArgumentException( "Смещение и длина диапазона не могут быть отрицательными: " + offset
+                    + ", " + length );
+        }
+
+        return decodeRange( bitmap, offset, length );
+    }
+
+    /**
+     * Check if the image holds a payload of the algorithm reading only its header.<br>
+     * <p>
+     * Only the pixels of the header are read, and the header is checked against the capacity of the image. The
+     * payload itself is not read, so it may still turn out damaged when it is decoded.
+     *
+     * @param image buffered image
+     *
+     * @return metadata of the payload or null if the image holds no payload of the algorithm
+     */
+    public PayloadInfo probe( BufferedImage image ) {
+
+        return probe( image, image.getHeight() );
+    }
+
+    /**
+     * Check if the image file holds a payload of the algorithm reading only the top rows holding the header.<br>
+     * <p>
+     * Only the strip of the rows the header takes is decoded from the file. The 8-bit RGB and RGBA PNG files are
+     * inflated only as far as the strip, the other formats are read by the image readers, which may decode the whole
+     * file.
+     *
+     * @param file image file
+     *
+     * @return metadata of the payload or null if the image holds no payload of the algorithm
+     *
+     * @throws IOException thrown if the file can't be read or has an unknown format
+     */
+    public PayloadInfo probe( File file ) throws IOException {
+
+        try( PngRowReader reader = new PngRowReader( file ) ) {
+
+            if( reader.isSupported() ) {
+
+                int numOfRows = Math.min( reader.getHeight(), getHeadRows( reader.getWidth() ) );
+                return probe( reader.read( numOfRows ), reader.getHeight() );
+            }
+        }
+
+        try( StripReader reader = new StripReader( file ) ) {
+
+            int numOfRows = Math.min( reader.getHeight(), getHeadRows( reader.getWidth() ) );
+            return probe( reader.read( 0, numOfRows ), reader.getHeight() );
+        }
+    }
+
+    /**
+     * Encode the binary payload into the image file writing the result into a PNG file strip by strip.<br>
+     * <p>
+     * Neither the cover nor the result is ever held in memory as a whole: only a strip of
+     * {@value #STRIP_PIXELS} pixels at a time. The payload length must be known beforehand since the strip holding the
+     * header is written before the payload is read. The payload is streamed as well, except for
+     * {@link KutterJordanBossen} with the error correcting code: the code needs the whole payload, so it is read into
+     * memory before the first strip.
+     *
+     * @param cover   cover image file
+     * @param payload stream to read the payload from
+     * @param length  payload length in bytes
+     * @param output  PNG file to write the encoded image into
+     */
+    public void encodeTiled( File cover, InputStream payload, int length, File output ) throws Exception {
+
+        encodeTiled( cover, payload, length, output, ProgressListener.NONE );
+    }
+
+    /**
+     * Encode the binary payload into the image file strip by strip reporting the progress.<br>
+     * <p>
+     * The call is cancelled with {@link InterruptedException} if its thread is interrupted. The output file is
+     * incomplete then.
+     *
+     * @param cover    cover image file
+     * @param payload  stream to read the payload from
+     * @param length   payload length in bytes
+     * @param output   PNG file to write the encoded image into
+     * @param listener listener of the progress
+     */
+    public void encodeTiled( File cover, InputStream payload, int length, File output, ProgressListener listener )
+            throws Exception {
+
+        try( StripReader reader = new StripReader( cover ) ) {
+
+            int width = reader.getWidth();
+            int height = reader.getHeight();
+            StripEncoder encoder = newStripEncoder( width, height, reader.getImageType(), payload, length );
+            Progress progress = new Progress( listener, encoder.getPayloadLength() );
+
+            try( PngStripWriter writer = new PngStripWriter( output, width, height, reader.hasAlpha() ) ) {
+
+                int stripHeight = Math.max( 1, STRIP_PIXELS / width );
+
+                for( int y = 0; y < height; y += stripHeight ) {
+
+                    BufferedImage strip = reader.read( y, Math.min( stripHeight, height - y ) );
+                    progress.advance( encoder.encode( strip, y ) );
+                    writer.write( strip );
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode the binary payload from the image file strip by strip.<br>
+     * <p>
+     * Only a strip of {@value #STRIP_PIXELS} pixels is held in memory at a time. Strips after the end of the payload
+     * are not read. A compressed payload or one coded with the error correcting code is collected in memory and
+     * decoded as a whole.
+     *
+     * @param image   encoded image file
+     * @param payload stream to write the payload to
+     *
+     * @return number of the payload bytes written
+     */
+    public int decodeTiled( File image, OutputStream payload ) throws Exception {
+
+        return decodeTiled( image, payload, ProgressListener.NONE );
+    }
+
+    /**
+     * Decode the binary payload from the image file strip by strip reporting the progress.<br>
+     * <p>
+     * The call is cancelled with {@link InterruptedException} if its thread is interrupted.
+     *
+     * @param image    encoded image file
+     * @param payload  stream to write the payload to
+     * @param listener listener of the progress
+     *
+     * @return number of the payload bytes written
+     */
+    public int decodeTiled( File image, OutputStream payload, ProgressListener listener ) throws Exception {
+
+        try( StripReader reader = new StripReader( image ) ) {
+
+            int width = reader.getWidth();
+            int height = reader.getHeight();
+            int margin = getStripMargin();
+            StripDecoder decoder = newStripDecoder( width, height, payload );
+            Progress progress = new Progress( listener, -1 );
+
+            int stripHeight = Math.max( 1, STRIP_PIXELS / width );
+
+            for( int y = 0; y < height && !decoder.isDone(); y += stripHeight ) {
+
+                /* Reading the neighbouring rows as well */
+                int toRow = Math.min( height, y + stripHeight );
+                int top = Math.max( 0, y - margin );
+                int bottom = Math.min( height, toRow + margin );
+
+                BufferedImage strip = reader.read( top, bottom - top );
+                progress.advance( decoder.decode( strip, top, y, toRow ) );
+            }
+
+            return decoder.finish();
+        }
+    }
+
+    /**
+     * Encode the prepared text right into the buffered image.
+     *
+     * @param packed   text bytes as they are stored, compressed or not
+     * @param image    buffered image to modify
+     * @param listener listener of the progress
+     *
+     * @throws Exception thrown if image is small for the text
+     */
+    abstract void encodePacked( Compression packed, BufferedImage image, ProgressListener listener ) throws Exception;
+
+    /**
+     * Decode a range of the payload bytes.
+     *
+     * @param bitmap encoded buffered image
+     * @param offset index of the first payload byte to decode, not negative
+     * @param length number of bytes to decode, not negative
+     *
+     * @return decoded bytes
+     *
+     * @throws Exception thrown if the image doesn't contain a payload or the range goes beyond its end
+     */
+    abstract byte[] decodeRange( BufferedImage bitmap, long offset, int length ) throws Exception;
+
+    /**
+     * Read the header of the payload from the top rows of an image.
+     *
+     * @param head   top rows of the image, at least {@link #getHeadRows(int)} of them if the image has so many
+     * @param height height of the whole image
+     *
+     * @return metadata of the payload
+     *
+     * @throws Exception thrown if the image holds no payload of the algorithm
+     */
+    abstract PayloadInfo readInfo( BufferedImage head, int height ) throws Exception;
+
+    /**
+     * Get the number of the top rows of an image holding the header with everything needed to read it.
+     *
+     * @param width image width
+     *
+     * @return number of rows
+     */
+    abstract int getHeadRows( int width );
+
+    /**
+     * Make an encoder for the tiled mode.
+     *
+     * @param width   image width
+     * @param height  image height
+     * @param type    type of the strips
+     * @param payload stream to read the payload from
+     * @param length  payload length in bytes
+     *
+     * @return strip encoder
+     *
+     * @throws Exception thrown if image is small for the payload
+     */
+    abstract StripEncoder newStripEncoder( int width, int height, int type, InputStream payload, int length )
+            throws Exception;
+
+    /**
+     * Make a decoder for the tiled mode.
+     *
+     * @param width   image width
+     * @param height  image height
+     * @param payload stream to write the payload to
+     *
+     * @return strip decoder
+     *
+     * @throws Exception thrown if image is too small to contain a payload
+     */
+    abstract StripDecoder newStripDecoder( int width, int height, OutputStream payload ) throws Exception;
+
+    /**
+     * Get the number of rows above and below a pixel needed to decode it.
+     *
+     * @return number of rows
+     */
+    int getStripMargin() {
+
+        return 0;
+    }
+
+    /**
+     * Read the header of the payload from the top rows of an image.
+     *
+     * @param head   top rows of the image
+     * @param height height of the whole image
+     *
+     * @return metadata of the payload or null if the image holds no payload of the algorithm
+     */
+    private PayloadInfo probe( BufferedImage head, int height ) {
+
+        try {
+
+            return readInfo( head, height );
+
+        } catch( Exception e ) {
+
+            return null;
+        }
+    }
+
+    /**
+     * Check that a range lies within the payload.
+     *
+     * @param offset        index of the first byte of the range
+     * @param length        number of bytes of the range
+     * @param payloadLength number of the payload bytes
+     *
+     * @throws Exception thrown if the range goes beyond the end of the payload
+     */
+    static void checkRange( long offset, int length, int payloadLength ) throws Exception {
+
+        if( offset + length > payloadLength ) {
+
+            throw new Exception( "Диапазон " + offset + " - " + ( offset + length )
+                    + " выходит за пределы данных длиной " + payloadLength + " байт." );
+        }
+    }
+
+    /**
+     * Get a range of the payload decoded as a whole.
+     *
+     * @param payload payload bytes
+     * @param offset  index of the first byte of the range
+     * @param length  number of bytes of the range
+     *
+     * @return bytes of the range
+     *
+     * @throws Exception thrown if the range goes beyond the end of the payload
+     */
+    static byte[] copyRange( byte[] payload, long offset, int length ) throws Exception {
+
+        checkRange( offset, length, payload.length );
+        return Arrays.copyOfRange( payload, ( int ) offset, ( int ) offset + length );
+    }
+
+    /**
+     * Get the payload bytes of the text.
+     *
+     * @param text text to encode
+     *
+     * @return UTF-8 bytes of the text
+     */
+    byte[] getTextBytes( String text ) {
+
+        return text.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Compress the payload in the mode of the algorithm.
+     *
+     * @param data   payload
+     * @param binary true if the payload is binary data rather than a text
+     *
+     * @return payload as it is stored
+     */
+    Compression compress( byte[] data, boolean binary ) {
+
+        return Compression.compress( data, compression, binary );
+    }
+
+    /**
+     * Make a copy of the image.<br>
+     * <p>
+     * The copy has the same color model and raster layout, so the type of the image is kept exactly, custom types
+     * included. The backing array of a plain raster is cloned as a whole, other rasters are copied sample by sample.
      *
      * @param imageToCopy image to make copy of
      *
@@ -44,9 +721,14 @@ public abstract class SteganographyAlgorithm {
      */
     BufferedImage makeImageCopy( BufferedImage imageToCopy ) {
 
-        BufferedImage result = new BufferedImage( imageToCopy.getWidth(), imageToCopy.getHeight(), imageToCopy.getType() );
-        Graphics g = result.getGraphics();
-        g.drawImage( imageToCopy, 0, 0, null );
-        return result;
+        ColorModel colorModel = imageToCopy.getColorModel();
+        WritableRaster raster = imageToCopy.getRaster().createCompatibleWritableRaster();
+
+        if( !RasterData.copy( imageToCopy.getRaster(), raster ) ) {
+
+            imageToCopy.copyData( raster );
+        }
+
+        return new BufferedImage( colorModel, raster, colorModel.isAlphaPremultiplied(), null );
     }
 }
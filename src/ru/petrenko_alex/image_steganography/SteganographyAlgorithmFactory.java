@@ -1,32 +1,82 @@
 package ru.petrenko_alex.image_steganography;
 
 
-import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Registry of the steganography algorithms.<br>
+ * <p>
+ * Every algorithm is registered once as a shared instance under its class name. The algorithms keep no per-call state,
+ * so the same instance may be used by any number of threads at once.
+ */
 public class SteganographyAlgorithmFactory {
 
+    /**
+     * Get the shared instance of the algorithm with the name algorithmName.
+     *
+     * @param algorithmName name of the algorithm, i.e. its class name
+     * @return shared instance of the algorithm
+     * @throws Exception thrown if there is no algorithm with such a name
+     */
+    public static SteganographyAlgorithm getSteganographyAlgorithm( String algorithmName ) throws Exception {
+
+        SteganographyAlgorithm algorithm = ALGORITHMS.get( algorithmName );
+
+        if( algorithm == null ) {
+
+            throw new Exception( "Неизвестный алгоритм: " + algorithmName );
+        }
+
+        return algorithm;
+    }
+
     /**
      * Get object of the class with the name className.
      *
      * @param className name of the class
      * @return object of the class
-     * @throws Exception thrown if got errors while searching for a class and making a constructor
+     * @throws Exception thrown if there is no algorithm with such a name
+     * @deprecated algorithms are shared now, use {@link #getSteganographyAlgorithm(String)}
      */
+    @Deprecated
     public static SteganographyAlgorithm createSteganographyAlgorithm( String className ) throws Exception {
 
-        /* Preparing the class name */
-        String tmpClassName = PATH_TO_ALGORITHMS_PACKAGE;
-        tmpClassName = tmpClassName.concat( className );
-        Object algoObject = null;
+        return getSteganographyAlgorithm( className );
+    }
 
-        /* Getting an object of the class */
-        Class c = Class.forName( tmpClassName );
-        Constructor< ? > constr = c.getConstructor();
-        algoObject = constr.newInstance();
+    /**
+     * Get names of all the registered algorithms.
+     *
+     * @return names of the algorithms in the registration order
+     */
+    public static Set< String > getAlgorithmNames() {
 
-        return ( SteganographyAlgorithm ) algoObject;
+        return ALGORITHMS.keySet();
     }
 
-    /* The path to image_steganography algorithms classes */
-    private final static String PATH_TO_ALGORITHMS_PACKAGE = "ru.petrenko_alex.image_steganography.";
+    /**
+     * Register a shared instance of the algorithm under its class name.
+     *
+     * @param algorithms map to register the algorithm in
+     * @param algorithm  algorithm to register
+     */
+    private static void register( Map< String, SteganographyAlgorithm > algorithms, SteganographyAlgorithm algorithm ) {
+
+        algorithms.put( algorithm.getClass().getSimpleName(), algorithm );
+    }
+
+    /* Shared instances of the algorithms by their names */
+    private final static Map< String, SteganographyAlgorithm > ALGORITHMS;
+
+    static {
+
+        Map< String, SteganographyAlgorithm > algorithms = new LinkedHashMap<>();
+        register( algorithms, new KutterJordanBossen() );
+        register( algorithms, new LeastSignificantBit() );
+
+        ALGORITHMS = Collections.unmodifiableMap( algorithms );
+    }
 }
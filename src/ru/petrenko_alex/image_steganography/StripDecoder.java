@@ -0,0 +1,200 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Decoder of a payload from an image processed strip by strip, from the top to the bottom.<br>
+ * <p>
+ * The decoded bytes are the head (a header or a length) followed by the stored payload written to the stream. A
+ * payload stored compressed or with an error correcting code is collected in memory and written when it is restored.
+ * The payload written right away goes through a {@link ChecksumOutputStream}: every block is checked as soon as its
+ * checksum is decoded and only then written, so a damaged block stops the decoding before it reaches the stream. A
+ * decoder is made for a single call and keeps the position between the strips.
+ */
+abstract class StripDecoder {
+
+    private final byte[] head;
+    private final byte[] buffer = new byte[ SteganographyAlgorithm.STREAM_BUFFER_SIZE ];
+    private int numOfHeadBytes, numOfBufferedBytes;
+
+    /* Stream the decoded bytes go to: the checked payload stream or a buffer of the stored payload */
+    private final OutputStream payload;
+    private OutputStream target;
+    private ByteArrayOutputStream stored;
+
+    /* Header parsed from the head, null until the head is decoded, and the number of the stored payload bytes */
+    private PayloadHeader header;
+    private int storedLength;
+    private int written;
+
+
+    /**
+     * @param headSize maximal number of bytes going before the payload
+     * @param payload  stream to write the payload to
+     */
+    StripDecoder( int headSize, OutputStream payload ) {
+
+        this.head = new byte[ headSize ];
+        this.payload = payload;
+    }
+
+    /**
+     * Decode the next bytes from the rows of the strip.<br>
+     * <p>
+     * The strip may have extra rows above and below the decoded ones if the decoder needs the neighbouring pixels.
+     *
+     * @param strip    strip of the image
+     * @param stripTop index of the first strip row in the image
+     * @param fromRow  index of the first image row to decode
+     * @param toRow    index of the image row after the last one to decode
+     *
+     * @return number of the payload bytes decoded from the strip
+     *
+     * @throws Exception thrown if data is damaged
+     */
+    abstract int decode( BufferedImage strip, int stripTop, int fromRow, int toRow ) throws Exception;
+
+    /**
+     * Parse the decoded head.
+     *
+     * @param head head bytes
+     *
+     * @return header of the payload
+     *
+     * @throws Exception thrown if the head is damaged
+     */
+    abstract PayloadHeader parseHead( byte[] head ) throws Exception;
+
+    /**
+     * Check if the whole head is decoded.<br>
+     * <p>
+     * A decoder reading heads of different sizes tells the size from the first bytes.
+     *
+     * @param head       head bytes decoded so far
+     * @param numOfBytes number of the head bytes decoded so far
+     *
+     * @return true if the head is complete
+     */
+    boolean isHeadComplete( byte[] head, int numOfBytes ) {
+
+        return numOfBytes == head.length;
+    }
+
+    /**
+     * Get the number of bytes the payload is stored in.
+     *
+     * @param header header of the payload
+     *
+     * @return number of the stored bytes following the head
+     */
+    int getStoredLength( PayloadHeader header ) {
+
+        return header.getStoredLength();
+    }
+
+    /**
+     * Restore the payload from the stored bytes if they are not the payload itself.
+     *
+     * @param stored stored bytes
+     *
+     * @return payload bytes with the checksums if the header has them, compressed if the header tells so
+     *
+     * @throws Exception thrown if the stored bytes are damaged
+     */
+    byte[] restore( byte[] stored ) throws Exception {
+
+        return stored;
+    }
+
+    /**
+     * Put the next decoded byte.
+     *
+     * @param value decoded byte
+     *
+     * @return true if the byte belongs to the payload
+     *
+     * @throws Exception thrown if the head is damaged or a block of the payload doesn't match its checksum
+     */
+    boolean putByte( int value ) throws Exception {
+
+        if( header == null ) {
+
+            head[ numOfHeadBytes++ ] = ( byte ) value;
+            if( isHeadComplete( head, numOfHeadBytes ) ) {
+
+                header = parseHead( head );
+                storedLength = getStoredLength( header );
+
+                if( header.getCompression() != Compression.NONE || storedLength != header.getStoredLength() ) {
+
+                    stored = new ByteArrayOutputStream( storedLength );
+                    target = stored;
+
+                } else {
+
+                    target = new ChecksumOutputStream( header, payload );
+                }
+            }
+            return false;
+        }
+
+        buffer[ numOfBufferedBytes++ ] = ( byte ) value;
+        written++;
+
+        if( numOfBufferedBytes == buffer.length || written == storedLength ) {
+
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Check if the whole payload is decoded.
+     *
+     * @return true if there is nothing left to decode
+     */
+    boolean isDone() {
+
+        return header != null && written == storedLength;
+    }
+
+    /**
+     * Finish decoding.
+     *
+     * @return payload length in bytes, decompressed
+     *
+     * @throws Exception thrown if the image ended before the whole payload is decoded or the payload is damaged
+     */
+    int finish() throws Exception {
+
+        if( !isDone() ) {
+
+            throw new Exception( "Ошибка в процессе декодирования. Убедитесь, что изображение содержит текст." );
+        }
+
+        if( stored == null ) {
+
+            return header.length;
+        }
+
+        byte[] bytes = header.checkPayload( restore( stored.toByteArray() ) );
+        bytes = Compression.decompress( header, bytes );
+        payload.write( bytes );
+        return bytes.length;
+    }
+
+    /**
+     * Write the buffered stored bytes to the stream.
+     *
+     * @throws IOException thrown if a block doesn't match its checksum or the stream can't be written
+     */
+    private void flush() throws IOException {
+
+        target.write( buffer, 0, numOfBufferedBytes );
+        numOfBufferedBytes = 0;
+    }
+}
@@ -0,0 +1,107 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+
+/**
+ * Encoder of a payload into an image processed strip by strip, from the top to the bottom.<br>
+ * <p>
+ * The encoded bytes are the head (a header or a length) followed by the payload read from the stream, every block of
+ * the payload followed by its checksum if it is asked for (see {@link ChecksumInputStream}). An encoder is made for
+ * a single call and keeps the position between the strips.
+ */
+abstract class StripEncoder {
+
+    private final byte[] head;
+    private final InputStream payload;
+    private final long numOfBytes;
+    private long position;
+
+
+    /**
+     * @param head     bytes going before the payload
+     * @param payload  stream to read the payload from
+     * @param length   payload length in bytes
+     * @param checksum true to follow every block of the payload with its checksum, see {@link PayloadHeader}
+     */
+    StripEncoder( byte[] head, InputStream payload, int length, boolean checksum ) {
+
+        this.head = head;
+        this.payload = checksum ? new ChecksumInputStream( payload, length ) : payload;
+        this.numOfBytes = head.length + ( checksum ? PayloadHeader.getStoredLength( length ) : length );
+    }
+
+    /**
+     * Get the number of bytes to encode after the head.
+     *
+     * @return payload length in bytes with the checksums
+     */
+    long getPayloadLength() {
+
+        return numOfBytes - head.length;
+    }
+
+    /**
+     * Encode the next bytes into the strip.
+     *
+     * @param strip    strip of the image
+     * @param firstRow index of the first strip row in the image
+     *
+     * @return number of the payload bytes encoded into the strip
+     *
+     * @throws Exception thrown if the payload stream ends too early
+     */
+    abstract int encode( BufferedImage strip, int firstRow ) throws Exception;
+
+    /**
+     * Check if there are bytes left to encode.
+     *
+     * @return true if there is the next byte
+     */
+    boolean hasNextByte() {
+
+        return position < numOfBytes;
+    }
+
+    /**
+     * Get the next byte to encode.
+     *
+     * @return next byte, 0 - 255
+     *
+     * @throws Exception thrown if the payload stream ends too early
+     */
+    int nextByte() throws Exception {
+
+        if( position < head.length ) {
+
+            return head[ ( int ) position++ ] & 0xFF;
+        }
+
+        int value = payload.read();
+        if( value < 0 ) {
+
+            throw new Exception( "Поток закончился раньше заявленной длины данных." );
+        }
+
+        position++;
+        return value;
+    }
+
+    /**
+     * Check if the byte returned by the last {@link #nextByte()} call goes after the head.
+     *
+     * @return true if the last byte is a payload or a checksum byte
+     */
+    boolean isPayloadByte() {
+
+        return position > head.length;
+    }
+
+    /**
+     * Check if all the bytes are encoded.
+     *
+     * @return true if there is nothing left to encode
+     */
+    abstract boolean isDone();
+}
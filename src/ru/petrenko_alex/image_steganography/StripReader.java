@@ -0,0 +1,228 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reader of an image file by horizontal strips.<br>
+ * <p>
+ * Every strip is read as a source region of the <code>ImageReader</code>, so only the strip is held in memory. Formats
+ * with tiles or strips of their own (i.e. TIFF) are read right from the needed place. The <code>ImageReader</code> of
+ * PNG inflates the file from the beginning for every strip, so the PNG files the {@link PngRowReader} supports are
+ * read by it from top to bottom inflating the file once. Strips going down the image, overlapping or not, are read
+ * this way; a strip above the previous one falls back to the <code>ImageReader</code>.
+ */
+final class StripReader implements Closeable {
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width, height;
+
+    /* Sequential reader of the PNG rows, null if the file is not supported by it */
+    private PngRowReader png;
+
+    /* Strip read last by the sequential reader and the index of its first row; its rows end at the next row */
+    private BufferedImage last;
+    private int lastRow;
+
+
+    /**
+     * Open the image file.
+     *
+     * @param file image file
+     *
+     * @throws IOException thrown if the file can't be read or has an unknown format
+     */
+    StripReader( File file ) throws IOException {
+
+        input = ImageIO.createImageInputStream( file );
+        if( input == null ) {
+
+            throw new IOException( "Не удалось прочитать изображение " + file );
+        }
+
+        Iterator< ImageReader > readers = ImageIO.getImageReaders( input );
+        if( !readers.hasNext() ) {
+
+            input.close();
+            throw new IOException( "Не удалось прочитать изображение " + file );
+        }
+
+        reader = readers.next();
+        reader.setInput( input, false, true );
+
+        try {
+
+            width = reader.getWidth( 0 );
+            height = reader.getHeight( 0 );
+
+            png = new PngRowReader( file );
+            if( !png.isSupported() ) {
+
+                png.close();
+                png = null;
+            }
+
+        } catch( IOException e ) {
+
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the image width.
+     *
+     * @return width in pixels
+     */
+    int getWidth() {
+
+        return width;
+    }
+
+    /**
+     * Get the image height.
+     *
+     * @return height in pixels
+     */
+    int getHeight() {
+
+        return height;
+    }
+
+    /**
+     * Check if the image has an alpha channel.
+     *
+     * @return true if the pixels have alpha
+     *
+     * @throws IOException thrown if the file can't be read
+     */
+    boolean hasAlpha() throws IOException {
+
+        return getRawType().getColorModel().hasAlpha();
+    }
+
+    /**
+     * Get the type of the strips without reading any pixels.
+     *
+     * @return type of the strips, one of the types known to {@link ImageFiles}
+     *
+     * @throws IOException thrown if the file can't be read
+     */
+    int getImageType() throws IOException {
+
+        ImageTypeSpecifier type = getRawType();
+
+        switch( type.getBufferedImageType() ) {
+
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                return type.getBufferedImageType();
+
+            default:
+                return type.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        }
+    }
+
+    /**
+     * Read a strip of rows.<br>
+     * <p>
+     * Rows shared with the previous strip are copied from it, so a strip changed after reading must not overlap the
+     * next one.
+     *
+     * @param firstRow index of the first row
+     * @param numOfRows number of rows
+     *
+     * @return strip of one of the types known to {@link ImageFiles}
+     *
+     * @throws IOException thrown if the file can't be read
+     */
+    BufferedImage read( int firstRow, int numOfRows ) throws IOException {
+
+        if( png != null && firstRow >= lastRow && firstRow + numOfRows >= png.getNextRow() ) {
+
+            return readNext( firstRow, numOfRows );
+        }
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion( new Rectangle( 0, firstRow, width, numOfRows ) );
+
+        return ImageFiles.toKnownType( reader.read( 0, param ) );
+    }
+
+    /**
+     * Read a strip of rows going down the image by the sequential reader.
+     *
+     * @param firstRow  index of the first row, not above the first row of the previous strip
+     * @param numOfRows number of rows, reaching at least the next row of the reader
+     *
+     * @return strip of the rows
+     *
+     * @throws IOException thrown if the file can't be read
+     */
+    private BufferedImage readNext( int firstRow, int numOfRows ) throws IOException {
+
+        BufferedImage strip = new BufferedImage( width, numOfRows, png.getImageType() );
+        int nextRow = png.getNextRow();
+
+        if( firstRow < nextRow ) {
+
+            int numOfShared = nextRow - firstRow;
+            Object shared = last.getRaster().getDataElements( 0, firstRow - lastRow, width, numOfShared, null );
+            strip.getRaster().setDataElements( 0, 0, width, numOfShared, shared );
+
+        } else {
+
+            png.skip( firstRow - nextRow );
+        }
+
+        int stripRow = png.getNextRow() - firstRow;
+        png.read( strip, stripRow, numOfRows - stripRow );
+
+        last = strip;
+        lastRow = firstRow;
+
+        return strip;
+    }
+
+    /**
+     * Get the type of the image as it is stored in the file.
+     *
+     * @return image type specifier
+     *
+     * @throws IOException thrown if the file can't be read
+     */
+    private ImageTypeSpecifier getRawType() throws IOException {
+
+        ImageTypeSpecifier type = reader.getRawImageType( 0 );
+        if( type == null ) {
+
+            type = reader.getImageTypes( 0 ).next();
+        }
+
+        return type;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if( png != null ) {
+
+            png.close();
+        }
+
+        reader.dispose();
+        input.close();
+    }
+}
@@ -0,0 +1,200 @@
+package ru.petrenko_alex;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.petrenko_alex.image_steganography.SteganographyAlgorithm;
+import ru.petrenko_alex.image_steganography.SteganographyAlgorithmFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the batch runner: the exit codes and the names of the results.
+ */
+public class BatchRunnerTest {
+
+    private static final String ALGORITHM = "LeastSignificantBit";
+
+    private static final byte[] PAYLOAD = "Данные пакетного режима".getBytes( StandardCharsets.UTF_8 );
+
+    /* Image holding the payload */
+    private static BufferedImage encoded;
+
+    /* Directory of the inputs and the results of all the tests, deleted on exit */
+    private static File root;
+
+
+    @BeforeClass
+    public static void encodeImage() throws Exception {
+
+        root = Files.createTempDirectory( "steganography" ).toFile();
+        Runtime.getRuntime().addShutdownHook( new Thread( () -> delete( root ) ) );
+
+        BufferedImage cover = new BufferedImage( 64, 64, BufferedImage.TYPE_INT_RGB );
+        Random random = new Random( 1 );
+        for( int y = 0; y < cover.getHeight(); y++ ) {
+
+            for( int x = 0; x < cover.getWidth(); x++ ) {
+
+                cover.setRGB( x, y, random.nextInt() );
+            }
+        }
+
+        SteganographyAlgorithm algorithm = SteganographyAlgorithmFactory.getSteganographyAlgorithm( ALGORITHM );
+        encoded = algorithm.encode( new ByteArrayInputStream( PAYLOAD ), cover );
+    }
+
+    /**
+     * The payloads of all the images are decoded with the exit code 0.
+     */
+    @Test
+    public void decodedImagesGiveExitCode0() throws Exception {
+
+        File directory = newDirectory();
+        File input = newDirectory( directory, "input" );
+        write( new File( input, "a.png" ), "png" );
+        write( new File( input, "b.png" ), "png" );
+        File output = new File( directory, "output" );
+
+        assertEquals( 0, BatchRunner.run( new String[]{ "decode", ALGORITHM, input.getPath(), output.getPath() } ) );
+        assertArrayEquals( PAYLOAD, Files.readAllBytes( new File( output, "a.bin" ).toPath() ) );
+        assertArrayEquals( PAYLOAD, Files.readAllBytes( new File( output, "b.bin" ).toPath() ) );
+    }
+
+    /**
+     * A job failing to read its image gives the exit code 1, and the other jobs still save their results.
+     */
+    @Test
+    public void failedJobGivesExitCode1() throws Exception {
+
+        File directory = newDirectory();
+        File input = newDirectory( directory, "input" );
+        write( new File( input, "a.png" ), "png" );
+        Files.write( new File( input, "b.png" ).toPath(), PAYLOAD );
+        File output = new File( directory, "output" );
+
+        assertEquals( 1, BatchRunner.run( new String[]{ "decode", ALGORITHM, input.getPath(), output.getPath() } ) );
+        assertArrayEquals( PAYLOAD, Files.readAllBytes( new File( output, "a.bin" ).toPath() ) );
+        assertFalse( new File( output, "b.bin" ).exists() );
+    }
+
+    /**
+     * Wrong arguments give the exit code 2.
+     */
+    @Test
+    public void wrongArgumentsGiveExitCode2() throws Exception {
+
+        File directory = newDirectory();
+        File input = newDirectory( directory, "input" );
+        String output = new File( directory, "output" ).getPath();
+
+        assertEquals( 2, BatchRunner.run( new String[]{ "decode", ALGORITHM, input.getPath() } ) );
+        assertEquals( 2, BatchRunner.run( new String[]{ "convert", ALGORITHM, input.getPath(), output } ) );
+        assertEquals( 2, BatchRunner.run( new String[]{ "decode", "Unknown", input.getPath(), output } ) );
+        assertEquals( 2, BatchRunner.run( new String[]{ "decode", ALGORITHM, input.getPath(), output, "0" } ) );
+        assertEquals( 2, BatchRunner.run( new String[]{ "encode", "--compression=zip", ALGORITHM, input.getPath(),
+                output } ) );
+    }
+
+    /**
+     * Images of the same name from two directories, or of the same name with other extensions, would be decoded into
+     * the same file. Such a manifest gives the exit code 2 and no job is run.
+     */
+    @Test
+    public void sameResultNamesGiveExitCode2() throws Exception {
+
+        File directory = newDirectory();
+        File first = newDirectory( directory, "first" );
+        File second = newDirectory( directory, "second" );
+        write( new File( first, "a.png" ), "png" );
+        write( new File( second, "a.png" ), "png" );
+        write( new File( first, "A.bmp" ), "bmp" );
+        write( new File( first, "b.png" ), "png" );
+
+        String[][] manifests = { { "first/a.png", "second/a.png" }, { "first/a.png", "first/A.bmp" },
+                { "first/b.png", first.getPath() + "/../second/a.png", "first/a.png" } };
+
+        for( String[] manifest : manifests ) {
+
+            File file = File.createTempFile( "manifest", ".txt", directory );
+            Files.write( file.toPath(), String.join( "\n", manifest ).getBytes( StandardCharsets.UTF_8 ) );
+            File output = new File( directory, "output" );
+
+            String name = String.join( ", ", manifest );
+            assertEquals( name, 2, BatchRunner.run( new String[]{ "decode", ALGORITHM, file.getPath(),
+                    output.getPath() } ) );
+
+            String[] results = output.list();
+            assertTrue( name, results != null && results.length == 0 );
+        }
+    }
+
+    /**
+     * Make a new empty directory for a test.
+     *
+     * @return directory
+     *
+     * @throws IOException thrown if the directory can't be made
+     */
+    private static File newDirectory() throws IOException {
+
+        return Files.createTempDirectory( root.toPath(), "test" ).toFile();
+    }
+
+    /**
+     * Make a subdirectory.
+     *
+     * @param parent parent directory
+     * @param name   name of the subdirectory
+     *
+     * @return subdirectory
+     */
+    private static File newDirectory( File parent, String name ) {
+
+        File directory = new File( parent, name );
+        assertTrue( directory.getPath(), directory.mkdir() );
+        return directory;
+    }
+
+    /**
+     * Write the encoded image into a file.
+     *
+     * @param file   file to write
+     * @param format image format name
+     */
+    private static void write( File file, String format ) throws Exception {
+
+        assertTrue( file.getPath(), ImageIO.write( encoded, format, file ) );
+    }
+
+    /**
+     * Delete a file or a directory with all its content.
+     *
+     * @param file file or directory
+     */
+    private static void delete( File file ) {
+
+        File[] files = file.listFiles();
+        if( files != null ) {
+
+            for( File child : files ) {
+
+                delete( child );
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,102 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of detecting the algorithm an image is encoded with.
+ */
+public class AlgorithmDetectorTest {
+
+    /* Text beyond ASCII, stored in UTF-8 */
+    private static final String TEXT = "Скрытый текст: определение алгоритма.";
+
+    private static BufferedImage lena;
+
+
+    @BeforeClass
+    public static void readCovers() throws Exception {
+
+        lena = TestImages.readRgb( "lena.png" );
+    }
+
+    /**
+     * The payload of every algorithm is detected as the one of that algorithm and decoded by it, in the common pool
+     * and in a pool of a single thread.
+     */
+    @Test
+    public void algorithmIsDetected() throws Exception {
+
+        ForkJoinPool single = new ForkJoinPool( 1 );
+
+        try {
+
+            for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new KutterJordanBossen(),
+                    new LeastSignificantBit() } ) {
+
+                String name = algorithm.getClass().getSimpleName();
+                BufferedImage encoded = algorithm.encode( TEXT, lena );
+
+                assertEquals( name, AlgorithmDetector.detect( encoded ).getAlgorithm() );
+                assertEquals( name, AlgorithmDetector.detect( encoded, single ).getAlgorithm() );
+                assertEquals( name, 1.0, AlgorithmDetector.detect( encoded ).getConfidence(), 0 );
+                assertEquals( name, TEXT, AlgorithmDetector.decode( encoded, ProgressListener.NONE ) );
+            }
+
+        } finally {
+
+            single.shutdown();
+        }
+    }
+
+    /**
+     * Of the headers of equal confidence the one of the first registered algorithm is taken: an LSB text written over
+     * a KJB one leaves both headers whole, and the KJB one wins.
+     */
+    @Test
+    public void firstRegisteredAlgorithmWinsTie() throws Exception {
+
+        BufferedImage both = new LeastSignificantBit().encode( "x", new KutterJordanBossen().encode( TEXT, lena ) );
+
+        PayloadInfo kjb = new KutterJordanBossen().probe( both );
+        PayloadInfo lsb = new LeastSignificantBit().probe( both );
+        assertTrue( kjb != null && lsb != null );
+        assertEquals( kjb.getConfidence(), lsb.getConfidence(), 0 );
+
+        assertEquals( SteganographyAlgorithmFactory.getAlgorithmNames().iterator().next(),
+                AlgorithmDetector.detect( both ).getAlgorithm() );
+        assertEquals( TEXT, AlgorithmDetector.decode( both, ProgressListener.NONE ) );
+    }
+
+    /**
+     * A clean cover gives no payload, or a short legacy text by chance which never outweighs a container header.
+     */
+    @Test
+    public void cleanCoverHasNoPayload() throws Exception {
+
+        for( String name : new String[]{ "lena.png", "barbara.png", "mandrill.png" } ) {
+
+            PayloadInfo info = AlgorithmDetector.detect( TestImages.readRgb( name ) );
+            assertTrue( name, info == null
+                    || ( info.isLegacy() && info.getConfidence() <= PayloadInfo.LEGACY_FACTOR ) );
+        }
+
+        try {
+
+            AlgorithmDetector.decode( lena, ProgressListener.NONE );
+            fail( "clean cover is decoded" );
+
+        } catch( Exception expected ) {
+
+            /* No payload of any algorithm */
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the capacities of the covers and of planning the payloads onto them.
+ */
+public class CapacityPlannerTest {
+
+    private static BufferedImage lena;
+    private static File lenaFile;
+
+
+    @BeforeClass
+    public static void readCovers() throws Exception {
+
+        lena = TestImages.readRgb( "lena.png" );
+        lenaFile = TestImages.writeTemporary( lena );
+    }
+
+    /**
+     * A payload of exactly the capacity read from the file header fits the cover and a byte more doesn't, for both
+     * algorithms.
+     */
+    @Test
+    public void exactCapacityFits() throws Exception {
+
+        SteganographyAlgorithm[] algorithms = { new LeastSignificantBit(), new LeastSignificantBit( 4, false ),
+                new KutterJordanBossen(), new KutterJordanBossen( new KjbParameters( KjbParameters.DEFAULT_ENERGY,
+                KjbParameters.DEFAULT_STRIDE, KjbParameters.DEFAULT_RADIUS, KjbParameters.MAX_REPEATS, 0 ) ) };
+
+        for( SteganographyAlgorithm algorithm : algorithms ) {
+
+            /* Random bytes don't compress, the check is skipped to see the exact limit */
+            algorithm = algorithm.withCompression( CompressionMode.NONE );
+            String name = algorithm.getClass().getSimpleName();
+
+            long capacity = CapacityPlanner.capacities( algorithm, lenaFile )[ 0 ];
+            assertEquals( name, algorithm.capacity( lena ), capacity );
+
+            byte[] payload = TestImages.randomBytes( ( int ) capacity, 1 );
+            BufferedImage image = TestImages.convert( lena, BufferedImage.TYPE_INT_RGB );
+            algorithm.encodeInPlace( payload, image );
+
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            algorithm.decode( image, decoded );
+            assertArrayEquals( name, payload, decoded.toByteArray() );
+
+            try {
+
+                algorithm.encodeInPlace( TestImages.randomBytes( ( int ) capacity + 1, 1 ),
+                        TestImages.convert( lena, BufferedImage.TYPE_INT_RGB ) );
+                fail( name + ": a byte over the capacity is accepted" );
+
+            } catch( Exception e ) {
+
+                assertEquals( name, SteganographyAlgorithm.CAPACITY_ERROR, e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * A cover file too small for any payload has the capacity of -1, so not even an empty payload goes to it.
+     */
+    @Test
+    public void tinyCoverTakesNoPayload() throws Exception {
+
+        File tiny = TestImages.writeTemporary( new BufferedImage( 4, 4, BufferedImage.TYPE_INT_RGB ) );
+
+        for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new LeastSignificantBit(),
+                new KutterJordanBossen() } ) {
+
+            String name = algorithm.getClass().getSimpleName();
+            long[] capacities = CapacityPlanner.capacities( algorithm, tiny, lenaFile );
+
+            assertEquals( name, -1, capacities[ 0 ] );
+            assertArrayEquals( name, new int[]{ 1, -1 }, CapacityPlanner.plan( new long[]{ 0, 0 }, capacities ) );
+        }
+    }
+
+    /**
+     * A payload goes to the smallest free cover it fits in, exactly full covers included, and a payload larger than
+     * every free cover is left out.
+     */
+    @Test
+    public void payloadsGoToSmallestCoversTheyFit() {
+
+        long[] capacities = { 1000, 500, 2000, 500 };
+
+        assertArrayEquals( new int[]{ 1, 3, 0, 2 }, CapacityPlanner.plan( new long[]{ 500, 500, 1000, 2000 },
+                capacities ) );
+        assertArrayEquals( new int[]{ 0, 1, 2 }, CapacityPlanner.plan( new long[]{ 501, 1, 1001 }, capacities ) );
+        assertArrayEquals( new int[]{ 1, 2, -1 }, CapacityPlanner.plan( new long[]{ 10, 2000, 2001 }, capacities ) );
+    }
+}
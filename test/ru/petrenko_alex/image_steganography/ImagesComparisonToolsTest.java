@@ -0,0 +1,286 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the image quality metrics against their per-pixel definitions.
+ */
+public class ImagesComparisonToolsTest {
+
+    /* Relative error allowed between the single-pass metrics and the reference ones */
+    private static final double EPSILON = 1e-9;
+
+    private static BufferedImage lena;
+
+    /* Copies of the cover with noise in two low bits, different in every band, and darkened */
+    private static BufferedImage noisy;
+    private static BufferedImage darker;
+
+
+    @BeforeClass
+    public static void makeImages() throws Exception {
+
+        lena = TestImages.readRgb( "lena.png" );
+        noisy = new LeastSignificantBit( 2, false ).encode(
+                new ByteArrayInputStream( TestImages.randomBytes( 40000, 1 ) ), lena );
+        darker = TestImages.changeBrightness( lena, 0.8 );
+    }
+
+    /**
+     * MSE, PSNR, the maximum error and SSIM of every band match the metrics calculated pixel by pixel.
+     */
+    @Test
+    public void bandsMatchPerPixelMetrics() {
+
+        for( BufferedImage other : new BufferedImage[]{ noisy, darker } ) {
+
+            QualityReport report = ImagesComparisonTools.compare( lena, other, true );
+
+            for( int band = 0; band < QualityReport.NUM_OF_BANDS; band++ ) {
+
+                double mse = referenceMSE( lena, other, band );
+
+                assertClose( "MSE of band " + band, mse, report.getMSE( band ) );
+                assertClose( "PSNR of band " + band, 10 * Math.log10( 255.0 * 255.0 / mse ), report.getPSNR( band ) );
+                assertEquals( "max error of band " + band, referenceMaxError( lena, other, band ),
+                        report.getMaxError( band ) );
+                assertClose( "SSIM of band " + band, referenceSSIM( lena, other, band ), report.getSSIM( band ) );
+            }
+        }
+    }
+
+    /**
+     * The single-band methods give what the first version calculated from the first raster sample.
+     */
+    @Test
+    public void singleBandMethodsMatchFirstVersion() {
+
+        Raster r1 = lena.getRaster();
+        Raster r2 = noisy.getRaster();
+        double mse = 0;
+
+        for( int j = 0; j < lena.getHeight(); j++ ) {
+
+            for( int i = 0; i < lena.getWidth(); i++ ) {
+
+                mse += Math.pow( r1.getSample( i, j, 0 ) - r2.getSample( i, j, 0 ), 2 );
+            }
+        }
+        mse /= ( double ) ( lena.getWidth() * lena.getHeight() );
+
+        assertClose( "MSE", mse, ImagesComparisonTools.calculateMSE( lena, noisy ) );
+        assertClose( "RMSE", Math.sqrt( mse ), ImagesComparisonTools.calculateRMSE( lena, noisy ) );
+        assertClose( "PSNR", 10.0 * Math.log( 255 * 255 / mse ) / Math.log( 10 ),
+                ImagesComparisonTools.calculatePSNR( lena, noisy ) );
+    }
+
+    /**
+     * Flat images of a known difference give the metrics calculated by hand, partial SSIM blocks included.
+     */
+    @Test
+    public void flatImagesGiveKnownMetrics() {
+
+        BufferedImage first = flat( 37, 21, 100 );
+        BufferedImage second = flat( 37, 21, 110 );
+        QualityReport report = ImagesComparisonTools.compare( first, second, true );
+
+        assertClose( "MSE", 100, report.getMSE() );
+        assertClose( "PSNR", 10 * Math.log10( 650.25 ), report.getPSNR() );
+        assertEquals( 10, report.getMaxError() );
+        assertClose( "SSIM", ( 22000 + 6.5025 ) / ( 22100 + 6.5025 ), report.getSSIM() );
+
+        QualityReport same = ImagesComparisonTools.compare( first, flat( 37, 21, 100 ), true );
+        assertEquals( 0, same.getMSE(), 0 );
+        assertTrue( Double.isInfinite( same.getPSNR() ) );
+        assertClose( "SSIM", 1, same.getSSIM() );
+    }
+
+    /**
+     * The raster access of every image type gives the metrics of the generic access.
+     */
+    @Test
+    public void imageTypesGiveSameMetrics() {
+
+        QualityReport expected = ImagesComparisonTools.compare( TestImages.convert( lena, BufferedImage.TYPE_INT_BGR ),
+                TestImages.convert( noisy, BufferedImage.TYPE_INT_BGR ), true );
+
+        for( int type : new int[]{ BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_3BYTE_BGR } ) {
+
+            QualityReport report = ImagesComparisonTools.compare( TestImages.convert( lena, type ),
+                    TestImages.convert( noisy, type ), true );
+
+            for( int band = 0; band < QualityReport.NUM_OF_BANDS; band++ ) {
+
+                assertEquals( "type " + type, expected.getMSE( band ), report.getMSE( band ), 0 );
+                assertEquals( "type " + type, expected.getSSIM( band ), report.getSSIM( band ), 0 );
+            }
+        }
+    }
+
+    /**
+     * Calculate the MSE of the band pixel by pixel.
+     *
+     * @param im1  first image
+     * @param im2  second image
+     * @param band band index
+     *
+     * @return MSE of the band
+     */
+    private static double referenceMSE( BufferedImage im1, BufferedImage im2, int band ) {
+
+        double sum = 0;
+
+        for( int y = 0; y < im1.getHeight(); y++ ) {
+
+            for( int x = 0; x < im1.getWidth(); x++ ) {
+
+                double diff = sample( im1, x, y, band ) - sample( im2, x, y, band );
+                sum += diff * diff;
+            }
+        }
+
+        return sum / ( ( double ) im1.getWidth() * im1.getHeight() );
+    }
+
+    /**
+     * Find the maximum absolute error of the band pixel by pixel.
+     *
+     * @param im1  first image
+     * @param im2  second image
+     * @param band band index
+     *
+     * @return maximum absolute error of the band
+     */
+    private static int referenceMaxError( BufferedImage im1, BufferedImage im2, int band ) {
+
+        int max = 0;
+
+        for( int y = 0; y < im1.getHeight(); y++ ) {
+
+            for( int x = 0; x < im1.getWidth(); x++ ) {
+
+                max = Math.max( max, Math.abs( sample( im1, x, y, band ) - sample( im2, x, y, band ) ) );
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * Calculate the mean SSIM of the band over the blocks with the means and variances of every block taken in two
+     * passes.
+     *
+     * @param im1  first image
+     * @param im2  second image
+     * @param band band index
+     *
+     * @return mean SSIM of the band
+     */
+    private static double referenceSSIM( BufferedImage im1, BufferedImage im2, int band ) {
+
+        int size = ImagesComparisonTools.SSIM_BLOCK;
+        double sum = 0;
+        int numOfBlocks = 0;
+
+        for( int top = 0; top < im1.getHeight(); top += size ) {
+
+            for( int left = 0; left < im1.getWidth(); left += size ) {
+
+                int bottom = Math.min( top + size, im1.getHeight() );
+                int right = Math.min( left + size, im1.getWidth() );
+                double n = ( bottom - top ) * ( right - left );
+                double mean1 = 0, mean2 = 0;
+
+                for( int y = top; y < bottom; y++ ) {
+
+                    for( int x = left; x < right; x++ ) {
+
+                        mean1 += sample( im1, x, y, band ) / n;
+                        mean2 += sample( im2, x, y, band ) / n;
+                    }
+                }
+
+                double var1 = 0, var2 = 0, cov = 0;
+
+                for( int y = top; y < bottom; y++ ) {
+
+                    for( int x = left; x < right; x++ ) {
+
+                        double d1 = sample( im1, x, y, band ) - mean1;
+                        double d2 = sample( im2, x, y, band ) - mean2;
+                        var1 += d1 * d1 / n;
+                        var2 += d2 * d2 / n;
+                        cov += d1 * d2 / n;
+                    }
+                }
+
+                sum += ( ( 2 * mean1 * mean2 + 6.5025 ) * ( 2 * cov + 58.5225 ) )
+                        / ( ( mean1 * mean1 + mean2 * mean2 + 6.5025 ) * ( var1 + var2 + 58.5225 ) );
+                numOfBlocks++;
+            }
+        }
+
+        return sum / numOfBlocks;
+    }
+
+    /**
+     * Get a sample of the pixel.
+     *
+     * @param image image
+     * @param x     column
+     * @param y     row
+     * @param band  band index: 0 - red, 1 - green, 2 - blue
+     *
+     * @return sample value
+     */
+    private static int sample( BufferedImage image, int x, int y, int band ) {
+
+        return ( image.getRGB( x, y ) >> ( 16 - 8 * band ) ) & 255;
+    }
+
+    /**
+     * Make an RGB image of a single gray value.
+     *
+     * @param width  image width
+     * @param height image height
+     * @param value  gray value
+     *
+     * @return image
+     */
+    private static BufferedImage flat( int width, int height, int value ) {
+
+        BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+
+        for( int y = 0; y < height; y++ ) {
+
+            for( int x = 0; x < width; x++ ) {
+
+                image.setRGB( x, y, ( value << 16 ) | ( value << 8 ) | value );
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Check that the value is equal to the expected one up to the relative error {@value #EPSILON}.
+     *
+     * @param message  message of the failure
+     * @param expected expected value
+     * @param actual   actual value
+     */
+    private static void assertClose( String message, double expected, double actual ) {
+
+        assertEquals( message, expected, actual, EPSILON * Math.max( 1, Math.abs( expected ) ) );
+    }
+}
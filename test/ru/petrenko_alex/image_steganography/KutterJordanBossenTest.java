@@ -0,0 +1,468 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the Kutter-Jordan-Bossen algorithm.
+ */
+public class KutterJordanBossenTest {
+
+    /* Text of the brightness attack analysis (see docs/kjb-analysis.md) and of the sample of the first version */
+    private static final String ATTACK_TEXT = "This is a test text for attack analyzing.";
+
+    /* Text beyond ASCII, stored in UTF-8 */
+    private static final String TEXT = "Скрытый текст KJB.";
+
+    /* Parameters without the error correcting code: the payload is streamed as it is */
+    private static final KjbParameters PLAIN = new KjbParameters( KjbParameters.DEFAULT_ENERGY,
+            KjbParameters.DEFAULT_STRIDE, KjbParameters.DEFAULT_RADIUS, KjbParameters.MAX_REPEATS, 0 );
+
+    /* Key of the permuted points */
+    private static final long KEY = 0x5EC12E7L;
+
+    /* Textured cover: the blue components of its points are predicted worst of the samples */
+    private static BufferedImage mandrill;
+
+    /* Smooth cover */
+    private static BufferedImage lena;
+
+
+    @BeforeClass
+    public static void readCovers() throws Exception {
+
+        mandrill = TestImages.readRgb( "mandrill.png" );
+        lena = TestImages.readRgb( "lena.png" );
+    }
+
+    /**
+     * A text is decoded by an instance with any parameters: the head tells the ones it is encoded with.
+     */
+    @Test
+    public void textRoundTrip() throws Exception {
+
+        for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new KutterJordanBossen(),
+                new KutterJordanBossen( PLAIN ) } ) {
+
+            BufferedImage encoded = algorithm.encode( TEXT, lena );
+            assertEquals( TEXT, new KutterJordanBossen().decode( encoded ) );
+            assertEquals( TEXT, new KutterJordanBossen( PLAIN ).decode( encoded ) );
+        }
+    }
+
+    /**
+     * Binary payloads are decoded byte for byte with and without the error correcting code, whichever way they are
+     * encoded.
+     */
+    @Test
+    public void binaryRoundTrip() throws Exception {
+
+        for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new KutterJordanBossen(),
+                new KutterJordanBossen( PLAIN ) } ) {
+
+            for( int length : new int[]{ 0, 1, 50 } ) {
+
+                byte[] payload = TestImages.randomBytes( length, length );
+
+                BufferedImage streamed = algorithm.encode( new ByteArrayInputStream( payload ), lena );
+                assertArrayEquals( "stream, length " + length, payload, decode( algorithm, streamed ) );
+
+                BufferedImage inPlace = TestImages.convert( lena, BufferedImage.TYPE_INT_RGB );
+                algorithm.encodeInPlace( payload, inPlace );
+                assertArrayEquals( "array, length " + length, payload, decode( algorithm, inPlace ) );
+            }
+        }
+    }
+
+    /**
+     * A payload longer than the capacity is rejected.
+     */
+    @Test( expected = Exception.class )
+    public void payloadOverCapacityIsRejected() throws Exception {
+
+        SteganographyAlgorithm algorithm = new KutterJordanBossen().withCompression( CompressionMode.NONE );
+        int length = ( int ) algorithm.capacity( lena ) + 1;
+
+        algorithm.encode( new ByteArrayInputStream( TestImages.randomBytes( length, length ) ), lena );
+    }
+
+    /**
+     * A cover too small for the head and an empty payload has the capacity of -1 and rejects even an empty text,
+     * whatever its type. A cover of the capacity 0 holds an empty text.
+     */
+    @Test
+    public void tinyCoverIsRejected() throws Exception {
+
+        SteganographyAlgorithm algorithm = new KutterJordanBossen();
+
+        for( int size : new int[]{ 1, 64, 128, 180, 254 } ) {
+
+            for( int type : new int[]{ BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY } ) {
+
+                String name = size + "x" + size + ", type " + type;
+                BufferedImage cover = new BufferedImage( size, size, type );
+                assertEquals( name, -1, algorithm.capacity( cover ) );
+
+                try {
+
+                    algorithm.encode( "", cover );
+                    fail( name + ": an empty text is accepted" );
+
+                } catch( Exception e ) {
+
+                    assertEquals( name, SteganographyAlgorithm.CAPACITY_ERROR, e.getMessage() );
+                }
+            }
+        }
+
+        BufferedImage cover = TestImages.convert( lena.getSubimage( 100, 100, 215, 299 ), BufferedImage.TYPE_INT_RGB );
+        assertEquals( 0, algorithm.capacity( cover ) );
+        assertEquals( "", algorithm.decode( algorithm.encode( "", cover ) ) );
+    }
+
+    /**
+     * A streamed payload many times longer than the capacity is encoded if it compresses to fit.
+     */
+    @Test
+    public void compressiblePayloadOverCapacityRoundTrip() throws Exception {
+
+        SteganographyAlgorithm algorithm = new KutterJordanBossen();
+        byte[] payload = new byte[ 20 * ( int ) algorithm.capacity( lena ) ];
+        Arrays.fill( payload, ( byte ) 'a' );
+
+        BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), lena );
+        assertArrayEquals( payload, decode( algorithm, encoded ) );
+    }
+
+    /**
+     * An endless stream is rejected once it can't be compressed to fit any more, and a declared length which can't
+     * be compressed to fit is rejected before anything is read.
+     */
+    @Test
+    public void payloadBufferingIsBounded() throws Exception {
+
+        for( CompressionMode mode : CompressionMode.values() ) {
+
+            SteganographyAlgorithm algorithm = new KutterJordanBossen().withCompression( mode );
+
+            try {
+
+                algorithm.encode( new EndlessInputStream(), lena );
+                fail( mode + ": endless stream is accepted" );
+
+            } catch( Exception e ) {
+
+                assertEquals( mode.name(), SteganographyAlgorithm.CAPACITY_ERROR, e.getMessage() );
+            }
+
+            try {
+
+                algorithm.encodeTiled( TestImages.writeTemporary( lena ), new EndlessInputStream(),
+                        Integer.MAX_VALUE - 8, TestImages.newTemporaryFile() );
+                fail( mode + ": huge tiled payload is accepted" );
+
+            } catch( Exception e ) {
+
+                assertEquals( mode.name(), SteganographyAlgorithm.CAPACITY_ERROR, e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * A keyed payload, an empty one included, is decoded with the same key only.
+     */
+    @Test
+    public void keyedRoundTrip() throws Exception {
+
+        SteganographyAlgorithm algorithm = new KutterJordanBossen( KjbParameters.DEFAULT, KEY );
+        byte[] payload = TestImages.randomBytes( 100, 1 );
+
+        BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), lena );
+        assertArrayEquals( payload, decode( algorithm, encoded ) );
+        assertEquals( TEXT, algorithm.decode( algorithm.encode( TEXT, lena ) ) );
+        assertArrayEquals( new byte[ 0 ], decode( algorithm,
+                algorithm.encode( new ByteArrayInputStream( new byte[ 0 ] ), lena ) ) );
+        assertTrue( algorithm.probe( encoded ).isKeyed() );
+
+        try {
+
+            decode( new KutterJordanBossen(), encoded );
+            fail( "decoded without the key" );
+
+        } catch( Exception expected ) {
+
+            /* The payload is not given away */
+        }
+    }
+
+    /**
+     * A payload encoded strip by strip into a file is decoded both strip by strip and from the image in memory, with
+     * and without the error correcting code.
+     */
+    @Test
+    public void tiledRoundTrip() throws Exception {
+
+        File cover = TestImages.writeTemporary( lena );
+
+        for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new KutterJordanBossen(),
+                new KutterJordanBossen( PLAIN ) } ) {
+
+            for( int length : new int[]{ 0, 50 } ) {
+
+                byte[] payload = TestImages.randomBytes( length, length );
+                File encoded = TestImages.newTemporaryFile();
+                algorithm.encodeTiled( cover, new ByteArrayInputStream( payload ), length, encoded );
+
+                ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+                assertEquals( length, algorithm.decodeTiled( encoded, decoded ) );
+                assertArrayEquals( "tiled, length " + length, payload, decoded.toByteArray() );
+                assertArrayEquals( "in memory, length " + length, payload,
+                        decode( algorithm, ImageIO.read( encoded ) ) );
+            }
+        }
+    }
+
+    /**
+     * Any range of the payload is decoded on its own, with and without the error correcting code and the key, from
+     * the images read right in the raster arrays and through <code>getRGB</code>.
+     */
+    @Test
+    public void rangeDecode() throws Exception {
+
+        for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new KutterJordanBossen(),
+                new KutterJordanBossen( PLAIN ), new KutterJordanBossen( KjbParameters.DEFAULT, KEY ) } ) {
+
+            int length = 90;
+            byte[] payload = TestImages.randomBytes( length, 2 );
+            BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), lena );
+
+            for( BufferedImage image : new BufferedImage[]{ encoded,
+                    TestImages.convert( encoded, BufferedImage.TYPE_INT_BGR ) } ) {
+
+                for( int[] range : new int[][]{ { 0, 0 }, { 0, 1 }, { 0, length }, { 17, 40 }, { length - 1, 1 },
+                        { length, 0 } } ) {
+
+                    assertArrayEquals( range[ 0 ] + "+" + range[ 1 ],
+                            Arrays.copyOfRange( payload, range[ 0 ], range[ 0 ] + range[ 1 ] ),
+                            algorithm.decode( image, range[ 0 ], range[ 1 ] ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * The text encoded by the first version of the algorithm with a bare length in front of it is still decoded.
+     */
+    @Test
+    public void decodesBaselineImage() throws Exception {
+
+        BufferedImage sample = TestImages.read( "lena[encoded,KutterJordanBossen].png" );
+        assertEquals( ATTACK_TEXT, new KutterJordanBossen().decode( sample ) );
+    }
+
+    /**
+     * The tiles processed in parallel give the same image and payload as the serial processing.
+     */
+    @Test
+    public void parallelAndSerialGiveSameImage() throws Exception {
+
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+
+        try {
+
+            for( KjbParameters parameters : new KjbParameters[]{ KjbParameters.DEFAULT, PLAIN } ) {
+
+                SteganographyAlgorithm serial = new KutterJordanBossen( parameters );
+                SteganographyAlgorithm parallel = new KutterJordanBossen( parameters, pool );
+                int length = ( int ) serial.capacity( lena ) / 2;
+                byte[] payload = TestImages.randomBytes( length, 3 );
+
+                BufferedImage encoded = serial.encode( new ByteArrayInputStream( payload ), lena );
+                assertArrayEquals( TestImages.getPixels( encoded ),
+                        TestImages.getPixels( parallel.encode( new ByteArrayInputStream( payload ), lena ) ) );
+                assertArrayEquals( decode( serial, encoded ), decode( parallel, encoded ) );
+            }
+
+        } finally {
+
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The row kernels of every image type change the pixels just like the pixel by pixel processing of the same type
+     * and of a type without kernels does, and the images are decoded either way.
+     */
+    @Test
+    public void imageTypesGiveSameImage() throws Exception {
+
+        byte[] payload = TestImages.randomBytes( 50, 3 );
+
+        for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new KutterJordanBossen(),
+                new KutterJordanBossen( PLAIN ) } ) {
+
+            SteganographyAlgorithm pixelByPixel = algorithm.withKernels( false );
+            int[] expected = TestImages.getPixels( encode( algorithm, payload, BufferedImage.TYPE_INT_BGR ) );
+
+            for( int type : new int[]{ BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                    BufferedImage.TYPE_3BYTE_BGR } ) {
+
+                BufferedImage encoded = encode( algorithm, payload, type );
+                assertArrayEquals( "type " + type, expected, TestImages.getPixels( encoded ) );
+                assertArrayEquals( "type " + type + ", no kernels", expected,
+                        TestImages.getPixels( encode( pixelByPixel, payload, type ) ) );
+                assertArrayEquals( "type " + type + ", no kernels", payload, decode( pixelByPixel, encoded ) );
+            }
+        }
+    }
+
+    /**
+     * Payloads of any length up to the capacity survive the textured cover with the default parameters.
+     */
+    @Test
+    public void defaultParametersRoundTripOnTexturedCover() throws Exception {
+
+        SteganographyAlgorithm algorithm = new KutterJordanBossen();
+        long capacity = algorithm.capacity( mandrill );
+
+        for( double fraction : new double[]{ 0, 0.01, 0.1, 0.25, 0.5, 0.75, 1 } ) {
+
+            int length = ( int ) Math.max( 1, capacity * fraction );
+            byte[] payload = TestImages.randomBytes( length, length );
+
+            BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), mandrill );
+            assertArrayEquals( "length " + length, payload, decode( algorithm, encoded ) );
+        }
+    }
+
+    /**
+     * Payloads of any length survive halving the brightness of the textured cover with the default parameters.
+     */
+    @Test
+    public void defaultParametersSurviveBrightnessOnTexturedCover() throws Exception {
+
+        SteganographyAlgorithm algorithm = new KutterJordanBossen();
+        long capacity = algorithm.capacity( mandrill );
+
+        for( double fraction : new double[]{ 0, 0.1, 0.25, 0.5, 0.75, 1 } ) {
+
+            int length = ( int ) Math.max( 1, capacity * fraction );
+            byte[] payload = TestImages.randomBytes( length, length );
+
+            BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), mandrill );
+            assertArrayEquals( "length " + length, payload,
+                    decode( algorithm, TestImages.changeBrightness( encoded, 0.5 ) ) );
+        }
+    }
+
+    /**
+     * The text of the attack analysis survives every step of the brightness attack on the textured cover.
+     */
+    @Test
+    public void textSurvivesBrightnessAttackOnTexturedCover() throws Exception {
+
+        SteganographyAlgorithm algorithm = new KutterJordanBossen();
+        BufferedImage encoded = algorithm.encode( ATTACK_TEXT, mandrill );
+
+        for( int percent = 0; percent <= 90; percent += 10 ) {
+
+            BufferedImage attacked = TestImages.changeBrightness( encoded, 1 - percent / 100.0 );
+            assertEquals( "brightness -" + percent + "%", ATTACK_TEXT, algorithm.decode( attacked ) );
+        }
+    }
+
+    /**
+     * A short payload is written with the configured repeats instead of filling the image: fewer repeats change fewer
+     * pixels, and both change fewer pixels than a payload of the full capacity.
+     */
+    @Test
+    public void shortPayloadKeepsConfiguredRepeats() throws Exception {
+
+        byte[] payload = TestImages.randomBytes( 10, 10 );
+        int[] pixels = TestImages.getPixels( lena );
+        int[] changed = new int[ 3 ];
+        KutterJordanBossen[] algorithms = { new KutterJordanBossen( 3, KjbParameters.DEFAULT_PARITY ),
+                new KutterJordanBossen(), new KutterJordanBossen() };
+
+        for( int i = 0; i < algorithms.length; i++ ) {
+
+            byte[] bytes = ( i < 2 ) ? payload
+                    : TestImages.randomBytes( ( int ) algorithms[ i ].capacity( lena ), 10 );
+            int[] encoded = TestImages.getPixels( algorithms[ i ].withCompression( CompressionMode.NONE )
+                    .encode( new ByteArrayInputStream( bytes ), lena ) );
+
+            for( int j = 0; j < pixels.length; j++ ) {
+
+                changed[ i ] += ( encoded[ j ] != pixels[ j ] ) ? 1 : 0;
+            }
+        }
+
+        assertTrue( Arrays.toString( changed ), changed[ 0 ] < changed[ 1 ] && changed[ 1 ] < changed[ 2 ] / 2 );
+    }
+
+    /**
+     * Encode the payload into a copy of the cover of the given type.
+     *
+     * @param algorithm algorithm to encode with
+     * @param payload   payload
+     * @param type      image type
+     *
+     * @return encoded image
+     */
+    private static BufferedImage encode( SteganographyAlgorithm algorithm, byte[] payload, int type )
+            throws Exception {
+
+        BufferedImage image = TestImages.convert( lena, type );
+        algorithm.encodeInPlace( payload, image );
+        return image;
+    }
+
+    /**
+     * Decode the binary payload from the image.
+     *
+     * @param algorithm algorithm to decode with
+     * @param image     encoded image
+     *
+     * @return payload
+     */
+    private static byte[] decode( SteganographyAlgorithm algorithm, BufferedImage image ) throws Exception {
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        algorithm.decode( image, payload );
+        return payload.toByteArray();
+    }
+
+    /**
+     * Stream of zero bytes which never ends.
+     */
+    private static final class EndlessInputStream extends InputStream {
+
+        @Override
+        public int read() {
+
+            return 0;
+        }
+
+        @Override
+        public int read( byte[] bytes, int offset, int length ) {
+
+            Arrays.fill( bytes, offset, offset + length, ( byte ) 0 );
+            return length;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the Least Significant Bit algorithm.
+ */
+public class LeastSignificantBitTest {
+
+    /* Text of the sample encoded by the first version of the algorithm */
+    private static final String SAMPLE_TEXT = "This is a test text for attack analyzing.";
+
+    /* Text beyond ASCII, stored in UTF-8 */
+    private static final String TEXT = "Скрытый текст: проверка кодирования LSB.";
+
+    /* Key of the permuted positions */
+    private static final long KEY = 0x5EC12E7L;
+
+    private static BufferedImage lena;
+
+
+    @BeforeClass
+    public static void readCovers() throws Exception {
+
+        lena = TestImages.readRgb( "lena.png" );
+    }
+
+    /**
+     * A text encoded with any depth is decoded by an instance with the default parameters.
+     */
+    @Test
+    public void textRoundTrip() throws Exception {
+
+        for( int depth = 1; depth <= 4; depth++ ) {
+
+            BufferedImage encoded = new LeastSignificantBit( depth, false ).encode( TEXT, lena );
+            assertEquals( "depth " + depth, TEXT, new LeastSignificantBit().decode( encoded ) );
+        }
+    }
+
+    /**
+     * Binary payloads of any length up to the capacity are decoded byte for byte, whichever way they are encoded.
+     */
+    @Test
+    public void binaryRoundTrip() throws Exception {
+
+        SteganographyAlgorithm algorithm = new LeastSignificantBit();
+        int capacity = ( int ) algorithm.capacity( lena );
+
+        for( int length : new int[]{ 0, 1, 4095, 4096, 4097, 50000, capacity } ) {
+
+            byte[] payload = TestImages.randomBytes( length, length );
+
+            BufferedImage streamed = algorithm.encode( new ByteArrayInputStream( payload ), lena );
+            assertArrayEquals( "stream, length " + length, payload, decode( algorithm, streamed ) );
+
+            BufferedImage inPlace = TestImages.convert( lena, BufferedImage.TYPE_INT_RGB );
+            algorithm.encodeInPlace( payload, inPlace );
+            assertArrayEquals( "array, length " + length, payload, decode( algorithm, inPlace ) );
+        }
+    }
+
+    /**
+     * A payload longer than the capacity is rejected.
+     */
+    @Test( expected = Exception.class )
+    public void payloadOverCapacityIsRejected() throws Exception {
+
+        SteganographyAlgorithm algorithm = new LeastSignificantBit();
+        int length = ( int ) algorithm.capacity( lena ) + 1;
+
+        algorithm.encode( new ByteArrayInputStream( TestImages.randomBytes( length, length ) ), lena );
+    }
+
+    /**
+     * A cover too small for the header and the checksum of an empty payload has the capacity of -1 and rejects even an
+     * empty text. The smallest square cover fitting them holds an empty text.
+     */
+    @Test
+    public void tinyCoverIsRejected() throws Exception {
+
+        SteganographyAlgorithm algorithm = new LeastSignificantBit();
+
+        for( int size : new int[]{ 1, 2, 4, 5 } ) {
+
+            BufferedImage cover = new BufferedImage( size, size, BufferedImage.TYPE_INT_RGB );
+            assertEquals( size + "x" + size, -1, algorithm.capacity( cover ) );
+
+            try {
+
+                algorithm.encode( "", cover );
+                fail( size + "x" + size + ": an empty text is accepted" );
+
+            } catch( Exception e ) {
+
+                assertEquals( size + "x" + size, SteganographyAlgorithm.CAPACITY_ERROR, e.getMessage() );
+            }
+        }
+
+        BufferedImage cover = new BufferedImage( 6, 6, BufferedImage.TYPE_INT_RGB );
+        assertTrue( algorithm.capacity( cover ) >= 0 );
+        assertEquals( "", algorithm.decode( algorithm.encode( "", cover ) ) );
+    }
+
+    /**
+     * The image types changing the lowest bits of the channels hold nothing, custom ones included, and reject even an
+     * empty text. A custom image of 8-bit RGB components holds a text.
+     */
+    @Test
+    public void lossyTypesAreRejected() throws Exception {
+
+        SteganographyAlgorithm algorithm = new LeastSignificantBit();
+        BufferedImage crop = lena.getSubimage( 0, 0, 16, 16 );
+        List< BufferedImage > covers = new ArrayList<>();
+
+        for( int type : new int[]{ BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY,
+                BufferedImage.TYPE_USHORT_565_RGB, BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_INT_ARGB_PRE } ) {
+
+            BufferedImage cover = TestImages.convert( crop, type );
+            assertEquals( "type " + type, -1, algorithm.capacity( 16, 16, type ) );
+            covers.add( cover );
+        }
+        covers.add( newCustomImage( ColorSpace.CS_GRAY, true ) );
+
+        for( BufferedImage cover : covers ) {
+
+            String name = "type " + cover.getType() + ", " + cover.getColorModel().getNumComponents() + " components";
+            assertEquals( name, -1, algorithm.capacity( cover ) );
+
+            try {
+
+                algorithm.encode( "", cover );
+                fail( name + ": an empty text is accepted" );
+
+            } catch( Exception e ) {
+
+                assertEquals( name, SteganographyAlgorithm.CAPACITY_ERROR, e.getMessage() );
+            }
+        }
+
+        BufferedImage rgb = newCustomImage( ColorSpace.CS_sRGB, false );
+        assertEquals( BufferedImage.TYPE_CUSTOM, rgb.getType() );
+        assertEquals( TEXT, algorithm.decode( algorithm.encode( TEXT, rgb ) ) );
+    }
+
+    /**
+     * The alpha channel holds the payload as well and adds to the capacity.
+     */
+    @Test
+    public void alphaRoundTrip() throws Exception {
+
+        BufferedImage argb = TestImages.convert( lena, BufferedImage.TYPE_INT_ARGB );
+        SteganographyAlgorithm algorithm = new LeastSignificantBit( 2, true );
+        assertTrue( algorithm.capacity( argb ) > new LeastSignificantBit( 2, false ).capacity( argb ) );
+
+        int length = ( int ) algorithm.capacity( argb );
+        byte[] payload = TestImages.randomBytes( length, length );
+
+        BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), argb );
+        assertArrayEquals( payload, decode( new LeastSignificantBit(), encoded ) );
+    }
+
+    /**
+     * Every compression mode gives back the text, and a repetitive text is stored compressed unless it is asked not
+     * to be.
+     */
+    @Test
+    public void compressionModesRoundTrip() throws Exception {
+
+        StringBuilder text = new StringBuilder();
+        for( int i = 0; i < 200; i++ ) {
+
+            text.append( TEXT ).append( i % 10 );
+        }
+
+        for( CompressionMode mode : CompressionMode.values() ) {
+
+            SteganographyAlgorithm algorithm = new LeastSignificantBit().withCompression( mode );
+            BufferedImage encoded = algorithm.encode( text.toString(), lena );
+
+            assertEquals( mode.name(), text.toString(), new LeastSignificantBit().decode( encoded ) );
+            assertEquals( mode.name(), mode != CompressionMode.NONE, algorithm.probe( encoded ).isCompressed() );
+        }
+    }
+
+    /**
+     * A keyed payload, an empty one included, is decoded with the same key only.
+     */
+    @Test
+    public void keyedRoundTrip() throws Exception {
+
+        SteganographyAlgorithm algorithm = new LeastSignificantBit( 1, false, KEY );
+        byte[] payload = TestImages.randomBytes( 10000, 1 );
+
+        BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), lena );
+        assertArrayEquals( payload, decode( algorithm, encoded ) );
+        assertEquals( TEXT, algorithm.decode( algorithm.encode( TEXT, lena ) ) );
+        assertArrayEquals( new byte[ 0 ], decode( algorithm,
+                algorithm.encode( new ByteArrayInputStream( new byte[ 0 ] ), lena ) ) );
+        assertTrue( algorithm.probe( encoded ).isKeyed() );
+
+        for( SteganographyAlgorithm other : new SteganographyAlgorithm[]{ new LeastSignificantBit(),
+                new LeastSignificantBit( 1, false, KEY + 1 ) } ) {
+
+            try {
+
+                decode( other, encoded );
+                fail( "decoded without the key" );
+
+            } catch( Exception expected ) {
+
+                /* The payload is not given away */
+            }
+        }
+    }
+
+    /**
+     * A payload encoded strip by strip into a file is decoded both strip by strip and from the image in memory.
+     */
+    @Test
+    public void tiledRoundTrip() throws Exception {
+
+        SteganographyAlgorithm algorithm = new LeastSignificantBit( 3, false );
+        File cover = TestImages.writeTemporary( lena );
+
+        for( int length : new int[]{ 0, 5000, ( int ) algorithm.capacity( lena ) } ) {
+
+            byte[] payload = TestImages.randomBytes( length, length );
+            File encoded = TestImages.newTemporaryFile();
+            algorithm.encodeTiled( cover, new ByteArrayInputStream( payload ), length, encoded );
+
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            assertEquals( length, algorithm.decodeTiled( encoded, decoded ) );
+            assertArrayEquals( "tiled, length " + length, payload, decoded.toByteArray() );
+            assertArrayEquals( "in memory, length " + length, payload,
+                    decode( algorithm, ImageIO.read( encoded ) ) );
+        }
+    }
+
+    /**
+     * Any range of the payload is decoded on its own, across the checksum blocks too.
+     */
+    @Test
+    public void rangeDecode() throws Exception {
+
+        SteganographyAlgorithm algorithm = new LeastSignificantBit( 2, false );
+        byte[] payload = TestImages.randomBytes( 20000, 2 );
+        BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), lena );
+
+        int block = PayloadHeader.BLOCK_SIZE;
+        int[][] ranges = { { 0, 0 }, { 0, 1 }, { 0, 20000 }, { 17, 100 }, { block - 3, 6 }, { block, block },
+                { 3 * block - 1, block + 2 }, { 19990, 10 }, { 20000, 0 } };
+
+        for( int[] range : ranges ) {
+
+            assertArrayEquals( range[ 0 ] + "+" + range[ 1 ],
+                    Arrays.copyOfRange( payload, range[ 0 ], range[ 0 ] + range[ 1 ] ),
+                    algorithm.decode( encoded, range[ 0 ], range[ 1 ] ) );
+        }
+    }
+
+    /**
+     * A range going beyond the end of the payload is rejected.
+     */
+    @Test( expected = Exception.class )
+    public void rangeBeyondPayloadIsRejected() throws Exception {
+
+        SteganographyAlgorithm algorithm = new LeastSignificantBit();
+        BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( new byte[ 100 ] ), lena );
+
+        algorithm.decode( encoded, 90, 11 );
+    }
+
+    /**
+     * The raster access of every image type changes the pixels just like the generic one of the same type and of a type
+     * without kernels does, and the images are decoded either way.
+     */
+    @Test
+    public void imageTypesGiveSameImage() throws Exception {
+
+        byte[] payload = TestImages.randomBytes( 30000, 3 );
+
+        for( int depth = 1; depth <= 4; depth++ ) {
+
+            SteganographyAlgorithm algorithm = new LeastSignificantBit( depth, false );
+            SteganographyAlgorithm pixelByPixel = algorithm.withKernels( false );
+            int[] expected = TestImages.getPixels( encode( algorithm, payload, BufferedImage.TYPE_INT_BGR ) );
+
+            for( int type : new int[]{ BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR } ) {
+
+                String name = "depth " + depth + ", type " + type;
+                BufferedImage encoded = encode( algorithm, payload, type );
+                assertArrayEquals( name, expected, TestImages.getPixels( encoded ) );
+                assertArrayEquals( name + ", no kernels", expected,
+                        TestImages.getPixels( encode( pixelByPixel, payload, type ) ) );
+                assertArrayEquals( name + ", no kernels", payload, decode( pixelByPixel, encoded ) );
+            }
+        }
+
+        SteganographyAlgorithm alpha = new LeastSignificantBit( 2, true );
+        int[] expected = TestImages.getPixels( encode( alpha, payload, BufferedImage.TYPE_4BYTE_ABGR ) );
+        assertArrayEquals( expected, TestImages.getPixels( encode( alpha, payload, BufferedImage.TYPE_INT_ARGB ) ) );
+        assertArrayEquals( expected, TestImages.getPixels( encode( alpha.withKernels( false ), payload,
+                BufferedImage.TYPE_INT_ARGB ) ) );
+    }
+
+    /**
+     * The text encoded by the first version of the algorithm in the legacy "&lt;len&gt; &lt;text&gt;" format is still
+     * decoded.
+     */
+    @Test
+    public void decodesBaselineImage() throws Exception {
+
+        BufferedImage sample = TestImages.read( "lena[encoded,LeastSignificantBit].png" );
+        assertEquals( SAMPLE_TEXT, new LeastSignificantBit().decode( sample ) );
+        assertArrayEquals( SAMPLE_TEXT.getBytes( "US-ASCII" ), decode( new LeastSignificantBit(), sample ) );
+    }
+
+    /**
+     * A damaged block stops the stream decoding before any of its bytes is written.
+     */
+    @Test
+    public void damagedBlockStopsDecoding() throws Exception {
+
+        SteganographyAlgorithm algorithm = new LeastSignificantBit();
+        byte[] payload = TestImages.randomBytes( 20000, 4 );
+        BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), lena );
+
+        /* Flipping the lowest bits of a row in the middle of the payload */
+        int row = 60;
+        for( int x = 0; x < encoded.getWidth(); x++ ) {
+
+            encoded.setRGB( x, row, encoded.getRGB( x, row ) ^ 0x010101 );
+        }
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try {
+
+            algorithm.decode( encoded, decoded );
+            fail( "damaged payload decoded" );
+
+        } catch( Exception expected ) {
+
+            /* Only the blocks before the damaged one are written */
+        }
+
+        byte[] written = decoded.toByteArray();
+        assertTrue( written.length > 0 && written.length < payload.length );
+        assertEquals( 0, written.length % PayloadHeader.BLOCK_SIZE );
+        assertArrayEquals( Arrays.copyOf( payload, written.length ), written );
+
+        assertArrayEquals( Arrays.copyOf( payload, 100 ), algorithm.decode( encoded, 0, 100 ) );
+        assertFalse( decodes( algorithm, encoded, written.length, PayloadHeader.BLOCK_SIZE ) );
+    }
+
+    /**
+     * Encode the binary payload into a copy of the cover of the given type.
+     *
+     * @param algorithm algorithm to encode with
+     * @param payload   payload
+     * @param type      image type
+     *
+     * @return encoded image
+     */
+    private static BufferedImage encode( SteganographyAlgorithm algorithm, byte[] payload, int type )
+            throws Exception {
+
+        BufferedImage image = TestImages.convert( lena, type );
+        algorithm.encodeInPlace( payload, image );
+        return image;
+    }
+
+    /**
+     * Decode the binary payload from the image.
+     *
+     * @param algorithm algorithm to decode with
+     * @param image     encoded image
+     *
+     * @return payload
+     */
+    private static byte[] decode( SteganographyAlgorithm algorithm, BufferedImage image ) throws Exception {
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        algorithm.decode( image, payload );
+        return payload.toByteArray();
+    }
+
+    /**
+     * Make a 16x16 image of a custom type with 8-bit components.
+     *
+     * @param colorSpace color space, one of <code>ColorSpace.CS_*</code>
+     * @param alpha      true to add an alpha component
+     *
+     * @return image of a custom type
+     */
+    private static BufferedImage newCustomImage( int colorSpace, boolean alpha ) {
+
+        ColorModel model = new ComponentColorModel( ColorSpace.getInstance( colorSpace ), alpha, false,
+                alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE, DataBuffer.TYPE_BYTE );
+        return new BufferedImage( model, model.createCompatibleWritableRaster( 16, 16 ), false, null );
+    }
+
+    /**
+     * Check if a range of the payload is decoded.
+     *
+     * @param algorithm algorithm to decode with
+     * @param image     encoded image
+     * @param offset    index of the first byte of the range
+     * @param length    number of bytes of the range
+     *
+     * @return true if the range is decoded, false if decoding fails
+     */
+    private static boolean decodes( SteganographyAlgorithm algorithm, BufferedImage image, long offset, int length ) {
+
+        try {
+
+            algorithm.decode( image, offset, length );
+            return true;
+
+        } catch( Exception e ) {
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the payload container: the header and the checksums of the payload blocks.
+ */
+public class PayloadHeaderTest {
+
+    /* Payload lengths around the block boundaries */
+    private static final int[] LENGTHS = { 0, 1, PayloadHeader.BLOCK_SIZE - 1, PayloadHeader.BLOCK_SIZE,
+            PayloadHeader.BLOCK_SIZE + 1, 3 * PayloadHeader.BLOCK_SIZE, 10000 };
+
+    /**
+     * The header is parsed back as it is written.
+     */
+    @Test
+    public void headerRoundTrip() throws Exception {
+
+        PayloadHeader header = new PayloadHeader( PayloadHeader.FLAG_BINARY | PayloadHeader.FLAG_PERMUTED, 12345 );
+        PayloadHeader parsed = PayloadHeader.parse( header.toBytes(), Integer.MAX_VALUE );
+
+        assertEquals( PayloadHeader.VERSION, parsed.version );
+        assertEquals( header.flags, parsed.flags );
+        assertEquals( header.length, parsed.length );
+    }
+
+    /**
+     * The first byte of the container never starts a legacy format: an ASCII digit or a zero byte.
+     */
+    @Test
+    public void containerIsDistinguishedFromLegacyFormats() {
+
+        assertTrue( PayloadHeader.isContainer( new PayloadHeader( 0, 0 ).toBytes()[ 0 ] & 0xFF ) );
+        assertFalse( PayloadHeader.isContainer( '0' ) );
+        assertFalse( PayloadHeader.isContainer( '9' ) );
+        assertFalse( PayloadHeader.isContainer( 0 ) );
+    }
+
+    /**
+     * A header of an unknown version or declaring more than the image holds is rejected.
+     */
+    @Test
+    public void damagedHeaderIsRejected() {
+
+        byte[] newer = new PayloadHeader( PayloadHeader.VERSION + 1, 0, 10 ).toBytes();
+        byte[] longer = new PayloadHeader( 0, 1000 ).toBytes();
+
+        for( byte[] bytes : new byte[][]{ newer, longer } ) {
+
+            try {
+
+                PayloadHeader.parse( bytes, 999 );
+                fail( "damaged header parsed" );
+
+            } catch( Exception expected ) {
+
+                /* The header is not trusted */
+            }
+        }
+    }
+
+    /**
+     * The maximal length of a payload is the longest one fitting the stored bytes with its checksums, -1 if even the
+     * checksum of an empty payload doesn't fit.
+     */
+    @Test
+    public void maxLengthFitsStoredLength() {
+
+        for( int length : LENGTHS ) {
+
+            assertEquals( length, PayloadHeader.getMaxLength( PayloadHeader.getStoredLength( length ) ) );
+        }
+
+        for( long stored = 0; stored < 3 * PayloadHeader.BLOCK_SIZE; stored += 7 ) {
+
+            long length = PayloadHeader.getMaxLength( stored );
+            assertTrue( length == -1 ? stored < PayloadHeader.CHECKSUM_SIZE
+                    : PayloadHeader.getStoredLength( length ) <= stored );
+            assertTrue( PayloadHeader.getStoredLength( length + 1 ) > stored );
+        }
+    }
+
+    /**
+     * Every block is followed by its checksum, the payload is taken back out of the checked blocks.
+     */
+    @Test
+    public void checksumsFollowEveryBlock() throws Exception {
+
+        for( int length : LENGTHS ) {
+
+            byte[] payload = TestImages.randomBytes( length, length );
+            byte[] stored = PayloadHeader.addChecksums( payload );
+            PayloadHeader header = new PayloadHeader( PayloadHeader.FLAG_BINARY, length );
+
+            assertEquals( header.getStoredLength(), stored.length );
+            assertEquals( PayloadHeader.getStoredLength( length ), stored.length );
+            assertArrayEquals( payload, header.checkPayload( stored ) );
+            assertArrayEquals( stored, readAll( new ChecksumInputStream( new ByteArrayInputStream( payload ),
+                    length ) ) );
+            assertArrayEquals( stored, readAll( new ChecksumInputStream( new ByteArrayInputStream( payload ), -1 ) ) );
+        }
+    }
+
+    /**
+     * A damaged byte of any block is detected.
+     */
+    @Test
+    public void damagedBlockIsDetected() {
+
+        byte[] payload = TestImages.randomBytes( 10000, 1 );
+        PayloadHeader header = new PayloadHeader( PayloadHeader.FLAG_BINARY, payload.length );
+        byte[] stored = PayloadHeader.addChecksums( payload );
+
+        for( int position = 0; position < stored.length; position += 997 ) {
+
+            byte[] damaged = stored.clone();
+            damaged[ position ] ^= 1;
+
+            try {
+
+                header.checkPayload( damaged );
+                fail( "damage at " + position + " not detected" );
+
+            } catch( Exception expected ) {
+
+                /* The payload is not trusted */
+            }
+        }
+    }
+
+    /**
+     * The stream of the stored payload writes only the checked blocks, so the damaged one and the following ones
+     * never reach the payload stream.
+     */
+    @Test
+    public void checksumStreamWritesOnlyCheckedBlocks() throws Exception {
+
+        byte[] payload = TestImages.randomBytes( 5 * PayloadHeader.BLOCK_SIZE, 2 );
+        PayloadHeader header = new PayloadHeader( PayloadHeader.FLAG_BINARY, payload.length );
+        byte[] stored = PayloadHeader.addChecksums( payload );
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        ChecksumOutputStream checked = new ChecksumOutputStream( header, written );
+        checked.write( stored, 0, 1000 );
+        checked.write( stored, 1000, stored.length - 1000 );
+        assertArrayEquals( payload, written.toByteArray() );
+
+        /* Damaging the third block */
+        stored[ 2 * ( PayloadHeader.BLOCK_SIZE + PayloadHeader.CHECKSUM_SIZE ) + 10 ] ^= 1;
+        written.reset();
+        checked = new ChecksumOutputStream( header, written );
+
+        try {
+
+            for( int position = 0; position < stored.length; position += 1000 ) {
+
+                checked.write( stored, position, Math.min( 1000, stored.length - position ) );
+            }
+            fail( "damaged block written" );
+
+        } catch( IOException expected ) {
+
+            /* The stream stops at the damaged block */
+        }
+
+        assertArrayEquals( Arrays.copyOf( payload, 2 * PayloadHeader.BLOCK_SIZE ), written.toByteArray() );
+    }
+
+    /**
+     * A range of the payload is checked by the blocks covering it.
+     */
+    @Test
+    public void rangeIsCheckedByItsBlocks() throws Exception {
+
+        byte[] payload = TestImages.randomBytes( 10000, 3 );
+        PayloadHeader header = new PayloadHeader( PayloadHeader.FLAG_BINARY, payload.length );
+        byte[] stored = PayloadHeader.addChecksums( payload );
+
+        for( int[] range : new int[][]{ { 0, 0 }, { 0, 10000 }, { 4000, 200 }, { 4096, 1 }, { 9999, 1 },
+                { 10000, 0 } } ) {
+
+            int start = ( int ) header.getRangeStart( range[ 0 ] );
+            int end = ( int ) header.getRangeEnd( range[ 0 ], range[ 1 ] );
+
+            assertArrayEquals( Arrays.copyOfRange( payload, range[ 0 ], range[ 0 ] + range[ 1 ] ),
+                    header.checkPayloadRange( Arrays.copyOfRange( stored, start, end ), range[ 0 ], range[ 1 ] ) );
+        }
+    }
+
+    /**
+     * Read the stream to the end.
+     *
+     * @param stream stream to read
+     *
+     * @return bytes read
+     */
+    private static byte[] readAll( InputStream stream ) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[ 1000 ];
+        int read;
+
+        while( ( read = stream.read( buffer ) ) != -1 ) {
+
+            bytes.write( buffer, 0, read );
+        }
+
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,139 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of a payload split into shards across a set of covers.
+ */
+public class PayloadShardingTest {
+
+    private static final SteganographyAlgorithm ALGORITHM = new LeastSignificantBit();
+
+    /* Covers of different capacities */
+    private static BufferedImage[] covers;
+
+
+    @BeforeClass
+    public static void readCovers() throws Exception {
+
+        BufferedImage lena = TestImages.readRgb( "lena.png" );
+        BufferedImage mandrill = TestImages.readRgb( "mandrill.png" );
+
+        covers = new BufferedImage[]{ lena, TestImages.convert( mandrill.getSubimage( 0, 0, 300, 200 ),
+                BufferedImage.TYPE_INT_RGB ), TestImages.convert( lena.getSubimage( 0, 100, 512, 100 ),
+                BufferedImage.TYPE_3BYTE_BGR ) };
+    }
+
+    /**
+     * Payloads up to the capacity of the set are split in proportion to the capacities of the covers and decoded back
+     * from the images in any order.
+     */
+    @Test
+    public void roundTripAcrossCovers() throws Exception {
+
+        long capacity = PayloadSharding.capacity( ALGORITHM, covers );
+
+        for( int length : new int[]{ 0, 1000, ( int ) capacity } ) {
+
+            byte[] payload = TestImages.randomBytes( length, length );
+            BufferedImage[] images = PayloadSharding.encode( ALGORITHM, payload, covers );
+
+            int total = 0;
+            for( int i = 0; i < images.length; i++ ) {
+
+                ByteBuffer shard = ByteBuffer.wrap( decode( images[ i ] ) );
+                long room = ALGORITHM.capacity( covers[ i ] ) - PayloadSharding.HEADER_SIZE;
+                int size = shard.capacity() - PayloadSharding.HEADER_SIZE;
+
+                assertEquals( 0x5348, shard.getShort( 0 ) );
+                assertEquals( i, shard.getShort( 6 ) );
+                assertEquals( covers.length, shard.getShort( 8 ) );
+                assertEquals( length, shard.getInt( 10 ) );
+
+                /* Rounding gives a cover a byte more at most */
+                long proportional = length * room / capacity;
+                assertTrue( "shard " + i + " of " + length, size >= proportional && size <= proportional + 1 );
+                total += size;
+            }
+            assertEquals( length, total );
+
+            assertArrayEquals( "length " + length, payload, PayloadSharding.decode( ALGORITHM, images ) );
+            assertArrayEquals( "reordered, length " + length, payload,
+                    PayloadSharding.decode( ALGORITHM, images[ 2 ], images[ 0 ], images[ 1 ] ) );
+        }
+    }
+
+    /**
+     * A payload longer than the capacity of the set is rejected.
+     */
+    @Test( expected = Exception.class )
+    public void payloadOverCapacityIsRejected() throws Exception {
+
+        int length = ( int ) PayloadSharding.capacity( ALGORITHM, covers ) + 1;
+        PayloadSharding.encode( ALGORITHM, TestImages.randomBytes( length, length ), covers );
+    }
+
+    /**
+     * The set without one of its images is not decoded.
+     */
+    @Test( expected = Exception.class )
+    public void missingShardIsRejected() throws Exception {
+
+        BufferedImage[] images = PayloadSharding.encode( ALGORITHM, TestImages.randomBytes( 5000, 1 ), covers );
+        PayloadSharding.decode( ALGORITHM, images[ 0 ], images[ 2 ] );
+    }
+
+    /**
+     * A shard with a damaged header is detected: a wrong marker, a checksum of another payload or a repeated index.
+     */
+    @Test
+    public void corruptedShardHeaderIsRejected() throws Exception {
+
+        BufferedImage[] images = PayloadSharding.encode( ALGORITHM, TestImages.randomBytes( 5000, 1 ), covers );
+
+        /* Damaged header bytes: of the marker, of the checksum and of the index */
+        for( int offset : new int[]{ 0, 3, 7 } ) {
+
+            byte[] shard = decode( images[ 1 ] );
+            shard[ offset ] ^= 0x5A;
+
+            BufferedImage damaged = ALGORITHM.encode( new ByteArrayInputStream( shard ), covers[ 1 ] );
+
+            try {
+
+                PayloadSharding.decode( ALGORITHM, images[ 0 ], damaged, images[ 2 ] );
+                fail( "damaged header byte " + offset + " is accepted" );
+
+            } catch( Exception e ) {
+
+                /* Expected */
+            }
+        }
+    }
+
+    /**
+     * Decode the shard from the image.
+     *
+     * @param image encoded image
+     *
+     * @return shard with its header
+     */
+    private static byte[] decode( BufferedImage image ) throws Exception {
+
+        ByteArrayOutputStream shard = new ByteArrayOutputStream();
+        ALGORITHM.decode( image, shard );
+        return shard.toByteArray();
+    }
+}
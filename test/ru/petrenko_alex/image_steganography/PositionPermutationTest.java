@@ -0,0 +1,71 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the keyed permutation of the embedding positions.
+ */
+public class PositionPermutationTest {
+
+    private static final long KEY = 0x5EC12E7L;
+
+
+    /**
+     * Every index of ranges of any size, the smallest ones and the ones just over a power of 2 included, is mapped to
+     * an index of the range, and no two indices are mapped to the same one.
+     */
+    @Test
+    public void permutationIsBijection() {
+
+        for( int size : new int[]{ 1, 2, 3, 4, 5, 17, 255, 256, 257, 1000, 65537 } ) {
+
+            PositionPermutation permutation = new PositionPermutation( KEY, size );
+            boolean[] taken = new boolean[ size ];
+
+            for( int i = 0; i < size; i++ ) {
+
+                int position = permutation.apply( i );
+
+                assertFalse( "size " + size + ", index " + i, taken[ position ] );
+                taken[ position ] = true;
+            }
+        }
+    }
+
+    /**
+     * A single position stays in place.
+     */
+    @Test
+    public void singlePositionStays() {
+
+        assertEquals( 0, new PositionPermutation( KEY, 1 ).apply( 0 ) );
+    }
+
+    /**
+     * An index out of the range is rejected rather than walked through the cycles forever, an empty range has no
+     * indices at all.
+     */
+    @Test
+    public void indexOutOfRangeIsRejected() {
+
+        int[][] cases = { { 0, 0 }, { 0, 1 }, { 1, 1 }, { 1, -1 }, { 1000, 1000 }, { 1000, Integer.MAX_VALUE } };
+
+        for( int[] c : cases ) {
+
+            try {
+
+                new PositionPermutation( KEY, c[ 0 ] ).apply( c[ 1 ] );
+                fail( "size " + c[ 0 ] + ", index " + c[ 1 ] + " is accepted" );
+
+            } catch( IllegalArgumentException expected ) {
+
+                /* Expected */
+            }
+        }
+    }
+}
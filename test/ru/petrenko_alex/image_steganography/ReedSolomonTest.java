@@ -0,0 +1,110 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the Reed-Solomon code.
+ */
+public class ReedSolomonTest {
+
+    /**
+     * The coded length tells the number of coded bytes, and the maximal length is the longest data fitting them. Short
+     * data fills up to a full codeword, so longer data may fit as many bytes.
+     */
+    @Test
+    public void lengthsAgreeWithEncoding() {
+
+        for( int parity : new int[]{ 16, 32, 96 } ) {
+
+            for( int length : new int[]{ 0, 1, 10, 100, 254 - parity, 255 - parity, 1000, 5000 } ) {
+
+                int coded = ReedSolomon.getParity( length, parity );
+                long encodedLength = ReedSolomon.getEncodedLength( length, coded );
+
+                assertEquals( encodedLength, ReedSolomon.encode( new byte[ length ], coded ).length );
+                long maxLength = ReedSolomon.getMaxLength( encodedLength, parity );
+                assertTrue( "parity " + parity + ", length " + length, maxLength >= length );
+                assertEquals( "parity " + parity + ", length " + length, encodedLength,
+                        ReedSolomon.getEncodedLength( maxLength, ReedSolomon.getParity( maxLength, parity ) ) );
+            }
+        }
+    }
+
+    /**
+     * Short data gets twice the parity ratio of the full codewords and at least the minimal parity, but no more than
+     * fills a full codeword.
+     */
+    @Test
+    public void shortDataGetsMinimalParity() {
+
+        assertEquals( 96, ReedSolomon.getParity( 1000, 96 ) );
+        assertEquals( ReedSolomon.MIN_PARITY, ReedSolomon.getParity( 1, 96 ) );
+        assertEquals( 8, ReedSolomon.getParity( 1, 8 ) );
+        assertEquals( 0, ReedSolomon.getParity( 1, 0 ) );
+
+        int parity = ReedSolomon.getParity( 80, 96 );
+        assertTrue( parity > 96 && parity < ReedSolomon.CODEWORD_SIZE - 80 );
+        assertEquals( ReedSolomon.CODEWORD_SIZE - 150, ReedSolomon.getParity( 150, 96 ) );
+    }
+
+    /**
+     * Half as many damaged bytes as there are parity bytes are corrected in every codeword. The codewords are
+     * interleaved, so a burst of damaged bytes is spread between them.
+     */
+    @Test
+    public void damagedBytesAreCorrected() throws Exception {
+
+        int parity = 32;
+        byte[] data = TestImages.randomBytes( 3000, 1 );
+        byte[] coded = ReedSolomon.encode( data, parity );
+
+        /* Every codeword gets parity / 2 damaged bytes */
+        int numOfCodewords = ( coded.length - data.length ) / parity;
+        for( int i = 0; i < numOfCodewords * parity / 2; i++ ) {
+
+            coded[ 100 * numOfCodewords + i ] ^= ( byte ) ( i + 1 );
+        }
+
+        assertArrayEquals( data, ReedSolomon.decode( coded, data.length, parity ) );
+    }
+
+    /**
+     * A range of the data is corrected reading only the codewords holding it.
+     */
+    @Test
+    public void rangeIsCorrected() throws Exception {
+
+        int parity = 16;
+        byte[] data = TestImages.randomBytes( 2000, 2 );
+        byte[] coded = ReedSolomon.encode( data, parity );
+
+        for( int i = 0; i < coded.length; i += 40 ) {
+
+            coded[ i ] ^= 0x55;
+        }
+
+        boolean[] read = new boolean[ coded.length ];
+        byte[] range = ReedSolomon.decode( position -> {
+
+            read[ position ] = true;
+            return coded[ position ];
+
+        }, data.length, parity, 500, 100 );
+
+        assertArrayEquals( Arrays.copyOfRange( data, 500, 600 ), range );
+
+        int numOfRead = 0;
+        for( boolean isRead : read ) {
+
+            numOfRead += isRead ? 1 : 0;
+        }
+        assertTrue( numOfRead < coded.length );
+    }
+}
@@ -0,0 +1,109 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the registry of the shared algorithms.
+ */
+public class SteganographyAlgorithmFactoryTest {
+
+    /* Number of the texts encoded and decoded at once by a single algorithm */
+    private static final int TASKS = 12;
+
+    private static BufferedImage lena;
+
+
+    @BeforeClass
+    public static void readCovers() throws Exception {
+
+        lena = TestImages.readRgb( "lena.png" );
+    }
+
+    /**
+     * The shared instances and their copies with other settings give the same images and texts when many threads
+     * use them at once as they give one call after another.
+     */
+    @Test
+    public void sharedAlgorithmsMatchSerialRuns() throws Exception {
+
+        List< SteganographyAlgorithm > algorithms = new ArrayList<>();
+
+        for( String name : SteganographyAlgorithmFactory.getAlgorithmNames() ) {
+
+            SteganographyAlgorithm algorithm = SteganographyAlgorithmFactory.getSteganographyAlgorithm( name );
+            algorithms.add( algorithm );
+            algorithms.add( algorithm.withCompression( CompressionMode.NONE ) );
+            algorithms.add( algorithm.withCompression( CompressionMode.FAST ) );
+            algorithms.add( algorithm.withKernels( false ) );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( TASKS );
+
+        try {
+
+            for( SteganographyAlgorithm algorithm : algorithms ) {
+
+                String name = algorithm.getClass().getSimpleName() + ", " + algorithm.getCompression()
+                        + ( algorithm.usesKernels() ? "" : ", no kernels" );
+                List< Future< BufferedImage > > encodings = new ArrayList<>();
+
+                for( int i = 0; i < TASKS; i++ ) {
+
+                    String text = getText( i );
+                    encodings.add( executor.submit( () -> algorithm.encode( text, lena ) ) );
+                }
+
+                List< Future< String > > decodings = new ArrayList<>();
+
+                for( int i = 0; i < TASKS; i++ ) {
+
+                    BufferedImage encoded = encodings.get( i ).get();
+                    assertArrayEquals( name + ", text " + i,
+                            TestImages.getPixels( algorithm.encode( getText( i ), lena ) ),
+                            TestImages.getPixels( encoded ) );
+                    decodings.add( executor.submit( () -> algorithm.decode( encoded ) ) );
+                }
+
+                for( int i = 0; i < TASKS; i++ ) {
+
+                    assertEquals( name + ", text " + i, getText( i ), decodings.get( i ).get() );
+                }
+            }
+
+        } finally {
+
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Make a text of the task, texts of different tasks differ in length and content.
+     *
+     * @param task number of the task
+     *
+     * @return text
+     */
+    private static String getText( int task ) {
+
+        StringBuilder text = new StringBuilder();
+
+        for( int i = 0; i <= task % 4; i++ ) {
+
+            text.append( "Task " ).append( task ).append( ", part " ).append( i ).append( ". " );
+        }
+
+        return text.toString();
+    }
+}
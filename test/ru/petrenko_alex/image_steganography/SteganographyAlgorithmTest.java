@@ -0,0 +1,209 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the methods shared by the algorithms: encoding in place, copying the images and probing the images and the
+ * image files for a payload.
+ */
+public class SteganographyAlgorithmTest {
+
+    /* Text encoded in place and into a copy */
+    private static final String TEXT = "Текст, закодированный на месте и в копию.";
+
+    /* Types of the covers read and written right in their raster arrays */
+    private static final int[] TYPES = { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_ARGB };
+
+    private static final long KEY = 0x5EC12E7L;
+
+    private static BufferedImage lena;
+
+
+    @BeforeClass
+    public static void readCovers() throws Exception {
+
+        lena = TestImages.readRgb( "lena.png" );
+    }
+
+    /**
+     * Encoding right into the cover gives the same image as encoding into a copy: a text, a stream and a payload
+     * held in memory. The payload doesn't compress, so it is stored the same way from the stream and from memory.
+     */
+    @Test
+    public void inPlaceMatchesCopy() throws Exception {
+
+        byte[] payload = TestImages.randomBytes( 100, 2 );
+
+        for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new LeastSignificantBit(),
+                new KutterJordanBossen() } ) {
+
+            for( int type : TYPES ) {
+
+                String name = algorithm.getClass().getSimpleName() + ", type " + type;
+                BufferedImage cover = TestImages.convert( lena, type );
+                int[] encodedText = TestImages.getPixels( algorithm.encode( TEXT, cover ) );
+                int[] encodedPayload = TestImages.getPixels(
+                        algorithm.encode( new ByteArrayInputStream( payload ), cover ) );
+
+                BufferedImage image = TestImages.convert( lena, type );
+                algorithm.encodeInPlace( TEXT, image );
+                assertArrayEquals( name + ", text", encodedText, TestImages.getPixels( image ) );
+
+                image = TestImages.convert( lena, type );
+                algorithm.encodeInPlace( new ByteArrayInputStream( payload ), image );
+                assertArrayEquals( name + ", stream", encodedPayload, TestImages.getPixels( image ) );
+
+                image = TestImages.convert( lena, type );
+                algorithm.encodeInPlace( payload, image );
+                assertArrayEquals( name + ", array", encodedPayload, TestImages.getPixels( image ) );
+            }
+        }
+    }
+
+    /**
+     * A text or a payload held in memory which is too long for the cover leaves the cover untouched.
+     */
+    @Test
+    public void rejectedPayloadLeavesCoverUntouched() throws Exception {
+
+        for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new LeastSignificantBit(),
+                new KutterJordanBossen() } ) {
+
+            String name = algorithm.getClass().getSimpleName();
+            BufferedImage image = TestImages.convert( lena, BufferedImage.TYPE_INT_RGB );
+            int[] pixels = TestImages.getPixels( image );
+            byte[] payload = TestImages.randomBytes( 2 * ( int ) algorithm.capacity( image ) + 1, 3 );
+
+            try {
+
+                algorithm.encodeInPlace( new String( payload, StandardCharsets.ISO_8859_1 ), image );
+                fail( name + ", text" );
+
+            } catch( Exception e ) {
+
+                assertArrayEquals( name + ", text", pixels, TestImages.getPixels( image ) );
+            }
+
+            try {
+
+                algorithm.encodeInPlace( payload, image );
+                fail( name + ", array" );
+
+            } catch( Exception e ) {
+
+                assertArrayEquals( name + ", array", pixels, TestImages.getPixels( image ) );
+            }
+        }
+    }
+
+    /**
+     * A copy of the image has the type and the color model of the image and doesn't share its pixels.
+     */
+    @Test
+    public void copyKeepsTypeAndColorModel() {
+
+        for( int type : TYPES ) {
+
+            BufferedImage image = TestImages.convert( lena, type );
+            image.setRGB( 0, 0, 0x12345678 );
+            BufferedImage copy = new LeastSignificantBit().makeImageCopy( image );
+
+            assertEquals( "type " + type, type, copy.getType() );
+            assertEquals( "type " + type, image.getColorModel(), copy.getColorModel() );
+            assertArrayEquals( "type " + type, TestImages.getPixels( image ), TestImages.getPixels( copy ) );
+
+            copy.setRGB( 0, 0, ~image.getRGB( 0, 0 ) );
+            assertTrue( "type " + type, image.getRGB( 0, 0 ) != copy.getRGB( 0, 0 ) );
+        }
+    }
+
+    /**
+     * A file gives the metadata of the image it holds: an RGBA and an RGB PNG file read by rows, a BMP file read by
+     * the image readers, and a clean cover. The alpha channel is lost in the RGB files, so their images are probed.
+     */
+    @Test
+    public void fileProbeMatchesImageProbe() throws Exception {
+
+        SteganographyAlgorithm[] algorithms = { new LeastSignificantBit(),
+                new LeastSignificantBit( 3, false, KEY ).withCompression( CompressionMode.NONE ),
+                new LeastSignificantBit( 2, true ), new KutterJordanBossen(),
+                new KutterJordanBossen( KjbParameters.DEFAULT, KEY ) };
+        byte[] payload = TestImages.randomBytes( 100, 1 );
+
+        for( SteganographyAlgorithm algorithm : algorithms ) {
+
+            String name = algorithm.getClass().getSimpleName();
+            BufferedImage cover = TestImages.convert( lena, BufferedImage.TYPE_INT_ARGB );
+            BufferedImage encoded = algorithm.encode( new ByteArrayInputStream( payload ), cover );
+
+            BufferedImage rgb = TestImages.convert( encoded, BufferedImage.TYPE_3BYTE_BGR );
+            File bmp = TestImages.newTemporaryFile();
+            ImageIO.write( rgb, "bmp", bmp );
+
+            assertTrue( name, algorithm.probe( encoded ) != null );
+            assertSameInfo( name + ", RGBA PNG", algorithm.probe( encoded ),
+                    algorithm.probe( TestImages.writeTemporary( encoded ) ) );
+            assertSameInfo( name + ", RGB PNG", algorithm.probe( rgb ),
+                    algorithm.probe( TestImages.writeTemporary( rgb ) ) );
+            assertSameInfo( name + ", BMP", algorithm.probe( rgb ), algorithm.probe( bmp ) );
+            assertSameInfo( name + ", cover", algorithm.probe( lena ),
+                    algorithm.probe( TestImages.writeTemporary( lena ) ) );
+        }
+    }
+
+    /**
+     * The samples encoded by the first versions of the algorithms are probed as the legacy format.
+     */
+    @Test
+    public void baselineFilesAreLegacy() throws Exception {
+
+        for( SteganographyAlgorithm algorithm : new SteganographyAlgorithm[]{ new LeastSignificantBit(),
+                new KutterJordanBossen() } ) {
+
+            String name = "lena[encoded," + algorithm.getClass().getSimpleName() + "].png";
+            PayloadInfo info = algorithm.probe( new File( "samples", name ) );
+
+            assertTrue( name, info != null && info.isLegacy() );
+            assertSameInfo( name, algorithm.probe( TestImages.read( name ) ), info );
+        }
+    }
+
+    /**
+     * Check that two probes give the same metadata.
+     *
+     * @param message  message of the failure
+     * @param expected expected metadata or null
+     * @param actual   actual metadata or null
+     */
+    private static void assertSameInfo( String message, PayloadInfo expected, PayloadInfo actual ) {
+
+        if( expected == null || actual == null ) {
+
+            assertTrue( message, expected == actual );
+            return;
+        }
+
+        assertEquals( message, expected.getAlgorithm(), actual.getAlgorithm() );
+        assertEquals( message, expected.getVersion(), actual.getVersion() );
+        assertEquals( message, expected.isLegacy(), actual.isLegacy() );
+        assertEquals( message, expected.getLength(), actual.getLength() );
+        assertEquals( message, expected.isBinary(), actual.isBinary() );
+        assertEquals( message, expected.isCompressed(), actual.isCompressed() );
+        assertEquals( message, expected.isKeyed(), actual.isKeyed() );
+        assertEquals( message, expected.getConfidence(), actual.getConfidence(), 0 );
+    }
+}
@@ -0,0 +1,88 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of reading image files by strips.
+ */
+public class StripReaderTest {
+
+    /* Height of the strips and the number of rows shared by the neighbouring strips */
+    private static final int STRIP_HEIGHT = 100;
+    private static final int MARGIN = 7;
+
+    private static BufferedImage lena;
+
+
+    @BeforeClass
+    public static void readCovers() throws Exception {
+
+        lena = TestImages.readRgb( "lena.png" );
+    }
+
+    /**
+     * Overlapping strips going down the image and a strip above them give the pixels of the whole image, whether
+     * the PNG is read row by row (RGB and RGBA) or by the <code>ImageReader</code> (gray).
+     */
+    @Test
+    public void stripsMatchWholeImage() throws Exception {
+
+        BufferedImage translucent = TestImages.convert( lena, BufferedImage.TYPE_INT_ARGB );
+        for( int y = 0; y < translucent.getHeight(); y++ ) {
+
+            for( int x = 0; x < translucent.getWidth(); x++ ) {
+
+                translucent.setRGB( x, y, ( translucent.getRGB( x, y ) & 0xFFFFFF ) | ( ( ( x + y ) & 0xFF ) << 24 ) );
+            }
+        }
+
+        File[] files = { TestImages.writeTemporary( lena ), TestImages.writeTemporary( translucent ),
+                new File( "samples/lena.png" ) };
+
+        for( File file : files ) {
+
+            BufferedImage image = ImageFiles.read( file );
+
+            try( StripReader reader = new StripReader( file ) ) {
+
+                int height = reader.getHeight();
+                assertEquals( image.getWidth(), reader.getWidth() );
+                assertEquals( image.getHeight(), height );
+
+                for( int y = 0; y < height; y += STRIP_HEIGHT ) {
+
+                    int top = Math.max( 0, y - MARGIN );
+                    int bottom = Math.min( height, y + STRIP_HEIGHT + MARGIN );
+                    assertStrip( file + ", row " + top, image, top, reader.read( top, bottom - top ) );
+                }
+
+                assertStrip( file + ", back to row 10", image, 10, reader.read( 10, STRIP_HEIGHT ) );
+            }
+        }
+    }
+
+    /**
+     * Check that the strip has the pixels of the image rows.
+     *
+     * @param message  message of the failure
+     * @param image    whole image
+     * @param firstRow index of the first row of the strip
+     * @param strip    strip read
+     */
+    private static void assertStrip( String message, BufferedImage image, int firstRow, BufferedImage strip ) {
+
+        int width = image.getWidth();
+        int numOfRows = strip.getHeight();
+
+        assertArrayEquals( message, image.getRGB( 0, firstRow, width, numOfRows, null, 0, width ),
+                strip.getRGB( 0, 0, width, numOfRows, null, 0, width ) );
+    }
+}
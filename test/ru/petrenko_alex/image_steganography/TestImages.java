@@ -0,0 +1,173 @@
+package ru.petrenko_alex.image_steganography;
+
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Cover images and payloads shared by the tests.<br>
+ * <p>
+ * The samples are read from the <code>samples</code> directory of the project, so the tests run from the project
+ * directory.
+ */
+final class TestImages {
+
+    /* Directory of the sample images */
+    private static final File SAMPLES = new File( "samples" );
+
+
+    private TestImages() {
+    }
+
+    /**
+     * Read a sample image as an RGB image.<br>
+     * <p>
+     * The samples are gray, so the gray value of every pixel goes into all the color components.
+     *
+     * @param name file name of the sample
+     *
+     * @return RGB image
+     *
+     * @throws IOException thrown if the sample can't be read
+     */
+    static BufferedImage readRgb( String name ) throws IOException {
+
+        BufferedImage gray = ImageIO.read( new File( SAMPLES, name ) );
+        BufferedImage rgb = new BufferedImage( gray.getWidth(), gray.getHeight(), BufferedImage.TYPE_INT_RGB );
+
+        for( int y = 0; y < gray.getHeight(); y++ ) {
+
+            for( int x = 0; x < gray.getWidth(); x++ ) {
+
+                int value = gray.getRaster().getSample( x, y, 0 );
+                rgb.setRGB( x, y, ( value << 16 ) | ( value << 8 ) | value );
+            }
+        }
+
+        return rgb;
+    }
+
+    /**
+     * Copy the image into an image of another type.
+     *
+     * @param image source image
+     * @param type  type of the copy, one of <code>BufferedImage.TYPE_*</code>
+     *
+     * @return copy of the image
+     */
+    static BufferedImage convert( BufferedImage image, int type ) {
+
+        BufferedImage result = new BufferedImage( image.getWidth(), image.getHeight(), type );
+
+        for( int y = 0; y < image.getHeight(); y++ ) {
+
+            for( int x = 0; x < image.getWidth(); x++ ) {
+
+                result.setRGB( x, y, image.getRGB( x, y ) );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the ARGB values of all the pixels of the image row by row.
+     *
+     * @param image image
+     *
+     * @return pixel values
+     */
+    static int[] getPixels( BufferedImage image ) {
+
+        return image.getRGB( 0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth() );
+    }
+
+    /**
+     * Write the image to a temporary PNG file deleted on exit.
+     *
+     * @param image image to write
+     *
+     * @return written file
+     *
+     * @throws IOException thrown if the file can't be written
+     */
+    static File writeTemporary( BufferedImage image ) throws IOException {
+
+        File file = newTemporaryFile();
+        ImageIO.write( image, "png", file );
+        return file;
+    }
+
+    /**
+     * Make a temporary PNG file name deleted on exit.
+     *
+     * @return temporary file
+     *
+     * @throws IOException thrown if the file can't be made
+     */
+    static File newTemporaryFile() throws IOException {
+
+        File file = File.createTempFile( "steganography", ".png" );
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Change the brightness of the image.
+     *
+     * @param image  source image
+     * @param factor factor every color component is multiplied by
+     *
+     * @return RGB image of the changed brightness
+     */
+    static BufferedImage changeBrightness( BufferedImage image, double factor ) {
+
+        BufferedImage result = new BufferedImage( image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB );
+
+        for( int y = 0; y < image.getHeight(); y++ ) {
+
+            for( int x = 0; x < image.getWidth(); x++ ) {
+
+                int rgb = image.getRGB( x, y );
+                int red = ( int ) ( ( ( rgb >> 16 ) & 0xFF ) * factor );
+                int green = ( int ) ( ( ( rgb >> 8 ) & 0xFF ) * factor );
+                int blue = ( int ) ( ( rgb & 0xFF ) * factor );
+                result.setRGB( x, y, ( red << 16 ) | ( green << 8 ) | blue );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Read a sample image as it is stored.
+     *
+     * @param name file name of the sample
+     *
+     * @return image
+     *
+     * @throws IOException thrown if the sample can't be read
+     */
+    static BufferedImage read( String name ) throws IOException {
+
+        return ImageIO.read( new File( SAMPLES, name ) );
+    }
+
+    /**
+     * Make a random payload which doesn't compress.
+     *
+     * @param length payload length in bytes
+     * @param seed   seed of the random bytes
+     *
+     * @return payload
+     */
+    static byte[] randomBytes( int length, long seed ) {
+
+        byte[] bytes = new byte[ length ];
+        new Random( seed ).nextBytes( bytes );
+        return bytes;
+    }
+}